@@ -0,0 +1,192 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.util.PrivilegeConstants;
+
+/**
+ * Builds the report forms for and submits case reports that are flagged for auto submission. The
+ * reports are processed by a bounded pool of worker threads whose size is set by the
+ * {@link CaseReportConstants#GP_AUTO_SUBMIT_POOL_SIZE} global property, each report is submitted in
+ * its own session and transaction so that a failure for one report doesn't affect the others. A
+ * pool size of 1 processes the reports one after the other in the calling thread. The report forms
+ * are built up front for all the reports at once by the {@link CaseReportFormBuilder}.
+ */
+public class AutoSubmitter {
+	
+	protected static final Log log = LogFactory.getLog(AutoSubmitter.class);
+	
+	//Matches the default value of the global property in config.xml
+	private static final int DEFAULT_POOL_SIZE = 4;
+	
+	private static final String[] PROXY_PRIVILEGES = { CaseReportConstants.PRIV_GET_CASE_REPORTS,
+	        CaseReportConstants.PRIV_MANAGE_CASE_REPORTS, CaseReportConstants.PRIV_GET_TRIGGERS,
+	        PrivilegeConstants.VIEW_PATIENTS, PrivilegeConstants.VIEW_PERSONS, PrivilegeConstants.VIEW_OBS,
+	        PrivilegeConstants.VIEW_ORDERS, PrivilegeConstants.VIEW_ENCOUNTERS, PrivilegeConstants.VIEW_VISITS,
+	        PrivilegeConstants.VIEW_CONCEPTS, PrivilegeConstants.VIEW_PROVIDERS, PrivilegeConstants.VIEW_LOCATIONS,
+	        PrivilegeConstants.VIEW_GLOBAL_PROPERTIES };
+	
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	
+	/**
+	 * Builds the report forms for and submits the case reports with the specified ids, a summary of
+	 * the throughput and failures is logged at the end.
+	 *
+	 * @param caseReportIds the ids of the case reports to submit
+	 * @return the number of case reports that failed to be submitted
+	 */
+	public static int submit(List<Integer> caseReportIds) {
+		if (caseReportIds.isEmpty()) {
+			return 0;
+		}
+		
+		int poolSize = Math.min(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_AUTO_SUBMIT_POOL_SIZE,
+		    DEFAULT_POOL_SIZE), caseReportIds.size());
+		long start = System.currentTimeMillis();
+		Map<Integer, String> caseReportIdFormMap = buildForms(caseReportIds);
+		int failures = 0;
+		if (poolSize <= 1) {
+			for (Integer caseReportId : caseReportIds) {
+				if (!submit(caseReportId, caseReportIdFormMap.get(caseReportId))) {
+					failures++;
+				}
+			}
+		} else {
+			failures = submitInParallel(caseReportIds, caseReportIdFormMap, poolSize);
+		}
+		
+		long duration = Math.max(System.currentTimeMillis() - start, 1);
+		int submitted = caseReportIds.size() - failures;
+		log.info("Auto submitted " + submitted + " of " + caseReportIds.size() + " case report(s) in " + duration
+		        + "ms using " + Math.max(poolSize, 1) + " worker(s), " + (submitted * 1000 / duration)
+		        + " report(s)/sec, " + failures + " failure(s)");
+		
+		return failures;
+	}
+	
+	/**
+	 * Builds and serializes the report forms of the case reports with the specified ids, the reports
+	 * whose forms fail to be built are left out so that building them again at submission reports
+	 * the error for each of them.
+	 */
+	private static Map<Integer, String> buildForms(List<Integer> caseReportIds) {
+		Map<Integer, String> caseReportIdFormMap = new HashMap<>();
+		try {
+			CaseReportService service = Context.getService(CaseReportService.class);
+			List<CaseReport> caseReports = new ArrayList<>(caseReportIds.size());
+			for (Integer caseReportId : caseReportIds) {
+				caseReports.add(service.getCaseReport(caseReportId));
+			}
+			for (Map.Entry<CaseReport, CaseReportForm> entry : CaseReportFormBuilder.build(caseReports).entrySet()) {
+				caseReportIdFormMap.put(entry.getKey().getId(), CaseReportFormCodec.write(entry.getValue()));
+			}
+		}
+		catch (Exception e) {
+			log.warn("Failed to build the report forms in batch, they will be built one at a time", e);
+		}
+		
+		return caseReportIdFormMap;
+	}
+	
+	private static int submitInParallel(List<Integer> caseReportIds, final Map<Integer, String> caseReportIdFormMap,
+	                                    int poolSize) {
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "casereport-auto-submit-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		List<Future<Boolean>> futures = new ArrayList<>(caseReportIds.size());
+		try {
+			for (final Integer caseReportId : caseReportIds) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+					
+					@Override
+					public Boolean call() {
+						//Each worker gets its own user context since a user context isn't thread safe, the
+						//privileges it needs are granted as proxy privileges that go away with the session
+						Context.openSession();
+						try {
+							for (String privilege : PROXY_PRIVILEGES) {
+								Context.addProxyPrivilege(privilege);
+							}
+							return submit(caseReportId, caseReportIdFormMap.get(caseReportId));
+						}
+						finally {
+							Context.closeSession();
+						}
+					}
+				}));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		int failures = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				if (!futures.get(i).get()) {
+					failures++;
+				}
+			}
+			catch (InterruptedException e) {
+				log.warn("Interrupted while waiting for case reports to be auto submitted");
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				return failures + (futures.size() - i);
+			}
+			catch (ExecutionException e) {
+				log.warn("Failed to auto submit case report with id: " + caseReportIds.get(i), e.getCause());
+				failures++;
+			}
+		}
+		
+		return failures;
+	}
+	
+	private static boolean submit(Integer caseReportId, String reportForm) {
+		CaseReport caseReport = null;
+		try {
+			CaseReportService service = Context.getService(CaseReportService.class);
+			caseReport = service.getCaseReport(caseReportId);
+			if (reportForm == null) {
+				reportForm = CaseReportFormCodec.write(new CaseReportForm(caseReport));
+			}
+			caseReport.setReportForm(reportForm);
+			service.submitCaseReport(caseReport);
+			return true;
+		}
+		catch (Throwable t) {
+			log.warn("Failed to auto submit " + (caseReport != null ? caseReport : "case report #" + caseReportId), t);
+		}
+		return false;
+	}
+}
@@ -14,6 +14,7 @@ import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.openmrs.BaseOpenmrsData;
@@ -39,10 +40,16 @@ public class CaseReport extends BaseOpenmrsData implements Serializable {
 	
 	private String reportForm;
 	
+	private String reportFormHash;
+	
 	private boolean autoSubmitted = Boolean.FALSE;
 	
 	private Date resolutionDate;
 	
+	private String prefetchedForm;
+	
+	private Date datePrefetched;
+	
 	public CaseReport() {
 	}
 	
@@ -109,6 +116,26 @@ public class CaseReport extends BaseOpenmrsData implements Serializable {
 		this.reportForm = reportForm;
 	}
 	
+	/**
+	 * @return the content hash of the report form as it was last saved
+	 */
+	public String getReportFormHash() {
+		return reportFormHash;
+	}
+	
+	public void setReportFormHash(String reportFormHash) {
+		this.reportFormHash = reportFormHash;
+	}
+	
+	/**
+	 * Computes the content hash of the current report form
+	 * 
+	 * @return the hash or null if there is no report form
+	 */
+	public String computeReportFormHash() {
+		return reportForm == null ? null : DigestUtils.sha256Hex(reportForm);
+	}
+	
 	public boolean getAutoSubmitted() {
 		return autoSubmitted;
 	}
@@ -125,6 +152,25 @@ public class CaseReport extends BaseOpenmrsData implements Serializable {
 		this.resolutionDate = resolutionDate;
 	}
 	
+	/**
+	 * @return the report form that was built in the background by {@link ReportFormPrefetcher}
+	 */
+	public String getPrefetchedForm() {
+		return prefetchedForm;
+	}
+	
+	public void setPrefetchedForm(String prefetchedForm) {
+		this.prefetchedForm = prefetchedForm;
+	}
+	
+	public Date getDatePrefetched() {
+		return datePrefetched;
+	}
+	
+	public void setDatePrefetched(Date datePrefetched) {
+		this.datePrefetched = datePrefetched;
+	}
+	
 	public boolean isSubmitted() {
 		return getStatus() == Status.SUBMITTED;
 	}
@@ -16,6 +16,8 @@ import org.openmrs.Concept;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
 import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
@@ -27,12 +29,14 @@ import org.openmrs.scheduler.TaskDefinition;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
-public class CaseReportActivator extends BaseModuleActivator {
+public class CaseReportActivator extends BaseModuleActivator implements DaemonTokenAware {
 
     protected Log log = LogFactory.getLog(getClass());
 
@@ -53,11 +57,25 @@ public class CaseReportActivator extends BaseModuleActivator {
      * <strong>Should</strong> ignore a cohort query with a duplicate name
      * <strong>Should</strong> save a cohort queries with a name that matches a retired duplicate
      * <strong>Should</strong> load queries and register them with the reporting module
+     * <strong>Should</strong> add the watermark parameters referenced by the query
+     * <strong>Should</strong> fail for a query with an invalid change probe
+     * <strong>Should</strong> set the change probe of the case report task
+     * <strong>Should</strong> set the max reports per run of the case report task
+     * <strong>Should</strong> set the query timeout of the case report task
+     * <strong>Should</strong> add the missing properties to an existing case report task
      * <strong>Should</strong> add the case report tasks if they do not exist
+     * <strong>Should</strong> add the fused trigger evaluation task if it does not exist
+     * <strong>Should</strong> add the report form prefetch task if it does not exist
+     * <strong>Should</strong> add the patient summary rebuild task if it does not exist
+     * <strong>Should</strong> add the form storage migration task if it does not exist
      * @see ModuleActivator#contextRefreshed()
      */
     public void contextRefreshed() {
         loadQueries();
+        addFusedTaskIfNecessary();
+        addPrefetchTaskIfNecessary();
+        addSummaryRebuildTaskIfNecessary();
+        addStorageMigrationTaskIfNecessary();
         log.info("Case Report Module refreshed");
     }
 
@@ -93,6 +111,8 @@ public class CaseReportActivator extends BaseModuleActivator {
                 }
             }
             if (nonRetiredQueries.size() > 0) {
+                //Tasks registered by an older version of the module don't have the newer properties
+                addMissingTaskProperties(cohortQuery);
                 continue;
             }
 
@@ -116,6 +136,18 @@ public class CaseReportActivator extends BaseModuleActivator {
                 String label = Context.getMessageSourceService().getMessage("casereport.lastExecutionTime");
                 definition.addParameter(new Parameter(CaseReportConstants.LAST_EXECUTION_TIME, label, Date.class));
             }
+            if (cohortQuery.getSql().indexOf(":" + CaseReportConstants.EXECUTION_TIME) > -1) {
+                String label = Context.getMessageSourceService().getMessage("casereport.executionTime");
+                definition.addParameter(new Parameter(CaseReportConstants.EXECUTION_TIME, label, Date.class));
+            }
+            for (WatermarkType type : WatermarkType.values()) {
+                for (String param : new String[]{type.getLastIdParameter(), type.getMaxIdParameter()}) {
+                    if (cohortQuery.getSql().indexOf(":" + param) > -1) {
+                        String label = Context.getMessageSourceService().getMessage("casereport." + param);
+                        definition.addParameter(new Parameter(param, label, Long.class));
+                    }
+                }
+            }
             String obsConcept = "";
             String obsvalueCoded = "";
             if (cohortQuery.getConceptMappings() != null) {
@@ -132,12 +164,63 @@ public class CaseReportActivator extends BaseModuleActivator {
             }
             DefinitionContext.saveDefinition(definition);
             addSchedulerTaskIfNecessary(cohortQuery.getName(), conceptStr, cohortQuery.getRepeatInterval(),
-                    cohortQuery.getAutoSubmit(), obsConcept, obsvalueCoded);
+                    cohortQuery.getAutoSubmit(), obsConcept, obsvalueCoded, getTaskProperties(cohortQuery));
+        }
+    }
+
+    /**
+     * Gets the optional task properties set from the fields of the specified cohort query
+     */
+    private Map<String, String> getTaskProperties(SqlCohortQuery cohortQuery) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        if (cohortQuery.getChangeProbe() != null) {
+            List<String> types = new ArrayList<String>(cohortQuery.getChangeProbe().size());
+            for (String name : cohortQuery.getChangeProbe()) {
+                types.add(TriggerChangeProbe.getProbedType(name).name());
+            }
+            if (!types.isEmpty()) {
+                properties.put(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY, StringUtils.join(types, ","));
+            }
+        }
+        Integer maxReportsPerRun = cohortQuery.getMaxReportsPerRun();
+        if (maxReportsPerRun != null && maxReportsPerRun > 0) {
+            properties.put(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY, maxReportsPerRun.toString());
+        }
+        Integer timeoutSeconds = cohortQuery.getTimeoutSeconds();
+        if (timeoutSeconds != null && timeoutSeconds > 0) {
+            properties.put(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY, timeoutSeconds.toString());
+        }
+
+        return properties;
+    }
+
+    /**
+     * Adds to the existing task of the specified cohort query the optional properties it doesn't have
+     * yet, the properties that are already set are left as they are since they could have been
+     * changed by an administrator.
+     */
+    private void addMissingTaskProperties(SqlCohortQuery cohortQuery) {
+        SchedulerService ss = Context.getSchedulerService();
+        TaskDefinition td = ss.getTaskByName(cohortQuery.getName());
+        if (td == null) {
+            return;
+        }
+
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : getTaskProperties(cohortQuery).entrySet()) {
+            if (td.getProperty(entry.getKey()) == null) {
+                td.setProperty(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        if (changed) {
+            ss.saveTaskDefinition(td);
         }
     }
 
     private void addSchedulerTaskIfNecessary(String name, String concept, Long repeatInterval, Boolean autoSubmit,
-                                             String obsConcept, String obsvalueCoded) {
+                                             String obsConcept, String obsvalueCoded,
+                                             Map<String, String> properties) {
 
         SchedulerService ss = Context.getSchedulerService();
         String className = CaseReportTask.class.getName();
@@ -155,6 +238,9 @@ public class CaseReportActivator extends BaseModuleActivator {
             if (Boolean.TRUE.equals(autoSubmit)) {
                 td.setProperty(CaseReportConstants.AUTO_SUBMIT_TASK_PROPERTY, "true");
             }
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                td.setProperty(entry.getKey(), entry.getValue());
+            }
             if (td.getRepeatInterval() == null) {
                 td.setRepeatInterval(0L);
             }
@@ -162,6 +248,58 @@ public class CaseReportActivator extends BaseModuleActivator {
         }
     }
 
+    private void addFusedTaskIfNecessary() {
+        SchedulerService ss = Context.getSchedulerService();
+        if (ss.getTaskByName(CaseReportConstants.FUSED_TASK_NAME) == null) {
+            String description = Context.getMessageSourceService().getMessage(
+                    "casereport.description.fusedSchedulerTask");
+            TaskDefinition td = new TaskDefinition(null, CaseReportConstants.FUSED_TASK_NAME, description,
+                    FusedCaseReportTask.class.getName());
+            td.setStartOnStartup(false);
+            td.setRepeatInterval(180L);
+            ss.saveTaskDefinition(td);
+        }
+    }
+
+    private void addPrefetchTaskIfNecessary() {
+        SchedulerService ss = Context.getSchedulerService();
+        if (ss.getTaskByName(CaseReportConstants.PREFETCH_TASK_NAME) == null) {
+            String description = Context.getMessageSourceService().getMessage(
+                    "casereport.description.prefetchSchedulerTask");
+            TaskDefinition td = new TaskDefinition(null, CaseReportConstants.PREFETCH_TASK_NAME, description,
+                    ReportFormPrefetchTask.class.getName());
+            td.setStartOnStartup(false);
+            td.setRepeatInterval(60L);
+            ss.saveTaskDefinition(td);
+        }
+    }
+
+    private void addSummaryRebuildTaskIfNecessary() {
+        SchedulerService ss = Context.getSchedulerService();
+        if (ss.getTaskByName(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME) == null) {
+            String description = Context.getMessageSourceService().getMessage(
+                    "casereport.description.summaryRebuildSchedulerTask");
+            TaskDefinition td = new TaskDefinition(null, CaseReportConstants.SUMMARY_REBUILD_TASK_NAME, description,
+                    PatientClinicalSummaryRebuildTask.class.getName());
+            td.setStartOnStartup(false);
+            td.setRepeatInterval(86400L);
+            ss.saveTaskDefinition(td);
+        }
+    }
+
+    private void addStorageMigrationTaskIfNecessary() {
+        SchedulerService ss = Context.getSchedulerService();
+        if (ss.getTaskByName(CaseReportConstants.FORM_STORAGE_MIGRATION_TASK_NAME) == null) {
+            String description = Context.getMessageSourceService().getMessage(
+                    "casereport.description.storageMigrationSchedulerTask");
+            TaskDefinition td = new TaskDefinition(null, CaseReportConstants.FORM_STORAGE_MIGRATION_TASK_NAME,
+                    description, ReportFormStorageMigrationTask.class.getName());
+            td.setStartOnStartup(false);
+            td.setRepeatInterval(0L);
+            ss.saveTaskDefinition(td);
+        }
+    }
+
     /**
      * @see ModuleActivator#willStart()
      */
@@ -173,6 +311,9 @@ public class CaseReportActivator extends BaseModuleActivator {
      * @see ModuleActivator#started()
      */
     public void started() {
+        TriggerEventDispatcher.start();
+        PatientClinicalSummaries.start();
+        ReportFormStorageCodec.start();
         log.info("Case Report Module started");
     }
 
@@ -181,12 +322,25 @@ public class CaseReportActivator extends BaseModuleActivator {
      */
     public void willStop() {
         log.info("Stopping Case Report Module");
+        TriggerEventDispatcher.stop();
+    }
+
+    /**
+     * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+     */
+    @Override
+    public void setDaemonToken(DaemonToken token) {
+        TriggerEventDispatcher.setDaemonToken(token);
     }
 
     /**
      * @see ModuleActivator#stopped()
      */
     public void stopped() {
+        PatientClinicalSummaries.stop();
+        ReportFormStorageCodec.stop();
+        ReplicaCohortEvaluator.close();
+        ClusterLeases.stop();
         log.info("Case Report Module stopped");
     }
 
@@ -16,8 +16,14 @@ public class CaseReportConstants {
 	
 	public static final String MODULE_ID = "casereport";
 	
+	/**
+	 * @deprecated SimpleDateFormat isn't thread safe, use {@link #DATE_FORMAT} instead
+	 */
+	@Deprecated
 	public static final DateFormat DATE_FORMATTER = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 	
+	public static final ThreadSafeDateFormat DATE_FORMAT = new ThreadSafeDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	
 	public static final String TRIGGER_PATIENT_DIED = "Patient Died";
 	
 	public static final String TRIGGER_NAME_TASK_PROPERTY = "Trigger Name";
@@ -26,8 +32,78 @@ public class CaseReportConstants {
 	
 	public static final String AUTO_SUBMIT_TASK_PROPERTY = "Auto Submit";
 	
+	public static final String CHECKPOINT_PATIENT_ID_TASK_PROPERTY = "Checkpoint Patient Id";
+	
+	public static final String CHECKPOINT_WINDOW_START_TASK_PROPERTY = "Checkpoint Window Start";
+	
+	public static final String CHECKPOINT_WINDOW_END_TASK_PROPERTY = "Checkpoint Window End";
+	
+	public static final String MAX_REPORTS_PER_RUN_TASK_PROPERTY = "Max Reports Per Run";
+	
+	public static final String CHANGE_PROBE_TASK_PROPERTY = "Change Probe";
+	
+	public static final String CHANGE_PROBE_VALUE_TASK_PROPERTY = "Change Probe Value";
+	
+	public static final String QUIET_RUNS_TASK_PROPERTY = "Quiet Runs";
+	
+	public static final String NEXT_PROBE_TIME_TASK_PROPERTY = "Next Probe Time";
+	
+	public static final String QUERY_TIMEOUT_TASK_PROPERTY = "Query Timeout Seconds";
+	
+	public static final String CONSECUTIVE_TIMEOUTS_TASK_PROPERTY = "Consecutive Timeouts";
+	
+	public static final String QUARANTINED_UNTIL_TASK_PROPERTY = "Quarantined Until";
+	
 	public static final String GP_AUTO_SUBMIT_PROVIDER_UUID = MODULE_ID + ".autoSubmitProviderUuid";
 	
+	public static final String GP_AUTO_SUBMIT_POOL_SIZE = MODULE_ID + ".autoSubmitPoolSize";
+	
+	public static final String GP_MAX_CONCURRENT_TRIGGER_EVALUATIONS = MODULE_ID + ".maxConcurrentTriggerEvaluations";
+	
+	public static final String GP_TRIGGER_CHUNK_SIZE = MODULE_ID + ".triggerChunkSize";
+	
+	public static final String GP_EVENT_DRIVEN_TRIGGERS = MODULE_ID + ".eventDrivenTriggers";
+	
+	public static final String GP_EVENT_DEBOUNCE_SECONDS = MODULE_ID + ".eventDebounceSeconds";
+	
+	public static final String GP_EVENT_DRIVEN_SAFETY_NET_INTERVAL = MODULE_ID + ".eventDrivenSafetyNetInterval";
+	
+	public static final String GP_FUSED_TRIGGER_EVALUATION = MODULE_ID + ".fusedTriggerEvaluation";
+	
+	public static final String GP_CHANGE_PROBE_MAX_BACKOFF = MODULE_ID + ".changeProbeMaxBackoff";
+	
+	public static final String GP_CATCH_UP_SLICE_HOURS = MODULE_ID + ".catchUpSliceHours";
+	
+	public static final String GP_CATCH_UP_PARALLEL_SLICES = MODULE_ID + ".catchUpParallelSlices";
+	
+	public static final String GP_WATERMARK_SAFETY_MARGIN = MODULE_ID + ".watermarkSafetyMargin";
+	
+	public static final String GP_CLUSTER_LEASES = MODULE_ID + ".clusterLeases";
+	
+	public static final String GP_LEASE_DURATION_SECONDS = MODULE_ID + ".leaseDurationSeconds";
+	
+	public static final String GP_TRIGGER_SHARDS = MODULE_ID + ".triggerShards";
+	
+	public static final String GP_REPLICA_MAX_STALENESS_SECONDS = MODULE_ID + ".replicaMaxStalenessSeconds";
+	
+	public static final String GP_QUERY_TIMEOUT_SECONDS = MODULE_ID + ".queryTimeoutSeconds";
+	
+	public static final String GP_QUARANTINE_AFTER_TIMEOUTS = MODULE_ID + ".quarantineAfterTimeouts";
+	
+	public static final String GP_QUARANTINE_MAX_BACKOFF = MODULE_ID + ".quarantineMaxBackoff";
+	
+	public static final String GP_PATIENT_CLINICAL_SUMMARIES = MODULE_ID + ".patientClinicalSummaries";
+	
+	public static final String GP_COMPRESS_REPORT_FORMS = MODULE_ID + ".compressReportForms";
+	
+	public static final String FUSED_TASK_NAME = "Case Report Fused Trigger Evaluation";
+	
+	public static final String PREFETCH_TASK_NAME = "Case Report Form Prefetch";
+	
+	public static final String SUMMARY_REBUILD_TASK_NAME = "Case Report Patient Summary Rebuild";
+	
+	public static final String FORM_STORAGE_MIGRATION_TASK_NAME = "Case Report Form Storage Migration";
+	
 	public static final String PRIV_GET_CASE_REPORTS = "Get Case Reports";
 	
 	public static final String PRIV_MANAGE_CASE_REPORTS = "Manage Case Reports";
@@ -36,6 +112,8 @@ public class CaseReportConstants {
 	
 	public static final String LAST_EXECUTION_TIME = "lastExecutionTime";
 	
+	public static final String EXECUTION_TIME = "executionTime";
+	
 	public static final String CHAR_COMMA = ",";
 	
 	public static final String CHAR_COLON = ":";
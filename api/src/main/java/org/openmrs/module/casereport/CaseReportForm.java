@@ -9,10 +9,11 @@
  */
 package org.openmrs.module.casereport;
 
-import static org.openmrs.module.casereport.CaseReportConstants.DATE_FORMATTER;
+import static org.openmrs.module.casereport.CaseReportConstants.DATE_FORMAT;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -21,7 +22,6 @@ import java.util.List;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.openmrs.DrugOrder;
-import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PersonName;
@@ -34,6 +34,15 @@ import org.openmrs.api.context.Context;
  */
 public class CaseReportForm {
 	
+	private static final int MAX_RECENT_RESULTS = 3;
+	
+	/**
+	 * The CIEL codes of the concepts whose latest obs are included in the report form
+	 */
+	static final String[] CLINICAL_FACT_CIEL_CODES = { CaseReportConstants.CIEL_CODE_CD4_COUNT,
+	        CaseReportConstants.CIEL_CODE_HIV_TEST, CaseReportConstants.CIEL_CODE_VIRAL_LOAD,
+	        CaseReportConstants.CIEL_CODE_WHO_STAGE, CaseReportConstants.CIEL_CODE_REASON_FOR_STOPPING_ARVS };
+	
 	private Comparator<DatedUuidAndValue> comparator = new ValueByDateComparator();
 	
 	private String reportUuid;
@@ -82,16 +91,62 @@ public class CaseReportForm {
 	
 	private String comments;
 	
+	private Integer schemaVersion;
+	
 	public CaseReportForm() {
 	}
 	
 	public CaseReportForm(CaseReport caseReport) {
+		this(caseReport, loadClinicalFacts(Collections.singleton(caseReport.getPatient().getPatientId())),
+		        CaseReportUtil.getActiveArvDrugOrders(caseReport.getPatient(), null), CaseReportUtil
+		                .getLastVisit(caseReport.getPatient()));
+	}
+	
+	/**
+	 * Creates a form for the specified case report from clinical data that was already loaded, it is
+	 * used by {@link CaseReportFormBuilder} to build the forms of many reports at once.
+	 */
+	CaseReportForm(CaseReport caseReport, LatestClinicalFacts facts, List<DrugOrder> arvOrders, Visit visit) {
+		setPatientDetails(caseReport);
+		Integer patientId = caseReport.getPatient().getPatientId();
+		setClinicalDetails(facts.get(patientId, CaseReportConstants.CIEL_CODE_CD4_COUNT),
+		    facts.get(patientId, CaseReportConstants.CIEL_CODE_HIV_TEST),
+		    facts.get(patientId, CaseReportConstants.CIEL_CODE_VIRAL_LOAD), arvOrders,
+		    facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_WHO_STAGE),
+		    facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_REASON_FOR_STOPPING_ARVS), visit);
+	}
+	
+	/**
+	 * Loads the latest clinical facts included in the report forms of the patients with the specified
+	 * ids with a single query
+	 */
+	static LatestClinicalFacts loadClinicalFacts(Collection<Integer> patientIds) {
+		return LatestClinicalFacts.load(patientIds, MAX_RECENT_RESULTS, CLINICAL_FACT_CIEL_CODES);
+	}
+	
+	/**
+	 * Gets the ids of the concepts whose latest obs are included in the report form, the codes that
+	 * aren't mapped to any concept are skipped
+	 */
+	static List<Integer> getClinicalFactConceptIds() {
+		List<Integer> conceptIds = new ArrayList<>();
+		for (String code : CLINICAL_FACT_CIEL_CODES) {
+			Integer conceptId = ConceptMappingCache.getConceptId(code, CaseReportConstants.SOURCE_CIEL_HL7_CODE);
+			if (conceptId != null) {
+				conceptIds.add(conceptId);
+			}
+		}
+		
+		return conceptIds;
+	}
+	
+	private void setPatientDetails(CaseReport caseReport) {
 		setReportUuid(caseReport.getUuid());
 		setReportDate(caseReport.getDateCreated());
 		Patient patient = caseReport.getPatient();
 		setGender(patient.getGender());
 		if (patient.getBirthdate() != null) {
-			setBirthdate(DATE_FORMATTER.format(patient.getBirthdate()));
+			setBirthdate(DATE_FORMAT.format(patient.getBirthdate()));
 		}
 		PersonName name = patient.getPersonName();
 		if (name != null) {
@@ -107,7 +162,7 @@ public class CaseReportForm {
 				        .getName()));
 			}
 			if (patient.getDeathDate() != null) {
-				setDeathdate(DATE_FORMATTER.format(patient.getDeathDate()));
+				setDeathdate(DATE_FORMAT.format(patient.getDeathDate()));
 			}
 		}
 		PatientIdentifier id = patient.getPatientIdentifier();
@@ -118,29 +173,29 @@ public class CaseReportForm {
 		setIdentifierType(new UuidAndValue(id.getIdentifierType().getUuid(), id.getIdentifierType().getName()));
 		
 		for (CaseReportTrigger tr : caseReport.getReportTriggers()) {
-			getTriggers().add(new DatedUuidAndValue(tr.getUuid(), tr.getName(), DATE_FORMATTER.format(tr.getDateCreated())));
+			getTriggers().add(new DatedUuidAndValue(tr.getUuid(), tr.getName(), DATE_FORMAT.format(tr.getDateCreated())));
 		}
-		
-		List<Obs> mostRecentCd4Counts = CaseReportUtil.getMostRecentCD4counts(patient);
-		for (Obs o : mostRecentCd4Counts) {
+	}
+	
+	private void setClinicalDetails(List<ClinicalFact> mostRecentCd4Counts, List<ClinicalFact> mostRecentHivTests,
+	                                List<ClinicalFact> mostRecentViralLoads, List<DrugOrder> arvOrders,
+	                                ClinicalFact mostRecentWHOStage, ClinicalFact mostRecentArvStopReason, Visit visit) {
+		for (ClinicalFact f : mostRecentCd4Counts) {
 			getMostRecentCd4Counts().add(
-			    new DatedUuidAndValue(o.getUuid(), o.getValueNumeric(), DATE_FORMATTER.format(o.getObsDatetime())));
+			    new DatedUuidAndValue(f.getUuid(), f.getValueNumeric(), DATE_FORMAT.format(f.getObsDatetime())));
 		}
 		
-		List<Obs> mostRecentHivTests = CaseReportUtil.getMostRecentHIVTests(patient);
-		for (Obs o : mostRecentHivTests) {
+		for (ClinicalFact f : mostRecentHivTests) {
 			getMostRecentHivTests().add(
-			    new DatedUuidAndValue(o.getUuid(), o.getValueAsString(Context.getLocale()), DATE_FORMATTER.format(o
+			    new DatedUuidAndValue(f.getUuid(), f.getValueAsString(Context.getLocale()), DATE_FORMAT.format(f
 			            .getObsDatetime())));
 		}
 		
-		List<Obs> mostRecentViralLoads = CaseReportUtil.getMostRecentViralLoads(patient);
-		for (Obs o : mostRecentViralLoads) {
+		for (ClinicalFact f : mostRecentViralLoads) {
 			getMostRecentViralLoads().add(
-			    new DatedUuidAndValue(o.getUuid(), o.getValueNumeric(), DATE_FORMATTER.format(o.getObsDatetime())));
+			    new DatedUuidAndValue(f.getUuid(), f.getValueNumeric(), DATE_FORMAT.format(f.getObsDatetime())));
 		}
 		
-		List<DrugOrder> arvOrders = CaseReportUtil.getActiveArvDrugOrders(patient, null);
 		for (DrugOrder drugOrder : arvOrders) {
 			String displayName = "";
 			displayName += drugOrder.getConcept().getDisplayString();
@@ -149,25 +204,22 @@ public class CaseReportForm {
 					displayName += (" (" + drugOrder.getDrug().getName() + ")");
 				}
 			}
-			String dateActivated = DATE_FORMATTER.format(drugOrder.getDateActivated());
+			String dateActivated = DATE_FORMAT.format(drugOrder.getDateActivated());
 			getCurrentHivMedications().add(new DatedUuidAndValue(drugOrder.getDrug().getUuid(), displayName, dateActivated));
 		}
 		
-		Obs mostRecentWHOStageObs = CaseReportUtil.getMostRecentWHOStage(patient);
-		if (mostRecentWHOStageObs != null) {
-			setCurrentHivWhoStage(new UuidAndValue(mostRecentWHOStageObs.getUuid(),
-			        mostRecentWHOStageObs.getValueAsString(Context.getLocale())));
+		if (mostRecentWHOStage != null) {
+			setCurrentHivWhoStage(new UuidAndValue(mostRecentWHOStage.getUuid(),
+			        mostRecentWHOStage.getValueAsString(Context.getLocale())));
 		}
 		
-		Obs mostRecentArvStopReasonObs = CaseReportUtil.getMostRecentReasonARVsStopped(patient);
-		if (mostRecentArvStopReasonObs != null) {
-			setMostRecentArvStopReason(new UuidAndValue(mostRecentArvStopReasonObs.getUuid(),
-			        mostRecentArvStopReasonObs.getValueAsString(Context.getLocale())));
+		if (mostRecentArvStopReason != null) {
+			setMostRecentArvStopReason(new UuidAndValue(mostRecentArvStopReason.getUuid(),
+			        mostRecentArvStopReason.getValueAsString(Context.getLocale())));
 		}
 		
-		Visit visit = CaseReportUtil.getLastVisit(patient);
 		if (visit != null) {
-			setLastVisitDate(new UuidAndValue(visit.getUuid(), DATE_FORMATTER.format(visit.getStartDatetime())));
+			setLastVisitDate(new UuidAndValue(visit.getUuid(), DATE_FORMAT.format(visit.getStartDatetime())));
 		}
 	}
 	
@@ -389,6 +441,14 @@ public class CaseReportForm {
 		this.comments = comments;
 	}
 	
+	public Integer getSchemaVersion() {
+		return schemaVersion;
+	}
+	
+	public void setSchemaVersion(Integer schemaVersion) {
+		this.schemaVersion = schemaVersion;
+	}
+	
 	public DatedUuidAndValue getTriggerByName(String trigger) {
 		for (DatedUuidAndValue uuidAndValue : getTriggers()) {
 			if (trigger.equalsIgnoreCase(uuidAndValue.getValue().toString())) {
@@ -422,8 +482,8 @@ public class CaseReportForm {
 				throw new APIException("Date fields are required by the comparator");
 			}
 			try {
-				Date date1 = DATE_FORMATTER.parse(o1.getDate());
-				Date date2 = DATE_FORMATTER.parse(o2.getDate());
+				Date date1 = DATE_FORMAT.parse(o1.getDate());
+				Date date2 = DATE_FORMAT.parse(o2.getDate());
 				return date1.compareTo(date2);
 			}
 			catch (ParseException e) {
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.DrugOrder;
+import org.openmrs.Visit;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Builds the report forms of many case reports at once, instead of querying the clinical data of
+ * each patient separately like {@link CaseReportForm#CaseReportForm(CaseReport)} does, the patients,
+ * latest clinical facts, active ARV orders and last visits of all the patients are loaded with a
+ * handful of set based queries and the forms are assembled in memory.
+ */
+public class CaseReportFormBuilder {
+	
+	protected static final Log log = LogFactory.getLog(CaseReportFormBuilder.class);
+	
+	/**
+	 * Builds the report forms of the specified case reports, the reports whose forms can't be built
+	 * e.g. for a patient with no active identifier are logged and left out, building their form
+	 * individually reports the error.
+	 *
+	 * @param caseReports the case reports
+	 * @return a map of the case reports and their forms in the same order as the case reports
+	 * <strong>Should</strong> build the same forms as the case report form constructor
+	 * <strong>Should</strong> leave out the reports whose forms can't be built
+	 */
+	public static Map<CaseReport, CaseReportForm> build(Collection<CaseReport> caseReports) {
+		Map<CaseReport, CaseReportForm> reportFormMap = new LinkedHashMap<>();
+		if (caseReports.isEmpty()) {
+			return reportFormMap;
+		}
+		
+		Set<Integer> patientIds = new LinkedHashSet<>();
+		for (CaseReport caseReport : caseReports) {
+			patientIds.add(caseReport.getPatient().getPatientId());
+		}
+		
+		CaseReportService service = Context.getService(CaseReportService.class);
+		//Loads the patients along with their names and identifiers into the session
+		service.getPatients(patientIds);
+		
+		LatestClinicalFacts facts = CaseReportForm.loadClinicalFacts(patientIds);
+		
+		Map<Integer, List<DrugOrder>> patientArvOrdersMap = CaseReportUtil.getActiveArvDrugOrders(patientIds, null);
+		
+		Map<Integer, Visit> patientLastVisitMap = new HashMap<>();
+		for (Visit visit : service.getLastVisits(patientIds)) {
+			patientLastVisitMap.put(visit.getPatient().getPatientId(), visit);
+		}
+		
+		for (CaseReport caseReport : caseReports) {
+			Integer patientId = caseReport.getPatient().getPatientId();
+			List<DrugOrder> arvOrders = patientArvOrdersMap.get(patientId);
+			try {
+				CaseReportForm form = new CaseReportForm(caseReport, facts,
+				        arvOrders != null ? arvOrders : Collections.<DrugOrder> emptyList(),
+				        patientLastVisitMap.get(patientId));
+				reportFormMap.put(caseReport, form);
+			}
+			catch (APIException e) {
+				log.warn("Failed to build the report form for " + caseReport, e);
+			}
+		}
+		
+		return reportFormMap;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openmrs.api.APIException;
+
+/**
+ * Serializes and deserializes {@link CaseReportForm} instances to and from JSON, it is the single
+ * place where the module converts report forms so that every caller uses the same configuration.
+ * The reader and writer are built once and are immutable, therefore they are safe to share between
+ * threads. Forms are written with the current {@link #SCHEMA_VERSION}, forms stored before the
+ * version was introduced have no version and are read as version 1.
+ */
+public final class CaseReportFormCodec {
+	
+	public static final int SCHEMA_VERSION = 1;
+	
+	private static final String SCHEMA_VERSION_FIELD = "schemaVersion";
+	
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
+	private static final ObjectReader reader = mapper.reader(CaseReportForm.class);
+	
+	private static final ObjectWriter writer = mapper.writerWithType(CaseReportForm.class);
+	
+	private CaseReportFormCodec() {
+	}
+	
+	/**
+	 * Deserializes the specified report form
+	 *
+	 * @param json the serialized report form
+	 * @return the report form
+	 * <strong>Should</strong> read a serialized form
+	 * <strong>Should</strong> read a form without a schema version
+	 * <strong>Should</strong> fail for a form with a newer schema version
+	 */
+	public static CaseReportForm read(String json) {
+		CaseReportForm form;
+		try {
+			form = reader.readValue(json);
+		}
+		catch (IOException e) {
+			throw new APIException("Failed to parse case report form data", e);
+		}
+		
+		return checkSchemaVersion(form);
+	}
+	
+	/**
+	 * Deserializes only the specified top level fields of the report form, the parser skips over the
+	 * values of the other fields without building them and stops as soon as all the specified fields
+	 * are read, this is cheaper than reading the entire form when a caller needs one or two fields
+	 * e.g. the triggers.
+	 *
+	 * @param json the serialized report form
+	 * @param fieldNames the names of the fields to read
+	 * @return a report form where only the specified fields are set
+	 * <strong>Should</strong> read only the specified fields
+	 * <strong>Should</strong> fail for a form with a newer schema version
+	 */
+	public static CaseReportForm readFields(String json, String... fieldNames) {
+		Set<String> pending = new HashSet<>(Arrays.asList(fieldNames));
+		pending.add(SCHEMA_VERSION_FIELD);
+		ObjectNode fields = mapper.createObjectNode();
+		try {
+			JsonParser parser = mapper.getJsonFactory().createJsonParser(json);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new APIException("A case report form should be a JSON object");
+				}
+				while (!pending.isEmpty() && parser.nextToken() == JsonToken.FIELD_NAME) {
+					String fieldName = parser.getCurrentName();
+					parser.nextToken();
+					if (pending.remove(fieldName)) {
+						fields.put(fieldName, parser.readValueAsTree());
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+			finally {
+				parser.close();
+			}
+			
+			return checkSchemaVersion(reader.<CaseReportForm> readValue(fields));
+		}
+		catch (IOException e) {
+			throw new APIException("Failed to parse case report form data", e);
+		}
+	}
+	
+	/**
+	 * Serializes the specified report form with the current schema version
+	 *
+	 * @param form the report form to serialize
+	 * @return the serialized report form
+	 * <strong>Should</strong> write the form with the current schema version
+	 */
+	public static String write(CaseReportForm form) {
+		form.setSchemaVersion(SCHEMA_VERSION);
+		try {
+			return writer.writeValueAsString(form);
+		}
+		catch (IOException e) {
+			throw new APIException("Failed to serialize case report form data", e);
+		}
+	}
+	
+	private static CaseReportForm checkSchemaVersion(CaseReportForm form) {
+		if (form.getSchemaVersion() != null && form.getSchemaVersion() > SCHEMA_VERSION) {
+			throw new APIException("Unsupported case report form schema version: " + form.getSchemaVersion());
+		}
+		
+		return form;
+	}
+}
@@ -48,8 +48,43 @@ public class CaseReportTask extends AbstractTask {
 					throw new APIException("The Trigger Name property is required for a Case Report Task");
 				}
 
+				if (CaseReportUtil.isFusedEvaluationEnabled()) {
+					if (log.isDebugEnabled()) {
+						log.debug("Skipping the trigger " + trigger + " since it is evaluated by the fused task");
+					}
+					return;
+				}
+				
+				if (TriggerEventDispatcher.shouldSkipScheduledRun(getTaskDefinition())) {
+					if (log.isDebugEnabled()) {
+						log.debug("Skipping the scheduled run of the event driven trigger: " + trigger);
+					}
+					return;
+				}
+				
+				if (TriggerQuarantine.isQuarantined(getTaskDefinition())) {
+					log.warn("Skipping the degraded trigger " + trigger + " since its query timed out repeatedly");
+					return;
+				}
+				
+				String probeValue = TriggerChangeProbe.probe(getTaskDefinition());
+				if (TriggerChangeProbe.shouldSkip(getTaskDefinition(), probeValue)) {
+					if (log.isDebugEnabled()) {
+						log.debug("Skipping the trigger " + trigger + " since the tables it depends on are unchanged");
+					}
+					return;
+				}
+				
 				System.out.println("CaseReportTask Calling CaseReportUtil.executeTask...");
-				CaseReportUtil.executeTask(getTaskDefinition());
+				try {
+					CaseReportUtil.executeTask(getTaskDefinition());
+				}
+				catch (TriggerQueryTimeoutException e) {
+					TriggerQuarantine.recordTimeout(getTaskDefinition());
+					throw e;
+				}
+				TriggerQuarantine.recordCompleted(getTaskDefinition());
+				TriggerChangeProbe.recordEvaluated(getTaskDefinition(), probeValue);
 				
 				if (log.isDebugEnabled()) {
 					System.out.println("CaseReportTask Case report task executed successfully!");
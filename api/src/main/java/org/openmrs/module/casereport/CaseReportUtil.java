@@ -10,32 +10,41 @@
 package org.openmrs.module.casereport;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.Cohort;
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Obs;
-import org.openmrs.Order;
-import org.openmrs.OrderType;
 import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.Visit;
 import org.openmrs.api.APIException;
-import org.openmrs.api.OrderService;
-import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
 import org.openmrs.module.reporting.definition.DefinitionContext;
@@ -43,14 +52,21 @@ import org.openmrs.module.reporting.evaluation.EvaluationContext;
 import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.scheduler.TaskDefinition;
-import org.openmrs.util.OpenmrsUtil;
 
 public class CaseReportUtil {
 	
 	protected static final Log log = LogFactory.getLog(CaseReportUtil.class);
 	
-	private static Concept getCeilConceptByCode(String code) {
-		Concept concept = Context.getConceptService().getConceptByMapping(code, CaseReportConstants.SOURCE_CIEL_HL7_CODE);
+	private static final String CHECKPOINT_TIME_KEY = "time";
+	
+	private static final String SHARD_TIME_WATERMARK = "TIME";
+	
+	private static final int DEFAULT_WATERMARK_SAFETY_MARGIN = 100;
+	
+	private static final AtomicInteger sliceThreadCount = new AtomicInteger();
+	
+	static Concept getCeilConceptByCode(String code) {
+		Concept concept = ConceptMappingCache.getConcept(code, CaseReportConstants.SOURCE_CIEL_HL7_CODE);
 		if (concept == null) {
 			throw new APIException(
 			        "Failed to find concept with mapping " + CaseReportConstants.SOURCE_CIEL_HL7_CODE + ":" + code);
@@ -134,18 +150,35 @@ public class CaseReportUtil {
 	 * <strong>Should</strong> get the active ARV drug orders for the specified patient
 	 */
 	public static List<DrugOrder> getActiveArvDrugOrders(Patient patient, Date asOfDate) {
-		Concept arvMedset = getCeilConceptByCode(CaseReportConstants.CIEL_CODE_ARV_MED_SET);
-		OrderService os = Context.getOrderService();
-		OrderType orderType = os.getOrderTypeByUuid(OrderType.DRUG_ORDER_TYPE_UUID);
-		List<Order> orders = os.getActiveOrders(patient, orderType, null, asOfDate);
-		List<DrugOrder> arvDrugOrders = new ArrayList<>();
-		for (Order order : orders) {
-			DrugOrder drugOrder = (DrugOrder) order;
-			if (arvMedset.getSetMembers().contains(order.getConcept())) {
-				arvDrugOrders.add(drugOrder);
+		List<DrugOrder> arvDrugOrders = getActiveArvDrugOrders(Collections.singleton(patient.getPatientId()), asOfDate)
+		        .get(patient.getPatientId());
+		return arvDrugOrders != null ? arvDrugOrders : new ArrayList<DrugOrder>();
+	}
+	
+	/**
+	 * Gets the active ARV drug orders for the patients with the specified ids, the orders are matched
+	 * against the cached ids of the members of the CIEL ARV medication set in the order query.
+	 *
+	 * @param patientIds the ids of the patients to match against
+	 * @param asOfDate reference date, defaults to now
+	 * @return a map of patient ids and their active ARV drug orders, patients with none are left out
+	 * <strong>Should</strong> get the active ARV drug orders for the patients with the specified ids
+	 */
+	public static Map<Integer, List<DrugOrder>> getActiveArvDrugOrders(Collection<Integer> patientIds, Date asOfDate) {
+		Map<Integer, List<DrugOrder>> patientArvOrdersMap = new HashMap<>();
+		List<DrugOrder> orders = Context.getService(CaseReportService.class).getActiveDrugOrders(patientIds,
+		    ConceptMappingCache.getArvMedSetMemberIds(), asOfDate);
+		for (DrugOrder order : orders) {
+			Integer patientId = order.getPatient().getPatientId();
+			List<DrugOrder> arvDrugOrders = patientArvOrdersMap.get(patientId);
+			if (arvDrugOrders == null) {
+				arvDrugOrders = new ArrayList<>();
+				patientArvOrdersMap.put(patientId, arvDrugOrders);
 			}
+			arvDrugOrders.add(order);
 		}
-		return arvDrugOrders;
+		
+		return patientArvOrdersMap;
 	}
 	
 	/**
@@ -172,15 +205,8 @@ public class CaseReportUtil {
 	 * <strong>Should</strong> return the last visit for the specified patient
 	 */
 	public static Visit getLastVisit(Patient patient) {
-		final List<Visit> visits = Context.getVisitService().getVisitsByPatient(patient, true, false);
-		Collections.sort(visits, Collections.reverseOrder(new Comparator<Visit>() {
-			
-			@Override
-			public int compare(Visit v1, Visit v2) {
-				return OpenmrsUtil.compare(v1.getStartDatetime(), v2.getStartDatetime());
-			}
-		}));
-		
+		List<Visit> visits = Context.getService(CaseReportService.class).getLastVisits(
+		    Collections.singleton(patient.getPatientId()));
 		if (visits.isEmpty()) {
 			return null;
 		}
@@ -211,7 +237,7 @@ public class CaseReportUtil {
 		}
 		String source = sourceAndCode[0];
 		String code = sourceAndCode[1];
-		Concept concept = Context.getConceptService().getConceptByMapping(code, source);
+		Concept concept = ConceptMappingCache.getConcept(code, source);
 		if (concept == null && failIfNotFound) {
 			throw new APIException("Failed to find concept with mapping: " + mappingString);
 		}
@@ -227,7 +253,7 @@ public class CaseReportUtil {
 	 * @return the concept
 	 */
 	public static Concept getConceptByMapping(String code, String source) {
-		Concept concept = Context.getConceptService().getConceptByMapping(code, source);
+		Concept concept = ConceptMappingCache.getConcept(code, source);
 		if (concept == null) {
 			throw new APIException("No concept found with a mapping to source: " + source + " and code: " + code);
 		}
@@ -235,6 +261,30 @@ public class CaseReportUtil {
 		return concept;
 	}
 	
+	/**
+	 * Gets the value of the global property with the specified name as an integer, falls back to the
+	 * specified default value if the global property is not set or its value is not a valid integer
+	 *
+	 * @param propertyName the name of the global property
+	 * @param defaultValue the value to return if the global property has no valid value
+	 * @return the integer value
+	 * <strong>Should</strong> return the value of the global property
+	 * <strong>Should</strong> return the default value if the global property value is not a valid integer
+	 */
+	public static int getIntegerGlobalProperty(String propertyName, int defaultValue) {
+		String value = Context.getAdministrationService().getGlobalProperty(propertyName);
+		if (StringUtils.isNotBlank(value)) {
+			try {
+				return Integer.parseInt(value.trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn("Invalid value for the " + propertyName + " global property: " + value + ", defaulting to "
+				        + defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+	
 	/**
 	 * Gets the SqlCohortDefinition that matches the specified trigger name, will throw an APIException
 	 * if multiple cohort queries are found that match the trigger name
@@ -282,8 +332,16 @@ public class CaseReportUtil {
 	 * <strong>Should</strong> not create a duplicate trigger for the same patient
 	 * <strong>Should</strong> set the concept mappings in the evaluation context
 	 * <strong>Should</strong> fail for a task where the last execution time cannot be resolved
+	 * <strong>Should</strong> skip the patients processed by an interrupted run
+	 * <strong>Should</strong> clear the checkpoint when the run completes
+	 * <strong>Should</strong> set the watermarks in the evaluation context and advance them
+	 * <strong>Should</strong> evaluate a long window in time slices
+	 * <strong>Should</strong> carry over the patients beyond the quota to the next run
+	 * <strong>Should</strong> skip a trigger whose lease is held by another node
+	 * <strong>Should</strong> evaluate each shard of the cohort whose lease is acquired
+	 * <strong>Should</strong> evaluate the query with the statement timeout of the task
 	 */
-	public synchronized static void executeTask(TaskDefinition taskDefinition) throws APIException, EvaluationException {
+	public static void executeTask(TaskDefinition taskDefinition) throws APIException, EvaluationException {
 
 		if (taskDefinition == null) {
 			throw new APIException("TaskDefinition can't be null");
@@ -295,83 +353,939 @@ public class CaseReportUtil {
 			throw new APIException(taskDefinition.getName() + " task doesn't have a "
 			        + CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY + " property");
 		}
+		
+		//Different triggers are evaluated concurrently but a trigger should never overlap itself
+		ReentrantLock triggerLock = TriggerEvaluationLocks.getTriggerLock(triggerName);
+		triggerLock.lock();
+		try {
+			Semaphore permits = TriggerEvaluationLocks.getEvaluationPermits();
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new APIException("Interrupted while waiting to evaluate the trigger: " + triggerName, e);
+			}
+			TriggerQueryGuard.begin(triggerName);
+			try {
+				if (ClusterLeases.isEnabled()) {
+					evaluateTriggerWithLeases(taskDefinition, triggerName);
+				} else {
+					evaluateTrigger(taskDefinition, triggerName);
+				}
+			}
+			finally {
+				TriggerQueryGuard.end(triggerName);
+				permits.release();
+			}
+		}
+		finally {
+			triggerLock.unlock();
+		}
+	}
+	
+	private static void evaluateTrigger(TaskDefinition taskDefinition, String triggerName) throws EvaluationException {
 		SqlCohortDefinition definition = getSqlCohortDefinition(triggerName);
 		if (definition == null) {
 			System.out.println("CaseReportUtil No SQL cohort query...");
 			throw new APIException("No sql cohort query was found that matches the name: " + triggerName);
 		}
-		EvaluationContext evaluationContext = new EvaluationContext();
-		Map<String, Object> params = new HashMap<>();
-		if (definition.getParameter(CaseReportConstants.LAST_EXECUTION_TIME) != null) {
-			Date lastExecutionTime = taskDefinition.getLastExecutionTime();
-			if (lastExecutionTime == null && taskDefinition.getRepeatInterval() != null
-			        && taskDefinition.getRepeatInterval() > 0) {
-				//TODO add a unit test for this
-				//default to now minus repeat interval
-				lastExecutionTime = DateUtils.addSeconds(new Date(), -taskDefinition.getRepeatInterval().intValue());
+		
+		List<TriggerRun> runs = planRuns(taskDefinition, triggerName, definition);
+		int parallelSlices = 1;
+		if (runs.size() > 1) {
+			parallelSlices = Math.max(getIntegerGlobalProperty(CaseReportConstants.GP_CATCH_UP_PARALLEL_SLICES, 1), 1);
+			log.info("Catching up the trigger " + triggerName + " over " + runs.size() + " time slice(s)");
+		}
+		
+		int quota = NumberUtils.toInt(taskDefinition.getProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY), 0);
+		int remaining = quota;
+		for (int i = 0; i < runs.size(); i++) {
+			if (i % parallelSlices == 0) {
+				evaluateRuns(runs.subList(i, Math.min(i + parallelSlices, runs.size())), definition);
+			}
+			TriggerRun run = runs.get(i);
+			int processed = processRun(run, quota > 0 ? remaining : 0);
+			//Release the cohort of the processed slice
+			run.cohort = null;
+			remaining -= processed;
+			if (!run.complete || (quota > 0 && remaining <= 0)) {
+				//The remaining patients and slices carry over to the next run
+				break;
 			}
-			if (lastExecutionTime == null) {
-				throw new APIException("Failed to resolve the value for the last execution time");
+			if (i < runs.size() - 1) {
+				Context.flushSession();
+				Context.clearSession();
 			}
-			params.put(CaseReportConstants.LAST_EXECUTION_TIME, lastExecutionTime);
+		}
+	}
+	
+	/**
+	 * Evaluates the specified trigger while holding its database lease, if the cohort is split into
+	 * shards this node evaluates each shard whose lease it acquires and skips those held by other
+	 * nodes.
+	 */
+	private static void evaluateTriggerWithLeases(TaskDefinition taskDefinition, String triggerName)
+	    throws EvaluationException {
+		String leaseName = triggerName.trim().toLowerCase();
+		int shardCount = ClusterLeases.getShardCount();
+		if (shardCount == 1) {
+			if (!ClusterLeases.acquire(leaseName)) {
+				log.info("Skipping the trigger " + triggerName + " since another node holds its lease");
+				return;
+			}
+			try {
+				evaluateTrigger(taskDefinition, triggerName);
+			}
+			finally {
+				ClusterLeases.release(leaseName);
+			}
+			return;
 		}
 		
-		if (definition.getParameters() != null) {
-			for (Parameter p : definition.getParameters()) {
-				if (p.getName().startsWith(CaseReportConstants.CIEL_MAPPING_PREFIX)) {
-					Concept concept = CaseReportUtil.getConceptByMappingString(p.getName(), true);
-					params.put(p.getName(), concept.getConceptId());
+		for (int shard = 0; shard < shardCount; shard++) {
+			String shardSuffix = "#" + shard + "/" + shardCount;
+			if (!ClusterLeases.acquire(leaseName + shardSuffix)) {
+				continue;
+			}
+			try {
+				evaluateShard(taskDefinition, triggerName, shard, shardCount, shardSuffix);
+			}
+			finally {
+				ClusterLeases.release(leaseName + shardSuffix);
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates the specified trigger for the patients whose ids fall in the specified shard, the
+	 * progress of a shard is kept in its own watermarks including the last execution time since the
+	 * shards are evaluated independently by different nodes, a shard with no watermarks starts from
+	 * the position of the trigger itself.
+	 */
+	private static void evaluateShard(TaskDefinition taskDefinition, String triggerName, int shard, int shardCount,
+	                                  String shardSuffix) throws EvaluationException {
+		SqlCohortDefinition definition = getSqlCohortDefinition(triggerName);
+		if (definition == null) {
+			throw new APIException("No sql cohort query was found that matches the name: " + triggerName);
+		}
+		
+		CaseReportService caseReportService = Context.getService(CaseReportService.class);
+		Map<WatermarkType, Long> lastIds = new EnumMap<>(WatermarkType.class);
+		for (WatermarkType type : WatermarkType.values()) {
+			TriggerWatermark watermark = caseReportService.getTriggerWatermark(triggerName, type.name() + shardSuffix);
+			if (watermark != null) {
+				lastIds.put(type, watermark.getValue());
+			}
+		}
+		TriggerWatermark lastExecutionTime = caseReportService.getTriggerWatermark(triggerName,
+		    SHARD_TIME_WATERMARK + shardSuffix);
+		Date windowStartTime = lastExecutionTime != null ? new Date(lastExecutionTime.getValue()) : null;
+		
+		TriggerRun run = prepareRun(taskDefinition, triggerName, definition, taskDefinition, windowStartTime, lastIds,
+		    null);
+		run.watermarkSuffix = shardSuffix;
+		evaluate(run, definition);
+		List<Integer> patientIds = new ArrayList<>();
+		for (Integer patientId : getPatientIdsToProcess(run)) {
+			if (patientId % shardCount == shard) {
+				patientIds.add(patientId);
+			}
+		}
+		processInChunks(patientIds, null, triggerName, run.autoSubmit);
+		saveWatermarks(run);
+	}
+	
+	/**
+	 * Creates or updates the queue items for the patients in the cohort of the specified run in
+	 * checkpointed chunks then advances the watermarks and the last execution time of the trigger, if
+	 * the cohort has more patients than the specified quota the rest are left for the next run to
+	 * continue from the checkpoint and the watermarks are not advanced. The checkpoint of a chunk is
+	 * saved before its new reports are auto submitted so that a run resumed after a crash never
+	 * submits them again, at worst they are left in the queue for the surveillance officer to submit.
+	 *
+	 * @return the number of processed patients
+	 */
+	private static int processRun(TriggerRun run, int quota) {
+		TaskDefinition taskDefinition = run.taskDefinition;
+		//Process the patients in ascending order of their ids so that progress can be checkpointed
+		List<Integer> patientIds = getPatientIdsToProcess(run).toList();
+		Integer checkpoint = getCheckpoint(taskDefinition, run.windowStart);
+		if (checkpoint != null) {
+			int resumeIndex = 0;
+			while (resumeIndex < patientIds.size() && patientIds.get(resumeIndex) <= checkpoint) {
+				resumeIndex++;
+			}
+			log.info("Resuming the interrupted run of the trigger " + run.triggerName + " after patient with id: "
+			        + checkpoint + ", skipping " + resumeIndex + " already processed patient(s)");
+			patientIds = patientIds.subList(resumeIndex, patientIds.size());
+		}
+		if (quota > 0 && patientIds.size() > quota) {
+			log.info("Reached the quota of " + quota + " report(s) per run for the trigger " + run.triggerName + ", "
+			        + (patientIds.size() - quota) + " patient(s) carry over to the next run");
+			patientIds = patientIds.subList(0, quota);
+			run.complete = false;
+		}
+		
+		int chunkSize = getChunkSize(patientIds.size());
+		for (int i = 0; i < patientIds.size(); i += chunkSize) {
+			TriggerQueryGuard.checkNotCancelled(run.triggerName);
+			List<Integer> chunk = patientIds.subList(i, Math.min(i + chunkSize, patientIds.size()));
+			List<Integer> autoSubmitReportIds = processChunk(chunk, null, run.triggerName, run.autoSubmit);
+			boolean lastChunk = i + chunkSize >= patientIds.size();
+			if (!lastChunk || !run.complete || !autoSubmitReportIds.isEmpty()) {
+				saveCheckpoint(run, chunk.get(chunk.size() - 1));
+			}
+			AutoSubmitter.submit(autoSubmitReportIds);
+			if (!lastChunk || !run.complete) {
+				//Keep the session from growing with the size of the cohort
+				Context.flushSession();
+				Context.clearSession();
+			}
+		}
+		if (!run.complete) {
+			return patientIds.size();
+		}
+		
+		saveWatermarks(run);
+		taskDefinition.getProperties().remove(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY);
+		taskDefinition.getProperties().remove(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY);
+		taskDefinition.getProperties().remove(CaseReportConstants.CHECKPOINT_WINDOW_END_TASK_PROPERTY);
+		taskDefinition.setLastExecutionTime(run.executionTime);
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+		
+		return patientIds.size();
+	}
+	
+	/**
+	 * Records the id of the last processed patient along with the start and end of the window of the
+	 * specified run so that the next run continues in the same window
+	 */
+	private static void saveCheckpoint(TriggerRun run, Integer patientId) {
+		StringBuilder windowEnd = new StringBuilder(CHECKPOINT_TIME_KEY + "=" + run.executionTime.getTime());
+		for (Map.Entry<WatermarkType, Long> entry : run.newWatermarks.entrySet()) {
+			windowEnd.append(";").append(entry.getKey().name()).append("=").append(entry.getValue());
+		}
+		
+		TaskDefinition taskDefinition = run.taskDefinition;
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY, patientId.toString());
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY, run.windowStart);
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_WINDOW_END_TASK_PROPERTY, windowEnd.toString());
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+	}
+	
+	/**
+	 * Pins the end of the window of the specified run to that of the checkpointed run it continues
+	 * if any, otherwise patients matched by rows added in between with ids at or below the checkpoint
+	 * would be skipped.
+	 */
+	private static void restoreCheckpointWindowEnd(TriggerRun run, SqlCohortDefinition definition) {
+		TaskDefinition taskDefinition = run.taskDefinition;
+		String windowEnd = taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_WINDOW_END_TASK_PROPERTY);
+		if (StringUtils.isBlank(windowEnd) || getCheckpoint(taskDefinition, run.windowStart) == null) {
+			return;
+		}
+		
+		//The pinned maximum ids may be ahead of the replica
+		run.useReplica = false;
+		for (String entry : StringUtils.split(windowEnd, ";")) {
+			String[] keyAndValue = StringUtils.split(entry, "=");
+			if (keyAndValue.length != 2) {
+				continue;
+			}
+			if (CHECKPOINT_TIME_KEY.equals(keyAndValue[0])) {
+				run.pinnedExecutionTime = new Date(NumberUtils.toLong(keyAndValue[1]));
+				if (definition.getParameter(CaseReportConstants.EXECUTION_TIME) != null) {
+					run.windowEndTime = run.pinnedExecutionTime;
+					run.params.put(CaseReportConstants.EXECUTION_TIME, run.windowEndTime);
+				}
+				continue;
+			}
+			
+			for (WatermarkType type : run.newWatermarks.keySet()) {
+				if (type.name().equals(keyAndValue[0])) {
+					Long maxId = NumberUtils.toLong(keyAndValue[1]);
+					run.newWatermarks.put(type, maxId);
+					if (definition.getParameter(type.getMaxIdParameter()) != null) {
+						run.params.put(type.getMaxIdParameter(), maxId);
+					}
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Splits the window of the specified trigger from its last execution time to now into time
+	 * slices of the length set by the {@link CaseReportConstants#GP_CATCH_UP_SLICE_HOURS} global
+	 * property, the window is only split if it is longer than one slice and the query is bounded on
+	 * both ends i.e. by the execution time parameter or the maximum id parameters of its watermarks.
+	 */
+	private static List<TriggerRun> planRuns(TaskDefinition taskDefinition, String triggerName,
+	                                         SqlCohortDefinition definition) {
+		int sliceHours = getIntegerGlobalProperty(CaseReportConstants.GP_CATCH_UP_SLICE_HOURS, 0);
+		if (sliceHours > 0 && isSliceable(definition)) {
+			long sliceLength = sliceHours * DateUtils.MILLIS_PER_HOUR;
+			long now = System.currentTimeMillis();
+			//A trigger that has never run has nothing to catch up on
+			Date sliceStart = taskDefinition.getLastExecutionTime();
+			if (sliceStart != null && now - sliceStart.getTime() > sliceLength) {
+				List<TriggerRun> runs = new ArrayList<>();
+				Map<WatermarkType, Long> lastIds = null;
+				while (now - sliceStart.getTime() > sliceLength) {
+					Date sliceEnd = new Date(sliceStart.getTime() + sliceLength);
+					TriggerRun run = prepareRun(taskDefinition, triggerName, definition, taskDefinition, sliceStart,
+					    lastIds, sliceEnd);
+					runs.add(run);
+					lastIds = run.newWatermarks;
+					sliceStart = sliceEnd;
+				}
+				runs.add(prepareRun(taskDefinition, triggerName, definition, taskDefinition, sliceStart, lastIds, null));
+				restoreCheckpointWindowEnd(runs.get(0), definition);
+				
+				return runs;
+			}
+		}
+		
+		List<TriggerRun> runs = new ArrayList<>(1);
+		runs.add(prepareRun(taskDefinition, triggerName, definition, taskDefinition, null, null, null));
+		restoreCheckpointWindowEnd(runs.get(0), definition);
+		return runs;
+	}
+	
+	private static boolean isSliceable(SqlCohortDefinition definition) {
+		boolean bounded = definition.getParameter(CaseReportConstants.EXECUTION_TIME) != null;
+		if (!bounded && definition.getParameter(CaseReportConstants.LAST_EXECUTION_TIME) != null) {
+			return false;
+		}
+		for (WatermarkType type : WatermarkType.values()) {
+			if (definition.getParameter(type.getLastIdParameter()) != null) {
+				if (definition.getParameter(type.getMaxIdParameter()) == null) {
+					return false;
+				}
+				bounded = true;
+			}
+		}
+		
+		return bounded;
+	}
+	
+	/**
+	 * Evaluates the cohort queries of the specified runs, the queries are only read from the database
+	 * so the runs of the time slices of a trigger are evaluated in parallel each in its own session,
+	 * by at most {@link CaseReportConstants#GP_CATCH_UP_PARALLEL_SLICES} daemon threads.
+	 */
+	private static void evaluateRuns(List<TriggerRun> runs, final SqlCohortDefinition definition)
+	    throws EvaluationException {
+		if (runs.size() == 1) {
+			evaluate(runs.get(0), definition);
+			return;
+		}
+		
+		final UserContext userContext = Context.getUserContext();
+		//The slices beyond the configured number of parallel slices wait for a free thread
+		int poolSize = Math.min(runs.size(),
+		    Math.max(getIntegerGlobalProperty(CaseReportConstants.GP_CATCH_UP_PARALLEL_SLICES, 1), 1));
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "casereport-catch-up-" + sliceThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>(runs.size());
+			for (final TriggerRun run : runs) {
+				futures.add(executor.submit(new Callable<Void>() {
+					
+					@Override
+					public Void call() throws Exception {
+						Context.openSession();
+						try {
+							Context.setUserContext(userContext);
+							evaluate(run, definition);
+							return null;
+						}
+						finally {
+							Context.closeSession();
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted while evaluating the time slices of a trigger", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof EvaluationException) {
+				throw (EvaluationException) e.getCause();
+			}
+			if (e.getCause() instanceof APIException) {
+				throw (APIException) e.getCause();
+			}
+			throw new APIException("Failed to evaluate the time slices of a trigger", e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Evaluates the sql cohort query of all the registered triggers in a single pass over the time
+	 * window of the specified fused task, the cohorts are combined into one map of patients to their
+	 * matched triggers so that each patient's queue item is created or updated once with all the
+	 * matched triggers. Triggers that are auto submitted are still processed one at a time since each
+	 * auto submitted trigger gets its own case report.
+	 *
+	 * @param fusedTaskDefinition the scheduler task definition of the fused evaluation task
+	 * @throws APIException
+	 * @throws EvaluationException
+	 * <strong>Should</strong> create one case report with all the matched triggers for a patient
+	 * <strong>Should</strong> advance the last execution time of the trigger tasks
+	 * <strong>Should</strong> start the first run from the oldest last execution time of the trigger tasks
+	 */
+	public static void executeFusedTask(TaskDefinition fusedTaskDefinition) throws APIException, EvaluationException {
+		if (fusedTaskDefinition == null) {
+			throw new APIException("TaskDefinition can't be null");
+		}
+		
+		Map<String, TaskDefinition> triggerNameTaskMap = new TreeMap<>();
+		for (TaskDefinition td : getCaseReportTaskDefinitions()) {
+			String triggerName = td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+			if (StringUtils.isNotBlank(triggerName)) {
+				triggerNameTaskMap.put(triggerName.trim().toLowerCase(), td);
+			}
+		}
+		
+		//Acquire the trigger locks in a fixed order to avoid deadlocks between concurrent passes
+		List<ReentrantLock> locks = new ArrayList<>(triggerNameTaskMap.size());
+		for (String key : triggerNameTaskMap.keySet()) {
+			ReentrantLock lock = TriggerEvaluationLocks.getTriggerLock(key);
+			lock.lock();
+			locks.add(lock);
+		}
+		try {
+			Semaphore permits = TriggerEvaluationLocks.getEvaluationPermits();
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new APIException("Interrupted while waiting to run the fused trigger evaluation", e);
+			}
+			boolean leased = ClusterLeases.isEnabled();
+			if (leased && !ClusterLeases.acquire(CaseReportConstants.FUSED_TASK_NAME)) {
+				log.info("Skipping the fused trigger evaluation since another node holds its lease");
+				permits.release();
+				return;
+			}
+			try {
+				evaluateFused(fusedTaskDefinition, triggerNameTaskMap.values());
+			}
+			finally {
+				if (leased) {
+					ClusterLeases.release(CaseReportConstants.FUSED_TASK_NAME);
+				}
+				permits.release();
+			}
+		}
+		finally {
+			for (ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
+	
+	private static void evaluateFused(TaskDefinition fusedTaskDefinition, Collection<TaskDefinition> taskDefinitions)
+	    throws EvaluationException {
+		Date startTime = new Date();
+		if (fusedTaskDefinition.getLastExecutionTime() == null) {
+			//The first fused run picks up from where the oldest of the trigger tasks it replaces left off
+			for (TaskDefinition td : taskDefinitions) {
+				Date lastExecutionTime = td.getLastExecutionTime();
+				if (lastExecutionTime != null
+				        && (fusedTaskDefinition.getLastExecutionTime() == null || lastExecutionTime
+				                .before(fusedTaskDefinition.getLastExecutionTime()))) {
+					fusedTaskDefinition.setLastExecutionTime(lastExecutionTime);
 				}
 			}
 		}
+		List<TriggerRun> runs = new ArrayList<>(taskDefinitions.size());
+		Map<Integer, List<String>> patientIdTriggersMap = new TreeMap<>();
+		for (TaskDefinition td : taskDefinitions) {
+			String triggerName = td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+			if (getSqlCohortDefinition(triggerName) == null) {
+				continue;
+			}
+			
+			TriggerRun run = evaluateCohort(td, triggerName, fusedTaskDefinition);
+			runs.add(run);
+			PatientIdBitmap patientIds = getPatientIdsToProcess(run);
+			if (run.autoSubmit) {
+				processInChunks(patientIds.toList(), null, triggerName, true);
+				continue;
+			}
+			
+			for (Integer patientId : patientIds) {
+				List<String> triggerNames = patientIdTriggersMap.get(patientId);
+				if (triggerNames == null) {
+					triggerNames = new ArrayList<>();
+					patientIdTriggersMap.put(patientId, triggerNames);
+				}
+				triggerNames.add(triggerName);
+			}
+		}
+		
+		processInChunks(new ArrayList<>(patientIdTriggersMap.keySet()), patientIdTriggersMap, null, false);
+		
+		for (TriggerRun run : runs) {
+			saveWatermarks(run);
+			run.taskDefinition.setLastExecutionTime(run.executionTime);
+			Context.getSchedulerService().saveTaskDefinition(run.taskDefinition);
+		}
+		log.info("Fused evaluation of " + runs.size() + " trigger(s) matched " + patientIdTriggersMap.size()
+		        + " patient(s) in " + (System.currentTimeMillis() - startTime.getTime()) + "ms");
+		
+		fusedTaskDefinition.setLastExecutionTime(startTime);
+		Context.getSchedulerService().saveTaskDefinition(fusedTaskDefinition);
+	}
+	
+	/**
+	 * Checks if the triggers are evaluated together by the fused evaluation task instead of their
+	 * individual tasks, the fused pass doesn't support quotas, checkpoints and sharded leases so it
+	 * is disabled if any of them is in use in which case the individual tasks evaluate the triggers.
+	 *
+	 * @return true if fused evaluation is enabled otherwise false
+	 * <strong>Should</strong> return true if the global property is set to true
+	 * <strong>Should</strong> return false if a trigger task has a quota of reports per run
+	 * <strong>Should</strong> return false if a trigger task has a pending checkpoint
+	 * <strong>Should</strong> return false if the cohorts are split into shards across the cluster
+	 */
+	public static boolean isFusedEvaluationEnabled() {
+		String value = Context.getAdministrationService().getGlobalProperty(
+		    CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION);
+		if (!"true".equalsIgnoreCase(StringUtils.trimToEmpty(value))) {
+			return false;
+		}
+		
+		String conflict = getFusedEvaluationConflict();
+		if (conflict != null) {
+			log.warn("Ignoring the " + CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION + " global property since "
+			        + conflict + ", the triggers are evaluated by their individual tasks");
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Gets the reason why the triggers can't be evaluated by the fused evaluation task if any
+	 */
+	private static String getFusedEvaluationConflict() {
+		if (ClusterLeases.isEnabled() && ClusterLeases.getShardCount() > 1) {
+			return "the trigger cohorts are split into shards";
+		}
+		
+		for (TaskDefinition td : getCaseReportTaskDefinitions()) {
+			if (NumberUtils.toInt(td.getProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY), 0) > 0) {
+				return "the task " + td.getName() + " has a quota of reports per run";
+			}
+			if (StringUtils.isNotBlank(td.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY))) {
+				return "the task " + td.getName() + " has a pending checkpoint";
+			}
+		}
 		
-		evaluationContext.setParameterValues(params);
-		Cohort cohort = (Cohort) DefinitionContext.evaluate(definition, evaluationContext);
-		Date executionTime = new Date();
+		return null;
+	}
+	
+	/**
+	 * Gets the scheduler task definitions of all the triggers
+	 *
+	 * @return a list of task definitions
+	 */
+	public static List<TaskDefinition> getCaseReportTaskDefinitions() {
+		List<TaskDefinition> taskDefinitions = new ArrayList<>();
+		for (TaskDefinition td : Context.getSchedulerService().getRegisteredTasks()) {
+			if (CaseReportTask.class.getName().equals(td.getTaskClass())) {
+				taskDefinitions.add(td);
+			}
+		}
+		
+		return taskDefinitions;
+	}
+	
+	/**
+	 * Runs the sql cohort query of the specified trigger, the last execution time is read from the
+	 * specified time source task which is the trigger's own task unless the triggers are evaluated
+	 * together by the fused evaluation task.
+	 */
+	private static TriggerRun evaluateCohort(TaskDefinition taskDefinition, String triggerName,
+	                                         TaskDefinition timeSource) throws EvaluationException {
+		SqlCohortDefinition definition = getSqlCohortDefinition(triggerName);
+		if (definition == null) {
+			System.out.println("CaseReportUtil No SQL cohort query...");
+			throw new APIException("No sql cohort query was found that matches the name: " + triggerName);
+		}
 		
-		PatientService ps = Context.getPatientService();
+		TriggerRun run = prepareRun(taskDefinition, triggerName, definition, timeSource, null, null, null);
+		evaluate(run, definition);
+		
+		return run;
+	}
+	
+	/**
+	 * Builds the parameter values to evaluate the sql cohort query of a trigger with for the window
+	 * that starts at the specified time and ids, a null start is resolved from the last execution
+	 * time of the time source task and the stored watermarks while a null end means up to now.
+	 */
+	private static TriggerRun prepareRun(TaskDefinition taskDefinition, String triggerName,
+	                                     SqlCohortDefinition definition, TaskDefinition timeSource,
+	                                     Date windowStartTime, Map<WatermarkType, Long> lastIds, Date windowEndTime) {
+		TriggerRun run = new TriggerRun(taskDefinition, triggerName);
+		Date lastExecutionTime = null;
+		if (definition.getParameter(CaseReportConstants.LAST_EXECUTION_TIME) != null) {
+			lastExecutionTime = windowStartTime != null ? windowStartTime : resolveLastExecutionTime(timeSource);
+			run.params.put(CaseReportConstants.LAST_EXECUTION_TIME, lastExecutionTime);
+		}
+		//The replica may not have the rows created in the staleness tolerance yet, so the window ends
+		//there and they are picked by the next run
+		run.useReplica = windowEndTime == null && ReplicaCohortEvaluator.canEvaluate(definition);
+		if (run.useReplica) {
+			Date replicaTime = new Date(System.currentTimeMillis() - ReplicaCohortEvaluator.getMaxStalenessMillis());
+			if (lastExecutionTime != null && replicaTime.before(lastExecutionTime)) {
+				replicaTime = lastExecutionTime;
+			}
+			run.pinnedExecutionTime = replicaTime;
+		}
+		if (definition.getParameter(CaseReportConstants.EXECUTION_TIME) != null) {
+			if (windowEndTime != null) {
+				run.windowEndTime = windowEndTime;
+			} else {
+				run.windowEndTime = run.useReplica ? run.pinnedExecutionTime : new Date();
+			}
+			run.params.put(CaseReportConstants.EXECUTION_TIME, run.windowEndTime);
+		} else {
+			run.windowEndTime = windowEndTime;
+		}
+		
+		//The maximum ids are read before the query runs so that rows inserted while it runs are
+		//picked by the next run
+		run.windowStart = lastExecutionTime != null ? Long.toString(lastExecutionTime.getTime()) : "";
 		CaseReportService caseReportService = Context.getService(CaseReportService.class);
-		List<CaseReport> autoSubmitReports = new ArrayList<>(cohort.getMemberIds().size());
-		for (Integer patientId : cohort.getMemberIds()) {
-			Patient patient = ps.getPatient(patientId);
-			if (patient == null) {
-				System.out.println("CaseReportUtil No patient found with patientId...");
-				throw new APIException("No patient found with patientId: " + patientId);
+		for (WatermarkType type : WatermarkType.values()) {
+			if (definition.getParameter(type.getLastIdParameter()) == null) {
+				continue;
 			}
 			
-			boolean autoSubmit = false;
-			if ("true".equals(taskDefinition.getProperty(CaseReportConstants.AUTO_SUBMIT_TASK_PROPERTY))) {
-				System.out.println("CaseReportUtil autoSubmit is true...");
-				autoSubmit = true;
-			}
-			CaseReport caseReport = createReportIfNecessary(patient, autoSubmit, triggerName);
-			if (caseReport != null) {
-				//We can't auto submit an existing report because the surveillance officer needs
-				//to take a look at the other triggers to be included in the existing report
-				if (caseReport.getId() == null && autoSubmit) {
-					caseReport.setAutoSubmitted(true);
-					autoSubmitReports.add(caseReport);
+			Long lastId;
+			if (lastIds != null && lastIds.containsKey(type)) {
+				lastId = lastIds.get(type);
+			} else {
+				TriggerWatermark watermark = caseReportService.getTriggerWatermark(triggerName, type.name());
+				if (watermark != null) {
+					lastId = watermark.getValue();
+				} else {
+					//First run with a watermark, start from where the last execution time left off
+					lastId = caseReportService.getMaxIdCreatedBefore(type, windowStartTime != null ? windowStartTime
+					        : resolveLastExecutionTime(timeSource));
 				}
-				caseReportService.saveCaseReport(caseReport);
+			}
+			Long maxId;
+			if (windowEndTime != null) {
+				maxId = Math.max(lastId, caseReportService.getMaxIdCreatedBefore(type, windowEndTime));
+			} else if (run.useReplica) {
+				maxId = Math.max(lastId, getReplicaMaxId(run, type));
 			} else {
-				log.info(patient + " already has an item in the queue with the trigger " + triggerName);
+				maxId = caseReportService.getMaxId(type);
+			}
+			run.params.put(type.getLastIdParameter(), lastId);
+			if (definition.getParameter(type.getMaxIdParameter()) != null) {
+				run.params.put(type.getMaxIdParameter(), maxId);
+			}
+			run.newWatermarks.put(type, maxId);
+			run.windowStart += ";" + type.getLastIdParameter() + "=" + lastId;
+			if (maxId > lastId) {
+				//The rows after the last id may have been scanned already since it was kept the safety
+				//margin behind the maximum id of the previous run
+				Date dateCreated = caseReportService.getEarliestDateCreatedAfter(type, lastId);
+				if (dateCreated != null && (run.rescanStart == null || dateCreated.before(run.rescanStart))) {
+					run.rescanStart = dateCreated;
+				}
 			}
 		}
 		
-		for (CaseReport caseReport : autoSubmitReports) {
-			//TODO reports should be auto submitted in parallel
+		if (definition.getParameters() != null) {
+			for (Parameter p : definition.getParameters()) {
+				if (p.getName().startsWith(CaseReportConstants.CIEL_MAPPING_PREFIX)) {
+					Concept concept = CaseReportUtil.getConceptByMappingString(p.getName(), true);
+					run.params.put(p.getName(), concept.getConceptId());
+				}
+			}
+		}
+		
+		return run;
+	}
+	
+	/**
+	 * Gets the maximum id of the specified type in the replica, if the replica can't be reached the
+	 * run falls back to the primary database and the maximum id is read from it.
+	 */
+	private static Long getReplicaMaxId(TriggerRun run, WatermarkType type) {
+		try {
+			return ReplicaCohortEvaluator.getMaxId(type);
+		}
+		catch (APIException e) {
+			log.warn("Failed to read the maximum id from the replica for the trigger " + run.triggerName
+			        + ", using the primary database", e);
+			run.useReplica = false;
+			return Context.getService(CaseReportService.class).getMaxId(type);
+		}
+	}
+	
+	/**
+	 * Evaluates the query of the specified run, if the replica fails the query is evaluated against
+	 * the primary database with the same parameter values since the window they bound is complete
+	 * there too, timeouts and cancellations aren't retried.
+	 */
+	private static void evaluate(TriggerRun run, SqlCohortDefinition definition) throws EvaluationException {
+		int timeoutSeconds = TriggerQueryGuard.getTimeoutSeconds(run.taskDefinition);
+		if (run.useReplica) {
 			try {
-				CaseReportForm form = new CaseReportForm(caseReport);
-				caseReport.setReportForm(new ObjectMapper().writeValueAsString(form));
-				caseReportService.submitCaseReport(caseReport);
+				run.cohort = ReplicaCohortEvaluator.evaluate(definition, run.params, timeoutSeconds);
 			}
-			catch (Throwable t) {
-				log.warn("Failed to auto submit " + caseReport, t);
+			catch (EvaluationException e) {
+				log.warn("Failed to evaluate the trigger " + run.triggerName + " against the replica, using the "
+				        + "primary database", e);
+				run.useReplica = false;
 			}
 		}
-
-		taskDefinition.setLastExecutionTime(executionTime);
-		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+		if (run.cohort == null) {
+			if (timeoutSeconds > 0) {
+				run.cohort = Context.getService(CaseReportService.class).evaluateTriggerQuery(run.triggerName,
+				    definition.getQuery(), run.params, timeoutSeconds);
+			} else {
+				EvaluationContext evaluationContext = new EvaluationContext();
+				evaluationContext.setParameterValues(run.params);
+				run.cohort = (Cohort) DefinitionContext.evaluate(definition, evaluationContext);
+			}
+		}
+		if (run.windowEndTime != null) {
+			run.executionTime = run.windowEndTime;
+		} else {
+			run.executionTime = run.pinnedExecutionTime != null ? run.pinnedExecutionTime : new Date();
+		}
+	}
+	
+	/**
+	 * Stores the watermarks of the specified run, each is kept the safety margin behind the maximum id
+	 * read before the query because a transaction that isn't committed yet can hold rows with lower
+	 * ids, the overlap is re-scanned by the next run and the patients matched again are dropped since
+	 * the trigger already produced a report for them after the re-scanned rows were created.
+	 */
+	private static void saveWatermarks(TriggerRun run) {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Map.Entry<WatermarkType, Long> entry : run.newWatermarks.entrySet()) {
+			Long lastId = (Long) run.params.get(entry.getKey().getLastIdParameter());
+			values.put(entry.getKey().name() + run.watermarkSuffix, applySafetyMargin(lastId, entry.getValue()));
+		}
+		if (run.watermarkSuffix.length() > 0) {
+			values.put(SHARD_TIME_WATERMARK + run.watermarkSuffix, run.executionTime.getTime());
+		}
+		
+		//Another node could have reclaimed the lease while the last chunk was processed
+		ClusterLeases.renewHeld();
+		CaseReportService caseReportService = Context.getService(CaseReportService.class);
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			TriggerWatermark watermark = caseReportService.getTriggerWatermark(run.triggerName, entry.getKey());
+			if (watermark == null) {
+				watermark = new TriggerWatermark(run.triggerName, entry.getKey());
+			}
+			watermark.setValue(entry.getValue());
+			caseReportService.saveTriggerWatermark(watermark);
+		}
+	}
+	
+	/**
+	 * Moves the specified maximum id back by the number of ids set by the
+	 * {@link CaseReportConstants#GP_WATERMARK_SAFETY_MARGIN} global property without going below the
+	 * specified last id or zero
+	 *
+	 * @param lastId the id the window started after, can be null
+	 * @param maxId the maximum id read before the window was evaluated
+	 * @return the id to store as the new watermark
+	 * <strong>Should</strong> move the maximum id back by the safety margin
+	 * <strong>Should</strong> not go below the last id
+	 */
+	public static Long applySafetyMargin(Long lastId, Long maxId) {
+		int margin = Math.max(getIntegerGlobalProperty(CaseReportConstants.GP_WATERMARK_SAFETY_MARGIN,
+		    DEFAULT_WATERMARK_SAFETY_MARGIN), 0);
+		long value = Math.max(maxId - margin, 0);
+		if (lastId != null) {
+			value = Math.max(value, lastId);
+		}
+		
+		return Math.min(value, maxId);
+	}
+	
+	/**
+	 * Gets the ids of the patients in the cohort of the specified run in ascending order excluding
+	 * those whose queue item already has the trigger since there is nothing to add for them and those
+	 * with a report of any status that got the trigger after the earliest re-scanned row was created
+	 * since they were matched by a previous run, this is done before any patient or case report is
+	 * loaded.
+	 */
+	private static PatientIdBitmap getPatientIdsToProcess(TriggerRun run) {
+		PatientIdBitmap cohort = PatientIdBitmap.of(run.cohort.getMemberIds());
+		CaseReportService caseReportService = Context.getService(CaseReportService.class);
+		PatientIdBitmap patientIds = cohort.andNot(caseReportService.getPatientIdsByTrigger(run.triggerName,
+		    CaseReport.Status.NEW, CaseReport.Status.DRAFT));
+		if (run.rescanStart != null) {
+			patientIds = patientIds.andNot(caseReportService.getPatientIdsTriggeredSince(run.triggerName,
+			    run.rescanStart));
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Skipping " + (cohort.getCardinality() - patientIds.getCardinality()) + " of "
+			        + cohort.getCardinality() + " patient(s) matched by the trigger " + run.triggerName
+			        + " that already have it in their queue item or were reported by a previous run");
+		}
+		
+		return patientIds;
+	}
+	
+	private static int getChunkSize(int patientCount) {
+		int chunkSize = getIntegerGlobalProperty(CaseReportConstants.GP_TRIGGER_CHUNK_SIZE, 0);
+		if (chunkSize <= 0) {
+			chunkSize = Math.max(patientCount, 1);
+		}
+		
+		return chunkSize;
+	}
+	
+	private static void processInChunks(List<Integer> patientIds, Map<Integer, List<String>> patientIdTriggersMap,
+	                                    String triggerName, boolean autoSubmit) {
+		int chunkSize = getChunkSize(patientIds.size());
+		for (int i = 0; i < patientIds.size(); i += chunkSize) {
+			if (triggerName != null) {
+				TriggerQueryGuard.checkNotCancelled(triggerName);
+			}
+			AutoSubmitter.submit(processChunk(patientIds.subList(i, Math.min(i + chunkSize, patientIds.size())),
+			    patientIdTriggersMap, triggerName, autoSubmit));
+			if (i + chunkSize < patientIds.size()) {
+				Context.flushSession();
+				Context.clearSession();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the last execution time of the specified task, defaults to now minus the repeat interval
+	 * if the task has never run
+	 */
+	private static Date resolveLastExecutionTime(TaskDefinition taskDefinition) {
+		Date lastExecutionTime = taskDefinition.getLastExecutionTime();
+		if (lastExecutionTime == null && taskDefinition.getRepeatInterval() != null
+		        && taskDefinition.getRepeatInterval() > 0) {
+			//TODO add a unit test for this
+			//default to now minus repeat interval
+			lastExecutionTime = DateUtils.addSeconds(new Date(), -taskDefinition.getRepeatInterval().intValue());
+		}
+		if (lastExecutionTime == null) {
+			throw new APIException("Failed to resolve the value for the last execution time");
+		}
+		
+		return lastExecutionTime;
+	}
+	
+	/**
+	 * Creates or updates the queue items for the patients with the specified ids, the triggers to add
+	 * for each patient are looked up in the specified map if any otherwise the specified trigger name
+	 * is added for all the patients
+	 *
+	 * @return the ids of the new reports to auto submit, it's up to the caller to submit them
+	 */
+	private static List<Integer> processChunk(List<Integer> patientIds,
+	                                          Map<Integer, List<String>> patientIdTriggersMap, String triggerName,
+	                                          boolean autoSubmit) {
+		//Make sure this node still holds its leases before writing, the cohort query could have outlived them
+		ClusterLeases.renewHeld();
+		CaseReportService caseReportService = Context.getService(CaseReportService.class);
+		Map<Integer, Patient> patientIdPatientMap = new HashMap<>(patientIds.size());
+		for (Patient p : caseReportService.getPatients(patientIds)) {
+			patientIdPatientMap.put(p.getPatientId(), p);
+		}
+		
+		List<Integer> autoSubmitReportIds = new ArrayList<>();
+		QueueItemIndex queueItemIndex = QueueItemIndex.open(patientIds);
+		try {
+			for (Integer patientId : patientIds) {
+				Patient patient = patientIdPatientMap.get(patientId);
+				if (patient == null) {
+					System.out.println("CaseReportUtil No patient found with patientId...");
+					throw new APIException("No patient found with patientId: " + patientId);
+				}
+				
+				//Other triggers running concurrently could be creating a queue item for the same patient
+				synchronized (TriggerEvaluationLocks.getPatientLock(patientId)) {
+					CaseReport existingCR = queueItemIndex.getQueueItem(patient);
+					String[] triggerNames;
+					if (patientIdTriggersMap != null) {
+						List<String> names = patientIdTriggersMap.get(patientId);
+						triggerNames = names.toArray(new String[names.size()]);
+					} else {
+						triggerNames = new String[] { triggerName };
+					}
+					CaseReport caseReport = createReportIfNecessary(patient, existingCR, autoSubmit, triggerNames);
+					if (caseReport != null) {
+						//We can't auto submit an existing report because the surveillance officer needs
+						//to take a look at the other triggers to be included in the existing report
+						boolean submit = caseReport.getId() == null && autoSubmit;
+						if (submit) {
+							caseReport.setAutoSubmitted(true);
+						}
+						caseReportService.saveCaseReport(caseReport);
+						if (submit) {
+							autoSubmitReportIds.add(caseReport.getId());
+						}
+					} else {
+						log.info(patient + " already has an item in the queue with the trigger(s) "
+						        + Arrays.toString(triggerNames));
+					}
+				}
+			}
+		}
+		finally {
+			queueItemIndex.close();
+		}
+		
+		return autoSubmitReportIds;
+	}
+	
+	/**
+	 * Gets the id of the last patient processed by an interrupted run of the specified task, the
+	 * checkpoint is ignored if it was recorded for a different evaluation window
+	 */
+	private static Integer getCheckpoint(TaskDefinition taskDefinition, String windowStart) {
+		String patientId = taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY);
+		String checkpointWindowStart = taskDefinition
+		        .getProperty(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY);
+		if (StringUtils.isBlank(patientId) || !windowStart.equals(StringUtils.defaultString(checkpointWindowStart))) {
+			return null;
+		}
+		
+		try {
+			return Integer.valueOf(patientId.trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn("Ignoring invalid checkpoint for the task " + taskDefinition.getName() + ": " + patientId);
+		}
+		
+		return null;
 	}
 	
 	/**
@@ -386,8 +1300,26 @@ public class CaseReportUtil {
 	 * @return the created trigger or none was created or if all the triggers are duplicates
 	 */
 	public static CaseReport createReportIfNecessary(Patient patient, boolean createNew, String... triggerNames) {
-		CaseReport caseReport;
 		CaseReport existingCR = Context.getService(CaseReportService.class).getCaseReportByPatient(patient);
+		return createReportIfNecessary(patient, existingCR, createNew, triggerNames);
+	}
+	
+	/**
+	 * Same as {@link #createReportIfNecessary(Patient, boolean, String...)} except that the caller
+	 * supplies the patient's existing queue item, this allows the caller to look up the queue items
+	 * of many patients in bulk.
+	 *
+	 * @param patient the patient to create a case report for
+	 * @param existingCR the patient's existing queue item or null if the patient has none
+	 * @param createNew Specifies if a new case report MUST be created
+	 * @param triggerNames the triggers to add
+	 * @return the created trigger or none was created or if all the triggers are duplicates
+	 * <strong>Should</strong> add the new triggers to the specified existing queue item
+	 * <strong>Should</strong> return null if the existing queue item has all the triggers
+	 */
+	public static CaseReport createReportIfNecessary(Patient patient, CaseReport existingCR, boolean createNew,
+	                                                 String... triggerNames) {
+		CaseReport caseReport;
 		if (createNew || existingCR == null) {
 			caseReport = new CaseReport();
 			caseReport.setPatient(patient);
@@ -415,4 +1347,44 @@ public class CaseReportUtil {
 		
 		return caseReport;
 	}
+	
+	/**
+	 * Holds the state of a single evaluation of a trigger's cohort query
+	 */
+	private static class TriggerRun {
+		
+		private TaskDefinition taskDefinition;
+		
+		private String triggerName;
+		
+		private boolean autoSubmit;
+		
+		private String windowStart;
+		
+		private Map<String, Object> params = new HashMap<>();
+		
+		private Map<WatermarkType, Long> newWatermarks = new EnumMap<>(WatermarkType.class);
+		
+		private Date windowEndTime;
+		
+		private Date pinnedExecutionTime;
+		
+		private Date rescanStart;
+		
+		private boolean useReplica;
+		
+		private boolean complete = true;
+		
+		private String watermarkSuffix = "";
+		
+		private Cohort cohort;
+		
+		private Date executionTime;
+		
+		TriggerRun(TaskDefinition taskDefinition, String triggerName) {
+			this.taskDefinition = taskDefinition;
+			this.triggerName = triggerName;
+			autoSubmit = "true".equals(taskDefinition.getProperty(CaseReportConstants.AUTO_SUBMIT_TASK_PROPERTY));
+		}
+	}
 }
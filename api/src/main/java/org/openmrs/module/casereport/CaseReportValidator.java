@@ -52,10 +52,18 @@ public class CaseReportValidator implements Validator {
 		CaseReport caseReport = (CaseReport) target;
 		ValidationUtils.rejectIfEmpty(errors, "patient", "casereports.error.patient.required");
 		if (!errors.hasErrors()) {
-			CaseReportService service = Context.getService(CaseReportService.class);
-			if (caseReport.getId() == null && !caseReport.getAutoSubmitted()
-			        && service.getCaseReportByPatient(caseReport.getPatient()) != null) {
-				errors.reject("casereports.error.patient.alreadyHasQueueItem");
+			if (caseReport.getId() == null && !caseReport.getAutoSubmitted()) {
+				//Use the queue items loaded by the running trigger if any instead of querying again
+				QueueItemIndex index = QueueItemIndex.getCurrent();
+				CaseReport existing;
+				if (index != null) {
+					existing = index.getQueueItem(caseReport.getPatient());
+				} else {
+					existing = Context.getService(CaseReportService.class).getCaseReportByPatient(caseReport.getPatient());
+				}
+				if (existing != null) {
+					errors.reject("casereports.error.patient.alreadyHasQueueItem");
+				}
 			}
 		}
 		
@@ -0,0 +1,142 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.Date;
+import java.util.Locale;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.api.context.Context;
+
+/**
+ * A compact read only representation of an observation that only holds the fields needed to report
+ * the value of a clinical fact, instances are created directly from query projections so that the
+ * full Obs object graph doesn't have to be loaded.
+ */
+public class ClinicalFact {
+	
+	private Integer obsId;
+	
+	private String uuid;
+	
+	private Integer patientId;
+	
+	private Integer conceptId;
+	
+	private Date obsDatetime;
+	
+	private Double valueNumeric;
+	
+	private Integer valueCodedId;
+	
+	private String valueCodedName;
+	
+	private String valueText;
+	
+	private Date valueDatetime;
+	
+	public ClinicalFact(Integer obsId, String uuid, Integer patientId, Integer conceptId, Date obsDatetime,
+	                    Double valueNumeric, Integer valueCodedId, String valueCodedName, String valueText, Date valueDatetime) {
+		this.obsId = obsId;
+		this.uuid = uuid;
+		this.patientId = patientId;
+		this.conceptId = conceptId;
+		this.obsDatetime = obsDatetime;
+		this.valueNumeric = valueNumeric;
+		this.valueCodedId = valueCodedId;
+		this.valueCodedName = valueCodedName;
+		this.valueText = valueText;
+		this.valueDatetime = valueDatetime;
+	}
+	
+	public Integer getObsId() {
+		return obsId;
+	}
+	
+	public String getUuid() {
+		return uuid;
+	}
+	
+	public Integer getPatientId() {
+		return patientId;
+	}
+	
+	public Integer getConceptId() {
+		return conceptId;
+	}
+	
+	public Date getObsDatetime() {
+		return obsDatetime;
+	}
+	
+	public Double getValueNumeric() {
+		return valueNumeric;
+	}
+	
+	public Integer getValueCodedId() {
+		return valueCodedId;
+	}
+	
+	public String getValueCodedName() {
+		return valueCodedName;
+	}
+	
+	public String getValueText() {
+		return valueText;
+	}
+	
+	public Date getValueDatetime() {
+		return valueDatetime;
+	}
+	
+	/**
+	 * Gets the coded value of the observation, the concept is looked up by its id so it is typically
+	 * returned from the session cache
+	 *
+	 * @return the coded value or null if the observation doesn't have one
+	 */
+	public Concept getValueCoded() {
+		if (valueCodedId == null) {
+			return null;
+		}
+		return Context.getConceptService().getConcept(valueCodedId);
+	}
+	
+	/**
+	 * Gets the value of the observation as a string the same way as {@link org.openmrs.Obs} does for
+	 * coded, numeric, text and date values
+	 *
+	 * @param locale the locale to use for the name of a coded value
+	 * @return the value as a string
+	 * <strong>Should</strong> return the same value as the observation for coded values
+	 */
+	public String getValueAsString(Locale locale) {
+		if (valueCodedId != null) {
+			if (valueCodedName != null) {
+				return valueCodedName;
+			}
+			ConceptName name = getValueCoded().getName(locale);
+			return name != null ? name.getName() : "";
+		}
+		if (valueNumeric != null) {
+			return valueNumeric.toString();
+		}
+		if (valueDatetime != null) {
+			return CaseReportConstants.DATE_FORMAT.format(valueDatetime);
+		}
+		return valueText != null ? valueText : "";
+	}
+	
+	@Override
+	public String toString() {
+		return "ClinicalFact #" + obsId;
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Coordinates trigger evaluations across the nodes of a cluster that share one database when the
+ * {@link CaseReportConstants#GP_CLUSTER_LEASES} global property is set to true, a node must hold
+ * the database lease of a trigger or of a shard of its cohort to evaluate it. Leases expire after
+ * the number of seconds set by the {@link CaseReportConstants#GP_LEASE_DURATION_SECONDS} global
+ * property unless they are renewed, a held lease is renewed in the background at a third of its
+ * duration for as long as it is held including while the cohort query runs, and again before each
+ * processed chunk of patients which stops the evaluation if another node reclaimed it. A lease held
+ * by a node that died is reclaimed by another node once it expires.
+ */
+public class ClusterLeases {
+	
+	protected static final Log log = LogFactory.getLog(ClusterLeases.class);
+	
+	private static final int DEFAULT_LEASE_DURATION = 300;
+	
+	private static final String NODE_ID = resolveNodeId();
+	
+	private static final ThreadLocal<Map<String, Heartbeat>> heldLeases = new ThreadLocal<Map<String, Heartbeat>>() {
+		
+		@Override
+		protected Map<String, Heartbeat> initialValue() {
+			return new LinkedHashMap<>();
+		}
+	};
+	
+	private static ScheduledExecutorService heartbeatExecutor;
+	
+	/**
+	 * Checks if the trigger evaluations are coordinated with database leases
+	 *
+	 * @return true if leases are enabled otherwise false
+	 */
+	public static boolean isEnabled() {
+		String value = Context.getAdministrationService().getGlobalProperty(CaseReportConstants.GP_CLUSTER_LEASES);
+		return "true".equalsIgnoreCase(StringUtils.trimToEmpty(value));
+	}
+	
+	/**
+	 * Gets the number of shards the cohort of a trigger is split into by patient id
+	 *
+	 * @return the number of shards
+	 */
+	public static int getShardCount() {
+		return Math.max(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_TRIGGER_SHARDS, 1), 1);
+	}
+	
+	/**
+	 * Gets the identifier of this node, it is unique for each start of the JVM
+	 *
+	 * @return the node identifier
+	 */
+	public static String getNodeId() {
+		return NODE_ID;
+	}
+	
+	/**
+	 * Acquires the lease with the specified name for this node
+	 *
+	 * @param name the lease name
+	 * @return true if the lease was acquired otherwise false
+	 */
+	public static boolean acquire(String name) {
+		try {
+			if (Context.getService(CaseReportService.class).acquireTriggerLease(name, NODE_ID, getLeaseDuration())) {
+				heldLeases.get().put(name, startHeartbeat(name));
+				return true;
+			}
+		}
+		catch (Exception e) {
+			//Most likely another node inserted the same lease at the same time
+			log.warn("Failed to acquire the lease: " + name, e);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Releases the lease with the specified name held by this node
+	 *
+	 * @param name the lease name
+	 */
+	public static void release(String name) {
+		Heartbeat heartbeat = heldLeases.get().remove(name);
+		if (heartbeat != null) {
+			heartbeat.stop();
+		}
+		try {
+			Context.getService(CaseReportService.class).releaseTriggerLease(name, NODE_ID);
+		}
+		catch (Exception e) {
+			log.warn("Failed to release the lease: " + name + ", it will be reclaimed when it expires", e);
+		}
+	}
+	
+	/**
+	 * Renews the leases held by the current thread, an evaluation must stop if this fails since
+	 * another node has reclaimed its lease.
+	 *
+	 * @throws APIException if a held lease was reclaimed by another node
+	 */
+	public static void renewHeld() throws APIException {
+		for (String name : heldLeases.get().keySet()) {
+			if (!Context.getService(CaseReportService.class).acquireTriggerLease(name, NODE_ID, getLeaseDuration())) {
+				throw new APIException("The lease " + name + " was reclaimed by another node");
+			}
+		}
+	}
+	
+	/**
+	 * Stops renewing the held leases in the background, should be called when the module is stopped
+	 */
+	public static synchronized void stop() {
+		if (heartbeatExecutor != null) {
+			heartbeatExecutor.shutdownNow();
+			heartbeatExecutor = null;
+		}
+	}
+	
+	private static synchronized Heartbeat startHeartbeat(String name) {
+		if (heartbeatExecutor == null) {
+			heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "casereport-lease-heartbeat");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		
+		Heartbeat heartbeat = new Heartbeat(name, Context.getUserContext());
+		long period = Math.max(getLeaseDuration() / 3, 1);
+		heartbeat.future = heartbeatExecutor.scheduleWithFixedDelay(heartbeat, period, period, TimeUnit.SECONDS);
+		
+		return heartbeat;
+	}
+	
+	private static int getLeaseDuration() {
+		return Math.max(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_LEASE_DURATION_SECONDS,
+		    DEFAULT_LEASE_DURATION), 1);
+	}
+	
+	private static String resolveNodeId() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		}
+		catch (Exception e) {
+			host = "unknown";
+		}
+		
+		return host + ":" + UUID.randomUUID();
+	}
+	
+	/**
+	 * Renews a held lease in its own session, it is stopped before the lease is released so that it
+	 * can't acquire the lease again after the release
+	 */
+	private static class Heartbeat implements Runnable {
+		
+		private final String name;
+		
+		private final UserContext userContext;
+		
+		private ScheduledFuture<?> future;
+		
+		private boolean stopped;
+		
+		Heartbeat(String name, UserContext userContext) {
+			this.name = name;
+			this.userContext = userContext;
+		}
+		
+		@Override
+		public synchronized void run() {
+			if (stopped) {
+				return;
+			}
+			
+			Context.openSession();
+			try {
+				Context.setUserContext(userContext);
+				if (!Context.getService(CaseReportService.class).acquireTriggerLease(name, NODE_ID, getLeaseDuration())) {
+					log.warn("The lease " + name + " was reclaimed by another node");
+				}
+			}
+			catch (Exception e) {
+				log.warn("Failed to renew the lease: " + name, e);
+			}
+			finally {
+				Context.closeSession();
+			}
+		}
+		
+		synchronized void stop() {
+			stopped = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+
+/**
+ * Caches the ids of the concepts that concept mappings resolve to and the ids of the members of the
+ * CIEL ARV medication set so that they are not looked up via ConceptService on every trigger run,
+ * report form and submission. The cache is cleared by {@link ConceptMappingCacheAdvice} whenever a
+ * concept, concept source or reference term is saved, retired or purged. Only resolved mappings are
+ * cached, a mapping that doesn't resolve is looked up again the next time.
+ */
+public class ConceptMappingCache {
+	
+	protected static final Log log = LogFactory.getLog(ConceptMappingCache.class);
+	
+	private static final ConcurrentMap<String, Integer> mappingConceptIds = new ConcurrentHashMap<>();
+	
+	private static volatile Set<Integer> arvMedSetMemberIds;
+	
+	private static final AtomicLong generation = new AtomicLong();
+	
+	private static final AtomicLong hits = new AtomicLong();
+	
+	private static final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Gets the concept with a mapping to the specified source and code
+	 *
+	 * @param code the code to match
+	 * @param source the name or hl7 code of the concept source to match
+	 * @return the concept or null if no match is found
+	 * <strong>Should</strong> return the concept with the mapping
+	 * <strong>Should</strong> only query the concept service once for the same mapping
+	 * <strong>Should</strong> return null if no match is found
+	 */
+	public static Concept getConcept(String code, String source) {
+		String key = getKey(code, source);
+		Integer conceptId = mappingConceptIds.get(key);
+		if (conceptId != null) {
+			Concept concept = Context.getConceptService().getConcept(conceptId);
+			if (concept != null) {
+				hits.incrementAndGet();
+				return concept;
+			}
+			mappingConceptIds.remove(key, conceptId);
+		}
+		
+		misses.incrementAndGet();
+		long gen = generation.get();
+		Concept concept = Context.getConceptService().getConceptByMapping(code, source);
+		if (concept != null && gen == generation.get()) {
+			mappingConceptIds.put(key, concept.getConceptId());
+		}
+		
+		return concept;
+	}
+	
+	/**
+	 * Gets the id of the concept with a mapping to the specified source and code
+	 *
+	 * @param code the code to match
+	 * @param source the name or hl7 code of the concept source to match
+	 * @return the concept id or null if no match is found
+	 */
+	public static Integer getConceptId(String code, String source) {
+		Integer conceptId = mappingConceptIds.get(getKey(code, source));
+		if (conceptId != null) {
+			hits.incrementAndGet();
+			return conceptId;
+		}
+		
+		Concept concept = getConcept(code, source);
+		return concept != null ? concept.getConceptId() : null;
+	}
+	
+	/**
+	 * Gets the ids of the members of the CIEL ARV medication set
+	 *
+	 * @return an unmodifiable set of concept ids
+	 * <strong>Should</strong> return the ids of the members of the arv medication set
+	 */
+	public static Set<Integer> getArvMedSetMemberIds() {
+		Set<Integer> memberIds = arvMedSetMemberIds;
+		if (memberIds != null) {
+			hits.incrementAndGet();
+			return memberIds;
+		}
+		
+		long gen = generation.get();
+		Concept arvMedset = CaseReportUtil.getCeilConceptByCode(CaseReportConstants.CIEL_CODE_ARV_MED_SET);
+		misses.incrementAndGet();
+		memberIds = new HashSet<>();
+		for (Concept member : arvMedset.getSetMembers()) {
+			memberIds.add(member.getConceptId());
+		}
+		memberIds = Collections.unmodifiableSet(memberIds);
+		if (gen == generation.get()) {
+			arvMedSetMemberIds = memberIds;
+		}
+		
+		return memberIds;
+	}
+	
+	/**
+	 * Removes all the cached mappings and the ARV medication set member ids
+	 *
+	 * <strong>Should</strong> remove all the cached entries
+	 */
+	public static void clear() {
+		//Bumping the generation first makes lookups that are in flight discard what they loaded
+		generation.incrementAndGet();
+		mappingConceptIds.clear();
+		arvMedSetMemberIds = null;
+		if (log.isDebugEnabled()) {
+			log.debug("Cleared the concept mapping cache");
+		}
+	}
+	
+	/**
+	 * @return the number of lookups that were served from the cache
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return the number of lookups that had to query the concept service
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return the number of cached mappings
+	 */
+	public static int size() {
+		return mappingConceptIds.size();
+	}
+	
+	private static String getKey(String code, String source) {
+		return source + ":" + code;
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.lang.reflect.Method;
+
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Clears the {@link ConceptMappingCache} when concepts, concept sources or reference terms are
+ * saved, retired, unretired or purged, it is registered as advice around ConceptService in
+ * config.xml
+ */
+public class ConceptMappingCacheAdvice implements AfterReturningAdvice {
+	
+	private static final String[] MODIFYING_METHOD_PREFIXES = { "save", "retire", "unretire", "purge" };
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 * <strong>Should</strong> clear the cache when a concept is saved
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		for (String prefix : MODIFYING_METHOD_PREFIXES) {
+			if (method.getName().startsWith(prefix)) {
+				ConceptMappingCache.clear();
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * An instance of this task evaluates the sql cohort queries of all the triggers in a single pass
+ * when the {@link CaseReportConstants#GP_FUSED_TRIGGER_EVALUATION} global property is set to true,
+ * in which case the individual case report tasks skip their runs. The property is ignored while a
+ * trigger task uses a quota or has a pending checkpoint or the cohorts are split into shards, see
+ * {@link CaseReportUtil#isFusedEvaluationEnabled()}.
+ */
+public class FusedCaseReportTask extends AbstractTask {
+	
+	protected Log log = LogFactory.getLog(getClass());
+	
+	/**
+	 * @see AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (!isExecuting) {
+			if (!CaseReportUtil.isFusedEvaluationEnabled()) {
+				if (log.isDebugEnabled()) {
+					log.debug("Skipping the fused trigger evaluation task since it is disabled");
+				}
+				return;
+			}
+			
+			startExecuting();
+			try {
+				CaseReportUtil.executeFusedTask(getTaskDefinition());
+			}
+			catch (Exception e) {
+				log.error("Error while running the fused trigger evaluation task: ", e);
+			}
+			finally {
+				stopExecuting();
+			}
+		}
+	}
+}
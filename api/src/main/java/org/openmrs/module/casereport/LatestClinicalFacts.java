@@ -0,0 +1,107 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Holds the latest clinical facts of a set of concepts for a set of patients, they are loaded with
+ * a single query for all the patients and concepts via
+ * {@link CaseReportService#getLatestClinicalFacts(Collection, Collection, int)} and looked up by
+ * patient id and CIEL code.
+ */
+public class LatestClinicalFacts {
+	
+	private Map<String, Concept> codeConceptMap;
+	
+	private Map<String, List<ClinicalFact>> patientConceptFactsMap = new HashMap<>();
+	
+	private LatestClinicalFacts(Map<String, Concept> codeConceptMap) {
+		this.codeConceptMap = codeConceptMap;
+	}
+	
+	/**
+	 * Loads the latest clinical facts of the concepts mapped to the specified CIEL codes for the
+	 * patients with the specified ids
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @param maxResultsPerConcept the maximum number of facts to load per patient and concept
+	 * @param cielCodes the CIEL codes of the concepts to match against
+	 * @return the loaded facts
+	 * <strong>Should</strong> load the latest facts of the concepts for each patient
+	 */
+	public static LatestClinicalFacts load(Collection<Integer> patientIds, int maxResultsPerConcept, String... cielCodes) {
+		Map<String, Concept> codeConceptMap = new LinkedHashMap<>();
+		for (String code : cielCodes) {
+			codeConceptMap.put(code, CaseReportUtil.getCeilConceptByCode(code));
+		}
+		
+		LatestClinicalFacts facts = new LatestClinicalFacts(codeConceptMap);
+		CaseReportService service = Context.getService(CaseReportService.class);
+		for (ClinicalFact fact : service.getLatestClinicalFacts(patientIds, codeConceptMap.values(),
+		    maxResultsPerConcept)) {
+			String key = getKey(fact.getPatientId(), fact.getConceptId());
+			List<ClinicalFact> factList = facts.patientConceptFactsMap.get(key);
+			if (factList == null) {
+				factList = new ArrayList<>(maxResultsPerConcept);
+				facts.patientConceptFactsMap.put(key, factList);
+			}
+			factList.add(fact);
+		}
+		
+		return facts;
+	}
+	
+	/**
+	 * Gets the latest facts of the concept mapped to the specified CIEL code for the patient with the
+	 * specified id, they are ordered in a way such that the most recent comes first.
+	 *
+	 * @param patientId the patient id to match against
+	 * @param cielCode the CIEL code of the concept to match against, must be one of the loaded codes
+	 * @return a list of facts
+	 * <strong>Should</strong> return an empty list for a patient with no facts
+	 */
+	public List<ClinicalFact> get(Integer patientId, String cielCode) {
+		Concept concept = codeConceptMap.get(cielCode);
+		if (concept == null) {
+			throw new IllegalArgumentException("The facts of the concept with code " + cielCode + " were not loaded");
+		}
+		
+		List<ClinicalFact> factList = patientConceptFactsMap.get(getKey(patientId, concept.getConceptId()));
+		return factList != null ? factList : Collections.<ClinicalFact> emptyList();
+	}
+	
+	/**
+	 * Gets the most recent fact of the concept mapped to the specified CIEL code for the patient with
+	 * the specified id
+	 *
+	 * @param patientId the patient id to match against
+	 * @param cielCode the CIEL code of the concept to match against, must be one of the loaded codes
+	 * @return the most recent fact or null if there is none
+	 */
+	public ClinicalFact getLatest(Integer patientId, String cielCode) {
+		List<ClinicalFact> factList = get(patientId, cielCode);
+		return factList.isEmpty() ? null : factList.get(0);
+	}
+	
+	private static String getKey(Integer patientId, Integer conceptId) {
+		return patientId + ":" + conceptId;
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.Visit;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Maintains the {@link PatientClinicalSummary} of each patient when the
+ * {@link CaseReportConstants#GP_PATIENT_CLINICAL_SUMMARIES} global property is set to true. A
+ * patient's summary is updated by {@link PatientClinicalSummaryAdvice} in a new transaction after
+ * the one that saved an obs, order, encounter or visit that affects it commits, the summaries of
+ * all the patients are backfilled in batches by the patient summary rebuild task.
+ */
+public class PatientClinicalSummaries implements GlobalPropertyListener {
+	
+	protected static final Log log = LogFactory.getLog(PatientClinicalSummaries.class);
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private static final String REBUILD_CHECKPOINT = "PATIENT";
+	
+	private static final PatientClinicalSummaries listener = new PatientClinicalSummaries();
+	
+	private static volatile boolean enabled;
+	
+	/**
+	 * Reads the setting and starts listening for changes to it, should be called when the module is
+	 * started
+	 */
+	public static synchronized void start() {
+		refreshSettings();
+		//A restarted module must not register the listener twice
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+		Context.getAdministrationService().addGlobalPropertyListener(listener);
+	}
+	
+	/**
+	 * Stops listening for changes to the setting, should be called when the module is stopped
+	 *
+	 * <strong>Should</strong> stop listening for changes to the setting
+	 */
+	public static synchronized void stop() {
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+		enabled = false;
+	}
+	
+	/**
+	 * @return true if the patient clinical summaries are maintained otherwise false
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Computes and saves the clinical summaries of the patients with the specified ids, the data of
+	 * all the patients is loaded with a handful of set based queries.
+	 *
+	 * @param patientIds the ids of the patients to update
+	 * @return a list of the updated summaries
+	 * <strong>Should</strong> save the latest clinical data of the patients
+	 * <strong>Should</strong> update an existing summary
+	 * <strong>Should</strong> clear the values that no longer exist
+	 */
+	public static List<PatientClinicalSummary> update(Collection<Integer> patientIds) {
+		List<PatientClinicalSummary> summaries = new ArrayList<>(patientIds.size());
+		if (patientIds.isEmpty()) {
+			return summaries;
+		}
+		
+		CaseReportService service = Context.getService(CaseReportService.class);
+		Map<Integer, PatientClinicalSummary> patientIdSummaryMap = new HashMap<>();
+		for (PatientClinicalSummary summary : service.getPatientClinicalSummaries(patientIds)) {
+			patientIdSummaryMap.put(summary.getPatientId(), summary);
+		}
+		
+		LatestClinicalFacts facts = LatestClinicalFacts.load(patientIds, 1, CaseReportForm.CLINICAL_FACT_CIEL_CODES);
+		Map<Integer, List<DrugOrder>> patientArvOrdersMap = CaseReportUtil.getActiveArvDrugOrders(patientIds, null);
+		Map<Integer, Visit> patientLastVisitMap = new HashMap<>();
+		for (Visit visit : service.getLastVisits(patientIds)) {
+			patientLastVisitMap.put(visit.getPatient().getPatientId(), visit);
+		}
+		
+		for (Integer patientId : patientIds) {
+			PatientClinicalSummary summary = patientIdSummaryMap.get(patientId);
+			if (summary == null) {
+				summary = new PatientClinicalSummary(patientId);
+			}
+			
+			ClinicalFact viralLoad = facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_VIRAL_LOAD);
+			summary.setViralLoadObsId(viralLoad != null ? viralLoad.getObsId() : null);
+			summary.setViralLoad(viralLoad != null ? viralLoad.getValueNumeric() : null);
+			summary.setViralLoadDate(viralLoad != null ? viralLoad.getObsDatetime() : null);
+			
+			ClinicalFact cd4Count = facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_CD4_COUNT);
+			summary.setCd4CountObsId(cd4Count != null ? cd4Count.getObsId() : null);
+			summary.setCd4Count(cd4Count != null ? cd4Count.getValueNumeric() : null);
+			summary.setCd4CountDate(cd4Count != null ? cd4Count.getObsDatetime() : null);
+			
+			ClinicalFact hivTest = facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_HIV_TEST);
+			summary.setHivTestObsId(hivTest != null ? hivTest.getObsId() : null);
+			summary.setHivTestResultConceptId(hivTest != null ? hivTest.getValueCodedId() : null);
+			summary.setHivTestDate(hivTest != null ? hivTest.getObsDatetime() : null);
+			
+			ClinicalFact whoStage = facts.getLatest(patientId, CaseReportConstants.CIEL_CODE_WHO_STAGE);
+			summary.setWhoStageObsId(whoStage != null ? whoStage.getObsId() : null);
+			summary.setWhoStageConceptId(whoStage != null ? whoStage.getValueCodedId() : null);
+			
+			ClinicalFact arvStopReason = facts.getLatest(patientId,
+			    CaseReportConstants.CIEL_CODE_REASON_FOR_STOPPING_ARVS);
+			summary.setArvStopReasonObsId(arvStopReason != null ? arvStopReason.getObsId() : null);
+			summary.setArvStopReasonConceptId(arvStopReason != null ? arvStopReason.getValueCodedId() : null);
+			
+			List<Integer> arvOrderIds = new ArrayList<>();
+			List<DrugOrder> arvOrders = patientArvOrdersMap.get(patientId);
+			if (arvOrders != null) {
+				for (DrugOrder order : arvOrders) {
+					arvOrderIds.add(order.getOrderId());
+				}
+			}
+			summary.setArvOrderIdList(arvOrderIds);
+			
+			Visit lastVisit = patientLastVisitMap.get(patientId);
+			summary.setLastVisitId(lastVisit != null ? lastVisit.getVisitId() : null);
+			summary.setLastVisitDate(lastVisit != null ? lastVisit.getStartDatetime() : null);
+			
+			summaries.add(service.savePatientClinicalSummary(summary));
+		}
+		
+		return summaries;
+	}
+	
+	/**
+	 * Rebuilds the clinical summaries of all the patients in batches, the last processed patient id
+	 * is checkpointed after each batch so that an interrupted rebuild resumes where it left off.
+	 *
+	 * @return the number of patients whose summaries were rebuilt
+	 * <strong>Should</strong> rebuild the summaries of all the patients
+	 */
+	public static int rebuild() {
+		CaseReportService service = Context.getService(CaseReportService.class);
+		TriggerWatermark checkpoint = service.getTriggerWatermark(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME,
+		    REBUILD_CHECKPOINT);
+		if (checkpoint == null) {
+			checkpoint = new TriggerWatermark(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME, REBUILD_CHECKPOINT);
+			checkpoint.setValue(0L);
+		}
+		
+		int count = 0;
+		List<Integer> patientIds = service.getPatientIds(checkpoint.getValue().intValue(), BATCH_SIZE);
+		while (!patientIds.isEmpty()) {
+			update(patientIds);
+			count += patientIds.size();
+			checkpoint.setValue(patientIds.get(patientIds.size() - 1).longValue());
+			service.saveTriggerWatermark(checkpoint);
+			Context.flushSession();
+			Context.clearSession();
+			patientIds = service.getPatientIds(checkpoint.getValue().intValue(), BATCH_SIZE);
+		}
+		
+		//The next rebuild starts over from the first patient
+		checkpoint.setValue(0L);
+		service.saveTriggerWatermark(checkpoint);
+		log.info("Rebuilt the clinical summaries of " + count + " patient(s)");
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the id of the patient whose clinical summary is affected by the specified saved object
+	 *
+	 * @param object the saved obs, order, encounter or visit
+	 * @return the patient id or null if no summary is affected
+	 * <strong>Should</strong> return the patient id for an obs of a summary concept
+	 * <strong>Should</strong> return null for an obs of any other concept
+	 * <strong>Should</strong> return the patient id for an ARV drug order
+	 * <strong>Should</strong> return the patient id for a visit
+	 */
+	public static Integer getAffectedPatientId(Object object) {
+		if (object instanceof Obs) {
+			Obs obs = (Obs) object;
+			if (CaseReportForm.getClinicalFactConceptIds().contains(obs.getConcept().getConceptId())) {
+				return obs.getPerson().getPersonId();
+			}
+		} else if (object instanceof Order) {
+			Order order = (Order) object;
+			if (ConceptMappingCache.getArvMedSetMemberIds().contains(order.getConcept().getConceptId())) {
+				return order.getPatient().getPatientId();
+			}
+		} else if (object instanceof Encounter) {
+			Encounter encounter = (Encounter) object;
+			//Obs and orders saved with an encounter are cascaded and don't go through their services
+			for (Obs obs : encounter.getAllObs(true)) {
+				if (getAffectedPatientId(obs) != null) {
+					return encounter.getPatient().getPatientId();
+				}
+			}
+			for (Order order : encounter.getOrders()) {
+				if (getAffectedPatientId(order) != null) {
+					return encounter.getPatient().getPatientId();
+				}
+			}
+		} else if (object instanceof Visit) {
+			return ((Visit) object).getPatient().getPatientId();
+		}
+		
+		return null;
+	}
+	
+	private static void refreshSettings() {
+		String value = Context.getAdministrationService().getGlobalProperty(
+		    CaseReportConstants.GP_PATIENT_CLINICAL_SUMMARIES);
+		enabled = "true".equalsIgnoreCase(StringUtils.trimToEmpty(value));
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return CaseReportConstants.GP_PATIENT_CLINICAL_SUMMARIES.equals(propertyName);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		refreshSettings();
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		refreshSettings();
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.BaseOpenmrsObject;
+
+/**
+ * An instance of this class holds the latest clinical data of a patient that is included in case
+ * reports i.e. the latest viral load, CD4 count, HIV test, WHO stage, reason for stopping ARVs, the
+ * active ARV drug orders and the last visit, so that it can be read as a single row instead of
+ * being derived from the obs, orders and visit tables each time. It is kept up to date as the
+ * patient's data is saved, note that the active ARV orders are only as current as the last update
+ * since orders can expire without being saved.
+ * 
+ * @see PatientClinicalSummaries
+ */
+public class PatientClinicalSummary extends BaseOpenmrsObject implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final String ID_SEPARATOR = ",";
+	
+	private Integer patientClinicalSummaryId;
+	
+	private Integer patientId;
+	
+	private Integer viralLoadObsId;
+	
+	private Double viralLoad;
+	
+	private Date viralLoadDate;
+	
+	private Integer cd4CountObsId;
+	
+	private Double cd4Count;
+	
+	private Date cd4CountDate;
+	
+	private Integer hivTestObsId;
+	
+	private Integer hivTestResultConceptId;
+	
+	private Date hivTestDate;
+	
+	private Integer whoStageObsId;
+	
+	private Integer whoStageConceptId;
+	
+	private Integer arvStopReasonObsId;
+	
+	private Integer arvStopReasonConceptId;
+	
+	private String arvOrderIds;
+	
+	private Integer lastVisitId;
+	
+	private Date lastVisitDate;
+	
+	private Date dateUpdated;
+	
+	public PatientClinicalSummary() {
+	}
+	
+	public PatientClinicalSummary(Integer patientId) {
+		this.patientId = patientId;
+	}
+	
+	public Integer getPatientClinicalSummaryId() {
+		return patientClinicalSummaryId;
+	}
+	
+	public void setPatientClinicalSummaryId(Integer patientClinicalSummaryId) {
+		this.patientClinicalSummaryId = patientClinicalSummaryId;
+	}
+	
+	public Integer getPatientId() {
+		return patientId;
+	}
+	
+	public void setPatientId(Integer patientId) {
+		this.patientId = patientId;
+	}
+	
+	public Integer getViralLoadObsId() {
+		return viralLoadObsId;
+	}
+	
+	public void setViralLoadObsId(Integer viralLoadObsId) {
+		this.viralLoadObsId = viralLoadObsId;
+	}
+	
+	public Double getViralLoad() {
+		return viralLoad;
+	}
+	
+	public void setViralLoad(Double viralLoad) {
+		this.viralLoad = viralLoad;
+	}
+	
+	public Date getViralLoadDate() {
+		return viralLoadDate;
+	}
+	
+	public void setViralLoadDate(Date viralLoadDate) {
+		this.viralLoadDate = viralLoadDate;
+	}
+	
+	public Integer getCd4CountObsId() {
+		return cd4CountObsId;
+	}
+	
+	public void setCd4CountObsId(Integer cd4CountObsId) {
+		this.cd4CountObsId = cd4CountObsId;
+	}
+	
+	public Double getCd4Count() {
+		return cd4Count;
+	}
+	
+	public void setCd4Count(Double cd4Count) {
+		this.cd4Count = cd4Count;
+	}
+	
+	public Date getCd4CountDate() {
+		return cd4CountDate;
+	}
+	
+	public void setCd4CountDate(Date cd4CountDate) {
+		this.cd4CountDate = cd4CountDate;
+	}
+	
+	public Integer getHivTestObsId() {
+		return hivTestObsId;
+	}
+	
+	public void setHivTestObsId(Integer hivTestObsId) {
+		this.hivTestObsId = hivTestObsId;
+	}
+	
+	public Integer getHivTestResultConceptId() {
+		return hivTestResultConceptId;
+	}
+	
+	public void setHivTestResultConceptId(Integer hivTestResultConceptId) {
+		this.hivTestResultConceptId = hivTestResultConceptId;
+	}
+	
+	public Date getHivTestDate() {
+		return hivTestDate;
+	}
+	
+	public void setHivTestDate(Date hivTestDate) {
+		this.hivTestDate = hivTestDate;
+	}
+	
+	public Integer getWhoStageObsId() {
+		return whoStageObsId;
+	}
+	
+	public void setWhoStageObsId(Integer whoStageObsId) {
+		this.whoStageObsId = whoStageObsId;
+	}
+	
+	public Integer getWhoStageConceptId() {
+		return whoStageConceptId;
+	}
+	
+	public void setWhoStageConceptId(Integer whoStageConceptId) {
+		this.whoStageConceptId = whoStageConceptId;
+	}
+	
+	public Integer getArvStopReasonObsId() {
+		return arvStopReasonObsId;
+	}
+	
+	public void setArvStopReasonObsId(Integer arvStopReasonObsId) {
+		this.arvStopReasonObsId = arvStopReasonObsId;
+	}
+	
+	public Integer getArvStopReasonConceptId() {
+		return arvStopReasonConceptId;
+	}
+	
+	public void setArvStopReasonConceptId(Integer arvStopReasonConceptId) {
+		this.arvStopReasonConceptId = arvStopReasonConceptId;
+	}
+	
+	public String getArvOrderIds() {
+		return arvOrderIds;
+	}
+	
+	public void setArvOrderIds(String arvOrderIds) {
+		this.arvOrderIds = arvOrderIds;
+	}
+	
+	/**
+	 * @return the ids of the active ARV drug orders
+	 */
+	public List<Integer> getArvOrderIdList() {
+		List<Integer> orderIds = new ArrayList<>();
+		if (StringUtils.isNotBlank(arvOrderIds)) {
+			for (String orderId : arvOrderIds.split(ID_SEPARATOR)) {
+				orderIds.add(Integer.valueOf(orderId));
+			}
+		}
+		
+		return orderIds;
+	}
+	
+	/**
+	 * @param orderIds the ids of the active ARV drug orders
+	 */
+	public void setArvOrderIdList(List<Integer> orderIds) {
+		setArvOrderIds(orderIds.isEmpty() ? null : StringUtils.join(orderIds, ID_SEPARATOR));
+	}
+	
+	public Integer getLastVisitId() {
+		return lastVisitId;
+	}
+	
+	public void setLastVisitId(Integer lastVisitId) {
+		this.lastVisitId = lastVisitId;
+	}
+	
+	public Date getLastVisitDate() {
+		return lastVisitDate;
+	}
+	
+	public void setLastVisitDate(Date lastVisitDate) {
+		this.lastVisitDate = lastVisitDate;
+	}
+	
+	public Date getDateUpdated() {
+		return dateUpdated;
+	}
+	
+	public void setDateUpdated(Date dateUpdated) {
+		this.dateUpdated = dateUpdated;
+	}
+	
+	@Override
+	public Integer getId() {
+		return getPatientClinicalSummaryId();
+	}
+	
+	@Override
+	public void setId(Integer id) {
+		setPatientClinicalSummaryId(id);
+	}
+	
+	@Override
+	public String toString() {
+		return "Clinical summary of patient #" + patientId;
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Updates the clinical summary of the patient whose obs, orders, encounters or visits are saved,
+ * voided or unvoided, it is registered as advice around ObsService, OrderService, EncounterService
+ * and VisitService in config.xml. The summaries are updated in a separate transaction after the
+ * caller's transaction commits so that a failure to update them can never fail the clinical save.
+ * 
+ * @see PatientClinicalSummaries
+ */
+public class PatientClinicalSummaryAdvice implements AfterReturningAdvice {
+	
+	protected static final Log log = LogFactory.getLog(PatientClinicalSummaryAdvice.class);
+	
+	private static final String[] METHOD_PREFIXES = { "save", "void", "unvoid", "discontinue", "end" };
+	
+	private static final String[] PROXY_PRIVILEGES = { PrivilegeConstants.VIEW_OBS, PrivilegeConstants.VIEW_ORDERS,
+	        PrivilegeConstants.VIEW_VISITS, PrivilegeConstants.VIEW_CONCEPTS, CaseReportConstants.PRIV_MANAGE_CASE_REPORTS };
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 * <strong>Should</strong> update the summary of the patient of a saved obs after the transaction commits
+	 * <strong>Should</strong> do nothing if the summaries are disabled
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (returnValue == null || !PatientClinicalSummaries.isEnabled() || !isSupported(method)) {
+			return;
+		}
+		
+		Integer patientId;
+		//The user saving the clinical data doesn't need the case report privileges
+		addProxyPrivileges();
+		try {
+			patientId = PatientClinicalSummaries.getAffectedPatientId(returnValue);
+		}
+		catch (Exception e) {
+			log.warn("Failed to get the patient whose clinical summary is affected by " + returnValue, e);
+			return;
+		}
+		finally {
+			removeProxyPrivileges();
+		}
+		
+		if (patientId == null) {
+			return;
+		}
+		
+		PendingUpdates pendingUpdates = getPendingUpdates();
+		if (pendingUpdates != null) {
+			pendingUpdates.patientIds.add(patientId);
+		} else {
+			//No transaction to wait for
+			new PendingUpdates(patientId).afterCommit();
+		}
+	}
+	
+	/**
+	 * Gets the summary updates waiting for the current transaction to commit, they are registered
+	 * on the first call in the transaction
+	 * 
+	 * @return the pending updates or null if there is no active transaction
+	 */
+	static PendingUpdates getPendingUpdates() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof PendingUpdates) {
+				return (PendingUpdates) synchronization;
+			}
+		}
+		
+		PendingUpdates pendingUpdates = new PendingUpdates();
+		TransactionSynchronizationManager.registerSynchronization(pendingUpdates);
+		return pendingUpdates;
+	}
+	
+	private boolean isSupported(Method method) {
+		for (String prefix : METHOD_PREFIXES) {
+			if (method.getName().startsWith(prefix)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static void addProxyPrivileges() {
+		for (String privilege : PROXY_PRIVILEGES) {
+			Context.addProxyPrivilege(privilege);
+		}
+	}
+	
+	private static void removeProxyPrivileges() {
+		for (String privilege : PROXY_PRIVILEGES) {
+			Context.removeProxyPrivilege(privilege);
+		}
+	}
+	
+	/**
+	 * Collects the ids of the patients whose summaries are affected in a transaction and updates them
+	 * in a new transaction once it commits
+	 */
+	static class PendingUpdates extends TransactionSynchronizationAdapter {
+		
+		private Set<Integer> patientIds = new TreeSet<>();
+		
+		PendingUpdates(Integer... patientIds) {
+			this.patientIds.addAll(Arrays.asList(patientIds));
+		}
+		
+		Set<Integer> getPatientIds() {
+			return patientIds;
+		}
+		
+		/**
+		 * @see TransactionSynchronizationAdapter#afterCommit()
+		 */
+		@Override
+		public void afterCommit() {
+			addProxyPrivileges();
+			try {
+				CaseReportService service = Context.getService(CaseReportService.class);
+				try {
+					service.updatePatientClinicalSummaries(patientIds);
+				}
+				catch (Exception e) {
+					//Another transaction may have inserted the first summary of one of the patients, the
+					//retry finds it and updates it instead
+					service.updatePatientClinicalSummaries(patientIds);
+				}
+			}
+			catch (Exception e) {
+				log.warn("Failed to update the clinical summaries of the patients: " + patientIds, e);
+			}
+			finally {
+				removeProxyPrivileges();
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * An instance of this task rebuilds the clinical summaries of all the patients when the
+ * {@link CaseReportConstants#GP_PATIENT_CLINICAL_SUMMARIES} global property is set to true, it is
+ * used to backfill the summaries and to catch up with ARV orders that expired since the last update.
+ * 
+ * @see PatientClinicalSummaries
+ */
+public class PatientClinicalSummaryRebuildTask extends AbstractTask {
+	
+	protected Log log = LogFactory.getLog(getClass());
+	
+	/**
+	 * @see AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (!isExecuting) {
+			if (!PatientClinicalSummaries.isEnabled()) {
+				if (log.isDebugEnabled()) {
+					log.debug("Skipping the patient summary rebuild task since the summaries are disabled");
+				}
+				return;
+			}
+			
+			startExecuting();
+			try {
+				PatientClinicalSummaries.rebuild();
+			}
+			catch (Exception e) {
+				log.error("Error while running the patient summary rebuild task: ", e);
+			}
+			finally {
+				stopExecuting();
+			}
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A compressed set of patient ids used by the trigger evaluation pipeline to combine and diff
+ * cohorts without boxing each id. The ids are split into blocks of 65536 consecutive values keyed
+ * by their high 16 bits, a block with few ids is stored as a sorted array of the low 16 bits while
+ * a dense block is stored as a bit set of 1024 words. Union, intersection and difference are
+ * computed block by block and return new instances, iteration is in ascending order of the ids.
+ * Instances are not thread safe.
+ */
+public class PatientIdBitmap implements Iterable<Integer> {
+	
+	private final TreeMap<Integer, Container> containers = new TreeMap<>();
+	
+	/**
+	 * Creates a bitmap with the specified patient ids
+	 *
+	 * @param patientIds the patient ids to add
+	 * @return the bitmap
+	 */
+	public static PatientIdBitmap of(Collection<Integer> patientIds) {
+		PatientIdBitmap bitmap = new PatientIdBitmap();
+		for (Integer patientId : patientIds) {
+			bitmap.add(patientId);
+		}
+		
+		return bitmap;
+	}
+	
+	/**
+	 * Adds the specified patient id
+	 *
+	 * @param patientId the patient id to add
+	 * <strong>Should</strong> fail for a negative id
+	 * <strong>Should</strong> switch a block to a bit set when it becomes dense
+	 */
+	public void add(int patientId) {
+		if (patientId < 0) {
+			throw new IllegalArgumentException("Patient ids can't be negative: " + patientId);
+		}
+		
+		Integer key = patientId >>> 16;
+		Container container = containers.get(key);
+		if (container == null) {
+			container = new Container();
+			containers.put(key, container);
+		}
+		container.add((char) patientId);
+	}
+	
+	/**
+	 * Checks if the specified patient id is a member
+	 *
+	 * @param patientId the patient id to check
+	 * @return true if the patient id is a member otherwise false
+	 */
+	public boolean contains(int patientId) {
+		if (patientId < 0) {
+			return false;
+		}
+		
+		Container container = containers.get(patientId >>> 16);
+		return container != null && container.contains((char) patientId);
+	}
+	
+	/**
+	 * Gets the number of patient ids
+	 *
+	 * @return the number of patient ids
+	 */
+	public int getCardinality() {
+		int cardinality = 0;
+		for (Container container : containers.values()) {
+			cardinality += container.cardinality;
+		}
+		
+		return cardinality;
+	}
+	
+	/**
+	 * Checks if there are no patient ids
+	 *
+	 * @return true if empty otherwise false
+	 */
+	public boolean isEmpty() {
+		return containers.isEmpty();
+	}
+	
+	/**
+	 * Computes the union of this bitmap and the specified one
+	 *
+	 * @param other the other bitmap
+	 * @return a new bitmap with the patient ids in either bitmap
+	 * <strong>Should</strong> return the patient ids in either bitmap
+	 */
+	public PatientIdBitmap or(PatientIdBitmap other) {
+		PatientIdBitmap result = new PatientIdBitmap();
+		for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+			Container otherContainer = other.containers.get(e.getKey());
+			result.put(e.getKey(), otherContainer == null ? e.getValue().copy() : e.getValue().combine(otherContainer,
+			    Container.OR));
+		}
+		for (Map.Entry<Integer, Container> e : other.containers.entrySet()) {
+			if (!containers.containsKey(e.getKey())) {
+				result.put(e.getKey(), e.getValue().copy());
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Computes the intersection of this bitmap and the specified one
+	 *
+	 * @param other the other bitmap
+	 * @return a new bitmap with the patient ids in both bitmaps
+	 * <strong>Should</strong> return the patient ids in both bitmaps
+	 */
+	public PatientIdBitmap and(PatientIdBitmap other) {
+		PatientIdBitmap result = new PatientIdBitmap();
+		for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+			Container otherContainer = other.containers.get(e.getKey());
+			if (otherContainer != null) {
+				result.put(e.getKey(), e.getValue().combine(otherContainer, Container.AND));
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Computes the difference of this bitmap and the specified one
+	 *
+	 * @param other the other bitmap
+	 * @return a new bitmap with the patient ids in this bitmap that are not in the other
+	 * <strong>Should</strong> return the patient ids that are not in the other bitmap
+	 * <strong>Should</strong> return the patient ids that are not in a dense other bitmap
+	 */
+	public PatientIdBitmap andNot(PatientIdBitmap other) {
+		PatientIdBitmap result = new PatientIdBitmap();
+		for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+			Container otherContainer = other.containers.get(e.getKey());
+			result.put(e.getKey(), otherContainer == null ? e.getValue().copy() : e.getValue().combine(otherContainer,
+			    Container.AND_NOT));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Gets the patient ids in ascending order
+	 *
+	 * @return an array of the patient ids
+	 */
+	public int[] toArray() {
+		int[] ids = new int[getCardinality()];
+		int i = 0;
+		for (Map.Entry<Integer, Container> e : containers.entrySet()) {
+			i = e.getValue().copyTo(e.getKey() << 16, ids, i);
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Gets the patient ids in ascending order
+	 *
+	 * @return a list of the patient ids
+	 */
+	public List<Integer> toList() {
+		int[] ids = toArray();
+		List<Integer> list = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			list.add(id);
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * @see Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Integer> iterator() {
+		final int[] ids = toArray();
+		return new Iterator<Integer>() {
+			
+			private int index;
+			
+			@Override
+			public boolean hasNext() {
+				return index < ids.length;
+			}
+			
+			@Override
+			public Integer next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return ids[index++];
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PatientIdBitmap" + Arrays.toString(toArray());
+	}
+	
+	private void put(Integer key, Container container) {
+		if (container.cardinality > 0) {
+			containers.put(key, container);
+		}
+	}
+	
+	/**
+	 * Holds the low 16 bits of the ids in a block either as a sorted array or as a bit set
+	 */
+	private static final class Container {
+		
+		private static final int OR = 0;
+		
+		private static final int AND = 1;
+		
+		private static final int AND_NOT = 2;
+		
+		private static final int WORD_COUNT = 1024;
+		
+		//Above this size a sorted array takes more space than the bit set
+		private static final int MAX_ARRAY_SIZE = 4096;
+		
+		private char[] values = new char[4];
+		
+		private long[] words;
+		
+		private int cardinality;
+		
+		void add(char value) {
+			if (words != null) {
+				long bit = 1L << value;
+				if ((words[value >>> 6] & bit) == 0) {
+					words[value >>> 6] |= bit;
+					cardinality++;
+				}
+				return;
+			}
+			
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return;
+			}
+			index = -index - 1;
+			if (cardinality == MAX_ARRAY_SIZE) {
+				words = toWords();
+				values = null;
+				words[value >>> 6] |= 1L << value;
+				cardinality++;
+				return;
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+		}
+		
+		boolean contains(char value) {
+			if (words != null) {
+				return (words[value >>> 6] & (1L << value)) != 0;
+			}
+			
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+		
+		boolean isBitSet() {
+			return words != null;
+		}
+		
+		Container copy() {
+			Container copy = new Container();
+			copy.cardinality = cardinality;
+			if (words != null) {
+				copy.values = null;
+				copy.words = words.clone();
+			} else {
+				copy.values = Arrays.copyOf(values, Math.max(cardinality, 1));
+			}
+			
+			return copy;
+		}
+		
+		Container combine(Container other, int operation) {
+			if (!isBitSet() && !other.isBitSet()) {
+				return merge(other, operation);
+			}
+			
+			long[] result = toWords();
+			long[] otherWords = other.toWords();
+			for (int i = 0; i < WORD_COUNT; i++) {
+				if (operation == OR) {
+					result[i] |= otherWords[i];
+				} else if (operation == AND) {
+					result[i] &= otherWords[i];
+				} else {
+					result[i] &= ~otherWords[i];
+				}
+			}
+			
+			return fromWords(result);
+		}
+		
+		int copyTo(int high, int[] ids, int offset) {
+			if (words == null) {
+				for (int i = 0; i < cardinality; i++) {
+					ids[offset++] = high | values[i];
+				}
+				return offset;
+			}
+			
+			for (int i = 0; i < WORD_COUNT; i++) {
+				long word = words[i];
+				while (word != 0) {
+					ids[offset++] = high | (i << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			
+			return offset;
+		}
+		
+		private Container merge(Container other, int operation) {
+			char[] result = new char[operation == OR ? cardinality + other.cardinality : cardinality];
+			int i = 0, j = 0, k = 0;
+			while (i < cardinality && j < other.cardinality) {
+				char a = values[i];
+				char b = other.values[j];
+				if (a == b) {
+					if (operation != AND_NOT) {
+						result[k++] = a;
+					}
+					i++;
+					j++;
+				} else if (a < b) {
+					if (operation != AND) {
+						result[k++] = a;
+					}
+					i++;
+				} else {
+					if (operation == OR) {
+						result[k++] = b;
+					}
+					j++;
+				}
+			}
+			if (operation != AND) {
+				while (i < cardinality) {
+					result[k++] = values[i++];
+				}
+			}
+			if (operation == OR) {
+				while (j < other.cardinality) {
+					result[k++] = other.values[j++];
+				}
+			}
+			
+			if (k > MAX_ARRAY_SIZE) {
+				Container container = new Container();
+				container.values = Arrays.copyOf(result, k);
+				container.cardinality = k;
+				return fromWords(container.toWords());
+			}
+			
+			Container container = new Container();
+			container.values = Arrays.copyOf(result, Math.max(k, 1));
+			container.cardinality = k;
+			return container;
+		}
+		
+		private long[] toWords() {
+			if (words != null) {
+				return words.clone();
+			}
+			
+			long[] bits = new long[WORD_COUNT];
+			for (int i = 0; i < cardinality; i++) {
+				bits[values[i] >>> 6] |= 1L << values[i];
+			}
+			
+			return bits;
+		}
+		
+		private static Container fromWords(long[] bits) {
+			int count = 0;
+			for (long word : bits) {
+				count += Long.bitCount(word);
+			}
+			
+			Container container = new Container();
+			container.cardinality = count;
+			if (count > MAX_ARRAY_SIZE) {
+				container.values = null;
+				container.words = bits;
+				return container;
+			}
+			
+			container.values = new char[Math.max(count, 1)];
+			int k = 0;
+			for (int i = 0; i < WORD_COUNT; i++) {
+				long word = bits[i];
+				while (word != 0) {
+					container.values[k++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			
+			return container;
+		}
+	}
+}
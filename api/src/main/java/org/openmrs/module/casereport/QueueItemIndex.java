@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.CaseReport.Status;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * An in memory index of the open queue items and their triggers for a set of patients, it is built
+ * with a single query at the start of a trigger evaluation so that the create, merge or skip
+ * decision for each matched patient doesn't require a query. The index is bound to the evaluating
+ * thread so that {@link CaseReportValidator} can use it too, a patient is dropped from all active
+ * indexes whenever a case report for the patient is saved, lookups for dropped patients return to
+ * querying the database.
+ */
+public class QueueItemIndex {
+	
+	private static final ThreadLocal<QueueItemIndex> currentIndex = new ThreadLocal<>();
+	
+	private static final Set<QueueItemIndex> activeIndexes = Collections
+	        .newSetFromMap(new ConcurrentHashMap<QueueItemIndex, Boolean>());
+	
+	private final Set<Integer> indexedPatientIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	
+	private final Map<Integer, CaseReport> patientIdQueueItemMap = new ConcurrentHashMap<>();
+	
+	private QueueItemIndex() {
+	}
+	
+	/**
+	 * Loads the open queue items for the patients with the specified ids and binds the index to the
+	 * current thread, callers MUST call {@link #close()} when done.
+	 *
+	 * @param patientIds the patient ids to index
+	 * @return the index
+	 * <strong>Should</strong> index the queue items of the specified patients
+	 * <strong>Should</strong> bind the index to the current thread
+	 */
+	public static QueueItemIndex open(Collection<Integer> patientIds) {
+		QueueItemIndex index = new QueueItemIndex();
+		//Register first so that any report saved while loading invalidates the patient
+		activeIndexes.add(index);
+		index.indexedPatientIds.addAll(patientIds);
+		CaseReportService service = Context.getService(CaseReportService.class);
+		for (CaseReport cr : service.getCaseReportsByPatientIds(patientIds, Status.NEW, Status.DRAFT)) {
+			Integer patientId = cr.getPatient().getPatientId();
+			if (!index.patientIdQueueItemMap.containsKey(patientId)) {
+				index.patientIdQueueItemMap.put(patientId, cr);
+			}
+		}
+		currentIndex.set(index);
+		
+		return index;
+	}
+	
+	/**
+	 * Gets the index bound to the current thread
+	 *
+	 * @return the index or null if none is bound
+	 */
+	public static QueueItemIndex getCurrent() {
+		return currentIndex.get();
+	}
+	
+	/**
+	 * Drops the patient with the specified id from all active indexes
+	 *
+	 * @param patientId the patient id
+	 * <strong>Should</strong> drop the patient from all active indexes
+	 */
+	public static void invalidate(Integer patientId) {
+		for (QueueItemIndex index : activeIndexes) {
+			index.indexedPatientIds.remove(patientId);
+			index.patientIdQueueItemMap.remove(patientId);
+		}
+	}
+	
+	/**
+	 * Checks if the index can answer lookups for the patient with the specified id
+	 *
+	 * @param patientId the patient id
+	 * @return true if the patient is indexed otherwise false
+	 */
+	public boolean isIndexed(Integer patientId) {
+		return indexedPatientIds.contains(patientId);
+	}
+	
+	/**
+	 * Gets the open queue item of the patient with the specified id, falls back to querying the
+	 * database if the patient isn't indexed
+	 *
+	 * @param patient the patient
+	 * @return the queue item or null if the patient has none
+	 */
+	public CaseReport getQueueItem(Patient patient) {
+		if (isIndexed(patient.getPatientId())) {
+			return patientIdQueueItemMap.get(patient.getPatientId());
+		}
+		
+		return Context.getService(CaseReportService.class).getCaseReportByPatient(patient);
+	}
+	
+	/**
+	 * Unregisters the index and unbinds it from the current thread
+	 */
+	public void close() {
+		activeIndexes.remove(this);
+		if (currentIndex.get() == this) {
+			currentIndex.remove();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * Evaluates the sql cohort queries of the triggers against a read only replica of the database so
+ * that heavy scans leave the primary database alone. The replica is configured with the
+ * casereport.replica.url, casereport.replica.username and casereport.replica.password runtime
+ * properties, the queries are only routed to it if its replication lag is within the number of
+ * seconds set by the {@link CaseReportConstants#GP_REPLICA_MAX_STALENESS_SECONDS} global property.
+ * When a query is routed to the replica, the watermarks are advanced to the maximum ids seen by the
+ * replica and the last execution time to the start of the run minus the staleness tolerance so that
+ * rows that were not yet replicated are picked by the next run. The connections to the replica are
+ * pooled, the pool is closed when the module is stopped.
+ */
+public class ReplicaCohortEvaluator {
+	
+	protected static final Log log = LogFactory.getLog(ReplicaCohortEvaluator.class);
+	
+	public static final String RUNTIME_PROPERTY_URL = "casereport.replica.url";
+	
+	public static final String RUNTIME_PROPERTY_USERNAME = "casereport.replica.username";
+	
+	public static final String RUNTIME_PROPERTY_PASSWORD = "casereport.replica.password";
+	
+	private static final int DEFAULT_MAX_STALENESS = 300;
+	
+	private static final Pattern PARAMETER_PATTERN = Pattern.compile("(?<![:\\w]):(\\w+)");
+	
+	private static final int MAX_POOL_SIZE = 5;
+	
+	private static final int MAX_IDLE_SECONDS = 300;
+	
+	private static ComboPooledDataSource dataSource;
+	
+	/**
+	 * Checks if a replica is configured
+	 *
+	 * @return true if a replica is configured otherwise false
+	 */
+	public static boolean isConfigured() {
+		return StringUtils.isNotBlank(getRuntimeProperty(RUNTIME_PROPERTY_URL));
+	}
+	
+	/**
+	 * Gets the staleness tolerance of the replica
+	 *
+	 * @return the staleness tolerance in milliseconds
+	 */
+	public static long getMaxStalenessMillis() {
+		return Math.max(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_REPLICA_MAX_STALENESS_SECONDS,
+		    DEFAULT_MAX_STALENESS), 0) * 1000L;
+	}
+	
+	/**
+	 * Checks if the specified query can be routed to the replica, i.e. a replica is configured and
+	 * the tables the query depends on are not lagging behind the primary database by more than the
+	 * staleness tolerance, failures to reach the replica are logged and the primary is used.
+	 *
+	 * @param definition the sql cohort definition
+	 * @return true if the query can be routed to the replica otherwise false
+	 */
+	public static boolean canEvaluate(SqlCohortDefinition definition) {
+		if (!isConfigured()) {
+			return false;
+		}
+		
+		Set<WatermarkType> types = EnumSet.noneOf(WatermarkType.class);
+		for (WatermarkType type : WatermarkType.values()) {
+			if (definition.getParameter(type.getLastIdParameter()) != null) {
+				types.add(type);
+			}
+		}
+		if (types.isEmpty()) {
+			types = EnumSet.allOf(WatermarkType.class);
+		}
+		
+		try {
+			CaseReportService service = Context.getService(CaseReportService.class);
+			long maxStaleness = getMaxStalenessMillis();
+			for (WatermarkType type : types) {
+				Long replicaMaxId = getMaxId(type);
+				Date oldestMissing = service.getEarliestDateCreatedAfter(type, replicaMaxId);
+				if (oldestMissing != null && System.currentTimeMillis() - oldestMissing.getTime() > maxStaleness) {
+					log.info("The replica is lagging behind the primary database for the " + type.getTableName()
+					        + " table since " + oldestMissing + ", using the primary database");
+					return false;
+				}
+			}
+		}
+		catch (Exception e) {
+			log.warn("Failed to check the replication lag of the replica, using the primary database", e);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Gets the largest primary key value in the table of the specified watermark type in the replica
+	 *
+	 * @param type the watermark type
+	 * @return the largest id or 0 if the table is empty
+	 * @throws APIException if the replica can't be queried
+	 */
+	public static Long getMaxId(WatermarkType type) throws APIException {
+		try (Connection connection = getConnection();
+		        PreparedStatement statement = connection.prepareStatement("select max(" + type.getIdColumn() + ") from "
+		                + type.getTableName());
+		        ResultSet resultSet = statement.executeQuery()) {
+			return resultSet.next() ? resultSet.getLong(1) : 0L;
+		}
+		catch (SQLException e) {
+			throw new APIException("Failed to get the maximum id of the " + type.getTableName() + " table in the replica",
+			        e);
+		}
+	}
+	
+	/**
+	 * Evaluates the specified sql cohort definition against the replica
+	 *
+	 * @param definition the sql cohort definition
+	 * @param parameterValues the parameter values
+	 * @param timeoutSeconds the statement timeout in seconds, 0 means no timeout
+	 * @return the cohort of the patients returned by the query
+	 * @throws EvaluationException
+	 */
+	public static Cohort evaluate(SqlCohortDefinition definition, Map<String, Object> parameterValues,
+	                              int timeoutSeconds) throws EvaluationException {
+		try (Connection connection = getConnection()) {
+			return TriggerQueryGuard.execute(connection, definition.getName(), definition.getQuery(), parameterValues,
+			    timeoutSeconds);
+		}
+		catch (SQLException e) {
+			throw new EvaluationException("the replica for " + definition.getName(), e);
+		}
+	}
+	
+	/**
+	 * Replaces the named parameters in the specified sql with jdbc placeholders and collects their
+	 * values in the same order, the trailing semicolon is removed.
+	 *
+	 * @param sql the sql with named parameters
+	 * @param parameterValues the parameter values
+	 * @param values the list to add the values to
+	 * @return the jdbc sql
+	 * <strong>Should</strong> replace the named parameters with placeholders in order
+	 * <strong>Should</strong> fail for a parameter with no value
+	 */
+	static String toJdbcSql(String sql, Map<String, Object> parameterValues, List<Object> values) {
+		Matcher matcher = PARAMETER_PATTERN.matcher(StringUtils.removeEnd(sql.trim(), ";"));
+		StringBuffer jdbcSql = new StringBuffer();
+		while (matcher.find()) {
+			String name = matcher.group(1);
+			if (!parameterValues.containsKey(name)) {
+				throw new APIException("No value was specified for the parameter: " + name);
+			}
+			values.add(parameterValues.get(name));
+			matcher.appendReplacement(jdbcSql, "?");
+		}
+		matcher.appendTail(jdbcSql);
+		
+		return jdbcSql.toString();
+	}
+	
+	/**
+	 * Closes the connection pool of the replica if any, should be called when the module is stopped
+	 */
+	public static synchronized void close() {
+		if (dataSource != null) {
+			dataSource.close();
+			dataSource = null;
+		}
+	}
+	
+	private static Connection getConnection() throws SQLException {
+		Connection connection = getDataSource().getConnection();
+		connection.setReadOnly(true);
+		return connection;
+	}
+	
+	private static synchronized ComboPooledDataSource getDataSource() {
+		if (dataSource == null) {
+			dataSource = new ComboPooledDataSource();
+			dataSource.setJdbcUrl(getRuntimeProperty(RUNTIME_PROPERTY_URL));
+			dataSource.setUser(StringUtils.defaultString(getRuntimeProperty(RUNTIME_PROPERTY_USERNAME)));
+			dataSource.setPassword(StringUtils.defaultString(getRuntimeProperty(RUNTIME_PROPERTY_PASSWORD)));
+			dataSource.setMinPoolSize(0);
+			dataSource.setInitialPoolSize(0);
+			dataSource.setMaxPoolSize(MAX_POOL_SIZE);
+			dataSource.setMaxIdleTime(MAX_IDLE_SECONDS);
+		}
+		
+		return dataSource;
+	}
+	
+	private static String getRuntimeProperty(String name) {
+		Properties properties = Context.getRuntimeProperties();
+		return properties != null ? StringUtils.trimToNull(properties.getProperty(name)) : null;
+	}
+}
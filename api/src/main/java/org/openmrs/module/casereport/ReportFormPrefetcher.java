@@ -0,0 +1,162 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Builds the report forms of the queued case reports in the background so that opening a queue
+ * item only reads a ready made form. The forms are stored separately from the report form that is
+ * saved by the user so a draft is never overwritten, a form is built for each NEW or DRAFT report
+ * with no saved report form when it was never prefetched, when a trigger is added to it or when
+ * new obs or orders for the concepts included in the form are created for the patient, the latter
+ * are detected with watermarks on the obs and orders tables. Since the watermarks only see new rows,
+ * a prefetched form is also checked for any other change to the patient's data before it is served.
+ */
+public class ReportFormPrefetcher {
+	
+	protected static final Log log = LogFactory.getLog(ReportFormPrefetcher.class);
+	
+	private static final int MAX_REPORTS_PER_RUN = 500;
+	
+	private static final WatermarkType[] WATERMARK_TYPES = { WatermarkType.OBS, WatermarkType.ORDER };
+	
+	/**
+	 * Builds and stores the report forms of the queued case reports that have no prefetched form or
+	 * whose prefetched form is stale, a report whose form fails to be built is still marked as
+	 * prefetched so that it is not retried on every run, its form is built when it is opened.
+	 *
+	 * @return the number of report forms that were prefetched
+	 * <strong>Should</strong> prefetch the forms of the queued reports
+	 * <strong>Should</strong> not prefetch the forms of reports with a saved report form
+	 * <strong>Should</strong> refresh the forms of the reports of patients with new obs
+	 */
+	public static int prefetch() {
+		CaseReportService service = Context.getService(CaseReportService.class);
+		Map<Integer, CaseReport> caseReports = new LinkedHashMap<>();
+		Map<WatermarkType, Long> maxIds = new EnumMap<>(WatermarkType.class);
+		List<Integer> patientIds = new ArrayList<>();
+		for (WatermarkType type : WATERMARK_TYPES) {
+			Long maxId = service.getMaxId(type);
+			TriggerWatermark watermark = service.getTriggerWatermark(CaseReportConstants.PREFETCH_TASK_NAME, type.name());
+			//On the first run all the queued reports are yet to be prefetched, so we only start tracking
+			if (watermark != null) {
+				patientIds.addAll(service.getQueuedPatientIdsWithNewData(type, watermark.getValue(), maxId,
+				    getConceptIds(type)));
+			}
+			maxIds.put(type, maxId);
+		}
+		
+		if (!patientIds.isEmpty()) {
+			for (CaseReport cr : service.getCaseReportsByPatientIds(patientIds, CaseReport.Status.NEW,
+			    CaseReport.Status.DRAFT)) {
+				if (StringUtils.isBlank(cr.getReportForm())) {
+					caseReports.put(cr.getId(), cr);
+				}
+			}
+		}
+		for (CaseReport cr : service.getCaseReportsToPrefetch(MAX_REPORTS_PER_RUN)) {
+			caseReports.put(cr.getId(), cr);
+		}
+		
+		int count = 0;
+		if (!caseReports.isEmpty()) {
+			Map<CaseReport, CaseReportForm> reportFormMap = CaseReportFormBuilder.build(caseReports.values());
+			for (CaseReport cr : caseReports.values()) {
+				CaseReportForm form = reportFormMap.get(cr);
+				String reportForm = null;
+				if (form != null) {
+					try {
+						reportForm = CaseReportFormCodec.write(form);
+						count++;
+					}
+					catch (APIException e) {
+						log.warn("Failed to serialize the prefetched report form of " + cr, e);
+					}
+				}
+				service.savePrefetchedReportForm(cr, reportForm);
+			}
+		}
+		
+		//Like for the triggers, the watermarks trail the maximum ids so that rows from transactions that
+		//commit late are not missed
+		for (Map.Entry<WatermarkType, Long> entry : maxIds.entrySet()) {
+			TriggerWatermark watermark = service.getTriggerWatermark(CaseReportConstants.PREFETCH_TASK_NAME, entry
+			        .getKey().name());
+			if (watermark == null) {
+				watermark = new TriggerWatermark(CaseReportConstants.PREFETCH_TASK_NAME, entry.getKey().name());
+			}
+			watermark.setValue(CaseReportUtil.applySafetyMargin(watermark.getValue(), entry.getValue()));
+			service.saveTriggerWatermark(watermark);
+		}
+		
+		if (log.isDebugEnabled()) {
+			log.debug("Prefetched " + count + " of " + caseReports.size() + " report form(s)");
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the prefetched report form of the specified case report, the form is considered stale if
+	 * a trigger was added to the report after it was prefetched or if any of the data of the patient
+	 * that goes into the form was created, changed or voided since then.
+	 *
+	 * @param caseReport the case report
+	 * @return the prefetched form or null if there is none or it is stale
+	 * <strong>Should</strong> return the prefetched form
+	 * <strong>Should</strong> return null if there is no prefetched form
+	 * <strong>Should</strong> return null if a trigger was added after the form was prefetched
+	 * <strong>Should</strong> return null if the data of the patient changed after the form was prefetched
+	 */
+	public static CaseReportForm getPrefetchedForm(CaseReport caseReport) {
+		if (StringUtils.isBlank(caseReport.getPrefetchedForm()) || caseReport.getDatePrefetched() == null) {
+			return null;
+		}
+		for (CaseReportTrigger trigger : caseReport.getReportTriggers()) {
+			if (trigger.getDateCreated() != null && trigger.getDateCreated().after(caseReport.getDatePrefetched())) {
+				return null;
+			}
+		}
+		if (Context.getService(CaseReportService.class).hasPatientDataChangedSince(
+		    caseReport.getPatient().getPatientId(), caseReport.getDatePrefetched())) {
+			return null;
+		}
+		
+		try {
+			return CaseReportFormCodec.read(caseReport.getPrefetchedForm());
+		}
+		catch (APIException e) {
+			log.warn("Failed to parse the prefetched report form of " + caseReport, e);
+		}
+		
+		return null;
+	}
+	
+	private static Collection<Integer> getConceptIds(WatermarkType type) {
+		if (type == WatermarkType.ORDER) {
+			return ConceptMappingCache.getArvMedSetMemberIds();
+		}
+		
+		return CaseReportForm.getClinicalFactConceptIds();
+	}
+}
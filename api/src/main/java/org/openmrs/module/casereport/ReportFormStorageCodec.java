@@ -0,0 +1,185 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIException;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+
+/**
+ * Encodes and decodes the report forms as they are stored in the database. When the
+ * {@link CaseReportConstants#GP_COMPRESS_REPORT_FORMS} global property is set to true, the forms are
+ * gzipped and base64 encoded with a prefix that marks them as compressed, otherwise they are stored
+ * as plain JSON. Stored forms are always decoded based on their prefix, therefore compressed and
+ * plain rows can coexist and toggling the setting only affects the forms saved afterwards until
+ * {@link #migrate()} is run. The encoding is applied transparently by the
+ * {@link org.openmrs.module.casereport.api.db.hibernate.CompressedTextType} hibernate type.
+ */
+public class ReportFormStorageCodec implements GlobalPropertyListener {
+	
+	protected static final Log log = LogFactory.getLog(ReportFormStorageCodec.class);
+	
+	public static final String COMPRESSED_PREFIX = "gz:";
+	
+	//Smaller forms don't gain anything from being compressed
+	private static final int MIN_COMPRESSED_LENGTH = 256;
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private static final ReportFormStorageCodec listener = new ReportFormStorageCodec();
+	
+	private static volatile boolean compressionEnabled;
+	
+	/**
+	 * Reads the setting and starts listening for changes to it, should be called when the module is
+	 * started
+	 */
+	public static synchronized void start() {
+		refreshSettings();
+		//A restarted module must not register the listener twice
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+		Context.getAdministrationService().addGlobalPropertyListener(listener);
+	}
+	
+	/**
+	 * Stops listening for changes to the setting, should be called when the module is stopped
+	 *
+	 * <strong>Should</strong> stop listening for changes to the setting
+	 */
+	public static synchronized void stop() {
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+	}
+	
+	/**
+	 * @return true if the report forms are compressed when they are saved otherwise false
+	 */
+	public static boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+	
+	/**
+	 * Encodes the specified report form for storage, it is only compressed if compression is enabled
+	 * and the compressed value is shorter.
+	 *
+	 * @param reportForm the report form to encode
+	 * @return the encoded report form
+	 * <strong>Should</strong> return the form as is if compression is disabled
+	 * <strong>Should</strong> compress the form if compression is enabled
+	 * <strong>Should</strong> not compress a short form
+	 */
+	public static String encode(String reportForm) {
+		if (!compressionEnabled || reportForm == null || reportForm.length() < MIN_COMPRESSED_LENGTH
+		        || reportForm.startsWith(COMPRESSED_PREFIX)) {
+			return reportForm;
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(reportForm.length() / 4);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(reportForm.getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException e) {
+			throw new APIException("Failed to compress report form", e);
+		}
+		
+		String encoded = COMPRESSED_PREFIX + Base64.encodeBase64String(out.toByteArray());
+		return encoded.length() < reportForm.length() ? encoded : reportForm;
+	}
+	
+	/**
+	 * Decodes the specified stored report form
+	 *
+	 * @param storedForm the stored report form
+	 * @return the decoded report form
+	 * <strong>Should</strong> return a plain form as is
+	 * <strong>Should</strong> decompress a compressed form
+	 */
+	public static String decode(String storedForm) {
+		if (storedForm == null || !storedForm.startsWith(COMPRESSED_PREFIX)) {
+			return storedForm;
+		}
+		
+		byte[] bytes = Base64.decodeBase64(storedForm.substring(COMPRESSED_PREFIX.length()));
+		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			return new String(IOUtils.toByteArray(gzip), StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
+			throw new APIException("Failed to decompress report form", e);
+		}
+	}
+	
+	/**
+	 * Re-encodes the stored report forms of all the case reports based on the current setting, i.e.
+	 * existing forms are compressed if compression is enabled otherwise they are decompressed. The
+	 * case reports are processed in batches, each in its own transaction.
+	 *
+	 * @return the number of case reports whose stored forms were rewritten
+	 * <strong>Should</strong> compress the existing forms if compression is enabled
+	 * <strong>Should</strong> decompress the existing forms if compression is disabled
+	 */
+	public static int migrate() {
+		CaseReportService service = Context.getService(CaseReportService.class);
+		int count = 0;
+		List<Integer> caseReportIds = service.getCaseReportIdsWithStoredForms(0, BATCH_SIZE);
+		while (!caseReportIds.isEmpty()) {
+			count += service.reencodeStoredForms(caseReportIds);
+			Context.clearSession();
+			caseReportIds = service.getCaseReportIdsWithStoredForms(caseReportIds.get(caseReportIds.size() - 1),
+			    BATCH_SIZE);
+		}
+		log.info("Re-encoded the stored report forms of " + count + " case report(s)");
+		
+		return count;
+	}
+	
+	private static void refreshSettings() {
+		String value = Context.getAdministrationService().getGlobalProperty(
+		    CaseReportConstants.GP_COMPRESS_REPORT_FORMS);
+		compressionEnabled = "true".equalsIgnoreCase(StringUtils.trimToEmpty(value));
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return CaseReportConstants.GP_COMPRESS_REPORT_FORMS.equals(propertyName);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		refreshSettings();
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		refreshSettings();
+	}
+}
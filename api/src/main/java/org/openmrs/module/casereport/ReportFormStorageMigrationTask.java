@@ -0,0 +1,45 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * An instance of this task rewrites the stored report forms of all the case reports with the
+ * current value of the {@link CaseReportConstants#GP_COMPRESS_REPORT_FORMS} global property, it
+ * should be run after the setting is changed.
+ * 
+ * @see ReportFormStorageCodec
+ */
+public class ReportFormStorageMigrationTask extends AbstractTask {
+	
+	protected Log log = LogFactory.getLog(getClass());
+	
+	/**
+	 * @see AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (!isExecuting) {
+			startExecuting();
+			try {
+				ReportFormStorageCodec.migrate();
+			}
+			catch (Exception e) {
+				log.error("Error while running the form storage migration task: ", e);
+			}
+			finally {
+				stopExecuting();
+			}
+		}
+	}
+}
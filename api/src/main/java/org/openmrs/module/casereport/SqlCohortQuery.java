@@ -27,6 +27,12 @@ public class SqlCohortQuery {
 	
 	private List<String> conceptMappings;
 	
+	private List<String> changeProbe;
+	
+	private Integer maxReportsPerRun;
+	
+	private Integer timeoutSeconds;
+	
 	public String getName() {
 		return name;
 	}
@@ -82,4 +88,28 @@ public class SqlCohortQuery {
 	public void setConceptMappings(List<String> conceptMappings) {
 		this.conceptMappings = conceptMappings;
 	}
+	
+	public List<String> getChangeProbe() {
+		return changeProbe;
+	}
+	
+	public void setChangeProbe(List<String> changeProbe) {
+		this.changeProbe = changeProbe;
+	}
+	
+	public Integer getMaxReportsPerRun() {
+		return maxReportsPerRun;
+	}
+	
+	public void setMaxReportsPerRun(Integer maxReportsPerRun) {
+		this.maxReportsPerRun = maxReportsPerRun;
+	}
+	
+	public Integer getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+	
+	public void setTimeoutSeconds(Integer timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
 }
@@ -0,0 +1,103 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+/**
+ * An immutable date format that can be shared between threads and produces the same output as a
+ * {@link SimpleDateFormat} with the same pattern, time zone and locale. Dates are formatted with a
+ * {@link FastDateFormat} which is thread safe and doesn't allocate a calendar per call, and they are
+ * parsed with a {@link SimpleDateFormat} that is created once per thread.
+ */
+public final class ThreadSafeDateFormat {
+	
+	private final String pattern;
+	
+	private final TimeZone timeZone;
+	
+	private final Locale locale;
+	
+	private final FastDateFormat formatter;
+	
+	private final ThreadLocal<SimpleDateFormat> parsers = new ThreadLocal<SimpleDateFormat>() {
+		
+		@Override
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat parser = new SimpleDateFormat(pattern, locale);
+			parser.setTimeZone(timeZone);
+			return parser;
+		}
+	};
+	
+	/**
+	 * Creates a date format that uses the default time zone and locale
+	 *
+	 * @param pattern the pattern as specified by {@link SimpleDateFormat}
+	 */
+	public ThreadSafeDateFormat(String pattern) {
+		this(pattern, null, null);
+	}
+	
+	/**
+	 * @param pattern the pattern as specified by {@link SimpleDateFormat}
+	 * @param timeZone the time zone, the default time zone is used if null
+	 * @param locale the locale, the default locale is used if null
+	 */
+	public ThreadSafeDateFormat(String pattern, TimeZone timeZone, Locale locale) {
+		this.pattern = pattern;
+		this.timeZone = timeZone != null ? timeZone : TimeZone.getDefault();
+		this.locale = locale != null ? locale : Locale.getDefault(Locale.Category.FORMAT);
+		formatter = FastDateFormat.getInstance(pattern, this.timeZone, this.locale);
+	}
+	
+	/**
+	 * Formats the specified date
+	 *
+	 * @param date the date to format
+	 * @return the formatted date
+	 * <strong>Should</strong> produce the same output as a simple date format
+	 * <strong>Should</strong> produce the correct output when used by multiple threads
+	 */
+	public String format(Date date) {
+		return formatter.format(date);
+	}
+	
+	/**
+	 * Parses the specified text
+	 *
+	 * @param text the text to parse
+	 * @return the parsed date
+	 * @throws ParseException if the text can't be parsed
+	 * <strong>Should</strong> parse a formatted date
+	 * <strong>Should</strong> produce the correct output when used by multiple threads
+	 */
+	public Date parse(String text) throws ParseException {
+		return parsers.get().parse(text);
+	}
+	
+	public String getPattern() {
+		return pattern;
+	}
+	
+	public TimeZone getTimeZone() {
+		return (TimeZone) timeZone.clone();
+	}
+	
+	public Locale getLocale() {
+		return locale;
+	}
+}
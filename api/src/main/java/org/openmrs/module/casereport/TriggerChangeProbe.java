@@ -0,0 +1,161 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.scheduler.TaskDefinition;
+
+/**
+ * Decides if a scheduled run of a trigger can be skipped because none of the tables its query
+ * depends on has new rows. The tables are declared in the changeProbe field of the cohort query and
+ * stored as a task property, the probe reads the maximum primary key of each table which is cheap
+ * compared to evaluating the query. Each quiet run doubles the effective interval of the trigger up
+ * to the multiple of its repeat interval set by the
+ * {@link CaseReportConstants#GP_CHANGE_PROBE_MAX_BACKOFF} global property, a change resets it.
+ * Queries that match edited rows or depend on the passage of time must not declare a probe since
+ * such changes don't move the maximum ids. A run is never skipped while patients carried over from
+ * a previous run that hit its quota are pending since they don't move the maximum ids either.
+ */
+public class TriggerChangeProbe {
+	
+	protected static final Log log = LogFactory.getLog(TriggerChangeProbe.class);
+	
+	private static final int DEFAULT_MAX_BACKOFF = 8;
+	
+	/**
+	 * Gets the watermark type that matches the specified change probe name, names are matched case
+	 * insensitively
+	 *
+	 * @param name the change probe name
+	 * @return the watermark type
+	 * @throws APIException if no watermark type matches the name
+	 * <strong>Should</strong> return the matching watermark type
+	 * <strong>Should</strong> fail for an invalid name
+	 */
+	public static WatermarkType getProbedType(String name) throws APIException {
+		for (WatermarkType type : WatermarkType.values()) {
+			if (type.name().equalsIgnoreCase(StringUtils.trimToEmpty(name))) {
+				return type;
+			}
+		}
+		
+		throw new APIException("Invalid change probe: " + name);
+	}
+	
+	/**
+	 * Reads the current value of the change probe of the specified trigger task
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @return the probe value or null if the task has no change probe
+	 * <strong>Should</strong> return null for a task with no change probe
+	 * <strong>Should</strong> return the maximum ids of the probed tables
+	 */
+	public static String probe(TaskDefinition taskDefinition) {
+		String probe = taskDefinition.getProperty(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY);
+		if (StringUtils.isBlank(probe)) {
+			return null;
+		}
+		
+		CaseReportService service = Context.getService(CaseReportService.class);
+		StringBuilder value = new StringBuilder();
+		for (String name : StringUtils.split(probe, ",")) {
+			WatermarkType type = getProbedType(name);
+			if (value.length() > 0) {
+				value.append(";");
+			}
+			value.append(type.name()).append("=").append(service.getMaxId(type));
+		}
+		
+		return value.toString();
+	}
+	
+	/**
+	 * Checks if the run of the specified trigger task should be skipped because the probe value is
+	 * the same as when the trigger was last evaluated or the task is backing off after quiet runs,
+	 * a skipped run is recorded in the task properties to compute the next back off.
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @param probeValue the current probe value
+	 * @return true if the run should be skipped otherwise false
+	 * <strong>Should</strong> not skip a run for a task with no change probe
+	 * <strong>Should</strong> not skip the first run
+	 * <strong>Should</strong> skip a run if the probe value is unchanged and back off
+	 * <strong>Should</strong> skip a run while backing off
+	 * <strong>Should</strong> not skip a run if the probe value changed
+	 * <strong>Should</strong> not skip a run while a carried over checkpoint is pending
+	 */
+	public static boolean shouldSkip(TaskDefinition taskDefinition, String probeValue) {
+		if (probeValue == null || isCheckpointPending(taskDefinition)) {
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		long nextProbeTime = NumberUtils.toLong(
+		    taskDefinition.getProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY), 0);
+		if (now < nextProbeTime) {
+			return true;
+		}
+		if (!probeValue.equals(taskDefinition.getProperty(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY))) {
+			return false;
+		}
+		
+		int quietRuns = NumberUtils.toInt(taskDefinition.getProperty(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY), 0) + 1;
+		int maxBackoff = Math.max(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_CHANGE_PROBE_MAX_BACKOFF,
+		    DEFAULT_MAX_BACKOFF), 1);
+		long factor = Math.min(1L << Math.min(quietRuns, 30), maxBackoff);
+		long interval = taskDefinition.getRepeatInterval() != null ? taskDefinition.getRepeatInterval() * 1000 : 0;
+		//Half an interval of slack so that a slightly early firing of the task isn't skipped again
+		long nextProbe = factor > 1 ? now + (factor - 1) * interval + interval / 2 : 0;
+		taskDefinition.setProperty(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY, Integer.toString(quietRuns));
+		taskDefinition.setProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY, Long.toString(nextProbe));
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+		if (log.isDebugEnabled()) {
+			log.debug("No changes found for the trigger " + taskDefinition.getName() + " after " + quietRuns
+			        + " quiet run(s), the next probe is in " + (factor - 1) + " interval(s)");
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Records the probe value read before a completed evaluation of the specified trigger task and
+	 * resets the back off, the value isn't stored if the run left a checkpoint behind so that the
+	 * carried over patients get processed by the next run
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @param probeValue the probe value read before the evaluation
+	 * <strong>Should</strong> store the probe value and reset the back off
+	 * <strong>Should</strong> not store the probe value while a carried over checkpoint is pending
+	 */
+	public static void recordEvaluated(TaskDefinition taskDefinition, String probeValue) {
+		if (probeValue == null) {
+			return;
+		}
+		
+		if (isCheckpointPending(taskDefinition)) {
+			taskDefinition.getProperties().remove(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY);
+		} else {
+			taskDefinition.setProperty(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY, probeValue);
+		}
+		taskDefinition.getProperties().remove(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY);
+		taskDefinition.getProperties().remove(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY);
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+	}
+	
+	private static boolean isCheckpointPending(TaskDefinition taskDefinition) {
+		return StringUtils.isNotBlank(taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY));
+	}
+}
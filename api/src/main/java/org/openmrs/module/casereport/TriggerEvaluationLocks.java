@@ -0,0 +1,95 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the locks that coordinate concurrent trigger evaluations, a trigger never overlaps itself
+ * since each trigger name has its own lock, the number of triggers that can be evaluated at the
+ * same time is capped by the {@link CaseReportConstants#GP_MAX_CONCURRENT_TRIGGER_EVALUATIONS}
+ * global property and the queue items of a patient are only modified by one trigger at a time.
+ */
+public class TriggerEvaluationLocks {
+	
+	private static final int DEFAULT_MAX_CONCURRENT_EVALUATIONS = 2;
+	
+	private static final int PATIENT_LOCK_STRIPES = 64;
+	
+	private static final ConcurrentMap<String, ReentrantLock> triggerLocks = new ConcurrentHashMap<>();
+	
+	private static final Object[] patientLocks = new Object[PATIENT_LOCK_STRIPES];
+	
+	static {
+		for (int i = 0; i < PATIENT_LOCK_STRIPES; i++) {
+			patientLocks[i] = new Object();
+		}
+	}
+	
+	private static Semaphore evaluationPermits;
+	
+	private static int maxConcurrentEvaluations;
+	
+	/**
+	 * Gets the lock for the trigger with the specified name, trigger names are matched case
+	 * insensitively
+	 *
+	 * @param triggerName the trigger name
+	 * @return the lock
+	 * <strong>Should</strong> return the same lock for trigger names that only differ by case
+	 * <strong>Should</strong> return different locks for different triggers
+	 */
+	public static ReentrantLock getTriggerLock(String triggerName) {
+		String key = triggerName.trim().toLowerCase();
+		ReentrantLock lock = triggerLocks.get(key);
+		if (lock == null) {
+			ReentrantLock newLock = new ReentrantLock(true);
+			lock = triggerLocks.putIfAbsent(key, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		
+		return lock;
+	}
+	
+	/**
+	 * Gets the object to synchronize on when creating or updating the queue item of the patient with
+	 * the specified id
+	 *
+	 * @param patientId the patient id
+	 * @return the lock object
+	 */
+	public static Object getPatientLock(Integer patientId) {
+		return patientLocks[(patientId.hashCode() & Integer.MAX_VALUE) % PATIENT_LOCK_STRIPES];
+	}
+	
+	/**
+	 * Gets the semaphore that caps the number of concurrent trigger evaluations, if the value of the
+	 * global property has changed a new semaphore is created, callers MUST release their permit to
+	 * the same semaphore instance they acquired it from.
+	 *
+	 * @return the semaphore
+	 * <strong>Should</strong> cap the permits at the value of the global property
+	 */
+	public static synchronized Semaphore getEvaluationPermits() {
+		int max = Math.max(CaseReportUtil.getIntegerGlobalProperty(
+		    CaseReportConstants.GP_MAX_CONCURRENT_TRIGGER_EVALUATIONS, DEFAULT_MAX_CONCURRENT_EVALUATIONS), 1);
+		if (evaluationPermits == null || max != maxConcurrentEvaluations) {
+			evaluationPermits = new Semaphore(max, true);
+			maxConcurrentEvaluations = max;
+		}
+		
+		return evaluationPermits;
+	}
+}
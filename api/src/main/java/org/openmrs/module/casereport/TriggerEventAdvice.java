@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.lang.reflect.Method;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Reports saved obs, encounters and orders to the {@link TriggerEventDispatcher}, it is registered
+ * as advice around ObsService, EncounterService and OrderService in config.xml. The events are
+ * reported after the caller's transaction commits so that the triggers never run before the saved
+ * rows are visible to them.
+ */
+public class TriggerEventAdvice implements AfterReturningAdvice {
+	
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, Method, Object[], Object)
+	 * <strong>Should</strong> report a saved encounter and its obs after the transaction commits
+	 * <strong>Should</strong> do nothing if event driven evaluation is disabled
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (!TriggerEventDispatcher.isEnabled() || !method.getName().startsWith("save")) {
+			return;
+		}
+		
+		Set<WatermarkType> types = EnumSet.noneOf(WatermarkType.class);
+		if (returnValue instanceof Obs) {
+			types.add(WatermarkType.OBS);
+		} else if (returnValue instanceof Encounter) {
+			types.add(WatermarkType.ENCOUNTER);
+			//Obs saved with an encounter are cascaded and don't go through ObsService, loading them to
+			//check would cost more than a spurious evaluation of the obs triggers
+			types.add(WatermarkType.OBS);
+		} else if (returnValue instanceof Order) {
+			types.add(WatermarkType.ORDER);
+		}
+		if (types.isEmpty()) {
+			return;
+		}
+		
+		PendingEvents pendingEvents = getPendingEvents();
+		if (pendingEvents != null) {
+			pendingEvents.types.addAll(types);
+		} else {
+			//No transaction to wait for
+			new PendingEvents(types).afterCommit();
+		}
+	}
+	
+	/**
+	 * Gets the events waiting for the current transaction to commit, they are registered on the
+	 * first call in the transaction
+	 * 
+	 * @return the pending events or null if there is no active transaction
+	 */
+	static PendingEvents getPendingEvents() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+		
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof PendingEvents) {
+				return (PendingEvents) synchronization;
+			}
+		}
+		
+		PendingEvents pendingEvents = new PendingEvents(EnumSet.noneOf(WatermarkType.class));
+		TransactionSynchronizationManager.registerSynchronization(pendingEvents);
+		return pendingEvents;
+	}
+	
+	/**
+	 * Collects the watermark types of the rows saved in a transaction and reports them to the
+	 * dispatcher once it commits
+	 */
+	static class PendingEvents extends TransactionSynchronizationAdapter {
+		
+		private Set<WatermarkType> types;
+		
+		PendingEvents(Set<WatermarkType> types) {
+			this.types = types;
+		}
+		
+		Set<WatermarkType> getTypes() {
+			return types;
+		}
+		
+		/**
+		 * @see TransactionSynchronizationAdapter#afterCommit()
+		 */
+		@Override
+		public void afterCommit() {
+			for (WatermarkType type : types) {
+				TriggerEventDispatcher.onSave(type);
+			}
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.scheduler.TaskDefinition;
+
+/**
+ * Evaluates triggers shortly after the rows they watch are saved instead of waiting for their
+ * scheduled tasks. Saved obs, encounters and orders are reported by {@link TriggerEventAdvice},
+ * the events are debounced and then each trigger whose query references the watermark parameters
+ * of the saved table is run, since such a query only covers the rows saved after its watermark it
+ * is in effect evaluated for only the affected patients. When event driven evaluation is enabled
+ * the scheduled tasks of these triggers only run a full evaluation every so often as a safety net.
+ * The events are ignored while fused evaluation is enabled since the fused task evaluates all the
+ * triggers together.
+ */
+public class TriggerEventDispatcher implements GlobalPropertyListener {
+	
+	protected static final Log log = LogFactory.getLog(TriggerEventDispatcher.class);
+	
+	private static final int DEFAULT_DEBOUNCE_SECONDS = 5;
+	
+	private static final int DEFAULT_SAFETY_NET_INTERVAL = 3600;
+	
+	private static final Set<WatermarkType> pendingTypes = Collections
+	        .newSetFromMap(new ConcurrentHashMap<WatermarkType, Boolean>());
+	
+	private static final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+	
+	private static final Map<String, Long> lastScheduledEvaluations = new ConcurrentHashMap<>();
+	
+	private static final TriggerEventDispatcher listener = new TriggerEventDispatcher();
+	
+	private static DaemonToken daemonToken;
+	
+	private static ScheduledExecutorService executor;
+	
+	private static volatile boolean enabled;
+	
+	private static volatile int debounceSeconds = DEFAULT_DEBOUNCE_SECONDS;
+	
+	private static volatile int safetyNetInterval = DEFAULT_SAFETY_NET_INTERVAL;
+	
+	public static void setDaemonToken(DaemonToken token) {
+		daemonToken = token;
+	}
+	
+	/**
+	 * Reads the settings and starts listening for changes to them, should be called when the module
+	 * is started
+	 */
+	public static synchronized void start() {
+		refreshSettings();
+		//A restarted module must not register the listener twice
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+		Context.getAdministrationService().addGlobalPropertyListener(listener);
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "casereport-trigger-events");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Stops dispatching events and listening for changes to the settings, should be called when the
+	 * module is stopped
+	 *
+	 * <strong>Should</strong> stop listening for changes to the settings
+	 */
+	public static synchronized void stop() {
+		Context.getAdministrationService().removeGlobalPropertyListener(listener);
+		enabled = false;
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pendingTypes.clear();
+		dispatchScheduled.set(false);
+	}
+	
+	/**
+	 * @return true if event driven trigger evaluation is enabled otherwise false
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Records that a row was saved in the table of the specified watermark type, the triggers
+	 * watching the table are evaluated after the debounce delay
+	 *
+	 * @param type the watermark type of the saved row
+	 */
+	public static void onSave(WatermarkType type) {
+		if (!enabled || daemonToken == null) {
+			return;
+		}
+		
+		pendingTypes.add(type);
+		if (dispatchScheduled.compareAndSet(false, true)) {
+			ScheduledExecutorService ex = executor;
+			if (ex == null) {
+				dispatchScheduled.set(false);
+				return;
+			}
+			ex.schedule(new Runnable() {
+				
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, debounceSeconds, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Gets the watermark types whose parameters are referenced by the specified cohort definition,
+	 * these are the tables the trigger is subscribed to
+	 *
+	 * @param definition the cohort definition
+	 * @return the set of watermark types
+	 * <strong>Should</strong> return the types whose last id parameter is declared
+	 * <strong>Should</strong> return an empty set for a definition with no watermark parameters
+	 */
+	public static Set<WatermarkType> getSubscribedTypes(SqlCohortDefinition definition) {
+		Set<WatermarkType> types = EnumSet.noneOf(WatermarkType.class);
+		for (WatermarkType type : WatermarkType.values()) {
+			if (definition.getParameter(type.getLastIdParameter()) != null) {
+				types.add(type);
+			}
+		}
+		
+		return types;
+	}
+	
+	/**
+	 * Checks if the scheduled run of the specified task should be skipped because the trigger is
+	 * evaluated as rows are saved and the safety net interval hasn't elapsed since the last
+	 * scheduled run that wasn't skipped.
+	 *
+	 * @param taskDefinition the task definition
+	 * @return true if the run should be skipped otherwise false
+	 * <strong>Should</strong> return false if event driven evaluation is disabled
+	 */
+	public static boolean shouldSkipScheduledRun(TaskDefinition taskDefinition) {
+		if (!enabled) {
+			return false;
+		}
+		
+		String triggerName = taskDefinition.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+		SqlCohortDefinition definition = CaseReportUtil.getSqlCohortDefinition(triggerName);
+		if (definition == null || getSubscribedTypes(definition).isEmpty()) {
+			return false;
+		}
+		
+		String key = triggerName.toLowerCase();
+		long now = System.currentTimeMillis();
+		Long last = lastScheduledEvaluations.get(key);
+		if (last != null && now - last < safetyNetInterval * 1000L) {
+			return true;
+		}
+		lastScheduledEvaluations.put(key, now);
+		
+		return false;
+	}
+	
+	private static void dispatch() {
+		dispatchScheduled.set(false);
+		final Set<WatermarkType> types = EnumSet.noneOf(WatermarkType.class);
+		for (WatermarkType type : WatermarkType.values()) {
+			if (pendingTypes.remove(type)) {
+				types.add(type);
+			}
+		}
+		if (types.isEmpty()) {
+			return;
+		}
+		
+		Thread thread = Daemon.runInDaemonThread(new Runnable() {
+			
+			@Override
+			public void run() {
+				evaluateTriggers(types);
+			}
+		}, daemonToken);
+		try {
+			//Evaluate one batch of events at a time
+			thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void evaluateTriggers(Set<WatermarkType> types) {
+		if (CaseReportUtil.isFusedEvaluationEnabled()) {
+			//The fused task evaluates all the triggers together in its next pass
+			if (log.isDebugEnabled()) {
+				log.debug("Skipping the evaluation of the triggers for saved " + types
+				        + " since they are evaluated by the fused task");
+			}
+			return;
+		}
+		
+		for (TaskDefinition td : CaseReportUtil.getCaseReportTaskDefinitions()) {
+			String triggerName = td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+			if (StringUtils.isBlank(triggerName)) {
+				continue;
+			}
+			try {
+				SqlCohortDefinition definition = CaseReportUtil.getSqlCohortDefinition(triggerName);
+				if (definition == null || Collections.disjoint(getSubscribedTypes(definition), types)
+				        || TriggerQuarantine.isQuarantined(td)) {
+					continue;
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Evaluating the trigger " + triggerName + " for saved " + types);
+				}
+				try {
+					CaseReportUtil.executeTask(td);
+				}
+				catch (TriggerQueryTimeoutException e) {
+					TriggerQuarantine.recordTimeout(td);
+					throw e;
+				}
+				TriggerQuarantine.recordCompleted(td);
+			}
+			catch (Exception e) {
+				log.warn("Failed to evaluate the trigger " + triggerName + " for saved " + types, e);
+			}
+		}
+	}
+	
+	private static void refreshSettings() {
+		String value = Context.getAdministrationService().getGlobalProperty(
+		    CaseReportConstants.GP_EVENT_DRIVEN_TRIGGERS);
+		enabled = "true".equalsIgnoreCase(StringUtils.trimToEmpty(value));
+		debounceSeconds = Math.max(CaseReportUtil.getIntegerGlobalProperty(
+		    CaseReportConstants.GP_EVENT_DEBOUNCE_SECONDS, DEFAULT_DEBOUNCE_SECONDS), 0);
+		safetyNetInterval = Math.max(CaseReportUtil.getIntegerGlobalProperty(
+		    CaseReportConstants.GP_EVENT_DRIVEN_SAFETY_NET_INTERVAL, DEFAULT_SAFETY_NET_INTERVAL), 0);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return CaseReportConstants.GP_EVENT_DRIVEN_TRIGGERS.equals(propertyName)
+		        || CaseReportConstants.GP_EVENT_DEBOUNCE_SECONDS.equals(propertyName)
+		        || CaseReportConstants.GP_EVENT_DRIVEN_SAFETY_NET_INTERVAL.equals(propertyName);
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		refreshSettings();
+	}
+	
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		refreshSettings();
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.openmrs.BaseOpenmrsObject;
+
+/**
+ * An instance of this class is a lease that grants a single node in a cluster the right to evaluate
+ * a trigger or a shard of its cohort until the lease expires, a lease held by a node that died is
+ * reclaimed by another node once it expires.
+ * 
+ * @see ClusterLeases
+ */
+public class TriggerLease extends BaseOpenmrsObject implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer triggerLeaseId;
+	
+	private String name;
+	
+	private String owner;
+	
+	private Date expiresAt;
+	
+	public TriggerLease() {
+	}
+	
+	public TriggerLease(String name) {
+		this.name = name;
+	}
+	
+	public Integer getTriggerLeaseId() {
+		return triggerLeaseId;
+	}
+	
+	public void setTriggerLeaseId(Integer triggerLeaseId) {
+		this.triggerLeaseId = triggerLeaseId;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	public String getOwner() {
+		return owner;
+	}
+	
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+	
+	public Date getExpiresAt() {
+		return expiresAt;
+	}
+	
+	public void setExpiresAt(Date expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+	
+	@Override
+	public Integer getId() {
+		return getTriggerLeaseId();
+	}
+	
+	@Override
+	public void setId(Integer id) {
+		setTriggerLeaseId(id);
+	}
+	
+	@Override
+	public String toString() {
+		return name + " held by " + owner + " until " + expiresAt;
+	}
+}
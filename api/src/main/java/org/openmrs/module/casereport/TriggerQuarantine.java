@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.scheduler.TaskDefinition;
+
+/**
+ * Backs off a trigger whose query keeps timing out so that it can't starve the connection pool,
+ * after the number of consecutive timeouts set by the
+ * {@link CaseReportConstants#GP_QUARANTINE_AFTER_TIMEOUTS} global property the trigger is degraded
+ * and its runs are skipped for a number of repeat intervals that doubles with each further timeout
+ * up to the value of the {@link CaseReportConstants#GP_QUARANTINE_MAX_BACKOFF} global property, a
+ * run that completes resets it. The state is stored in the task properties.
+ */
+public class TriggerQuarantine {
+	
+	protected static final Log log = LogFactory.getLog(TriggerQuarantine.class);
+	
+	private static final int DEFAULT_QUARANTINE_AFTER_TIMEOUTS = 3;
+	
+	private static final int DEFAULT_MAX_BACKOFF = 8;
+	
+	/**
+	 * Checks if the specified trigger task is degraded because its query timed out repeatedly
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @return true if the trigger is degraded otherwise false
+	 */
+	public static boolean isDegraded(TaskDefinition taskDefinition) {
+		return getConsecutiveTimeouts(taskDefinition) >= getThreshold();
+	}
+	
+	/**
+	 * Checks if the trigger with the specified name is degraded because its query timed out
+	 * repeatedly, trigger names are matched case insensitively
+	 *
+	 * @param triggerName the trigger name
+	 * @return true if the trigger is degraded otherwise false
+	 * <strong>Should</strong> return true for a trigger that reached the threshold
+	 */
+	public static boolean isDegraded(String triggerName) {
+		for (TaskDefinition td : CaseReportUtil.getCaseReportTaskDefinitions()) {
+			if (triggerName.equalsIgnoreCase(td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY))) {
+				return isDegraded(td);
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if the run of the specified trigger task should be skipped because it is backing off
+	 * after repeated timeouts
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @return true if the run should be skipped otherwise false
+	 * <strong>Should</strong> skip a run while the trigger is quarantined
+	 * <strong>Should</strong> not skip a run after the quarantine has expired
+	 */
+	public static boolean isQuarantined(TaskDefinition taskDefinition) {
+		long until = NumberUtils.toLong(taskDefinition.getProperty(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY),
+		    0);
+		return System.currentTimeMillis() < until;
+	}
+	
+	/**
+	 * Records a timed out run of the specified trigger task and quarantines the trigger if it has
+	 * reached the threshold
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * <strong>Should</strong> not quarantine the trigger before the threshold is reached
+	 * <strong>Should</strong> quarantine the trigger when the threshold is reached
+	 * <strong>Should</strong> double the quarantine with each further timeout
+	 * <strong>Should</strong> not back off beyond the maximum backoff
+	 */
+	public static void recordTimeout(TaskDefinition taskDefinition) {
+		int timeouts = getConsecutiveTimeouts(taskDefinition) + 1;
+		taskDefinition.setProperty(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY, Integer.toString(timeouts));
+		int threshold = getThreshold();
+		if (timeouts >= threshold) {
+			int maxBackoff = Math.max(CaseReportUtil.getIntegerGlobalProperty(
+			    CaseReportConstants.GP_QUARANTINE_MAX_BACKOFF, DEFAULT_MAX_BACKOFF), 1);
+			long factor = Math.min(1L << Math.min(timeouts - threshold + 1, 30), maxBackoff);
+			long interval = taskDefinition.getRepeatInterval() != null ? taskDefinition.getRepeatInterval() * 1000 : 0;
+			//Half an interval of slack so that a slightly early firing of the task isn't run
+			long until = System.currentTimeMillis() + (factor - 1) * interval + interval / 2;
+			taskDefinition.setProperty(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY, Long.toString(until));
+			log.warn("The query of the trigger " + taskDefinition.getName() + " timed out " + timeouts
+			        + " time(s) in a row, the trigger is degraded and skips the next " + (factor - 1) + " run(s)");
+		}
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+	}
+	
+	/**
+	 * Records a completed run of the specified trigger task and clears its quarantine
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * <strong>Should</strong> clear the quarantine
+	 */
+	public static void recordCompleted(TaskDefinition taskDefinition) {
+		if (taskDefinition.getProperty(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY) == null) {
+			return;
+		}
+		
+		if (isDegraded(taskDefinition)) {
+			log.info("The trigger " + taskDefinition.getName() + " is no longer degraded");
+		}
+		taskDefinition.getProperties().remove(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY);
+		taskDefinition.getProperties().remove(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY);
+		Context.getSchedulerService().saveTaskDefinition(taskDefinition);
+	}
+	
+	private static int getConsecutiveTimeouts(TaskDefinition taskDefinition) {
+		return NumberUtils.toInt(taskDefinition.getProperty(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY), 0);
+	}
+	
+	private static int getThreshold() {
+		return Math.max(CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_QUARANTINE_AFTER_TIMEOUTS,
+		    DEFAULT_QUARANTINE_AFTER_TIMEOUTS), 1);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.api.APIException;
+import org.openmrs.scheduler.TaskDefinition;
+
+/**
+ * Runs the sql cohort queries of the triggers with a statement timeout and keeps track of the
+ * running evaluations so that they can be cancelled. The timeout of a trigger is read from the
+ * timeoutSeconds field of its cohort query which is stored as a task property, it defaults to the
+ * value of the {@link CaseReportConstants#GP_QUERY_TIMEOUT_SECONDS} global property. Cancelling an
+ * evaluation cancels its running statements and stops it before the next chunk of patients is
+ * processed, the checkpoint lets the next run resume from there. A trigger can have several
+ * running evaluations at the same time e.g. the parallel slices of a catch up, each is tracked
+ * separately and cancelling the trigger cancels all of them.
+ */
+public class TriggerQueryGuard {
+	
+	protected static final Log log = LogFactory.getLog(TriggerQueryGuard.class);
+	
+	private static final Set<RunningEvaluation> runningEvaluations = Collections
+	        .newSetFromMap(new ConcurrentHashMap<RunningEvaluation, Boolean>());
+	
+	private static final ThreadLocal<RunningEvaluation> currentEvaluation = new ThreadLocal<>();
+	
+	/**
+	 * Gets the statement timeout of the specified trigger task
+	 *
+	 * @param taskDefinition the trigger task definition
+	 * @return the timeout in seconds, 0 means no timeout
+	 * <strong>Should</strong> return the timeout of the task
+	 * <strong>Should</strong> default to the value of the global property
+	 */
+	public static int getTimeoutSeconds(TaskDefinition taskDefinition) {
+		int timeout = NumberUtils.toInt(taskDefinition.getProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY), 0);
+		if (timeout <= 0) {
+			timeout = CaseReportUtil.getIntegerGlobalProperty(CaseReportConstants.GP_QUERY_TIMEOUT_SECONDS, 0);
+		}
+		
+		return Math.max(timeout, 0);
+	}
+	
+	/**
+	 * Registers the start of the evaluation of the trigger with the specified name in the current
+	 * thread, callers MUST call {@link #end(String)} in the same thread when the evaluation ends.
+	 *
+	 * @param triggerName the trigger name
+	 */
+	public static void begin(String triggerName) {
+		RunningEvaluation evaluation = new RunningEvaluation(getKey(triggerName));
+		runningEvaluations.add(evaluation);
+		currentEvaluation.set(evaluation);
+	}
+	
+	/**
+	 * Registers the end of the evaluation of the trigger with the specified name in the current
+	 * thread, the other running evaluations of the trigger are not affected.
+	 *
+	 * @param triggerName the trigger name
+	 * <strong>Should</strong> not end the evaluations of the trigger in other threads
+	 */
+	public static void end(String triggerName) {
+		RunningEvaluation evaluation = getCurrentEvaluation(getKey(triggerName));
+		if (evaluation != null) {
+			runningEvaluations.remove(evaluation);
+			currentEvaluation.remove();
+		}
+	}
+	
+	/**
+	 * Checks if the trigger with the specified name is being evaluated
+	 *
+	 * @param triggerName the trigger name
+	 * @return true if the trigger is being evaluated otherwise false
+	 */
+	public static boolean isRunning(String triggerName) {
+		return !getRunningEvaluations(getKey(triggerName)).isEmpty();
+	}
+	
+	/**
+	 * Cancels the running evaluations of the trigger with the specified name, their running
+	 * statements are cancelled and they stop before processing the next chunk of patients.
+	 *
+	 * @param triggerName the trigger name
+	 * @return true if an evaluation was running otherwise false
+	 * <strong>Should</strong> return false if the trigger is not being evaluated
+	 * <strong>Should</strong> cancel a running evaluation
+	 * <strong>Should</strong> cancel all the running evaluations of the trigger
+	 */
+	public static boolean cancel(String triggerName) {
+		List<RunningEvaluation> evaluations = getRunningEvaluations(getKey(triggerName));
+		for (RunningEvaluation evaluation : evaluations) {
+			evaluation.cancelled = true;
+			for (Statement statement : evaluation.statements) {
+				try {
+					statement.cancel();
+				}
+				catch (SQLException e) {
+					log.warn("Failed to cancel the query of the trigger: " + triggerName, e);
+				}
+			}
+		}
+		if (evaluations.isEmpty()) {
+			return false;
+		}
+		
+		log.info("Cancelled " + evaluations.size() + " running evaluation(s) of the trigger: " + triggerName);
+		
+		return true;
+	}
+	
+	/**
+	 * Fails if the running evaluation of the trigger with the specified name was cancelled
+	 *
+	 * @param triggerName the trigger name
+	 * @throws APIException if the evaluation was cancelled
+	 * <strong>Should</strong> fail if the evaluation was cancelled
+	 */
+	public static void checkNotCancelled(String triggerName) throws APIException {
+		RunningEvaluation evaluation = getCurrentEvaluation(getKey(triggerName));
+		if (evaluation != null && evaluation.cancelled) {
+			throw new APIException("The evaluation of the trigger " + triggerName + " was cancelled");
+		}
+	}
+	
+	/**
+	 * Runs the specified sql cohort query of a trigger on the specified connection with the specified
+	 * timeout, the statement can be cancelled while it runs.
+	 *
+	 * @param connection the connection to use
+	 * @param triggerName the trigger name
+	 * @param sql the sql with named parameters
+	 * @param parameterValues the parameter values
+	 * @param timeoutSeconds the timeout in seconds, 0 means no timeout
+	 * @return the cohort of the patients returned by the query
+	 * @throws SQLException
+	 * @throws TriggerQueryTimeoutException if the query times out
+	 * @throws APIException if the evaluation is cancelled
+	 */
+	public static Cohort execute(Connection connection, String triggerName, String sql,
+	                             Map<String, Object> parameterValues, int timeoutSeconds) throws SQLException {
+		List<Object> values = new ArrayList<>();
+		String jdbcSql = ReplicaCohortEvaluator.toJdbcSql(sql, parameterValues, values);
+		//Queries run outside of the thread of a trigger task e.g. by the fused task or the parallel
+		//slices of a catch up are registered just for their duration so that they can still be
+		//cancelled, a cancellation of the trigger that is already under way applies to them too
+		String key = getKey(triggerName);
+		RunningEvaluation evaluation = getCurrentEvaluation(key);
+		boolean registered = false;
+		if (evaluation == null) {
+			evaluation = new RunningEvaluation(key);
+			for (RunningEvaluation other : getRunningEvaluations(key)) {
+				if (other.cancelled) {
+					evaluation.cancelled = true;
+				}
+			}
+			runningEvaluations.add(evaluation);
+			registered = true;
+		}
+		
+		long start = System.currentTimeMillis();
+		PreparedStatement statement = connection.prepareStatement(jdbcSql);
+		evaluation.statements.add(statement);
+		try {
+			if (evaluation.cancelled) {
+				throw new APIException("The evaluation of the trigger " + triggerName + " was cancelled");
+			}
+			statement.setQueryTimeout(timeoutSeconds);
+			for (int i = 0; i < values.size(); i++) {
+				Object value = values.get(i);
+				if (value instanceof Date) {
+					value = new Timestamp(((Date) value).getTime());
+				}
+				statement.setObject(i + 1, value);
+			}
+			Cohort cohort = new Cohort();
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					cohort.addMember(resultSet.getInt(1));
+				}
+			}
+			
+			return cohort;
+		}
+		catch (SQLException e) {
+			if (evaluation.cancelled) {
+				throw new APIException("The evaluation of the trigger " + triggerName + " was cancelled", e);
+			}
+			//Some drivers report a timeout as a generic cancellation
+			if (timeoutSeconds > 0
+			        && (e instanceof SQLTimeoutException || System.currentTimeMillis() - start >= timeoutSeconds * 1000L)) {
+				throw new TriggerQueryTimeoutException(triggerName, timeoutSeconds, e);
+			}
+			throw e;
+		}
+		finally {
+			evaluation.statements.remove(statement);
+			if (registered) {
+				runningEvaluations.remove(evaluation);
+			}
+			statement.close();
+		}
+	}
+	
+	private static String getKey(String triggerName) {
+		return triggerName.trim().toLowerCase();
+	}
+	
+	private static RunningEvaluation getCurrentEvaluation(String key) {
+		RunningEvaluation evaluation = currentEvaluation.get();
+		return evaluation != null && evaluation.key.equals(key) ? evaluation : null;
+	}
+	
+	private static List<RunningEvaluation> getRunningEvaluations(String key) {
+		List<RunningEvaluation> evaluations = new ArrayList<>();
+		for (RunningEvaluation evaluation : runningEvaluations) {
+			if (evaluation.key.equals(key)) {
+				evaluations.add(evaluation);
+			}
+		}
+		
+		return evaluations;
+	}
+	
+	private static class RunningEvaluation {
+		
+		private final String key;
+		
+		private volatile boolean cancelled;
+		
+		private final Set<Statement> statements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+		
+		RunningEvaluation(String key) {
+			this.key = key;
+		}
+	}
+}
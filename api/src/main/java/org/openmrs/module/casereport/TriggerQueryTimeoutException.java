@@ -0,0 +1,24 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown when the sql cohort query of a trigger exceeds its statement timeout
+ */
+public class TriggerQueryTimeoutException extends APIException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public TriggerQueryTimeoutException(String triggerName, int timeoutSeconds, Throwable cause) {
+		super("The query of the trigger " + triggerName + " timed out after " + timeoutSeconds + " second(s)", cause);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.openmrs.BaseOpenmrsObject;
+
+/**
+ * An instance of this class stores the high water mark of a trigger for a single table, it is the
+ * largest primary key value that was processed by the last successful run of the trigger.
+ * 
+ * @see WatermarkType
+ */
+public class TriggerWatermark extends BaseOpenmrsObject implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer triggerWatermarkId;
+	
+	private String triggerName;
+	
+	private String name;
+	
+	private Long value;
+	
+	private Date dateChanged;
+	
+	public TriggerWatermark() {
+	}
+	
+	public TriggerWatermark(String triggerName, String name) {
+		this.triggerName = triggerName;
+		this.name = name;
+	}
+	
+	public Integer getTriggerWatermarkId() {
+		return triggerWatermarkId;
+	}
+	
+	public void setTriggerWatermarkId(Integer triggerWatermarkId) {
+		this.triggerWatermarkId = triggerWatermarkId;
+	}
+	
+	public String getTriggerName() {
+		return triggerName;
+	}
+	
+	public void setTriggerName(String triggerName) {
+		this.triggerName = triggerName;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	public Long getValue() {
+		return value;
+	}
+	
+	public void setValue(Long value) {
+		this.value = value;
+	}
+	
+	public Date getDateChanged() {
+		return dateChanged;
+	}
+	
+	public void setDateChanged(Date dateChanged) {
+		this.dateChanged = dateChanged;
+	}
+	
+	@Override
+	public Integer getId() {
+		return getTriggerWatermarkId();
+	}
+	
+	@Override
+	public void setId(Integer id) {
+		setTriggerWatermarkId(id);
+	}
+	
+	@Override
+	public String toString() {
+		return triggerName + " " + name + "=" + value;
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+/**
+ * Enumerates the tables whose monotonically increasing primary keys can be used as high water
+ * marks by trigger queries, for each table a query can reference a parameter for the last id that
+ * was processed by the previous run and another for the maximum id at the time the current run
+ * started e.g. <code>obs_id > :lastObsId AND obs_id <= :maxObsId</code>
+ */
+public enum WatermarkType {
+	
+	OBS("obs", "obs_id", "lastObsId", "maxObsId"),
+	
+	ENCOUNTER("encounter", "encounter_id", "lastEncounterId", "maxEncounterId"),
+	
+	ORDER("orders", "order_id", "lastOrderId", "maxOrderId");
+	
+	private String tableName;
+	
+	private String idColumn;
+	
+	private String lastIdParameter;
+	
+	private String maxIdParameter;
+	
+	WatermarkType(String tableName, String idColumn, String lastIdParameter, String maxIdParameter) {
+		this.tableName = tableName;
+		this.idColumn = idColumn;
+		this.lastIdParameter = lastIdParameter;
+		this.maxIdParameter = maxIdParameter;
+	}
+	
+	public String getTableName() {
+		return tableName;
+	}
+	
+	public String getIdColumn() {
+		return idColumn;
+	}
+	
+	public String getLastIdParameter() {
+		return lastIdParameter;
+	}
+	
+	public String getMaxIdParameter() {
+		return maxIdParameter;
+	}
+}
@@ -9,14 +9,31 @@
  */
 package org.openmrs.module.casereport.api;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.Visit;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.casereport.CaseReport;
 import org.openmrs.module.casereport.CaseReportConstants;
+import org.openmrs.module.casereport.ClinicalFact;
+import org.openmrs.module.casereport.PatientClinicalSummary;
+import org.openmrs.module.casereport.PatientIdBitmap;
+import org.openmrs.module.casereport.ReportFormStorageCodec;
 import org.openmrs.module.casereport.Trigger;
+import org.openmrs.module.casereport.TriggerQueryGuard;
+import org.openmrs.module.casereport.TriggerQueryTimeoutException;
+import org.openmrs.module.casereport.TriggerWatermark;
+import org.openmrs.module.casereport.WatermarkType;
+import org.openmrs.util.PrivilegeConstants;
 
 /**
  * Contains methods for processing CRUD operations related to case reports
@@ -80,11 +97,55 @@ public interface CaseReportService extends OpenmrsService {
 	                                CaseReport.Status... statuses);
 	
 	/**
-	 * Saves a case report to the database.
+	 * Gets the non voided case reports for the patients with the specified ids in a single pass, the
+	 * triggers of the reports are fetched in the same query.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @param statuses specifies the statuses of the reports to match against
+	 * @return a list of the matching case reports
+	 * <strong>Should</strong> return the case reports for the patients with the specified ids
+	 * <strong>Should</strong> return only the case reports with the specified statuses
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	List<CaseReport> getCaseReportsByPatientIds(Collection<Integer> patientIds, CaseReport.Status... statuses);
+	
+	/**
+	 * Gets the ids of the patients with non voided case reports that have a trigger with the
+	 * specified name, no patient or case report entities are loaded.
+	 *
+	 * @param triggerName the trigger name to match against
+	 * @param statuses specifies the statuses of the reports to match against
+	 * @return a bitmap of the matching patient ids
+	 * <strong>Should</strong> return the ids of the patients with reports that have the trigger
+	 * <strong>Should</strong> return only the ids of the patients with reports with the specified statuses
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	PatientIdBitmap getPatientIdsByTrigger(String triggerName, CaseReport.Status... statuses);
+	
+	/**
+	 * Gets the ids of the patients with non voided case reports of any status that have a trigger
+	 * with the specified name which was added at or after the specified date, no patient or case
+	 * report entities are loaded.
+	 *
+	 * @param triggerName the trigger name to match against
+	 * @param date the date to match against
+	 * @return a bitmap of the matching patient ids
+	 * <strong>Should</strong> return the ids of the patients with reports that have the trigger added since the date
+	 * <strong>Should</strong> include the reports of any status
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	PatientIdBitmap getPatientIdsTriggeredSince(String triggerName, Date date);
+	
+	/**
+	 * Saves a case report to the database, the report form is only written if its content hash
+	 * differs from that of the saved form.
 	 * 
 	 * @param caseReport the case report to save
 	 * @return the saved case report
 	 * <strong>Should</strong> return the saved case report
+	 * <strong>Should</strong> save the report form of a new case report
+	 * <strong>Should</strong> save a changed report form
+	 * <strong>Should</strong> not rewrite an unchanged report form
 	 */
 	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
 	CaseReport saveCaseReport(CaseReport caseReport);
@@ -164,4 +225,334 @@ public interface CaseReportService extends OpenmrsService {
 	 */
 	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
 	List<Trigger> getTriggers();
+	
+	/**
+	 * Gets the patients with the specified patient ids, the patients are fetched in batches along
+	 * with their names and identifiers to avoid a query per patient, ids with no matching patient
+	 * are ignored.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @return a list of the matching patients
+	 * <strong>Should</strong> return the patients with the specified ids
+	 * <strong>Should</strong> return an empty list if no ids are specified
+	 * <strong>Should</strong> fetch the names and identifiers of the patients
+	 */
+	@Authorized(PrivilegeConstants.VIEW_PATIENTS)
+	List<Patient> getPatients(Collection<Integer> patientIds);
+	
+	/**
+	 * Gets the latest K non voided observations of each of the specified concepts for each of the
+	 * patients with the specified ids, they are fetched in batches of patients with the same top N
+	 * per patient and concept query as the latest clinical facts and ordered such that the most
+	 * recent comes first.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @param concepts the concepts to match against
+	 * @param maxResultsPerConcept the maximum number of observations to return per patient and concept
+	 * @return a list of the matching observations
+	 * <strong>Should</strong> return the latest observations of the concepts for the patients
+	 * <strong>Should</strong> return an empty list if no ids are specified
+	 */
+	@Authorized(PrivilegeConstants.VIEW_OBS)
+	List<Obs> getObservations(Collection<Integer> patientIds, Collection<Concept> concepts, int maxResultsPerConcept);
+	
+	/**
+	 * Gets the drug orders of the concepts with the specified ids that are active as of the specified
+	 * date for the patients with the specified ids, they are fetched in batches of patients and
+	 * ordered by date activated.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @param conceptIds the ids of the concepts to match against
+	 * @param asOfDate the reference date, defaults to now
+	 * @return a list of the matching drug orders
+	 * <strong>Should</strong> return the active drug orders of the concepts for the patients
+	 * <strong>Should</strong> return an empty list if no concept ids are specified
+	 */
+	@Authorized(PrivilegeConstants.VIEW_ORDERS)
+	List<DrugOrder> getActiveDrugOrders(Collection<Integer> patientIds, Collection<Integer> conceptIds, Date asOfDate);
+	
+	/**
+	 * Gets the non voided visits of the patients with the specified ids that started last, they are
+	 * fetched in batches of patients.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @return a list of the last visits
+	 * <strong>Should</strong> return the last visit of each patient
+	 */
+	@Authorized(PrivilegeConstants.VIEW_VISITS)
+	List<Visit> getLastVisits(Collection<Integer> patientIds);
+	
+	/**
+	 * Gets the latest K non voided observations of each of the specified concepts for each of the
+	 * patients with the specified ids as compact clinical facts, they are selected with a single top N
+	 * per patient and concept query per batch of patients and ordered by patient, concept and such
+	 * that the most recent comes first.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @param concepts the concepts to match against
+	 * @param maxResultsPerConcept the maximum number of facts to return per patient and concept
+	 * @return a list of the latest clinical facts
+	 * <strong>Should</strong> return the latest facts of the concepts for the patients
+	 * <strong>Should</strong> return an empty list if no ids are specified
+	 */
+	@Authorized(PrivilegeConstants.VIEW_OBS)
+	List<ClinicalFact> getLatestClinicalFacts(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                          int maxResultsPerConcept);
+	
+	/**
+	 * Gets the observation with the specified uuid as a compact clinical fact
+	 *
+	 * @param uuid the uuid to match against
+	 * @return the clinical fact or null if no match is found
+	 * <strong>Should</strong> return the clinical fact with the specified uuid
+	 */
+	@Authorized(PrivilegeConstants.VIEW_OBS)
+	ClinicalFact getClinicalFactByUuid(String uuid);
+	
+	/**
+	 * Gets the non voided NEW and DRAFT case reports with no saved report form whose form needs to be
+	 * prefetched, i.e. it was never prefetched or a trigger was added to the report since then.
+	 *
+	 * @param maxResults the maximum number of case reports to return
+	 * @return a list of case reports ordered by id
+	 * <strong>Should</strong> return the queued reports with no prefetched form
+	 * <strong>Should</strong> return the reports with a trigger added after the form was prefetched
+	 * <strong>Should</strong> exclude the reports with a saved report form
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	List<CaseReport> getCaseReportsToPrefetch(int maxResults);
+	
+	/**
+	 * Gets the ids of the patients with NEW or DRAFT case reports that have no saved report form
+	 * and have rows in the table of the specified watermark type for the concepts with the specified
+	 * ids, with primary key values greater than lastId and less than or equal to maxId.
+	 *
+	 * @param type the watermark type, only OBS and ORDER are supported
+	 * @param lastId the last id that was processed
+	 * @param maxId the maximum id to match
+	 * @param conceptIds the ids of the concepts to match against
+	 * @return a list of patient ids
+	 * <strong>Should</strong> return the queued patients with new obs for the concepts
+	 * <strong>Should</strong> fail for an unsupported watermark type
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	List<Integer> getQueuedPatientIdsWithNewData(WatermarkType type, Long lastId, Long maxId,
+	                                             Collection<Integer> conceptIds);
+	
+	/**
+	 * Checks if any of the data of the patient with the specified id that goes into a report form
+	 * was created, changed or voided after the specified date, i.e. obs, orders including those that
+	 * were discontinued or expired, visits, demographics, names, addresses and identifiers.
+	 *
+	 * @param patientId the patient id
+	 * @param date the date to compare against
+	 * @return true if any of the data changed after the date otherwise false
+	 * <strong>Should</strong> return true if an obs of the patient was voided after the date
+	 * <strong>Should</strong> return false if no data of the patient changed after the date
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	boolean hasPatientDataChangedSince(Integer patientId, Date date);
+	
+	/**
+	 * Stores the specified prefetched report form for the specified case report and sets the date it
+	 * was prefetched to now, the audit fields of the case report are left unchanged.
+	 *
+	 * @param caseReport the case report
+	 * @param reportForm the serialized report form or null if it could not be built
+	 * <strong>Should</strong> save the prefetched form and the date
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	void savePrefetchedReportForm(CaseReport caseReport, String reportForm);
+	
+	/**
+	 * Gets the clinical summary of the patient with the specified id
+	 *
+	 * @param patientId the patient id to match against
+	 * @return the clinical summary or null if the patient has none
+	 * <strong>Should</strong> return the clinical summary of the patient
+	 * <strong>Should</strong> return null for a patient with no clinical summary
+	 */
+	@Authorized(PrivilegeConstants.VIEW_OBS)
+	PatientClinicalSummary getPatientClinicalSummary(Integer patientId);
+	
+	/**
+	 * Gets the clinical summaries of the patients with the specified ids, they are fetched in batches
+	 * of patients.
+	 *
+	 * @param patientIds the patient ids to match against
+	 * @return a list of clinical summaries
+	 * <strong>Should</strong> return the clinical summaries of the patients
+	 */
+	@Authorized(PrivilegeConstants.VIEW_OBS)
+	List<PatientClinicalSummary> getPatientClinicalSummaries(Collection<Integer> patientIds);
+	
+	/**
+	 * Saves the specified patient clinical summary to the database
+	 *
+	 * @param summary the clinical summary to save
+	 * @return the saved clinical summary
+	 * <strong>Should</strong> save the clinical summary
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	PatientClinicalSummary savePatientClinicalSummary(PatientClinicalSummary summary);
+	
+	/**
+	 * Recomputes and saves the clinical summaries of the patients with the specified ids in a new
+	 * transaction that is independent of the caller's, it is called after a transaction that saved
+	 * clinical data commits.
+	 *
+	 * @param patientIds the ids of the patients to update
+	 * @return a list of the updated summaries
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	List<PatientClinicalSummary> updatePatientClinicalSummaries(Collection<Integer> patientIds);
+	
+	/**
+	 * Gets the ids of the non voided patients with ids greater than the specified id in ascending
+	 * order, it is used to page through all the patients.
+	 *
+	 * @param afterPatientId the patient id to start after
+	 * @param maxResults the maximum number of ids to return
+	 * @return a list of patient ids
+	 * <strong>Should</strong> return the ids of the patients after the specified id
+	 */
+	@Authorized(PrivilegeConstants.VIEW_PATIENTS)
+	List<Integer> getPatientIds(Integer afterPatientId, int maxResults);
+	
+	/**
+	 * Gets the ids of the case reports with a stored report form or prefetched form with ids greater
+	 * than the specified id in ascending order, voided case reports are included.
+	 *
+	 * @param afterCaseReportId the case report id to start after
+	 * @param maxResults the maximum number of ids to return
+	 * @return a list of case report ids
+	 * <strong>Should</strong> return the ids of the case reports with stored forms
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_CASE_REPORTS)
+	List<Integer> getCaseReportIdsWithStoredForms(Integer afterCaseReportId, int maxResults);
+	
+	/**
+	 * Rewrites the stored report forms and prefetched forms of the case reports with the specified
+	 * ids with the current encoding of the {@link ReportFormStorageCodec}, the rows are updated
+	 * directly in the database and only if their encoding changes.
+	 *
+	 * @param caseReportIds the ids of the case reports
+	 * @return the number of case reports that were updated
+	 * <strong>Should</strong> rewrite the forms with the current encoding
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	int reencodeStoredForms(Collection<Integer> caseReportIds);
+	
+	/**
+	 * Gets the watermark with the specified name for the trigger with the specified name
+	 *
+	 * @param triggerName the trigger name to match against
+	 * @param name the watermark name to match against
+	 * @return the matching watermark or null if none exists
+	 * <strong>Should</strong> return the watermark for the specified trigger and name
+	 * <strong>Should</strong> return null if no watermark matches
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
+	TriggerWatermark getTriggerWatermark(String triggerName, String name);
+	
+	/**
+	 * Saves the specified trigger watermark to the database
+	 *
+	 * @param watermark the watermark to save
+	 * @return the saved watermark
+	 * <strong>Should</strong> save the specified watermark
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	TriggerWatermark saveTriggerWatermark(TriggerWatermark watermark);
+	
+	/**
+	 * Gets the largest primary key value in the table of the specified watermark type
+	 *
+	 * @param type the watermark type
+	 * @return the largest id or 0 if the table is empty
+	 * <strong>Should</strong> return the largest id in the table
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
+	Long getMaxId(WatermarkType type);
+	
+	/**
+	 * Gets the largest primary key value of the rows in the table of the specified watermark type
+	 * that were created before the specified date, it is used to seed a watermark from the last
+	 * execution time of a trigger that has never recorded one. The date created of the rows is
+	 * expected to grow with their primary key so that the primary key index can be searched.
+	 *
+	 * @param type the watermark type
+	 * @param date the date to match against
+	 * @return the largest id or 0 if no row was created before the date
+	 * <strong>Should</strong> return the largest id of the rows created before the specified date
+	 * <strong>Should</strong> exclude the rows created at or after the specified date
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
+	Long getMaxIdCreatedBefore(WatermarkType type, Date date);
+	
+	/**
+	 * Gets the earliest date_created of the rows in the table of the specified watermark type whose
+	 * primary key values are greater than the specified id, it is used to measure how far a read
+	 * replica is lagging behind.
+	 *
+	 * @param type the watermark type
+	 * @param id the id to match against
+	 * @return the earliest date_created or null if no row has a greater id
+	 * <strong>Should</strong> return the earliest date created of the rows with a greater id
+	 * <strong>Should</strong> return null if no row has a greater id
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
+	Date getEarliestDateCreatedAfter(WatermarkType type, Long id);
+	
+	/**
+	 * Runs the specified sql cohort query of a trigger with the specified statement timeout, the
+	 * query can be cancelled while it runs via {@link TriggerQueryGuard#cancel(String)}
+	 *
+	 * @param triggerName the trigger name
+	 * @param sql the sql with named parameters
+	 * @param parameterValues the parameter values
+	 * @param timeoutSeconds the timeout in seconds, 0 means no timeout
+	 * @return the cohort of the patients returned by the query
+	 * @throws TriggerQueryTimeoutException if the query times out
+	 * <strong>Should</strong> return the patients matched by the query
+	 */
+	@Authorized(CaseReportConstants.PRIV_GET_TRIGGERS)
+	Cohort evaluateTriggerQuery(String triggerName, String sql, Map<String, Object> parameterValues, int timeoutSeconds);
+	
+	/**
+	 * Cancels the running evaluation of the trigger with the specified name
+	 *
+	 * @param triggerName the trigger name
+	 * @return true if an evaluation was running otherwise false
+	 * <strong>Should</strong> return false if the trigger is not being evaluated
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	boolean cancelTriggerEvaluation(String triggerName);
+	
+	/**
+	 * Acquires or renews the lease with the specified name for the specified owner, a lease held by
+	 * another owner can only be acquired after it has expired.
+	 *
+	 * @param name the name of the lease
+	 * @param owner the identifier of the node acquiring the lease
+	 * @param durationSeconds the number of seconds after which the lease expires
+	 * @return true if the lease was acquired otherwise false
+	 * <strong>Should</strong> acquire a lease that does not exist
+	 * <strong>Should</strong> renew a lease held by the same owner
+	 * <strong>Should</strong> not acquire a lease held by another owner
+	 * <strong>Should</strong> acquire an expired lease held by another owner
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	boolean acquireTriggerLease(String name, String owner, int durationSeconds);
+	
+	/**
+	 * Releases the lease with the specified name if it is held by the specified owner
+	 *
+	 * @param name the name of the lease
+	 * @param owner the identifier of the node releasing the lease
+	 * <strong>Should</strong> release a lease held by the owner
+	 * <strong>Should</strong> not release a lease held by another owner
+	 */
+	@Authorized(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS)
+	void releaseTriggerLease(String name, String owner);
 }
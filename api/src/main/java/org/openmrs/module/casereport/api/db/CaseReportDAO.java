@@ -9,10 +9,24 @@
  */
 package org.openmrs.module.casereport.api.db;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.Visit;
 import org.openmrs.module.casereport.CaseReport;
+import org.openmrs.module.casereport.ClinicalFact;
+import org.openmrs.module.casereport.PatientClinicalSummary;
+import org.openmrs.module.casereport.PatientIdBitmap;
+import org.openmrs.module.casereport.TriggerLease;
+import org.openmrs.module.casereport.TriggerWatermark;
+import org.openmrs.module.casereport.WatermarkType;
 import org.openmrs.module.casereport.api.CaseReportService;
 
 /**
@@ -27,5 +41,71 @@ public interface CaseReportDAO {
 	List<CaseReport> getCaseReports(Patient patient, boolean includeVoided, String orderBy, Boolean asc,
 	                                CaseReport.Status... statuses);
 	
+	List<CaseReport> getCaseReportsByPatientIds(Collection<Integer> patientIds, CaseReport.Status... statuses);
+	
+	PatientIdBitmap getPatientIdsByTrigger(String triggerName, CaseReport.Status... statuses);
+	
+	PatientIdBitmap getPatientIdsTriggeredSince(String triggerName, Date date);
+	
 	CaseReport saveCaseReport(CaseReport caseReport);
+	
+	List<Patient> getPatients(Collection<Integer> patientIds);
+	
+	List<Obs> getObservations(Collection<Integer> patientIds, Collection<Concept> concepts, int maxResultsPerConcept);
+	
+	List<DrugOrder> getActiveDrugOrders(Collection<Integer> patientIds, Collection<Integer> conceptIds, Date asOfDate);
+	
+	List<Visit> getLastVisits(Collection<Integer> patientIds);
+	
+	List<ClinicalFact> getLatestClinicalFacts(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                          int maxResultsPerConcept);
+	
+	ClinicalFact getClinicalFactByUuid(String uuid);
+	
+	List<CaseReport> getCaseReportsToPrefetch(int maxResults);
+	
+	List<Integer> getQueuedPatientIdsWithNewData(WatermarkType type, Long lastId, Long maxId,
+	                                             Collection<Integer> conceptIds);
+	
+	boolean hasPatientDataChangedSince(Integer patientId, Date date);
+	
+	void savePrefetchedReportForm(Integer caseReportId, String reportForm, Date datePrefetched);
+	
+	PatientClinicalSummary getPatientClinicalSummary(Integer patientId);
+	
+	List<PatientClinicalSummary> getPatientClinicalSummaries(Collection<Integer> patientIds);
+	
+	PatientClinicalSummary savePatientClinicalSummary(PatientClinicalSummary summary);
+	
+	List<Integer> getPatientIds(Integer afterPatientId, int maxResults);
+	
+	List<Integer> getCaseReportIdsWithStoredForms(Integer afterCaseReportId, int maxResults);
+	
+	/**
+	 * Gets the raw stored forms of the case reports with the specified ids as rows of the case
+	 * report id, report form and prefetched form
+	 */
+	List<Object[]> getStoredForms(Collection<Integer> caseReportIds);
+	
+	void saveStoredForms(Integer caseReportId, String reportForm, String prefetchedForm);
+	
+	TriggerWatermark getTriggerWatermark(String triggerName, String name);
+	
+	TriggerWatermark saveTriggerWatermark(TriggerWatermark watermark);
+	
+	Long getMaxId(WatermarkType type);
+	
+	Long getMaxIdCreatedBefore(WatermarkType type, Date date);
+	
+	Date getEarliestDateCreatedAfter(WatermarkType type, Long id);
+	
+	Cohort evaluateTriggerQuery(String triggerName, String sql, Map<String, Object> parameterValues, int timeoutSeconds);
+	
+	TriggerLease getTriggerLease(String name);
+	
+	TriggerLease saveTriggerLease(TriggerLease lease);
+	
+	int renewTriggerLease(String name, String owner, Date expiresAt, Date now);
+	
+	int deleteTriggerLease(String name, String owner);
 }
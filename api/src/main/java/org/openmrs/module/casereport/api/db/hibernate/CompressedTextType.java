@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport.api.db.hibernate;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.usertype.UserType;
+import org.openmrs.module.casereport.ReportFormStorageCodec;
+
+/**
+ * A hibernate type for text columns holding report forms, the values are encoded and decoded with
+ * the {@link ReportFormStorageCodec} so that the entities always see the plain report forms.
+ */
+public class CompressedTextType implements UserType {
+	
+	private static final int[] SQL_TYPES = { Types.LONGVARCHAR };
+	
+	/**
+	 * @see UserType#sqlTypes()
+	 */
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+	
+	/**
+	 * @see UserType#returnedClass()
+	 */
+	@Override
+	public Class returnedClass() {
+		return String.class;
+	}
+	
+	/**
+	 * @see UserType#equals(Object, Object)
+	 */
+	@Override
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return ObjectUtils.equals(x, y);
+	}
+	
+	/**
+	 * @see UserType#hashCode(Object)
+	 */
+	@Override
+	public int hashCode(Object x) throws HibernateException {
+		return ObjectUtils.hashCode(x);
+	}
+	
+	/**
+	 * @see UserType#nullSafeGet(ResultSet, String[], Object)
+	 */
+	@Override
+	public Object nullSafeGet(ResultSet rs, String[] names, Object owner) throws HibernateException, SQLException {
+		return ReportFormStorageCodec.decode(rs.getString(names[0]));
+	}
+	
+	/**
+	 * @see UserType#nullSafeSet(PreparedStatement, Object, int)
+	 */
+	@Override
+	public void nullSafeSet(PreparedStatement st, Object value, int index) throws HibernateException, SQLException {
+		if (value == null) {
+			st.setNull(index, Types.LONGVARCHAR);
+		} else {
+			st.setString(index, ReportFormStorageCodec.encode((String) value));
+		}
+	}
+	
+	/**
+	 * @see UserType#deepCopy(Object)
+	 */
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		return value;
+	}
+	
+	/**
+	 * @see UserType#isMutable()
+	 */
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+	
+	/**
+	 * @see UserType#disassemble(Object)
+	 */
+	@Override
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (Serializable) value;
+	}
+	
+	/**
+	 * @see UserType#assemble(Serializable, Object)
+	 */
+	@Override
+	public Object assemble(Serializable cached, Object owner) throws HibernateException {
+		return cached;
+	}
+	
+	/**
+	 * @see UserType#replace(Object, Object, Object)
+	 */
+	@Override
+	public Object replace(Object original, Object target, Object owner) throws HibernateException {
+		return original;
+	}
+}
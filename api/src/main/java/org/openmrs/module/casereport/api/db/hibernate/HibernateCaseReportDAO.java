@@ -11,20 +11,51 @@ package org.openmrs.module.casereport.api.db.hibernate;
 
 import static org.openmrs.module.casereport.CaseReport.Status;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.CriteriaSpecification;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
+import org.hibernate.type.CustomType;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.Visit;
 import org.openmrs.module.casereport.CaseReport;
+import org.openmrs.module.casereport.ClinicalFact;
+import org.openmrs.module.casereport.PatientClinicalSummary;
+import org.openmrs.module.casereport.PatientIdBitmap;
+import org.openmrs.module.casereport.TriggerLease;
+import org.openmrs.module.casereport.TriggerQueryGuard;
+import org.openmrs.module.casereport.TriggerWatermark;
+import org.openmrs.module.casereport.WatermarkType;
 import org.openmrs.module.casereport.api.db.CaseReportDAO;
+import org.openmrs.util.OpenmrsUtil;
 import java.lang.reflect.Method;
 
 /**
@@ -34,6 +65,45 @@ public class HibernateCaseReportDAO implements CaseReportDAO {
 	
 	protected final Log log = LogFactory.getLog(this.getClass());
 	
+	/**
+	 * The maximum number of patient ids to include in the IN clause of a single query
+	 */
+	private static final int PATIENT_BATCH_SIZE = 500;
+	
+	private static final String CASE_REPORT_TABLE = "casereport_case_report";
+	
+	private static final Type REPORT_FORM_TYPE = new CustomType(new CompressedTextType());
+	
+	/**
+	 * Matches the latest obs of each patient and concept, the correlated count ranks each obs within
+	 * its patient and concept like ROW_NUMBER() would, since window functions aren't supported by all
+	 * the databases we run on
+	 */
+	private static final String LATEST_OBS_CONDITION = "o.person.personId in (:patientIds) and o.concept in "
+	        + "(:concepts) and o.voided = false and (select count(*) from Obs o2 where o2.person = o.person and "
+	        + "o2.concept = o.concept and o2.voided = false and (o2.obsDatetime > o.obsDatetime or (o2.obsDatetime = "
+	        + "o.obsDatetime and o2.obsId > o.obsId))) < :maxResults";
+	
+	private static final String CHANGED_SINCE = " (date_created > :date or date_changed > :date or date_voided > :date)";
+	
+	private static final String[] PATIENT_DATA_CHANGE_QUERIES = {
+	        "select obs_id from obs where person_id = :patientId and (date_created > :date or date_voided > :date)",
+	        "select order_id from orders where patient_id = :patientId and (date_created > :date or date_stopped > "
+	                + ":date or date_voided > :date or (auto_expire_date > :date and auto_expire_date <= :now))",
+	        "select visit_id from visit where patient_id = :patientId and" + CHANGED_SINCE,
+	        "select person_id from person where person_id = :patientId and" + CHANGED_SINCE,
+	        "select person_name_id from person_name where person_id = :patientId and" + CHANGED_SINCE,
+	        "select person_address_id from person_address where person_id = :patientId and" + CHANGED_SINCE,
+	        "select patient_identifier_id from patient_identifier where patient_id = :patientId and" + CHANGED_SINCE };
+	
+	private static final List<Status> QUEUED_STATUSES = Arrays.asList(Status.NEW, Status.DRAFT);
+	
+	private static final String QUEUED_WITHOUT_REPORT_FORM = "(cr.reportForm is null or cr.reportForm = '')";
+	
+	private static final String CLINICAL_FACT_SELECT = "select new " + ClinicalFact.class.getName()
+	        + "(o.obsId, o.uuid, o.person.personId, o.concept.conceptId, o.obsDatetime, o.valueNumeric, vc.conceptId, "
+	        + "vcn.name, o.valueText, o.valueDatetime) from Obs o left join o.valueCoded vc left join o.valueCodedName vcn ";
+	
 	private SessionFactory sessionFactory;
 	
 	/**
@@ -112,12 +182,528 @@ public class HibernateCaseReportDAO implements CaseReportDAO {
 		return criteria.list();
 	}
 	
+	/**
+	 * @see CaseReportDAO#getCaseReportsByPatientIds(Collection, Status...)
+	 */
+	@Override
+	public List<CaseReport> getCaseReportsByPatientIds(Collection<Integer> patientIds, Status... statuses) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<CaseReport> caseReports = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			Criteria criteria = getCurrentSession().createCriteria(CaseReport.class);
+			criteria.add(Restrictions.in("patient.patientId", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size()))));
+			if (ArrayUtils.isNotEmpty(statuses)) {
+				criteria.add(Restrictions.in("status", statuses));
+			}
+			criteria.add(Restrictions.eq("voided", false));
+			criteria.setFetchMode("reportTriggers", FetchMode.JOIN);
+			criteria.setResultTransformer(CriteriaSpecification.DISTINCT_ROOT_ENTITY);
+			criteria.addOrder(Order.asc("dateCreated"));
+			caseReports.addAll(criteria.list());
+		}
+		
+		return caseReports;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getPatientIdsByTrigger(String, Status...)
+	 */
+	@Override
+	public PatientIdBitmap getPatientIdsByTrigger(String triggerName, Status... statuses) {
+		Criteria criteria = createTriggerCriteria(triggerName);
+		if (ArrayUtils.isNotEmpty(statuses)) {
+			criteria.add(Restrictions.in("status", statuses));
+		}
+		
+		return getPatientIds(criteria);
+	}
+	
+	/**
+	 * @see CaseReportDAO#getPatientIdsTriggeredSince(String, Date)
+	 */
+	@Override
+	public PatientIdBitmap getPatientIdsTriggeredSince(String triggerName, Date date) {
+		Criteria criteria = createTriggerCriteria(triggerName);
+		criteria.add(Restrictions.ge("t.dateCreated", date));
+		
+		return getPatientIds(criteria);
+	}
+	
+	private Criteria createTriggerCriteria(String triggerName) {
+		Criteria criteria = getCurrentSession().createCriteria(CaseReport.class);
+		criteria.createAlias("patient", "p");
+		criteria.createAlias("reportTriggers", "t");
+		criteria.add(Restrictions.eq("t.name", triggerName).ignoreCase());
+		criteria.add(Restrictions.eq("voided", false));
+		
+		return criteria;
+	}
+	
+	private PatientIdBitmap getPatientIds(Criteria criteria) {
+		criteria.setProjection(Projections.distinct(Projections.property("p.patientId")));
+		PatientIdBitmap patientIds = new PatientIdBitmap();
+		ScrollableResults results = criteria.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				patientIds.add(results.getInteger(0));
+			}
+		}
+		finally {
+			results.close();
+		}
+		
+		return patientIds;
+	}
+	
 	/**
 	 * @see CaseReportDAO#saveCaseReport(CaseReport)
 	 */
 	@Override
 	public CaseReport saveCaseReport(CaseReport caseReport) {
+		boolean isNew = caseReport.getCaseReportId() == null;
+		String reportFormHash = caseReport.computeReportFormHash();
+		boolean reportFormChanged = !OpenmrsUtil.nullSafeEquals(reportFormHash, caseReport.getReportFormHash());
+		caseReport.setReportFormHash(reportFormHash);
 		getCurrentSession().saveOrUpdate(caseReport);
+		
+		//The report form isn't updatable in the mapping so that an unchanged form is neither dirty
+		//checked nor rewritten, a changed one is written explicitly
+		if (!isNew && reportFormChanged) {
+			Query query = getCurrentSession().createQuery(
+			    "update CaseReport set reportForm = :reportForm, reportFormHash = :reportFormHash "
+			            + "where caseReportId = :caseReportId");
+			query.setParameter("reportForm", caseReport.getReportForm(), REPORT_FORM_TYPE);
+			query.setString("reportFormHash", reportFormHash);
+			query.setInteger("caseReportId", caseReport.getCaseReportId());
+			query.executeUpdate();
+		}
+		
 		return caseReport;
 	}
+	
+	/**
+	 * @see CaseReportDAO#getPatients(Collection)
+	 */
+	@Override
+	public List<Patient> getPatients(Collection<Integer> patientIds) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<Patient> patients = new ArrayList<>(ids.size());
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			List<Integer> batch = ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size()));
+			//Fetch the associations needed to build the report forms, joining both collections in one
+			//query would return the product of each patient's names and identifiers so the
+			//identifiers are fetched by a second query that initializes them on the loaded patients
+			patients.addAll(createPatientCriteria(batch, "names").list());
+			createPatientCriteria(batch, "identifiers").list();
+		}
+		
+		return patients;
+	}
+	
+	private Criteria createPatientCriteria(List<Integer> patientIds, String association) {
+		Criteria criteria = getCurrentSession().createCriteria(Patient.class);
+		criteria.add(Restrictions.in("patientId", patientIds));
+		criteria.setFetchMode(association, FetchMode.JOIN);
+		criteria.setResultTransformer(CriteriaSpecification.DISTINCT_ROOT_ENTITY);
+		return criteria;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getObservations(Collection, Collection, int)
+	 */
+	@Override
+	public List<Obs> getObservations(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                 int maxResultsPerConcept) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<Obs> obs = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			Query query = getCurrentSession().createQuery(
+			    "select o from Obs o where " + LATEST_OBS_CONDITION + " order by o.obsDatetime desc, o.obsId desc");
+			query.setParameterList("patientIds", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size())));
+			query.setParameterList("concepts", concepts);
+			query.setLong("maxResults", maxResultsPerConcept);
+			obs.addAll(query.list());
+		}
+		
+		return obs;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getActiveDrugOrders(Collection, Collection, Date)
+	 */
+	@Override
+	public List<DrugOrder> getActiveDrugOrders(Collection<Integer> patientIds, Collection<Integer> conceptIds,
+	                                           Date asOfDate) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<DrugOrder> orders = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			//Matches the active orders the same way as OrderService.getActiveOrders, the concepts are matched
+			//by id so that the membership check happens in the database without loading the concepts
+			Query query = getCurrentSession().createQuery(
+			    "select o from DrugOrder o where o.patient.patientId in (:patientIds) and o.concept.conceptId in "
+			            + "(:conceptIds) and o.voided = false and o.action != :discontinue and "
+			            + "o.dateActivated <= :asOfDate and (o.dateStopped is null or o.dateStopped > :asOfDate) and "
+			            + "(o.autoExpireDate is null or o.autoExpireDate > :asOfDate) order by o.dateActivated, o.orderId");
+			query.setParameterList("patientIds", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size())));
+			query.setParameterList("conceptIds", conceptIds);
+			query.setParameter("discontinue", org.openmrs.Order.Action.DISCONTINUE);
+			query.setTimestamp("asOfDate", asOfDate);
+			orders.addAll(query.list());
+		}
+		
+		return orders;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getLastVisits(Collection)
+	 */
+	@Override
+	public List<Visit> getLastVisits(Collection<Integer> patientIds) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<Visit> visits = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			Query query = getCurrentSession().createQuery(
+			    "select v from Visit v where v.patient.patientId in (:patientIds) and v.voided = false and "
+			            + "v.startDatetime = (select max(v2.startDatetime) from Visit v2 where v2.patient = v.patient "
+			            + "and v2.voided = false)");
+			query.setParameterList("patientIds", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size())));
+			visits.addAll(query.list());
+		}
+		
+		return visits;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getLatestClinicalFacts(Collection, Collection, int)
+	 */
+	@Override
+	public List<ClinicalFact> getLatestClinicalFacts(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                                 int maxResultsPerConcept) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<ClinicalFact> facts = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			Query query = getCurrentSession().createQuery(
+			    CLINICAL_FACT_SELECT + "where " + LATEST_OBS_CONDITION + " order by o.person.personId, "
+			            + "o.concept.conceptId, o.obsDatetime desc, o.obsId desc");
+			query.setParameterList("patientIds", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size())));
+			query.setParameterList("concepts", concepts);
+			query.setLong("maxResults", maxResultsPerConcept);
+			facts.addAll(query.list());
+		}
+		
+		return facts;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getClinicalFactByUuid(String)
+	 */
+	@Override
+	public ClinicalFact getClinicalFactByUuid(String uuid) {
+		Query query = getCurrentSession().createQuery(CLINICAL_FACT_SELECT + "where o.uuid = :uuid");
+		query.setString("uuid", uuid);
+		return (ClinicalFact) query.uniqueResult();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getCaseReportsToPrefetch(int)
+	 */
+	@Override
+	public List<CaseReport> getCaseReportsToPrefetch(int maxResults) {
+		Query query = getCurrentSession().createQuery(
+		    "select cr from CaseReport cr where cr.voided = false and cr.status in (:statuses) and "
+		            + QUEUED_WITHOUT_REPORT_FORM + " and (cr.datePrefetched is null or exists (select t from "
+		            + "CaseReportTrigger t where t.caseReport = cr and t.dateCreated > cr.datePrefetched)) "
+		            + "order by cr.caseReportId");
+		query.setParameterList("statuses", QUEUED_STATUSES);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getQueuedPatientIdsWithNewData(WatermarkType, Long, Long, Collection)
+	 */
+	@Override
+	public List<Integer> getQueuedPatientIdsWithNewData(WatermarkType type, Long lastId, Long maxId,
+	                                                    Collection<Integer> conceptIds) {
+		String hql;
+		if (type == WatermarkType.OBS) {
+			hql = "select distinct d.person.personId from Obs d where d.obsId > :lastId and d.obsId <= :maxId and "
+			        + "d.person.personId in ";
+		} else {
+			hql = "select distinct d.patient.patientId from Order d where d.orderId > :lastId and d.orderId <= "
+			        + ":maxId and d.patient.patientId in ";
+		}
+		Query query = getCurrentSession().createQuery(
+		    hql + "(select cr.patient.patientId from CaseReport cr where cr.voided = false and cr.status in "
+		            + "(:statuses) and " + QUEUED_WITHOUT_REPORT_FORM + ") and d.concept.conceptId in (:conceptIds)");
+		query.setInteger("lastId", lastId.intValue());
+		query.setInteger("maxId", maxId.intValue());
+		query.setParameterList("statuses", QUEUED_STATUSES);
+		query.setParameterList("conceptIds", conceptIds);
+		return query.list();
+	}
+	
+	/**
+	 * @see CaseReportDAO#hasPatientDataChangedSince(Integer, Date)
+	 */
+	@Override
+	public boolean hasPatientDataChangedSince(Integer patientId, Date date) {
+		//Each query is limited to the rows of the patient through the indexed patient or person column
+		Date now = new Date();
+		for (String sql : PATIENT_DATA_CHANGE_QUERIES) {
+			SQLQuery query = getCurrentSession().createSQLQuery(sql);
+			query.setInteger("patientId", patientId);
+			query.setTimestamp("date", date);
+			if (sql.contains(":now")) {
+				query.setTimestamp("now", now);
+			}
+			if (!query.setMaxResults(1).list().isEmpty()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @see CaseReportDAO#savePrefetchedReportForm(Integer, String, Date)
+	 */
+	@Override
+	public void savePrefetchedReportForm(Integer caseReportId, String reportForm, Date datePrefetched) {
+		Query query = getCurrentSession().createQuery(
+		    "update CaseReport set prefetchedForm = :reportForm, datePrefetched = :datePrefetched where "
+		            + "caseReportId = :caseReportId");
+		query.setParameter("reportForm", reportForm, REPORT_FORM_TYPE);
+		query.setTimestamp("datePrefetched", datePrefetched);
+		query.setInteger("caseReportId", caseReportId);
+		query.executeUpdate();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getPatientClinicalSummary(Integer)
+	 */
+	@Override
+	public PatientClinicalSummary getPatientClinicalSummary(Integer patientId) {
+		Criteria criteria = getCurrentSession().createCriteria(PatientClinicalSummary.class);
+		criteria.add(Restrictions.eq("patientId", patientId));
+		return (PatientClinicalSummary) criteria.uniqueResult();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getPatientClinicalSummaries(Collection)
+	 */
+	@Override
+	public List<PatientClinicalSummary> getPatientClinicalSummaries(Collection<Integer> patientIds) {
+		List<Integer> ids = new ArrayList<>(patientIds);
+		List<PatientClinicalSummary> summaries = new ArrayList<>(ids.size());
+		for (int i = 0; i < ids.size(); i += PATIENT_BATCH_SIZE) {
+			Criteria criteria = getCurrentSession().createCriteria(PatientClinicalSummary.class);
+			criteria.add(Restrictions.in("patientId", ids.subList(i, Math.min(i + PATIENT_BATCH_SIZE, ids.size()))));
+			summaries.addAll(criteria.list());
+		}
+		
+		return summaries;
+	}
+	
+	/**
+	 * @see CaseReportDAO#savePatientClinicalSummary(PatientClinicalSummary)
+	 */
+	@Override
+	public PatientClinicalSummary savePatientClinicalSummary(PatientClinicalSummary summary) {
+		getCurrentSession().saveOrUpdate(summary);
+		return summary;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getPatientIds(Integer, int)
+	 */
+	@Override
+	public List<Integer> getPatientIds(Integer afterPatientId, int maxResults) {
+		Query query = getCurrentSession().createQuery(
+		    "select p.patientId from Patient p where p.voided = false and p.patientId > :afterPatientId order by "
+		            + "p.patientId");
+		query.setInteger("afterPatientId", afterPatientId);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getCaseReportIdsWithStoredForms(Integer, int)
+	 */
+	@Override
+	public List<Integer> getCaseReportIdsWithStoredForms(Integer afterCaseReportId, int maxResults) {
+		Query query = getCurrentSession().createQuery(
+		    "select cr.caseReportId from CaseReport cr where cr.caseReportId > :afterCaseReportId and "
+		            + "(cr.reportForm is not null or cr.prefetchedForm is not null) order by cr.caseReportId");
+		query.setInteger("afterCaseReportId", afterCaseReportId);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getStoredForms(Collection)
+	 */
+	@Override
+	public List<Object[]> getStoredForms(Collection<Integer> caseReportIds) {
+		SQLQuery query = getCurrentSession().createSQLQuery(
+		    "select case_report_id, report_form, prefetched_form from " + CASE_REPORT_TABLE
+		            + " where case_report_id in (:caseReportIds)");
+		query.addScalar("case_report_id", StandardBasicTypes.INTEGER);
+		query.addScalar("report_form", StandardBasicTypes.TEXT);
+		query.addScalar("prefetched_form", StandardBasicTypes.TEXT);
+		query.setParameterList("caseReportIds", caseReportIds);
+		return query.list();
+	}
+	
+	/**
+	 * @see CaseReportDAO#saveStoredForms(Integer, String, String)
+	 */
+	@Override
+	public void saveStoredForms(Integer caseReportId, String reportForm, String prefetchedForm) {
+		SQLQuery query = getCurrentSession().createSQLQuery(
+		    "update " + CASE_REPORT_TABLE + " set report_form = :reportForm, prefetched_form = :prefetchedForm "
+		            + "where case_report_id = :caseReportId");
+		query.setParameter("reportForm", reportForm, StandardBasicTypes.TEXT);
+		query.setParameter("prefetchedForm", prefetchedForm, StandardBasicTypes.TEXT);
+		query.setInteger("caseReportId", caseReportId);
+		query.executeUpdate();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getTriggerWatermark(String, String)
+	 */
+	@Override
+	public TriggerWatermark getTriggerWatermark(String triggerName, String name) {
+		Criteria criteria = getCurrentSession().createCriteria(TriggerWatermark.class);
+		criteria.add(Restrictions.eq("triggerName", triggerName).ignoreCase());
+		criteria.add(Restrictions.eq("name", name));
+		return (TriggerWatermark) criteria.uniqueResult();
+	}
+	
+	/**
+	 * @see CaseReportDAO#saveTriggerWatermark(TriggerWatermark)
+	 */
+	@Override
+	public TriggerWatermark saveTriggerWatermark(TriggerWatermark watermark) {
+		getCurrentSession().saveOrUpdate(watermark);
+		return watermark;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getMaxId(WatermarkType)
+	 */
+	@Override
+	public Long getMaxId(WatermarkType type) {
+		Object max = getCurrentSession().createSQLQuery(
+		    "select max(" + type.getIdColumn() + ") from " + type.getTableName()).uniqueResult();
+		return max == null ? 0L : ((Number) max).longValue();
+	}
+	
+	/**
+	 * @see CaseReportDAO#getMaxIdCreatedBefore(WatermarkType, Date)
+	 */
+	@Override
+	public Long getMaxIdCreatedBefore(WatermarkType type, Date date) {
+		//date_created isn't indexed but it grows with the primary key, so the primary key is binary
+		//searched for the last row created before the date, each probe is an index lookup
+		Object[] range = (Object[]) getCurrentSession().createSQLQuery(
+		    "select min(" + type.getIdColumn() + "), max(" + type.getIdColumn() + ") from " + type.getTableName())
+		        .uniqueResult();
+		if (range == null || range[0] == null) {
+			return 0L;
+		}
+		
+		Query probe = getCurrentSession().createSQLQuery(
+		    "select " + type.getIdColumn() + ", date_created from " + type.getTableName() + " where " + type.getIdColumn()
+		            + " >= :low and " + type.getIdColumn() + " <= :high order by " + type.getIdColumn()).setMaxResults(1);
+		long maxId = 0;
+		long low = ((Number) range[0]).longValue();
+		long high = ((Number) range[1]).longValue();
+		while (low <= high) {
+			long mid = low + (high - low) / 2;
+			Object[] row = (Object[]) probe.setLong("low", mid).setLong("high", high).uniqueResult();
+			if (row == null) {
+				high = mid - 1;
+			} else if (((Date) row[1]).getTime() < date.getTime()) {
+				maxId = ((Number) row[0]).longValue();
+				low = maxId + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		
+		return maxId;
+	}
+	
+	/**
+	 * @see CaseReportDAO#getEarliestDateCreatedAfter(WatermarkType, Long)
+	 */
+	@Override
+	public Date getEarliestDateCreatedAfter(WatermarkType type, Long id) {
+		return (Date) getCurrentSession().createSQLQuery(
+		    "select min(date_created) from " + type.getTableName() + " where " + type.getIdColumn() + " > :id")
+		        .setLong("id", id).uniqueResult();
+	}
+	
+	/**
+	 * @see CaseReportDAO#evaluateTriggerQuery(String, String, Map, int)
+	 */
+	@Override
+	public Cohort evaluateTriggerQuery(final String triggerName, final String sql,
+	                                   final Map<String, Object> parameterValues, final int timeoutSeconds) {
+		//Pending changes must be visible to the query just like for hql and native hibernate queries
+		getCurrentSession().flush();
+		final Cohort[] cohort = new Cohort[1];
+		getCurrentSession().doWork(new Work() {
+			
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				cohort[0] = TriggerQueryGuard.execute(connection, triggerName, sql, parameterValues, timeoutSeconds);
+			}
+		});
+		
+		return cohort[0];
+	}
+	
+	/**
+	 * @see CaseReportDAO#getTriggerLease(String)
+	 */
+	@Override
+	public TriggerLease getTriggerLease(String name) {
+		Criteria criteria = getCurrentSession().createCriteria(TriggerLease.class);
+		criteria.add(Restrictions.eq("name", name));
+		return (TriggerLease) criteria.uniqueResult();
+	}
+	
+	/**
+	 * @see CaseReportDAO#saveTriggerLease(TriggerLease)
+	 */
+	@Override
+	public TriggerLease saveTriggerLease(TriggerLease lease) {
+		getCurrentSession().saveOrUpdate(lease);
+		//Surface a unique constraint violation from a node that inserted the same lease first
+		getCurrentSession().flush();
+		return lease;
+	}
+	
+	/**
+	 * @see CaseReportDAO#renewTriggerLease(String, String, Date, Date)
+	 */
+	@Override
+	public int renewTriggerLease(String name, String owner, Date expiresAt, Date now) {
+		return getCurrentSession()
+		        .createQuery(
+		            "update TriggerLease set owner = :owner, expiresAt = :expiresAt where name = :name and "
+		                    + "(owner = :owner or expiresAt < :now)").setString("owner", owner)
+		        .setTimestamp("expiresAt", expiresAt).setString("name", name).setTimestamp("now", now).executeUpdate();
+	}
+	
+	/**
+	 * @see CaseReportDAO#deleteTriggerLease(String, String)
+	 */
+	@Override
+	public int deleteTriggerLease(String name, String owner) {
+		return getCurrentSession().createQuery("delete from TriggerLease where name = :name and owner = :owner")
+		        .setString("name", name).setString("owner", owner).executeUpdate();
+	}
 }
@@ -11,38 +11,55 @@ package org.openmrs.module.casereport.api.impl;
 
 import static org.openmrs.module.casereport.CaseReport.Status;
 
-import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.Cohort;
 import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
 import org.openmrs.User;
+import org.openmrs.Visit;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.casereport.CaseReport;
 import org.openmrs.module.casereport.CaseReportConstants;
 import org.openmrs.module.casereport.CaseReportForm;
+import org.openmrs.module.casereport.CaseReportFormCodec;
 import org.openmrs.module.casereport.CaseReportTask;
 import org.openmrs.module.casereport.CaseReportTrigger;
 import org.openmrs.module.casereport.CaseReportUtil;
+import org.openmrs.module.casereport.ClinicalFact;
+import org.openmrs.module.casereport.PatientClinicalSummaries;
+import org.openmrs.module.casereport.PatientClinicalSummary;
+import org.openmrs.module.casereport.PatientIdBitmap;
+import org.openmrs.module.casereport.QueueItemIndex;
+import org.openmrs.module.casereport.ReportFormStorageCodec;
 import org.openmrs.module.casereport.Trigger;
+import org.openmrs.module.casereport.TriggerLease;
+import org.openmrs.module.casereport.TriggerQueryGuard;
+import org.openmrs.module.casereport.TriggerWatermark;
+import org.openmrs.module.casereport.WatermarkType;
 import org.openmrs.module.casereport.UuidAndValue;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.casereport.api.CaseReportSubmittedEvent;
 import org.openmrs.module.casereport.api.db.CaseReportDAO;
 import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -55,8 +72,6 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 	
 	private CaseReportDAO dao;
 	
-	private ObjectMapper mapper = null;
-	
 	private List<Trigger> triggers = null;
 	
 	@Autowired
@@ -69,13 +84,6 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 		this.dao = dao;
 	}
 	
-	private ObjectMapper getObjectMapper() {
-		if (mapper == null) {
-			mapper = new ObjectMapper();
-		}
-		return mapper;
-	}
-	
 	private void setProperty(CaseReport caseReport, String propertyName, Object value) {
 		
 		Boolean isAccessible = null;
@@ -146,12 +154,46 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 		return dao.getCaseReports(patient, includeVoided, orderBy, asc, statuses);
 	}
 	
+	/**
+	 * @see CaseReportService#getCaseReportsByPatientIds(Collection, Status...)
+	 */
+	@Override
+	public List<CaseReport> getCaseReportsByPatientIds(Collection<Integer> patientIds, Status... statuses)
+	    throws APIException {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getCaseReportsByPatientIds(patientIds, statuses);
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsByTrigger(String, Status...)
+	 */
+	@Override
+	public PatientIdBitmap getPatientIdsByTrigger(String triggerName, Status... statuses) throws APIException {
+		return dao.getPatientIdsByTrigger(triggerName, statuses);
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsTriggeredSince(String, Date)
+	 */
+	@Override
+	public PatientIdBitmap getPatientIdsTriggeredSince(String triggerName, Date date) throws APIException {
+		return dao.getPatientIdsTriggeredSince(triggerName, date);
+	}
+	
 	/**
 	 * @See CaseReportService#saveCaseReport(CaseReport)
 	 */
 	@Override
 	@Transactional
 	public CaseReport saveCaseReport(CaseReport caseReport) throws APIException {
+		//Any in memory queue item indexes built by running triggers are now stale for the patient
+		if (caseReport.getPatient() != null) {
+			QueueItemIndex.invalidate(caseReport.getPatient().getPatientId());
+		}
+		
 		return dao.saveCaseReport(caseReport);
 	}
 	
@@ -197,15 +239,9 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 			}
 		}
 		
-		CaseReportForm form;
-		try {
-			form = getObjectMapper().readValue(caseReport.getReportForm(), CaseReportForm.class);
-			form.setReportUuid(caseReport.getUuid());
-			form.setReportDate(caseReport.getDateCreated());
-		}
-		catch (IOException e) {
-			throw new APIException("Failed to parse case report form data", e);
-		}
+		CaseReportForm form = CaseReportFormCodec.read(caseReport.getReportForm());
+		form.setReportUuid(caseReport.getUuid());
+		form.setReportDate(caseReport.getDateCreated());
 		
 		Provider provider;
 		if (caseReport.getAutoSubmitted()) {
@@ -242,12 +278,7 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 		setProperty(caseReport, "status", Status.SUBMITTED);
 		setProperty(caseReport, "resolutionDate", new Date());
 		
-		try {
-			caseReport.setReportForm(getObjectMapper().writeValueAsString(form));
-		}
-		catch (IOException e) {
-			throw new APIException("Failed to serialize case report form data", e);
-		}
+		caseReport.setReportForm(CaseReportFormCodec.write(form));
 		
 		//We use a publisher consumer approach to keep the web layer out of the api
 		//It also provides a hook for others to register custom listeners to take other actions.
@@ -318,6 +349,298 @@ public class CaseReportServiceImpl extends BaseOpenmrsService implements CaseRep
 		return triggers;
 	}
 	
+	/**
+	 * @see CaseReportService#getPatients(Collection)
+	 */
+	@Override
+	public List<Patient> getPatients(Collection<Integer> patientIds) throws APIException {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getPatients(patientIds);
+	}
+	
+	/**
+	 * @see CaseReportService#getObservations(Collection, Collection, int)
+	 */
+	@Override
+	public List<Obs> getObservations(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                 int maxResultsPerConcept) throws APIException {
+		if (patientIds == null || patientIds.isEmpty() || concepts == null || concepts.isEmpty()
+		        || maxResultsPerConcept < 1) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getObservations(patientIds, concepts, maxResultsPerConcept);
+	}
+	
+	/**
+	 * @see CaseReportService#getActiveDrugOrders(Collection, Collection, Date)
+	 */
+	@Override
+	public List<DrugOrder> getActiveDrugOrders(Collection<Integer> patientIds, Collection<Integer> conceptIds,
+	                                           Date asOfDate) throws APIException {
+		if (patientIds == null || patientIds.isEmpty() || conceptIds == null || conceptIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getActiveDrugOrders(patientIds, conceptIds, asOfDate != null ? asOfDate : new Date());
+	}
+	
+	/**
+	 * @see CaseReportService#getLastVisits(Collection)
+	 */
+	@Override
+	public List<Visit> getLastVisits(Collection<Integer> patientIds) throws APIException {
+		if (patientIds == null || patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getLastVisits(patientIds);
+	}
+	
+	/**
+	 * @see CaseReportService#getLatestClinicalFacts(Collection, Collection, int)
+	 */
+	@Override
+	public List<ClinicalFact> getLatestClinicalFacts(Collection<Integer> patientIds, Collection<Concept> concepts,
+	                                                 int maxResultsPerConcept) throws APIException {
+		if (patientIds == null || patientIds.isEmpty() || concepts == null || concepts.isEmpty()
+		        || maxResultsPerConcept < 1) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getLatestClinicalFacts(patientIds, concepts, maxResultsPerConcept);
+	}
+	
+	/**
+	 * @see CaseReportService#getClinicalFactByUuid(String)
+	 */
+	@Override
+	public ClinicalFact getClinicalFactByUuid(String uuid) throws APIException {
+		return dao.getClinicalFactByUuid(uuid);
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsToPrefetch(int)
+	 */
+	@Override
+	public List<CaseReport> getCaseReportsToPrefetch(int maxResults) throws APIException {
+		return dao.getCaseReportsToPrefetch(maxResults);
+	}
+	
+	/**
+	 * @see CaseReportService#getQueuedPatientIdsWithNewData(WatermarkType, Long, Long, Collection)
+	 */
+	@Override
+	public List<Integer> getQueuedPatientIdsWithNewData(WatermarkType type, Long lastId, Long maxId,
+	                                                    Collection<Integer> conceptIds) throws APIException {
+		if (type == WatermarkType.ENCOUNTER) {
+			throw new APIException("Finding queued patients with new data is not supported for " + type);
+		}
+		if (conceptIds == null || conceptIds.isEmpty() || maxId <= lastId) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getQueuedPatientIdsWithNewData(type, lastId, maxId, conceptIds);
+	}
+	
+	/**
+	 * @see CaseReportService#hasPatientDataChangedSince(Integer, Date)
+	 */
+	@Override
+	public boolean hasPatientDataChangedSince(Integer patientId, Date date) throws APIException {
+		return dao.hasPatientDataChangedSince(patientId, date);
+	}
+	
+	/**
+	 * @see CaseReportService#savePrefetchedReportForm(CaseReport, String)
+	 */
+	@Override
+	@Transactional
+	public void savePrefetchedReportForm(CaseReport caseReport, String reportForm) throws APIException {
+		Date now = new Date();
+		dao.savePrefetchedReportForm(caseReport.getId(), reportForm, now);
+		//Keep the instance in the session in sync since the update bypasses it
+		caseReport.setPrefetchedForm(reportForm);
+		caseReport.setDatePrefetched(now);
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientClinicalSummary(Integer)
+	 */
+	@Override
+	public PatientClinicalSummary getPatientClinicalSummary(Integer patientId) throws APIException {
+		return dao.getPatientClinicalSummary(patientId);
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientClinicalSummaries(Collection)
+	 */
+	@Override
+	public List<PatientClinicalSummary> getPatientClinicalSummaries(Collection<Integer> patientIds)
+	    throws APIException {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return dao.getPatientClinicalSummaries(patientIds);
+	}
+	
+	/**
+	 * @see CaseReportService#savePatientClinicalSummary(PatientClinicalSummary)
+	 */
+	@Override
+	@Transactional
+	public PatientClinicalSummary savePatientClinicalSummary(PatientClinicalSummary summary) throws APIException {
+		summary.setDateUpdated(new Date());
+		return dao.savePatientClinicalSummary(summary);
+	}
+	
+	/**
+	 * @see CaseReportService#updatePatientClinicalSummaries(Collection)
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public List<PatientClinicalSummary> updatePatientClinicalSummaries(Collection<Integer> patientIds)
+	    throws APIException {
+		return PatientClinicalSummaries.update(patientIds);
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIds(Integer, int)
+	 */
+	@Override
+	public List<Integer> getPatientIds(Integer afterPatientId, int maxResults) throws APIException {
+		return dao.getPatientIds(afterPatientId, maxResults);
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportIdsWithStoredForms(Integer, int)
+	 */
+	@Override
+	public List<Integer> getCaseReportIdsWithStoredForms(Integer afterCaseReportId, int maxResults)
+	    throws APIException {
+		return dao.getCaseReportIdsWithStoredForms(afterCaseReportId, maxResults);
+	}
+	
+	/**
+	 * @see CaseReportService#reencodeStoredForms(Collection)
+	 */
+	@Override
+	@Transactional
+	public int reencodeStoredForms(Collection<Integer> caseReportIds) throws APIException {
+		if (caseReportIds.isEmpty()) {
+			return 0;
+		}
+		
+		int count = 0;
+		for (Object[] row : dao.getStoredForms(caseReportIds)) {
+			String reportForm = (String) row[1];
+			String prefetchedForm = (String) row[2];
+			String newReportForm = ReportFormStorageCodec.encode(ReportFormStorageCodec.decode(reportForm));
+			String newPrefetchedForm = ReportFormStorageCodec.encode(ReportFormStorageCodec.decode(prefetchedForm));
+			if (!OpenmrsUtil.nullSafeEquals(reportForm, newReportForm)
+			        || !OpenmrsUtil.nullSafeEquals(prefetchedForm, newPrefetchedForm)) {
+				dao.saveStoredForms((Integer) row[0], newReportForm, newPrefetchedForm);
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * @see CaseReportService#getTriggerWatermark(String, String)
+	 */
+	@Override
+	public TriggerWatermark getTriggerWatermark(String triggerName, String name) throws APIException {
+		return dao.getTriggerWatermark(triggerName, name);
+	}
+	
+	/**
+	 * @see CaseReportService#saveTriggerWatermark(TriggerWatermark)
+	 */
+	@Override
+	@Transactional
+	public TriggerWatermark saveTriggerWatermark(TriggerWatermark watermark) throws APIException {
+		watermark.setDateChanged(new Date());
+		return dao.saveTriggerWatermark(watermark);
+	}
+	
+	/**
+	 * @see CaseReportService#getMaxId(WatermarkType)
+	 */
+	@Override
+	public Long getMaxId(WatermarkType type) throws APIException {
+		return dao.getMaxId(type);
+	}
+	
+	/**
+	 * @see CaseReportService#getMaxIdCreatedBefore(WatermarkType, Date)
+	 */
+	@Override
+	public Long getMaxIdCreatedBefore(WatermarkType type, Date date) throws APIException {
+		return dao.getMaxIdCreatedBefore(type, date);
+	}
+	
+	/**
+	 * @see CaseReportService#getEarliestDateCreatedAfter(WatermarkType, Long)
+	 */
+	@Override
+	public Date getEarliestDateCreatedAfter(WatermarkType type, Long id) throws APIException {
+		return dao.getEarliestDateCreatedAfter(type, id);
+	}
+	
+	/**
+	 * @see CaseReportService#evaluateTriggerQuery(String, String, Map, int)
+	 */
+	@Override
+	public Cohort evaluateTriggerQuery(String triggerName, String sql, Map<String, Object> parameterValues,
+	                                   int timeoutSeconds) throws APIException {
+		return dao.evaluateTriggerQuery(triggerName, sql, parameterValues, timeoutSeconds);
+	}
+	
+	/**
+	 * @see CaseReportService#cancelTriggerEvaluation(String)
+	 */
+	@Override
+	public boolean cancelTriggerEvaluation(String triggerName) throws APIException {
+		return TriggerQueryGuard.cancel(triggerName);
+	}
+	
+	/**
+	 * @see CaseReportService#acquireTriggerLease(String, String, int)
+	 */
+	@Override
+	@Transactional
+	public boolean acquireTriggerLease(String name, String owner, int durationSeconds) throws APIException {
+		Date now = new Date();
+		Date expiresAt = DateUtils.addSeconds(now, durationSeconds);
+		if (dao.renewTriggerLease(name, owner, expiresAt, now) > 0) {
+			return true;
+		}
+		if (dao.getTriggerLease(name) != null) {
+			return false;
+		}
+		
+		TriggerLease lease = new TriggerLease(name);
+		lease.setOwner(owner);
+		lease.setExpiresAt(expiresAt);
+		dao.saveTriggerLease(lease);
+		return true;
+	}
+	
+	/**
+	 * @see CaseReportService#releaseTriggerLease(String, String)
+	 */
+	@Override
+	@Transactional
+	public void releaseTriggerLease(String name, String owner) throws APIException {
+		dao.deleteTriggerLease(name, owner);
+	}
+	
 	private List<TaskDefinition> getCaseReportTaskDefinitions() {
 		List<TaskDefinition> taskDefinitions = new ArrayList<TaskDefinition>();
 		Collection<TaskDefinition> taskDefs = Context.getSchedulerService().getRegisteredTasks();
@@ -11,6 +11,7 @@ package org.openmrs.module.casereport;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -285,4 +286,172 @@ public class CaseReportActivatorTest extends BaseModuleContextSensitiveTest {
 		}
 		
 	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the fused trigger evaluation task if it does not exist
+	 */
+	@Test
+	public void contextRefreshed_shouldAddTheFusedTriggerEvaluationTaskIfItDoesNotExist() throws Exception {
+		SchedulerService ss = Context.getSchedulerService();
+		assertNull(ss.getTaskByName(CaseReportConstants.FUSED_TASK_NAME));
+		addConceptsWithCielMapping("162188", "159");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = ss.getTaskByName(CaseReportConstants.FUSED_TASK_NAME);
+		assertNotNull(td);
+		assertEquals(FusedCaseReportTask.class.getName(), td.getTaskClass());
+		assertFalse(td.getStartOnStartup());
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the report form prefetch task if it does not exist
+	 */
+	@Test
+	public void contextRefreshed_shouldAddTheReportFormPrefetchTaskIfItDoesNotExist() throws Exception {
+		SchedulerService ss = Context.getSchedulerService();
+		assertNull(ss.getTaskByName(CaseReportConstants.PREFETCH_TASK_NAME));
+		addConceptsWithCielMapping("162188", "159");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = ss.getTaskByName(CaseReportConstants.PREFETCH_TASK_NAME);
+		assertNotNull(td);
+		assertEquals(ReportFormPrefetchTask.class.getName(), td.getTaskClass());
+		assertFalse(td.getStartOnStartup());
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the patient summary rebuild task if it does not exist
+	 */
+	@Test
+	public void contextRefreshed_shouldAddThePatientSummaryRebuildTaskIfItDoesNotExist() throws Exception {
+		SchedulerService ss = Context.getSchedulerService();
+		assertNull(ss.getTaskByName(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME));
+		addConceptsWithCielMapping("162188", "159");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = ss.getTaskByName(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME);
+		assertNotNull(td);
+		assertEquals(PatientClinicalSummaryRebuildTask.class.getName(), td.getTaskClass());
+		assertFalse(td.getStartOnStartup());
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the form storage migration task if it does not exist
+	 */
+	@Test
+	public void contextRefreshed_shouldAddTheFormStorageMigrationTaskIfItDoesNotExist() throws Exception {
+		SchedulerService ss = Context.getSchedulerService();
+		assertNull(ss.getTaskByName(CaseReportConstants.FORM_STORAGE_MIGRATION_TASK_NAME));
+		addConceptsWithCielMapping("162188", "159");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = ss.getTaskByName(CaseReportConstants.FORM_STORAGE_MIGRATION_TASK_NAME);
+		assertNotNull(td);
+		assertEquals(ReportFormStorageMigrationTask.class.getName(), td.getTaskClass());
+		assertFalse(td.getStartOnStartup());
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the watermark parameters referenced by the query
+	 */
+	@Test
+	public void contextRefreshed_shouldAddTheWatermarkParametersReferencedByTheQuery() throws Exception {
+		loader.setPathPattern("watermark_cohortqueries/*.json");
+		addConceptsWithCielMapping("162188");
+		
+		activator.contextRefreshed();
+		SqlCohortDefinition query = DefinitionContext.getDefinitionService(SqlCohortDefinition.class)
+		        .getDefinitions("New Viral Load Result", true).get(0);
+		assertEquals(2, query.getParameters().size());
+		Parameter p = query.getParameter(WatermarkType.OBS.getLastIdParameter());
+		assertEquals("casereport.lastObsId", p.getLabel());
+		assertEquals(Long.class, p.getType());
+		assertNotNull(query.getParameter(WatermarkType.OBS.getMaxIdParameter()));
+		assertNull(query.getParameter(CaseReportConstants.LAST_EXECUTION_TIME));
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies fail for a query with an invalid change probe
+	 */
+	@Test
+	public void contextRefreshed_shouldFailForAQueryWithAnInvalidChangeProbe() throws Exception {
+		loader.setPathPattern(INVALID_FILE_DIR_NAME + "/invalid_change_probe_cohort_query.json");
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage(equalTo("Invalid change probe: patient_program"));
+		
+		activator.contextRefreshed();
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies set the change probe of the case report task
+	 */
+	@Test
+	public void contextRefreshed_shouldSetTheChangeProbeOfTheCaseReportTask() throws Exception {
+		loader.setPathPattern("watermark_cohortqueries/*.json");
+		addConceptsWithCielMapping("162188");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = Context.getSchedulerService().getTaskByName("New Viral Load Result");
+		assertEquals(WatermarkType.OBS.name(), td.getProperty(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY));
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies set the max reports per run of the case report task
+	 */
+	@Test
+	public void contextRefreshed_shouldSetTheMaxReportsPerRunOfTheCaseReportTask() throws Exception {
+		loader.setPathPattern("watermark_cohortqueries/*.json");
+		addConceptsWithCielMapping("162188");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = Context.getSchedulerService().getTaskByName("New Viral Load Result");
+		assertEquals("100", td.getProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY));
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies set the query timeout of the case report task
+	 */
+	@Test
+	public void contextRefreshed_shouldSetTheQueryTimeoutOfTheCaseReportTask() throws Exception {
+		loader.setPathPattern("watermark_cohortqueries/*.json");
+		addConceptsWithCielMapping("162188");
+		
+		activator.contextRefreshed();
+		TaskDefinition td = Context.getSchedulerService().getTaskByName("New Viral Load Result");
+		assertEquals("30", td.getProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY));
+	}
+	
+	/**
+	 * @see CaseReportActivator#contextRefreshed()
+	 * @verifies add the missing properties to an existing case report task
+	 */
+	@Test
+	public void contextRefreshed_shouldAddTheMissingPropertiesToAnExistingCaseReportTask() throws Exception {
+		loader.setPathPattern("watermark_cohortqueries/*.json");
+		addConceptsWithCielMapping("162188");
+		activator.contextRefreshed();
+		//The task was registered by a version of the module without the newer properties, and an
+		//administrator changed the timeout
+		SchedulerService ss = Context.getSchedulerService();
+		TaskDefinition td = ss.getTaskByName("New Viral Load Result");
+		td.getProperties().remove(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY);
+		td.getProperties().remove(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY);
+		td.setProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY, "60");
+		ss.saveTaskDefinition(td);
+		
+		activator.contextRefreshed();
+		td = ss.getTaskByName("New Viral Load Result");
+		assertEquals(WatermarkType.OBS.name(), td.getProperty(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY));
+		assertEquals("100", td.getProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY));
+		assertEquals("60", td.getProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY));
+	}
 }
@@ -0,0 +1,90 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class CaseReportFormBuilderTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+	}
+	
+	/**
+	 * @see CaseReportFormBuilder#build(java.util.Collection)
+	 * @verifies build the same forms as the case report form constructor
+	 */
+	@Test
+	public void build_shouldBuildTheSameFormsAsTheCaseReportFormConstructor() throws Exception {
+		List<CaseReport> caseReports = Arrays.asList(service.getCaseReport(1), service.getCaseReport(4));
+		Map<CaseReport, CaseReportForm> reportFormMap = CaseReportFormBuilder.build(caseReports);
+		
+		assertEquals(caseReports, new ArrayList<>(reportFormMap.keySet()));
+		ObjectMapper mapper = new ObjectMapper();
+		for (CaseReport caseReport : caseReports) {
+			CaseReportForm expected = new CaseReportForm(caseReport);
+			CaseReportForm form = reportFormMap.get(caseReport);
+			assertEquals(getUuids(expected.getCurrentHivMedications()), getUuids(form.getCurrentHivMedications()));
+			expected.getCurrentHivMedications().clear();
+			form.getCurrentHivMedications().clear();
+			assertEquals(mapper.writeValueAsString(expected), mapper.writeValueAsString(form));
+		}
+		CaseReportForm form = reportFormMap.get(caseReports.get(0));
+		assertEquals(3, form.getMostRecentViralLoads().size());
+		assertNotNull(form.getLastVisitDate());
+	}
+	
+	/**
+	 * @see CaseReportFormBuilder#build(java.util.Collection)
+	 * @verifies leave out the reports whose forms can't be built
+	 */
+	@Test
+	public void build_shouldLeaveOutTheReportsWhoseFormsCantBeBuilt() throws Exception {
+		CaseReport caseReport = service.getCaseReport(1);
+		CaseReport other = service.getCaseReport(4);
+		for (PatientIdentifier identifier : other.getPatient().getIdentifiers()) {
+			identifier.setVoided(true);
+		}
+		
+		Map<CaseReport, CaseReportForm> reportFormMap = CaseReportFormBuilder.build(Arrays.asList(caseReport, other));
+		assertEquals(1, reportFormMap.size());
+		assertTrue(reportFormMap.containsKey(caseReport));
+	}
+	
+	private Set<String> getUuids(List<DatedUuidAndValue> values) {
+		Set<String> uuids = new HashSet<>();
+		for (DatedUuidAndValue value : values) {
+			uuids.add(value.getUuid());
+		}
+		return uuids;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openmrs.api.APIException;
+
+public class CaseReportFormCodecTest {
+	
+	private static final String FORM = "{\"fullName\":\"Horatio Test Hornblower\",\"mostRecentCd4Counts\":"
+	        + "[{\"uuid\":\"cd4-uuid\",\"value\":{\"nested\":[1,{\"triggers\":[]}]},\"date\":\"2016-03-01\"}],"
+	        + "\"triggers\":[{\"uuid\":\"trigger-uuid\",\"value\":\"New HIV Case\",\"date\":\"2016-04-01\"}],"
+	        + "\"gender\":\"M\"}";
+	
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+	
+	/**
+	 * @see CaseReportFormCodec#read(String)
+	 * @verifies read a serialized form
+	 */
+	@Test
+	public void read_shouldReadASerializedForm() throws Exception {
+		CaseReportForm form = new CaseReportForm();
+		form.setFullName("Horatio Test Hornblower");
+		form.getTriggers().add(new DatedUuidAndValue("trigger-uuid", "New HIV Case", "2016-04-01"));
+		
+		CaseReportForm copy = CaseReportFormCodec.read(CaseReportFormCodec.write(form));
+		assertEquals("Horatio Test Hornblower", copy.getFullName());
+		assertEquals(1, copy.getTriggers().size());
+		assertEquals("New HIV Case", copy.getTriggers().get(0).getValue());
+		assertEquals(CaseReportFormCodec.SCHEMA_VERSION, copy.getSchemaVersion().intValue());
+	}
+	
+	/**
+	 * @see CaseReportFormCodec#read(String)
+	 * @verifies read a form without a schema version
+	 */
+	@Test
+	public void read_shouldReadAFormWithoutASchemaVersion() throws Exception {
+		CaseReportForm form = CaseReportFormCodec.read(FORM);
+		assertEquals("Horatio Test Hornblower", form.getFullName());
+		assertNull(form.getSchemaVersion());
+	}
+	
+	/**
+	 * @see CaseReportFormCodec#read(String)
+	 * @verifies fail for a form with a newer schema version
+	 */
+	@Test
+	public void read_shouldFailForAFormWithANewerSchemaVersion() throws Exception {
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage("Unsupported case report form schema version: 2");
+		CaseReportFormCodec.read("{\"fullName\":\"Horatio Test Hornblower\",\"schemaVersion\":2}");
+	}
+	
+	/**
+	 * @see CaseReportFormCodec#readFields(String, String...)
+	 * @verifies read only the specified fields
+	 */
+	@Test
+	public void readFields_shouldReadOnlyTheSpecifiedFields() throws Exception {
+		CaseReportForm form = CaseReportFormCodec.readFields(FORM, "triggers");
+		assertEquals(1, form.getTriggers().size());
+		assertEquals("trigger-uuid", form.getTriggers().get(0).getUuid());
+		assertEquals("New HIV Case", form.getTriggers().get(0).getValue());
+		assertTrue(form.getMostRecentCd4Counts().isEmpty());
+		assertNull(form.getFullName());
+		assertNull(form.getGender());
+		
+		form = CaseReportFormCodec.readFields(FORM, "fullName", "gender");
+		assertEquals("Horatio Test Hornblower", form.getFullName());
+		assertEquals("M", form.getGender());
+		assertTrue(form.getTriggers().isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportFormCodec#readFields(String, String...)
+	 * @verifies fail for a form with a newer schema version
+	 */
+	@Test
+	public void readFields_shouldFailForAFormWithANewerSchemaVersion() throws Exception {
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage("Unsupported case report form schema version: 2");
+		CaseReportFormCodec.readFields("{\"schemaVersion\":2,\"triggers\":[]}", "triggers");
+	}
+	
+	/**
+	 * @see CaseReportFormCodec#write(CaseReportForm)
+	 * @verifies write the form with the current schema version
+	 */
+	@Test
+	public void write_shouldWriteTheFormWithTheCurrentSchemaVersion() throws Exception {
+		CaseReportForm form = new CaseReportForm();
+		form.setFullName("Horatio Test Hornblower");
+		String json = CaseReportFormCodec.write(form);
+		assertTrue(json.contains("\"schemaVersion\":" + CaseReportFormCodec.SCHEMA_VERSION));
+		assertEquals(CaseReportFormCodec.SCHEMA_VERSION, form.getSchemaVersion().intValue());
+	}
+}
@@ -61,7 +61,7 @@ public class CaseReportFormTest extends BaseModuleContextSensitiveTest {
 		assertEquals(pid.getIdentifierType().getName(), reportForm.getIdentifierType().getValue());
 		assertEquals(patient.getGender(), reportForm.getGender());
 		assertEquals(0, reportForm.getBirthdate().indexOf("1975-04-08T00:00:00.000"));
-		assertEquals(CaseReportConstants.DATE_FORMATTER.format(deathDate), reportForm.getDeathdate());
+		assertEquals(CaseReportConstants.DATE_FORMAT.format(deathDate), reportForm.getDeathdate());
 		assertEquals(patient.isDead(), reportForm.getDead());
 		assertEquals(2, reportForm.getTriggers().size());
 		assertTrue(CaseReportUtil.collContainsItemWithValue(reportForm.getTriggers(), "HIV Switched To Second Line"));
@@ -16,10 +16,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Rule;
@@ -158,6 +161,26 @@ public class CaseReportUtilTest extends BaseModuleContextSensitiveTest {
 		assertEquals(20001, drugOrders.get(1).getDrug().getId().intValue());
 	}
 	
+	/**
+	 * @see CaseReportUtil#getActiveArvDrugOrders(java.util.Collection, Date)
+	 * @verifies get the active ARV drug orders for the patients with the specified ids
+	 */
+	@Test
+	public void getActiveArvDrugOrders_shouldGetTheActiveARVDrugOrdersForThePatientsWithTheSpecifiedIds()
+	    throws Exception {
+		executeDataSet(XML_DATASET);
+		executeDataSet(XML_OTHER_DATASET);
+		Date asOfDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse("2016-01-16 00:00:00.0");
+		Map<Integer, List<DrugOrder>> patientArvOrdersMap = CaseReportUtil.getActiveArvDrugOrders(
+		    Arrays.asList(2, 6, 7), asOfDate);
+		assertEquals(2, patientArvOrdersMap.size());
+		assertEquals(2, patientArvOrdersMap.get(2).size());
+		assertEquals(10000, patientArvOrdersMap.get(2).get(0).getId().intValue());
+		assertEquals(10001, patientArvOrdersMap.get(2).get(1).getId().intValue());
+		assertEquals(1, patientArvOrdersMap.get(7).size());
+		assertEquals(10006, patientArvOrdersMap.get(7).get(0).getId().intValue());
+	}
+	
 	/**
 	 * @see CaseReportUtil#getMostRecentReasonARVsStopped(Patient)
 	 * @verifies return the most recent obs for the reason why the patient stopped taking ARVs
@@ -500,4 +523,476 @@ public class CaseReportUtilTest extends BaseModuleContextSensitiveTest {
 		assertEquals(name, report.getReportTriggers().iterator().next().getName());
 	}
 	
+	/**
+	 * @see CaseReportUtil#getIntegerGlobalProperty(String, int)
+	 * @verifies return the value of the global property
+	 */
+	@Test
+	public void getIntegerGlobalProperty_shouldReturnTheValueOfTheGlobalProperty() throws Exception {
+		final String name = CaseReportConstants.GP_AUTO_SUBMIT_POOL_SIZE;
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(name, " 8 "));
+		assertEquals(8, CaseReportUtil.getIntegerGlobalProperty(name, 1));
+	}
+	
+	/**
+	 * @see CaseReportUtil#getIntegerGlobalProperty(String, int)
+	 * @verifies return the default value if the global property value is not a valid integer
+	 */
+	@Test
+	public void getIntegerGlobalProperty_shouldReturnTheDefaultValueIfTheGlobalPropertyValueIsNotAValidInteger()
+	    throws Exception {
+		final String name = CaseReportConstants.GP_AUTO_SUBMIT_POOL_SIZE;
+		assertEquals(3, CaseReportUtil.getIntegerGlobalProperty(name, 3));
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(name, "many"));
+		assertEquals(3, CaseReportUtil.getIntegerGlobalProperty(name, 3));
+	}
+	
+	/**
+	 * @see CaseReportUtil#createReportIfNecessary(Patient, CaseReport, boolean, String...)
+	 * @verifies add the new triggers to the specified existing queue item
+	 */
+	@Test
+	public void createReportIfNecessary_shouldAddTheNewTriggersToTheSpecifiedExistingQueueItem() throws Exception {
+		executeDataSet(XML_DATASET);
+		CaseReport existing = service.getCaseReport(1);
+		int originalTriggerCount = existing.getReportTriggers().size();
+		final String newTrigger = "Some New Trigger";
+		assertNull(existing.getCaseReportTriggerByName(newTrigger));
+		
+		CaseReport caseReport = CaseReportUtil.createReportIfNecessary(existing.getPatient(), existing, false,
+		    newTrigger, "New HIV Case");
+		assertEquals(existing, caseReport);
+		assertEquals(originalTriggerCount + 1, caseReport.getReportTriggers().size());
+		assertNotNull(caseReport.getCaseReportTriggerByName(newTrigger));
+	}
+	
+	/**
+	 * @see CaseReportUtil#createReportIfNecessary(Patient, CaseReport, boolean, String...)
+	 * @verifies return null if the existing queue item has all the triggers
+	 */
+	@Test
+	public void createReportIfNecessary_shouldReturnNullIfTheExistingQueueItemHasAllTheTriggers() throws Exception {
+		executeDataSet(XML_DATASET);
+		CaseReport existing = service.getCaseReport(1);
+		assertNull(CaseReportUtil.createReportIfNecessary(existing.getPatient(), existing, false, "New HIV Case",
+		    "HIV Switched To Second Line"));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies skip the patients processed by an interrupted run
+	 */
+	@Test
+	public void executeTask_shouldSkipThePatientsProcessedByAnInterruptedRun() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "HIV Patient Died";
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id in (2, 7)");
+		def.getParameters().clear();
+		DefinitionContext.saveDefinition(def);
+		TaskDefinition taskDefinition = schedulerService.getTaskByName(name);
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY, "2");
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY, "");
+		assertEquals(2, service.getCaseReportByPatient(patientService.getPatient(2)).getReportTriggers().size());
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(7)));
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertEquals(2, service.getCaseReportByPatient(patientService.getPatient(2)).getReportTriggers().size());
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(7)));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies clear the checkpoint when the run completes
+	 */
+	@Test
+	public void executeTask_shouldClearTheCheckpointWhenTheRunCompletes() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "HIV Patient Died";
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id = 7");
+		def.getParameters().clear();
+		DefinitionContext.saveDefinition(def);
+		TaskDefinition taskDefinition = schedulerService.getTaskByName(name);
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY, "2");
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY, "");
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY));
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_WINDOW_START_TASK_PROPERTY));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies set the watermarks in the evaluation context and advance them
+	 */
+	@Test
+	public void executeTask_shouldSetTheWatermarksInTheEvaluationContextAndAdvanceThem() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		final Integer patientId = 7;
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id = " + patientId + " and :lastObsId = 5 and "
+		        + ":maxObsId > 0");
+		def.getParameters().clear();
+		def.addParameter(new Parameter(WatermarkType.OBS.getLastIdParameter(), null, Long.class));
+		def.addParameter(new Parameter(WatermarkType.OBS.getMaxIdParameter(), null, Long.class));
+		DefinitionContext.saveDefinition(def);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_WATERMARK_SAFETY_MARGIN, "0"));
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+		
+		CaseReportUtil.executeTask(schedulerService.getTaskByName(name));
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+		assertEquals(service.getMaxId(WatermarkType.OBS), service.getTriggerWatermark(name, WatermarkType.OBS.name())
+		        .getValue());
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies not queue again a patient reported by a previous run whose rows are re-scanned
+	 */
+	@Test
+	public void executeTask_shouldNotQueueAgainAPatientReportedByAPreviousRunWhoseRowsAreReScanned()
+	    throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		final Integer patientId = 7;
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id = " + patientId + " and :lastObsId >= 0 and "
+		        + ":maxObsId > 0");
+		def.getParameters().clear();
+		def.addParameter(new Parameter(WatermarkType.OBS.getLastIdParameter(), null, Long.class));
+		def.addParameter(new Parameter(WatermarkType.OBS.getMaxIdParameter(), null, Long.class));
+		DefinitionContext.saveDefinition(def);
+		Patient patient = patientService.getPatient(patientId);
+		//The previous run reported the patient and the report was submitted, the obs it matched are
+		//still in the safety margin of the watermark
+		CaseReport caseReport = new CaseReport(patient, name);
+		caseReport.setStatus(CaseReport.Status.SUBMITTED);
+		service.saveCaseReport(caseReport);
+		assertNull(service.getCaseReportByPatient(patient));
+		
+		CaseReportUtil.executeTask(schedulerService.getTaskByName(name));
+		assertNull(service.getCaseReportByPatient(patient));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies evaluate a long window in time slices
+	 */
+	@Test
+	public void executeTask_shouldEvaluateALongWindowInTimeSlices() throws Exception {
+		final String name = "some cohort query";
+		final Integer patientId = 7;
+		CaseReportUtilTest.createTestSqlCohortDefinition(name, "select patient_id from patient where patient_id = "
+		        + patientId + " and date_changed > :" + CaseReportConstants.LAST_EXECUTION_TIME + " and date_changed <= :"
+		        + CaseReportConstants.EXECUTION_TIME, false, new Parameter(CaseReportConstants.LAST_EXECUTION_TIME, null,
+		        Date.class), new Parameter(CaseReportConstants.EXECUTION_TIME, null, Date.class));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_CATCH_UP_SLICE_HOURS, Integer.toString(24 * 365)));
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+		TaskDefinition taskDefinition = new TaskDefinition();
+		taskDefinition.setProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY, name);
+		taskDefinition.setLastExecutionTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2006-01-01 00:00:00"));
+		Date start = new Date();
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		CaseReport caseReport = service.getCaseReportByPatient(patientService.getPatient(patientId));
+		assertNotNull(caseReport);
+		assertEquals(1, caseReport.getReportTriggers().size());
+		assertFalse(taskDefinition.getLastExecutionTime().before(start));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies carry over the patients beyond the quota to the next run
+	 */
+	@Test
+	public void executeTask_shouldCarryOverThePatientsBeyondTheQuotaToTheNextRun() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		Integer[] patientIds = { 7, 8 };
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id in (" + patientIds[0] + "," + patientIds[1] + ")");
+		DefinitionContext.saveDefinition(def);
+		TaskDefinition taskDefinition = schedulerService.getTaskByName(name);
+		taskDefinition.setProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY, "1");
+		Date lastExecutionTime = taskDefinition.getLastExecutionTime();
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[0])));
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[1])));
+		assertEquals(patientIds[0].toString(),
+		    taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY));
+		assertEquals(lastExecutionTime, taskDefinition.getLastExecutionTime());
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[1])));
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY));
+		assertNotNull(taskDefinition.getLastExecutionTime());
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies evaluate the query with the statement timeout of the task
+	 */
+	@Test
+	public void executeTask_shouldEvaluateTheQueryWithTheStatementTimeoutOfTheTask() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		final Integer patientId = 7;
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id = " + patientId + " and :lastObsId >= 0 and "
+		        + ":maxObsId > 0;");
+		def.getParameters().clear();
+		def.addParameter(new Parameter(WatermarkType.OBS.getLastIdParameter(), null, Long.class));
+		def.addParameter(new Parameter(WatermarkType.OBS.getMaxIdParameter(), null, Long.class));
+		DefinitionContext.saveDefinition(def);
+		TaskDefinition taskDefinition = schedulerService.getTaskByName(name);
+		taskDefinition.setProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY, "30");
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+		assertFalse(TriggerQueryGuard.isRunning(name));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies skip a trigger whose lease is held by another node
+	 */
+	@Test
+	public void executeTask_shouldSkipATriggerWhoseLeaseIsHeldByAnotherNode() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		final Integer patientId = 7;
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id = " + patientId);
+		DefinitionContext.saveDefinition(def);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_CLUSTER_LEASES, "true"));
+		assertTrue(service.acquireTriggerLease(name.toLowerCase(), "some other node", 60));
+		
+		CaseReportUtil.executeTask(schedulerService.getTaskByName(name));
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientId)));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeTask(TaskDefinition)
+	 * @verifies evaluate each shard of the cohort whose lease is acquired
+	 */
+	@Test
+	public void executeTask_shouldEvaluateEachShardOfTheCohortWhoseLeaseIsAcquired() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		Integer[] patientIds = { 7, 8 };
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(name);
+		def.setQuery("select patient_id from patient where patient_id in (" + patientIds[0] + "," + patientIds[1] + ")");
+		DefinitionContext.saveDefinition(def);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_CLUSTER_LEASES, "true"));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_TRIGGER_SHARDS, "2"));
+		//Another node is evaluating the shard of the even patient ids
+		assertTrue(service.acquireTriggerLease(name.toLowerCase() + "#0/2", "some other node", 60));
+		TaskDefinition taskDefinition = schedulerService.getTaskByName(name);
+		taskDefinition.setLastExecutionTime(new Date());
+		
+		CaseReportUtil.executeTask(taskDefinition);
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[0])));
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[1])));
+		assertNotNull(service.getTriggerWatermark(name, "TIME#1/2"));
+		assertNull(service.getTriggerWatermark(name, "TIME#0/2"));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeFusedTask(TaskDefinition)
+	 * @verifies create one case report with all the matched triggers for a patient
+	 */
+	@Test
+	public void executeFusedTask_shouldCreateOneCaseReportWithAllTheMatchedTriggersForAPatient() throws Exception {
+		executeDataSet(XML_DATASET);
+		final Integer patientId = 7;
+		final String name1 = "New HIV Case";
+		final String name2 = "HIV Switched To Second Line";
+		for (TaskDefinition td : CaseReportUtil.getCaseReportTaskDefinitions()) {
+			String triggerName = td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+			SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(triggerName);
+			if (def == null) {
+				continue;
+			}
+			def.getParameters().clear();
+			if (name1.equals(triggerName) || name2.equals(triggerName)) {
+				def.setQuery("select patient_id from patient where patient_id = " + patientId);
+			} else {
+				def.setQuery("select patient_id from patient where patient_id is null");
+			}
+			DefinitionContext.saveDefinition(def);
+		}
+		Patient patient = patientService.getPatient(patientId);
+		assertNull(service.getCaseReportByPatient(patient));
+		int originalCount = service.getCaseReports().size();
+		TaskDefinition fusedTaskDefinition = new TaskDefinition(null, CaseReportConstants.FUSED_TASK_NAME, null,
+		        FusedCaseReportTask.class.getName());
+		fusedTaskDefinition.setLastExecutionTime(new Date());
+		
+		CaseReportUtil.executeFusedTask(fusedTaskDefinition);
+		assertEquals(originalCount + 1, service.getCaseReports().size());
+		CaseReport caseReport = service.getCaseReportByPatient(patient);
+		assertNotNull(caseReport);
+		assertEquals(2, caseReport.getReportTriggers().size());
+		assertNotNull(caseReport.getCaseReportTriggerByName(name1));
+		assertNotNull(caseReport.getCaseReportTriggerByName(name2));
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeFusedTask(TaskDefinition)
+	 * @verifies advance the last execution time of the trigger tasks
+	 */
+	@Test
+	public void executeFusedTask_shouldAdvanceTheLastExecutionTimeOfTheTriggerTasks() throws Exception {
+		executeDataSet(XML_DATASET);
+		final String name = "New HIV Case";
+		for (TaskDefinition td : CaseReportUtil.getCaseReportTaskDefinitions()) {
+			SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(td
+			        .getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY));
+			if (def != null) {
+				def.getParameters().clear();
+				def.setQuery("select patient_id from patient where patient_id is null");
+				DefinitionContext.saveDefinition(def);
+			}
+		}
+		assertNull(schedulerService.getTaskByName(name).getLastExecutionTime());
+		TaskDefinition fusedTaskDefinition = new TaskDefinition(null, CaseReportConstants.FUSED_TASK_NAME, null,
+		        FusedCaseReportTask.class.getName());
+		fusedTaskDefinition.setLastExecutionTime(new Date());
+		
+		CaseReportUtil.executeFusedTask(fusedTaskDefinition);
+		assertNotNull(schedulerService.getTaskByName(name).getLastExecutionTime());
+		assertNotNull(fusedTaskDefinition.getLastExecutionTime());
+	}
+	
+	/**
+	 * @see CaseReportUtil#executeFusedTask(TaskDefinition)
+	 * @verifies start the first run from the oldest last execution time of the trigger tasks
+	 */
+	@Test
+	public void executeFusedTask_shouldStartTheFirstRunFromTheOldestLastExecutionTimeOfTheTriggerTasks()
+	    throws Exception {
+		executeDataSet(XML_DATASET);
+		final Integer patientId = 7;
+		final String name = "New HIV Case";
+		for (TaskDefinition td : CaseReportUtil.getCaseReportTaskDefinitions()) {
+			String triggerName = td.getProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY);
+			SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(triggerName);
+			if (def == null) {
+				continue;
+			}
+			def.getParameters().clear();
+			if (name.equals(triggerName)) {
+				//The patient was created long before the repeat interval of the fused task
+				def.setQuery("select patient_id from patient where patient_id = " + patientId
+				        + " and date_created >= :" + CaseReportConstants.LAST_EXECUTION_TIME);
+				def.addParameter(new Parameter(CaseReportConstants.LAST_EXECUTION_TIME, null, Date.class));
+				td.setLastExecutionTime(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2000-01-01 00:00:00"));
+				schedulerService.saveTaskDefinition(td);
+			} else {
+				def.setQuery("select patient_id from patient where patient_id is null");
+			}
+			DefinitionContext.saveDefinition(def);
+		}
+		Patient patient = patientService.getPatient(patientId);
+		assertNull(service.getCaseReportByPatient(patient));
+		TaskDefinition fusedTaskDefinition = new TaskDefinition(null, CaseReportConstants.FUSED_TASK_NAME, null,
+		        FusedCaseReportTask.class.getName());
+		fusedTaskDefinition.setRepeatInterval(180L);
+		
+		CaseReportUtil.executeFusedTask(fusedTaskDefinition);
+		CaseReport caseReport = service.getCaseReportByPatient(patient);
+		assertNotNull(caseReport);
+		assertNotNull(caseReport.getCaseReportTriggerByName(name));
+	}
+	
+	/**
+	 * @see CaseReportUtil#isFusedEvaluationEnabled()
+	 * @verifies return true if the global property is set to true
+	 */
+	@Test
+	public void isFusedEvaluationEnabled_shouldReturnTrueIfTheGlobalPropertyIsSetToTrue() throws Exception {
+		assertFalse(CaseReportUtil.isFusedEvaluationEnabled());
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION, "true"));
+		assertTrue(CaseReportUtil.isFusedEvaluationEnabled());
+	}
+	
+	/**
+	 * @see CaseReportUtil#isFusedEvaluationEnabled()
+	 * @verifies return false if a trigger task has a quota of reports per run
+	 */
+	@Test
+	public void isFusedEvaluationEnabled_shouldReturnFalseIfATriggerTaskHasAQuotaOfReportsPerRun() throws Exception {
+		executeDataSet(XML_DATASET);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION, "true"));
+		TaskDefinition taskDefinition = schedulerService.getTaskByName("New HIV Case");
+		taskDefinition.setProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY, "10");
+		schedulerService.saveTaskDefinition(taskDefinition);
+		assertFalse(CaseReportUtil.isFusedEvaluationEnabled());
+	}
+	
+	/**
+	 * @see CaseReportUtil#isFusedEvaluationEnabled()
+	 * @verifies return false if a trigger task has a pending checkpoint
+	 */
+	@Test
+	public void isFusedEvaluationEnabled_shouldReturnFalseIfATriggerTaskHasAPendingCheckpoint() throws Exception {
+		executeDataSet(XML_DATASET);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION, "true"));
+		TaskDefinition taskDefinition = schedulerService.getTaskByName("New HIV Case");
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY, "7");
+		schedulerService.saveTaskDefinition(taskDefinition);
+		assertFalse(CaseReportUtil.isFusedEvaluationEnabled());
+	}
+	
+	/**
+	 * @see CaseReportUtil#isFusedEvaluationEnabled()
+	 * @verifies return false if the cohorts are split into shards across the cluster
+	 */
+	@Test
+	public void isFusedEvaluationEnabled_shouldReturnFalseIfTheCohortsAreSplitIntoShardsAcrossTheCluster()
+	    throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_FUSED_TRIGGER_EVALUATION, "true"));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_CLUSTER_LEASES, "true"));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_TRIGGER_SHARDS, "2"));
+		assertFalse(CaseReportUtil.isFusedEvaluationEnabled());
+	}
+	
+	/**
+	 * @see CaseReportUtil#applySafetyMargin(Long,Long)
+	 * @verifies move the maximum id back by the safety margin
+	 */
+	@Test
+	public void applySafetyMargin_shouldMoveTheMaximumIdBackByTheSafetyMargin() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_WATERMARK_SAFETY_MARGIN, "10"));
+		assertEquals(90L, CaseReportUtil.applySafetyMargin(50L, 100L).longValue());
+		assertEquals(90L, CaseReportUtil.applySafetyMargin(null, 100L).longValue());
+	}
+	
+	/**
+	 * @see CaseReportUtil#applySafetyMargin(Long,Long)
+	 * @verifies not go below the last id
+	 */
+	@Test
+	public void applySafetyMargin_shouldNotGoBelowTheLastId() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_WATERMARK_SAFETY_MARGIN, "10"));
+		assertEquals(95L, CaseReportUtil.applySafetyMargin(95L, 100L).longValue());
+		assertEquals(100L, CaseReportUtil.applySafetyMargin(120L, 100L).longValue());
+	}
 }
@@ -0,0 +1,36 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class ClinicalFactTest extends BaseModuleContextSensitiveTest {
+	
+	/**
+	 * @see ClinicalFact#getValueAsString(java.util.Locale)
+	 * @verifies return the same value as the observation for coded values
+	 */
+	@Test
+	public void getValueAsString_shouldReturnTheSameValueAsTheObservationForCodedValues() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+		final String uuid = "4afb7f47-d80a-4056-9285-bd767be13c63";
+		Obs obs = Context.getObsService().getObsByUuid(uuid);
+		ClinicalFact fact = Context.getService(CaseReportService.class).getClinicalFactByUuid(uuid);
+		assertEquals(obs.getValueCoded(), fact.getValueCoded());
+		assertEquals(obs.getValueAsString(Context.getLocale()), fact.getValueAsString(Context.getLocale()));
+	}
+}
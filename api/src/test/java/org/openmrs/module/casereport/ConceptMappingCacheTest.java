@@ -0,0 +1,97 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class ConceptMappingCacheTest extends BaseModuleContextSensitiveTest {
+	
+	private static final String CIEL = CaseReportConstants.SOURCE_CIEL_HL7_CODE;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+		ConceptMappingCache.clear();
+	}
+	
+	/**
+	 * @see ConceptMappingCache#getConcept(String,String)
+	 * @verifies return the concept with the mapping
+	 */
+	@Test
+	public void getConcept_shouldReturnTheConceptWithTheMapping() throws Exception {
+		assertEquals(Context.getConceptService().getConcept(1000),
+		    ConceptMappingCache.getConcept(CaseReportConstants.CIEL_CODE_VIRAL_LOAD, CIEL));
+	}
+	
+	/**
+	 * @see ConceptMappingCache#getConcept(String,String)
+	 * @verifies only query the concept service once for the same mapping
+	 */
+	@Test
+	public void getConcept_shouldOnlyQueryTheConceptServiceOnceForTheSameMapping() throws Exception {
+		long hits = ConceptMappingCache.getHits();
+		long misses = ConceptMappingCache.getMisses();
+		ConceptMappingCache.getConcept(CaseReportConstants.CIEL_CODE_VIRAL_LOAD, CIEL);
+		ConceptMappingCache.getConcept(CaseReportConstants.CIEL_CODE_VIRAL_LOAD, CIEL);
+		assertEquals(Integer.valueOf(1000), ConceptMappingCache.getConceptId(CaseReportConstants.CIEL_CODE_VIRAL_LOAD,
+		    CIEL));
+		
+		assertEquals(misses + 1, ConceptMappingCache.getMisses());
+		assertEquals(hits + 2, ConceptMappingCache.getHits());
+		assertEquals(1, ConceptMappingCache.size());
+	}
+	
+	/**
+	 * @see ConceptMappingCache#getConcept(String,String)
+	 * @verifies return null if no match is found
+	 */
+	@Test
+	public void getConcept_shouldReturnNullIfNoMatchIsFound() throws Exception {
+		assertNull(ConceptMappingCache.getConcept("some-code", CIEL));
+		assertEquals(0, ConceptMappingCache.size());
+	}
+	
+	/**
+	 * @see ConceptMappingCache#getArvMedSetMemberIds()
+	 * @verifies return the ids of the members of the arv medication set
+	 */
+	@Test
+	public void getArvMedSetMemberIds_shouldReturnTheIdsOfTheMembersOfTheArvMedicationSet() throws Exception {
+		assertEquals(new HashSet<>(Arrays.asList(1006, 1007, 1009, 1010, 1011)),
+		    ConceptMappingCache.getArvMedSetMemberIds());
+	}
+	
+	/**
+	 * @see ConceptMappingCache#clear()
+	 * @verifies remove all the cached entries
+	 */
+	@Test
+	public void clear_shouldRemoveAllTheCachedEntries() throws Exception {
+		ConceptMappingCache.getConcept(CaseReportConstants.CIEL_CODE_VIRAL_LOAD, CIEL);
+		ConceptMappingCache.getArvMedSetMemberIds();
+		long misses = ConceptMappingCache.getMisses();
+		
+		ConceptMappingCache.clear();
+		assertEquals(0, ConceptMappingCache.size());
+		ConceptMappingCache.getArvMedSetMemberIds();
+		assertEquals(misses + 1, ConceptMappingCache.getMisses());
+	}
+}
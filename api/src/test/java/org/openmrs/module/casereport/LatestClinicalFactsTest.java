@@ -0,0 +1,64 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class LatestClinicalFactsTest extends BaseModuleContextSensitiveTest {
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+	}
+	
+	/**
+	 * @see LatestClinicalFacts#load(java.util.Collection, int, String...)
+	 * @verifies load the latest facts of the concepts for each patient
+	 */
+	@Test
+	public void load_shouldLoadTheLatestFactsOfTheConceptsForEachPatient() throws Exception {
+		LatestClinicalFacts facts = LatestClinicalFacts.load(Arrays.asList(2, 7), 3,
+		    CaseReportConstants.CIEL_CODE_VIRAL_LOAD, CaseReportConstants.CIEL_CODE_WHO_STAGE);
+		
+		List<Obs> expected = CaseReportUtil.getMostRecentViralLoads(Context.getPatientService().getPatient(2));
+		List<ClinicalFact> viralLoads = facts.get(2, CaseReportConstants.CIEL_CODE_VIRAL_LOAD);
+		assertEquals(3, viralLoads.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getUuid(), viralLoads.get(i).getUuid());
+		}
+		assertEquals(1, facts.get(7, CaseReportConstants.CIEL_CODE_VIRAL_LOAD).size());
+		assertEquals(CaseReportUtil.getMostRecentWHOStage(Context.getPatientService().getPatient(2)).getUuid(), facts
+		        .getLatest(2, CaseReportConstants.CIEL_CODE_WHO_STAGE).getUuid());
+	}
+	
+	/**
+	 * @see LatestClinicalFacts#get(Integer, String)
+	 * @verifies return an empty list for a patient with no facts
+	 */
+	@Test
+	public void get_shouldReturnAnEmptyListForAPatientWithNoFacts() throws Exception {
+		LatestClinicalFacts facts = LatestClinicalFacts.load(Arrays.asList(2, 6), 3,
+		    CaseReportConstants.CIEL_CODE_VIRAL_LOAD);
+		assertTrue(facts.get(6, CaseReportConstants.CIEL_CODE_VIRAL_LOAD).isEmpty());
+		assertNull(facts.getLatest(6, CaseReportConstants.CIEL_CODE_VIRAL_LOAD));
+	}
+}
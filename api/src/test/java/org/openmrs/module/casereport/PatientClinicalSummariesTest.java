@@ -0,0 +1,181 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class PatientClinicalSummariesTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#update(java.util.Collection)
+	 * @verifies save the latest clinical data of the patients
+	 */
+	@Test
+	public void update_shouldSaveTheLatestClinicalDataOfThePatients() throws Exception {
+		assertNull(service.getPatientClinicalSummary(2));
+		
+		PatientClinicalSummaries.update(Collections.singleton(2));
+		PatientClinicalSummary summary = service.getPatientClinicalSummary(2);
+		assertNotNull(summary);
+		assertEquals(8003, summary.getViralLoadObsId().intValue());
+		assertEquals(53.0, summary.getViralLoad(), 0);
+		assertNotNull(summary.getViralLoadDate());
+		assertEquals(8010, summary.getCd4CountObsId().intValue());
+		assertEquals(1010.0, summary.getCd4Count(), 0);
+		assertEquals(8017, summary.getHivTestObsId().intValue());
+		assertEquals(1002, summary.getHivTestResultConceptId().intValue());
+		assertEquals(8021, summary.getWhoStageObsId().intValue());
+		assertEquals(1004, summary.getWhoStageConceptId().intValue());
+		assertEquals(8025, summary.getArvStopReasonObsId().intValue());
+		assertEquals(1013, summary.getArvStopReasonConceptId().intValue());
+		assertEquals(Arrays.asList(10000, 10001), summary.getArvOrderIdList());
+		Visit lastVisit = Context.getVisitService().getVisitByUuid("3e5d5d48-6b78-11e0-93c3-18a905e044dc");
+		assertEquals(lastVisit.getVisitId(), summary.getLastVisitId());
+		assertEquals(lastVisit.getStartDatetime(), summary.getLastVisitDate());
+		assertNotNull(summary.getDateUpdated());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#update(java.util.Collection)
+	 * @verifies update an existing summary
+	 */
+	@Test
+	public void update_shouldUpdateAnExistingSummary() throws Exception {
+		PatientClinicalSummary summary = PatientClinicalSummaries.update(Collections.singleton(2)).get(0);
+		Obs obs = new Obs(Context.getPatientService().getPatient(2), Context.getConceptService().getConcept(1000),
+		        new Date(), new Location(1));
+		obs.setValueNumeric(40.0);
+		Context.getObsService().saveObs(obs, null);
+		
+		List<PatientClinicalSummary> summaries = PatientClinicalSummaries.update(Collections.singleton(2));
+		assertEquals(1, summaries.size());
+		assertEquals(summary.getId(), summaries.get(0).getId());
+		assertEquals(obs.getObsId(), summaries.get(0).getViralLoadObsId());
+		assertEquals(40.0, summaries.get(0).getViralLoad(), 0);
+		assertEquals(1, service.getPatientClinicalSummaries(Collections.singleton(2)).size());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#update(java.util.Collection)
+	 * @verifies clear the values that no longer exist
+	 */
+	@Test
+	public void update_shouldClearTheValuesThatNoLongerExist() throws Exception {
+		PatientClinicalSummary summary = new PatientClinicalSummary(6);
+		summary.setViralLoadObsId(8000);
+		summary.setViralLoad(70.0);
+		summary.setViralLoadDate(new Date());
+		summary.setArvOrderIds("10000");
+		service.savePatientClinicalSummary(summary);
+		
+		PatientClinicalSummaries.update(Collections.singleton(6));
+		summary = service.getPatientClinicalSummary(6);
+		assertNull(summary.getViralLoadObsId());
+		assertNull(summary.getViralLoad());
+		assertNull(summary.getViralLoadDate());
+		assertNull(summary.getArvOrderIds());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#rebuild()
+	 * @verifies rebuild the summaries of all the patients
+	 */
+	@Test
+	public void rebuild_shouldRebuildTheSummariesOfAllThePatients() throws Exception {
+		List<Integer> patientIds = service.getPatientIds(0, Integer.MAX_VALUE);
+		assertEquals(patientIds.size(), PatientClinicalSummaries.rebuild());
+		assertEquals(patientIds.size(), service.getPatientClinicalSummaries(patientIds).size());
+		TriggerWatermark checkpoint = service.getTriggerWatermark(CaseReportConstants.SUMMARY_REBUILD_TASK_NAME,
+		    "PATIENT");
+		assertEquals(0L, checkpoint.getValue().longValue());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#getAffectedPatientId(Object)
+	 * @verifies return the patient id for an obs of a summary concept
+	 */
+	@Test
+	public void getAffectedPatientId_shouldReturnThePatientIdForAnObsOfASummaryConcept() throws Exception {
+		assertEquals(2, PatientClinicalSummaries.getAffectedPatientId(Context.getObsService().getObs(8003))
+		        .intValue());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#getAffectedPatientId(Object)
+	 * @verifies return null for an obs of any other concept
+	 */
+	@Test
+	public void getAffectedPatientId_shouldReturnNullForAnObsOfAnyOtherConcept() throws Exception {
+		Obs obs = Context.getObsService().getObs(8004);
+		assertEquals(5089, obs.getConcept().getConceptId().intValue());
+		assertNull(PatientClinicalSummaries.getAffectedPatientId(obs));
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#getAffectedPatientId(Object)
+	 * @verifies return the patient id for an ARV drug order
+	 */
+	@Test
+	public void getAffectedPatientId_shouldReturnThePatientIdForAnARVDrugOrder() throws Exception {
+		assertEquals(7, PatientClinicalSummaries.getAffectedPatientId(Context.getOrderService().getOrder(10006))
+		        .intValue());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#getAffectedPatientId(Object)
+	 * @verifies return the patient id for a visit
+	 */
+	@Test
+	public void getAffectedPatientId_shouldReturnThePatientIdForAVisit() throws Exception {
+		Visit visit = Context.getVisitService().getVisitByUuid("3e5d5d48-6b78-11e0-93c3-18a905e044dc");
+		assertEquals(2, PatientClinicalSummaries.getAffectedPatientId(visit).intValue());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaries#stop()
+	 * @verifies stop listening for changes to the setting
+	 */
+	@Test
+	public void stop_shouldStopListeningForChangesToTheSetting() throws Exception {
+		PatientClinicalSummaries.start();
+		PatientClinicalSummaries.stop();
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_PATIENT_CLINICAL_SUMMARIES, "true"));
+		assertFalse(PatientClinicalSummaries.isEnabled());
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.api.ObsService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class PatientClinicalSummaryAdviceTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+		PatientClinicalSummaries.start();
+	}
+	
+	@After
+	public void cleanup() throws Exception {
+		setEnabled(false);
+	}
+	
+	private void setEnabled(boolean enabled) {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_PATIENT_CLINICAL_SUMMARIES, String.valueOf(enabled)));
+	}
+	
+	/**
+	 * @see PatientClinicalSummaryAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 * @verifies update the summary of the patient of a saved obs after the transaction commits
+	 */
+	@Test
+	public void afterReturning_shouldUpdateTheSummaryOfThePatientOfASavedObsAfterTheTransactionCommits()
+	    throws Exception {
+		setEnabled(true);
+		Obs obs = Context.getObsService().getObs(8003);
+		new PatientClinicalSummaryAdvice().afterReturning(obs, ObsService.class.getMethod("saveObs", Obs.class,
+		    String.class), null, null);
+		assertNull(service.getPatientClinicalSummary(2));
+		assertTrue(PatientClinicalSummaryAdvice.getPendingUpdates().getPatientIds().contains(2));
+		
+		//The test transaction never commits, the summaries are updated as they would be after the commit
+		PatientClinicalSummaries.update(PatientClinicalSummaryAdvice.getPendingUpdates().getPatientIds());
+		PatientClinicalSummary summary = service.getPatientClinicalSummary(2);
+		assertNotNull(summary);
+		assertEquals(obs.getObsId(), summary.getViralLoadObsId());
+	}
+	
+	/**
+	 * @see PatientClinicalSummaryAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 * @verifies do nothing if the summaries are disabled
+	 */
+	@Test
+	public void afterReturning_shouldDoNothingIfTheSummariesAreDisabled() throws Exception {
+		setEnabled(false);
+		new PatientClinicalSummaryAdvice().afterReturning(Context.getObsService().getObs(8003), ObsService.class
+		        .getMethod("saveObs", Obs.class, String.class), null, null);
+		assertNull(service.getPatientClinicalSummary(2));
+		assertTrue(PatientClinicalSummaryAdvice.getPendingUpdates().getPatientIds().isEmpty());
+	}
+}
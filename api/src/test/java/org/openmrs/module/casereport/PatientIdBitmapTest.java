@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PatientIdBitmapTest {
+	
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+	
+	/**
+	 * @see PatientIdBitmap#add(int)
+	 * @verifies fail for a negative id
+	 */
+	@Test
+	public void add_shouldFailForANegativeId() throws Exception {
+		expectedException.expect(IllegalArgumentException.class);
+		new PatientIdBitmap().add(-1);
+	}
+	
+	/**
+	 * @see PatientIdBitmap#add(int)
+	 * @verifies switch a block to a bit set when it becomes dense
+	 */
+	@Test
+	public void add_shouldSwitchABlockToABitSetWhenItBecomesDense() throws Exception {
+		PatientIdBitmap bitmap = new PatientIdBitmap();
+		for (int i = 10000; i > 0; i -= 2) {
+			bitmap.add(i);
+		}
+		bitmap.add(70000);
+		assertEquals(5001, bitmap.getCardinality());
+		assertTrue(bitmap.contains(2));
+		assertTrue(bitmap.contains(10000));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(3));
+		int[] ids = bitmap.toArray();
+		assertEquals(2, ids[0]);
+		assertEquals(10000, ids[4999]);
+		assertEquals(70000, ids[5000]);
+	}
+	
+	/**
+	 * @see PatientIdBitmap#or(PatientIdBitmap)
+	 * @verifies return the patient ids in either bitmap
+	 */
+	@Test
+	public void or_shouldReturnThePatientIdsInEitherBitmap() throws Exception {
+		PatientIdBitmap a = PatientIdBitmap.of(Arrays.asList(1, 5, 70000));
+		PatientIdBitmap b = PatientIdBitmap.of(Arrays.asList(5, 9, 140000));
+		assertArrayEquals(new int[] { 1, 5, 9, 70000, 140000 }, a.or(b).toArray());
+	}
+	
+	/**
+	 * @see PatientIdBitmap#and(PatientIdBitmap)
+	 * @verifies return the patient ids in both bitmaps
+	 */
+	@Test
+	public void and_shouldReturnThePatientIdsInBothBitmaps() throws Exception {
+		PatientIdBitmap a = PatientIdBitmap.of(Arrays.asList(1, 5, 9, 70000));
+		PatientIdBitmap b = PatientIdBitmap.of(Arrays.asList(5, 9, 140000));
+		assertArrayEquals(new int[] { 5, 9 }, a.and(b).toArray());
+	}
+	
+	/**
+	 * @see PatientIdBitmap#andNot(PatientIdBitmap)
+	 * @verifies return the patient ids that are not in the other bitmap
+	 */
+	@Test
+	public void andNot_shouldReturnThePatientIdsThatAreNotInTheOtherBitmap() throws Exception {
+		PatientIdBitmap a = PatientIdBitmap.of(Arrays.asList(1, 5, 9, 70000));
+		PatientIdBitmap b = PatientIdBitmap.of(Arrays.asList(5, 70000));
+		PatientIdBitmap difference = a.andNot(b);
+		assertArrayEquals(new int[] { 1, 9 }, difference.toArray());
+		assertEquals(Arrays.asList(1, 9), difference.toList());
+	}
+	
+	/**
+	 * @see PatientIdBitmap#andNot(PatientIdBitmap)
+	 * @verifies return the patient ids that are not in a dense other bitmap
+	 */
+	@Test
+	public void andNot_shouldReturnThePatientIdsThatAreNotInADenseOtherBitmap() throws Exception {
+		PatientIdBitmap a = new PatientIdBitmap();
+		PatientIdBitmap b = new PatientIdBitmap();
+		for (int i = 1; i <= 20000; i++) {
+			a.add(i);
+			if (i % 4 != 0) {
+				b.add(i);
+			}
+		}
+		PatientIdBitmap difference = a.andNot(b);
+		assertEquals(5000, difference.getCardinality());
+		assertTrue(difference.contains(4));
+		assertFalse(difference.contains(5));
+		assertEquals(20000, a.getCardinality());
+	}
+}
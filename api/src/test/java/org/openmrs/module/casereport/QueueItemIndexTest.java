@@ -0,0 +1,87 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.PatientService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class QueueItemIndexTest extends BaseModuleContextSensitiveTest {
+	
+	private static final String XML_DATASET = "moduleTestData-initial.xml";
+	
+	@Autowired
+	private PatientService patientService;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet(XML_DATASET);
+	}
+	
+	/**
+	 * @see QueueItemIndex#open(java.util.Collection)
+	 * @verifies index the queue items of the specified patients
+	 */
+	@Test
+	public void open_shouldIndexTheQueueItemsOfTheSpecifiedPatients() throws Exception {
+		QueueItemIndex index = QueueItemIndex.open(Arrays.asList(2, 7));
+		try {
+			assertTrue(index.isIndexed(2));
+			assertTrue(index.isIndexed(7));
+			assertFalse(index.isIndexed(6));
+			assertEquals(1, index.getQueueItem(patientService.getPatient(2)).getId().intValue());
+			assertNull(index.getQueueItem(patientService.getPatient(7)));
+		}
+		finally {
+			index.close();
+		}
+	}
+	
+	/**
+	 * @see QueueItemIndex#open(java.util.Collection)
+	 * @verifies bind the index to the current thread
+	 */
+	@Test
+	public void open_shouldBindTheIndexToTheCurrentThread() throws Exception {
+		QueueItemIndex index = QueueItemIndex.open(Arrays.asList(2));
+		assertSame(index, QueueItemIndex.getCurrent());
+		index.close();
+		assertNull(QueueItemIndex.getCurrent());
+	}
+	
+	/**
+	 * @see QueueItemIndex#invalidate(Integer)
+	 * @verifies drop the patient from all active indexes
+	 */
+	@Test
+	public void invalidate_shouldDropThePatientFromAllActiveIndexes() throws Exception {
+		QueueItemIndex index = QueueItemIndex.open(Arrays.asList(2, 7));
+		try {
+			QueueItemIndex.invalidate(2);
+			assertFalse(index.isIndexed(2));
+			assertTrue(index.isIndexed(7));
+			//Falls back to the database
+			assertEquals(1, index.getQueueItem(patientService.getPatient(2)).getId().intValue());
+		}
+		finally {
+			index.close();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openmrs.api.APIException;
+
+public class ReplicaCohortEvaluatorTest {
+	
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+	
+	/**
+	 * @see ReplicaCohortEvaluator#toJdbcSql(String,Map,List)
+	 * @verifies replace the named parameters with placeholders in order
+	 */
+	@Test
+	public void toJdbcSql_shouldReplaceTheNamedParametersWithPlaceholdersInOrder() throws Exception {
+		Date lastExecutionTime = new Date();
+		Map<String, Object> params = new HashMap<>();
+		params.put("lastObsId", 5L);
+		params.put("maxObsId", 9L);
+		params.put("lastExecutionTime", lastExecutionTime);
+		List<Object> values = new ArrayList<>();
+		String sql = ReplicaCohortEvaluator.toJdbcSql("select person_id from obs where obs_id > :lastObsId and "
+		        + "obs_id <= :maxObsId and date_created > :lastExecutionTime and obs_id > :lastObsId;", params, values);
+		
+		assertEquals("select person_id from obs where obs_id > ? and obs_id <= ? and date_created > ? and obs_id > ?",
+		    sql);
+		assertEquals(Arrays.<Object> asList(5L, 9L, lastExecutionTime, 5L), values);
+	}
+	
+	/**
+	 * @see ReplicaCohortEvaluator#toJdbcSql(String,Map,List)
+	 * @verifies fail for a parameter with no value
+	 */
+	@Test
+	public void toJdbcSql_shouldFailForAParameterWithNoValue() throws Exception {
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage("No value was specified for the parameter: maxObsId");
+		ReplicaCohortEvaluator.toJdbcSql("select person_id from obs where obs_id <= :maxObsId",
+		    new HashMap<String, Object>(), new ArrayList<Object>());
+	}
+}
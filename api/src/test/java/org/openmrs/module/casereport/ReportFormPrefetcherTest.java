@@ -0,0 +1,150 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class ReportFormPrefetcherTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+		//The overlap of the watermarks would refresh the forms of all the queued reports in every run
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_WATERMARK_SAFETY_MARGIN, "0"));
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#prefetch()
+	 * @verifies prefetch the forms of the queued reports
+	 */
+	@Test
+	public void prefetch_shouldPrefetchTheFormsOfTheQueuedReports() throws Exception {
+		assertEquals(2, ReportFormPrefetcher.prefetch());
+		
+		CaseReport caseReport = service.getCaseReport(1);
+		assertNotNull(caseReport.getDatePrefetched());
+		CaseReportForm form = ReportFormPrefetcher.getPrefetchedForm(caseReport);
+		assertNotNull(form);
+		assertEquals(new CaseReportForm(caseReport).getFullName(), form.getFullName());
+		assertEquals(3, form.getMostRecentViralLoads().size());
+		assertNotNull(ReportFormPrefetcher.getPrefetchedForm(service.getCaseReport(4)));
+		for (WatermarkType type : new WatermarkType[] { WatermarkType.OBS, WatermarkType.ORDER }) {
+			TriggerWatermark watermark = service.getTriggerWatermark(CaseReportConstants.PREFETCH_TASK_NAME,
+			    type.name());
+			assertEquals(service.getMaxId(type), watermark.getValue());
+		}
+		assertEquals(0, ReportFormPrefetcher.prefetch());
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#prefetch()
+	 * @verifies not prefetch the forms of reports with a saved report form
+	 */
+	@Test
+	public void prefetch_shouldNotPrefetchTheFormsOfReportsWithASavedReportForm() throws Exception {
+		ReportFormPrefetcher.prefetch();
+		CaseReport caseReport = service.getCaseReport(2);
+		assertNull(caseReport.getPrefetchedForm());
+		assertNull(caseReport.getDatePrefetched());
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#prefetch()
+	 * @verifies refresh the forms of the reports of patients with new obs
+	 */
+	@Test
+	public void prefetch_shouldRefreshTheFormsOfTheReportsOfPatientsWithNewObs() throws Exception {
+		ReportFormPrefetcher.prefetch();
+		CaseReport caseReport = service.getCaseReport(1);
+		Obs obs = new Obs(caseReport.getPatient(), Context.getConceptService().getConcept(1000), new Date(),
+		        new Location(1));
+		obs.setValueNumeric(40.0);
+		Context.getObsService().saveObs(obs, null);
+		
+		assertEquals(1, ReportFormPrefetcher.prefetch());
+		CaseReportForm form = ReportFormPrefetcher.getPrefetchedForm(caseReport);
+		assertEquals(obs.getUuid(), form.getMostRecentViralLoads().get(0).getUuid());
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#getPrefetchedForm(CaseReport)
+	 * @verifies return the prefetched form
+	 */
+	@Test
+	public void getPrefetchedForm_shouldReturnThePrefetchedForm() throws Exception {
+		CaseReport caseReport = service.getCaseReport(1);
+		caseReport.setPrefetchedForm("{\"fullName\":\"Horatio Hornblower\"}");
+		caseReport.setDatePrefetched(new Date());
+		assertEquals("Horatio Hornblower", ReportFormPrefetcher.getPrefetchedForm(caseReport).getFullName());
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#getPrefetchedForm(CaseReport)
+	 * @verifies return null if there is no prefetched form
+	 */
+	@Test
+	public void getPrefetchedForm_shouldReturnNullIfThereIsNoPrefetchedForm() throws Exception {
+		assertNull(ReportFormPrefetcher.getPrefetchedForm(service.getCaseReport(1)));
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#getPrefetchedForm(CaseReport)
+	 * @verifies return null if a trigger was added after the form was prefetched
+	 */
+	@Test
+	public void getPrefetchedForm_shouldReturnNullIfATriggerWasAddedAfterTheFormWasPrefetched() throws Exception {
+		CaseReport caseReport = service.getCaseReport(1);
+		caseReport.setPrefetchedForm("{\"fullName\":\"Horatio Hornblower\"}");
+		Date latestTriggerDate = null;
+		for (CaseReportTrigger trigger : caseReport.getReportTriggers()) {
+			if (latestTriggerDate == null || trigger.getDateCreated().after(latestTriggerDate)) {
+				latestTriggerDate = trigger.getDateCreated();
+			}
+		}
+		caseReport.setDatePrefetched(DateUtils.addMinutes(latestTriggerDate, -1));
+		assertNull(ReportFormPrefetcher.getPrefetchedForm(caseReport));
+	}
+	
+	/**
+	 * @see ReportFormPrefetcher#getPrefetchedForm(CaseReport)
+	 * @verifies return null if the data of the patient changed after the form was prefetched
+	 */
+	@Test
+	public void getPrefetchedForm_shouldReturnNullIfTheDataOfThePatientChangedAfterTheFormWasPrefetched()
+	    throws Exception {
+		ReportFormPrefetcher.prefetch();
+		CaseReport caseReport = service.getCaseReport(1);
+		caseReport.setDatePrefetched(DateUtils.addSeconds(new Date(), -1));
+		assertNotNull(ReportFormPrefetcher.getPrefetchedForm(caseReport));
+		
+		Context.getObsService().voidObs(Context.getObsService().getObs(8003), "testing");
+		assertNull(ReportFormPrefetcher.getPrefetchedForm(caseReport));
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Clob;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class ReportFormStorageCodecTest extends BaseModuleContextSensitiveTest {
+	
+	private static final String FORM = "{\"fullName\":\"Horatio Test Hornblower\",\"triggers\":["
+	        + StringUtils.repeat("{\"name\":\"New HIV Case\"},", 20) + "{\"name\":\"HIV Patient Died\"}]}";
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		executeDataSet("moduleTestData-other.xml");
+		ReportFormStorageCodec.start();
+	}
+	
+	@After
+	public void cleanup() throws Exception {
+		setCompressionEnabled(false);
+	}
+	
+	private void setCompressionEnabled(boolean enabled) {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_COMPRESS_REPORT_FORMS, String.valueOf(enabled)));
+	}
+	
+	private String getStoredForm(Integer caseReportId) throws Exception {
+		List<List<Object>> rows = Context.getAdministrationService().executeSQL(
+		    "select report_form from casereport_case_report where case_report_id = " + caseReportId, true);
+		Object value = rows.get(0).get(0);
+		if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			return clob.getSubString(1, (int) clob.length());
+		}
+		return (String) value;
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#encode(String)
+	 * @verifies return the form as is if compression is disabled
+	 */
+	@Test
+	public void encode_shouldReturnTheFormAsIsIfCompressionIsDisabled() throws Exception {
+		assertFalse(ReportFormStorageCodec.isCompressionEnabled());
+		assertEquals(FORM, ReportFormStorageCodec.encode(FORM));
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#encode(String)
+	 * @verifies compress the form if compression is enabled
+	 */
+	@Test
+	public void encode_shouldCompressTheFormIfCompressionIsEnabled() throws Exception {
+		setCompressionEnabled(true);
+		assertTrue(ReportFormStorageCodec.isCompressionEnabled());
+		String encoded = ReportFormStorageCodec.encode(FORM);
+		assertTrue(encoded.startsWith(ReportFormStorageCodec.COMPRESSED_PREFIX));
+		assertTrue(encoded.length() < FORM.length());
+		assertEquals(FORM, ReportFormStorageCodec.decode(encoded));
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#encode(String)
+	 * @verifies not compress a short form
+	 */
+	@Test
+	public void encode_shouldNotCompressAShortForm() throws Exception {
+		setCompressionEnabled(true);
+		final String form = "{\"fullName\":\"Horatio Test Hornblower\"}";
+		assertEquals(form, ReportFormStorageCodec.encode(form));
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#decode(String)
+	 * @verifies return a plain form as is
+	 */
+	@Test
+	public void decode_shouldReturnAPlainFormAsIs() throws Exception {
+		assertEquals(FORM, ReportFormStorageCodec.decode(FORM));
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#decode(String)
+	 * @verifies decompress a compressed form
+	 */
+	@Test
+	public void decode_shouldDecompressACompressedForm() throws Exception {
+		setCompressionEnabled(true);
+		String encoded = ReportFormStorageCodec.encode(FORM);
+		setCompressionEnabled(false);
+		assertEquals(FORM, ReportFormStorageCodec.decode(encoded));
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#migrate()
+	 * @verifies compress the existing forms if compression is enabled
+	 */
+	@Test
+	public void migrate_shouldCompressTheExistingFormsIfCompressionIsEnabled() throws Exception {
+		final Integer caseReportId = 200;
+		String form = service.getCaseReport(caseReportId).getReportForm();
+		assertEquals(form, getStoredForm(caseReportId));
+		setCompressionEnabled(true);
+		
+		assertTrue(ReportFormStorageCodec.migrate() > 0);
+		String storedForm = getStoredForm(caseReportId);
+		assertTrue(storedForm.startsWith(ReportFormStorageCodec.COMPRESSED_PREFIX));
+		assertTrue(storedForm.length() < form.length());
+		assertEquals(form, service.getCaseReport(caseReportId).getReportForm());
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#migrate()
+	 * @verifies decompress the existing forms if compression is disabled
+	 */
+	@Test
+	public void migrate_shouldDecompressTheExistingFormsIfCompressionIsDisabled() throws Exception {
+		final Integer caseReportId = 200;
+		String form = service.getCaseReport(caseReportId).getReportForm();
+		setCompressionEnabled(true);
+		ReportFormStorageCodec.migrate();
+		assertTrue(getStoredForm(caseReportId).startsWith(ReportFormStorageCodec.COMPRESSED_PREFIX));
+		setCompressionEnabled(false);
+		
+		assertTrue(ReportFormStorageCodec.migrate() > 0);
+		assertEquals(form, getStoredForm(caseReportId));
+		assertEquals(form, service.getCaseReport(caseReportId).getReportForm());
+	}
+	
+	/**
+	 * @see ReportFormStorageCodec#stop()
+	 * @verifies stop listening for changes to the setting
+	 */
+	@Test
+	public void stop_shouldStopListeningForChangesToTheSetting() throws Exception {
+		ReportFormStorageCodec.stop();
+		setCompressionEnabled(true);
+		assertFalse(ReportFormStorageCodec.isCompressionEnabled());
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ThreadSafeDateFormatTest {
+	
+	private static final String[] PATTERNS = { "yyyy-MM-dd'T'HH:mm:ss.SSSZ", "dd-MMM-yyyy h a zzz", "yyyy-MM-dd HH:mm:ss" };
+	
+	private static final TimeZone[] TIME_ZONES = { null, TimeZone.getTimeZone("GMT"),
+	        TimeZone.getTimeZone("America/New_York"), TimeZone.getTimeZone("Africa/Nairobi") };
+	
+	private static final int THREAD_COUNT = 8;
+	
+	private static final int DATES_PER_THREAD = 2000;
+	
+	private static List<Date> getRandomDates(long seed, int count) {
+		Random random = new Random(seed);
+		List<Date> dates = new ArrayList<>(count);
+		//Dates between 1970 and about 2039
+		for (int i = 0; i < count; i++) {
+			dates.add(new Date((long) (random.nextDouble() * Integer.MAX_VALUE * 1000L)));
+		}
+		return dates;
+	}
+	
+	private static SimpleDateFormat newSimpleDateFormat(String pattern, TimeZone timeZone) {
+		SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+		if (timeZone != null) {
+			format.setTimeZone(timeZone);
+		}
+		return format;
+	}
+	
+	/**
+	 * Runs the specified task in multiple threads that are released at the same time and returns
+	 * the total number of dates for which the tasks got unexpected results
+	 */
+	private static int runConcurrently(final DateTask task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		List<Future<Integer>> futures = new ArrayList<>(THREAD_COUNT);
+		try {
+			for (int i = 0; i < THREAD_COUNT; i++) {
+				final List<Date> dates = getRandomDates(i, DATES_PER_THREAD);
+				futures.add(executor.submit(new Callable<Integer>() {
+					
+					@Override
+					public Integer call() throws Exception {
+						startSignal.await();
+						int mismatches = 0;
+						for (Date date : dates) {
+							if (!task.check(date)) {
+								mismatches++;
+							}
+						}
+						return mismatches;
+					}
+				}));
+			}
+			startSignal.countDown();
+			int mismatches = 0;
+			for (Future<Integer> future : futures) {
+				mismatches += future.get();
+			}
+			return mismatches;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private interface DateTask {
+		
+		boolean check(Date date) throws Exception;
+	}
+	
+	/**
+	 * @see ThreadSafeDateFormat#format(Date)
+	 * @verifies produce the same output as a simple date format
+	 */
+	@Test
+	public void format_shouldProduceTheSameOutputAsASimpleDateFormat() throws Exception {
+		List<Date> dates = getRandomDates(42, 500);
+		for (String pattern : PATTERNS) {
+			for (TimeZone timeZone : TIME_ZONES) {
+				SimpleDateFormat expected = newSimpleDateFormat(pattern, timeZone);
+				ThreadSafeDateFormat format = new ThreadSafeDateFormat(pattern, timeZone, Locale.US);
+				for (Date date : dates) {
+					assertEquals(expected.format(date), format.format(date));
+				}
+			}
+		}
+		
+		Date date = new Date();
+		assertEquals(new SimpleDateFormat(PATTERNS[0]).format(date), CaseReportConstants.DATE_FORMAT.format(date));
+	}
+	
+	/**
+	 * @see ThreadSafeDateFormat#parse(String)
+	 * @verifies parse a formatted date
+	 */
+	@Test
+	public void parse_shouldParseAFormattedDate() throws Exception {
+		ThreadSafeDateFormat format = CaseReportConstants.DATE_FORMAT;
+		for (Date date : getRandomDates(7, 500)) {
+			assertEquals(date, format.parse(format.format(date)));
+		}
+		assertEquals(new SimpleDateFormat(PATTERNS[0]).parse("2016-03-20T00:00:00.000-0400"),
+		    format.parse("2016-03-20T00:00:00.000-0400"));
+	}
+	
+	/**
+	 * @see ThreadSafeDateFormat#format(Date)
+	 * @verifies produce the correct output when used by multiple threads
+	 */
+	@Test
+	public void format_shouldProduceTheCorrectOutputWhenUsedByMultipleThreads() throws Exception {
+		final TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+		for (final String pattern : PATTERNS) {
+			final ThreadSafeDateFormat format = new ThreadSafeDateFormat(pattern, timeZone, Locale.US);
+			int mismatches = runConcurrently(new DateTask() {
+				
+				@Override
+				public boolean check(Date date) {
+					return newSimpleDateFormat(pattern, timeZone).format(date).equals(format.format(date));
+				}
+			});
+			assertEquals(0, mismatches);
+		}
+	}
+	
+	/**
+	 * @see ThreadSafeDateFormat#parse(String)
+	 * @verifies produce the correct output when used by multiple threads
+	 */
+	@Test
+	public void parse_shouldProduceTheCorrectOutputWhenUsedByMultipleThreads() throws Exception {
+		final ThreadSafeDateFormat format = new ThreadSafeDateFormat(PATTERNS[0], TimeZone.getTimeZone("GMT"),
+		        Locale.US);
+		int mismatches = runConcurrently(new DateTask() {
+			
+			@Override
+			public boolean check(Date date) throws Exception {
+				return date.equals(format.parse(format.format(date)));
+			}
+		});
+		assertEquals(0, mismatches);
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.casereport.api.CaseReportService;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.definition.DefinitionContext;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class TriggerChangeProbeTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private CaseReportService service;
+	
+	@Autowired
+	private SchedulerService schedulerService;
+	
+	@Autowired
+	private PatientService patientService;
+	
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+	
+	private TaskDefinition taskDefinition;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		taskDefinition = schedulerService.getTaskByName("New HIV Case");
+		taskDefinition.setRepeatInterval(60L);
+		taskDefinition.setProperty(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY, WatermarkType.OBS.name());
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#getProbedType(String)
+	 * @verifies return the matching watermark type
+	 */
+	@Test
+	public void getProbedType_shouldReturnTheMatchingWatermarkType() throws Exception {
+		assertEquals(WatermarkType.ENCOUNTER, TriggerChangeProbe.getProbedType(" encounter "));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#getProbedType(String)
+	 * @verifies fail for an invalid name
+	 */
+	@Test
+	public void getProbedType_shouldFailForAnInvalidName() throws Exception {
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage(equalTo("Invalid change probe: person"));
+		TriggerChangeProbe.getProbedType("person");
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#probe(TaskDefinition)
+	 * @verifies return null for a task with no change probe
+	 */
+	@Test
+	public void probe_shouldReturnNullForATaskWithNoChangeProbe() throws Exception {
+		taskDefinition.getProperties().remove(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY);
+		assertNull(TriggerChangeProbe.probe(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#probe(TaskDefinition)
+	 * @verifies return the maximum ids of the probed tables
+	 */
+	@Test
+	public void probe_shouldReturnTheMaximumIdsOfTheProbedTables() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.CHANGE_PROBE_TASK_PROPERTY, "OBS,ORDER");
+		assertEquals("OBS=" + service.getMaxId(WatermarkType.OBS) + ";ORDER=" + service.getMaxId(WatermarkType.ORDER),
+		    TriggerChangeProbe.probe(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies not skip a run for a task with no change probe
+	 */
+	@Test
+	public void shouldSkip_shouldNotSkipARunForATaskWithNoChangeProbe() throws Exception {
+		assertFalse(TriggerChangeProbe.shouldSkip(taskDefinition, null));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies not skip the first run
+	 */
+	@Test
+	public void shouldSkip_shouldNotSkipTheFirstRun() throws Exception {
+		assertFalse(TriggerChangeProbe.shouldSkip(taskDefinition, TriggerChangeProbe.probe(taskDefinition)));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies skip a run if the probe value is unchanged and back off
+	 */
+	@Test
+	public void shouldSkip_shouldSkipARunIfTheProbeValueIsUnchangedAndBackOff() throws Exception {
+		String probeValue = TriggerChangeProbe.probe(taskDefinition);
+		TriggerChangeProbe.recordEvaluated(taskDefinition, probeValue);
+		long start = System.currentTimeMillis();
+		
+		assertTrue(TriggerChangeProbe.shouldSkip(taskDefinition, probeValue));
+		assertEquals("1", taskDefinition.getProperty(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY));
+		long nextProbeTime = Long.valueOf(taskDefinition.getProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY));
+		assertTrue(nextProbeTime >= start + 60000);
+		assertTrue(nextProbeTime < start + 120000);
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies skip a run while backing off
+	 */
+	@Test
+	public void shouldSkip_shouldSkipARunWhileBackingOff() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY,
+		    Long.toString(System.currentTimeMillis() + 60000));
+		assertTrue(TriggerChangeProbe.shouldSkip(taskDefinition, "OBS=-1"));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies not skip a run if the probe value changed
+	 */
+	@Test
+	public void shouldSkip_shouldNotSkipARunIfTheProbeValueChanged() throws Exception {
+		TriggerChangeProbe.recordEvaluated(taskDefinition, "OBS=1");
+		assertFalse(TriggerChangeProbe.shouldSkip(taskDefinition, "OBS=2"));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#shouldSkip(TaskDefinition,String)
+	 * @verifies not skip a run while a carried over checkpoint is pending
+	 */
+	@Test
+	public void shouldSkip_shouldNotSkipARunWhileACarriedOverCheckpointIsPending() throws Exception {
+		final Integer[] patientIds = { 7, 8 };
+		SqlCohortDefinition def = CaseReportUtil.getSqlCohortDefinition(taskDefinition.getName());
+		def.setQuery("select patient_id from patient where patient_id in (" + patientIds[0] + "," + patientIds[1] + ")");
+		DefinitionContext.saveDefinition(def);
+		taskDefinition.setProperty(CaseReportConstants.MAX_REPORTS_PER_RUN_TASK_PROPERTY, "1");
+		String probeValue = TriggerChangeProbe.probe(taskDefinition);
+		assertFalse(TriggerChangeProbe.shouldSkip(taskDefinition, probeValue));
+		CaseReportUtil.executeTask(taskDefinition);
+		TriggerChangeProbe.recordEvaluated(taskDefinition, probeValue);
+		assertNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[1])));
+		
+		probeValue = TriggerChangeProbe.probe(taskDefinition);
+		assertFalse(TriggerChangeProbe.shouldSkip(taskDefinition, probeValue));
+		CaseReportUtil.executeTask(taskDefinition);
+		TriggerChangeProbe.recordEvaluated(taskDefinition, probeValue);
+		assertNotNull(service.getCaseReportByPatient(patientService.getPatient(patientIds[1])));
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY));
+		assertTrue(TriggerChangeProbe.shouldSkip(taskDefinition, TriggerChangeProbe.probe(taskDefinition)));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#recordEvaluated(TaskDefinition,String)
+	 * @verifies not store the probe value while a carried over checkpoint is pending
+	 */
+	@Test
+	public void recordEvaluated_shouldNotStoreTheProbeValueWhileACarriedOverCheckpointIsPending() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY, "OBS=5");
+		taskDefinition.setProperty(CaseReportConstants.CHECKPOINT_PATIENT_ID_TASK_PROPERTY, "7");
+		
+		TriggerChangeProbe.recordEvaluated(taskDefinition, "OBS=7");
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY));
+	}
+	
+	/**
+	 * @see TriggerChangeProbe#recordEvaluated(TaskDefinition,String)
+	 * @verifies store the probe value and reset the back off
+	 */
+	@Test
+	public void recordEvaluated_shouldStoreTheProbeValueAndResetTheBackOff() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY, "3");
+		taskDefinition.setProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY, "1");
+		
+		TriggerChangeProbe.recordEvaluated(taskDefinition, "OBS=7");
+		assertEquals("OBS=7", taskDefinition.getProperty(CaseReportConstants.CHANGE_PROBE_VALUE_TASK_PROPERTY));
+		assertNull(taskDefinition.getProperty(CaseReportConstants.QUIET_RUNS_TASK_PROPERTY));
+		assertNull(taskDefinition.getProperty(CaseReportConstants.NEXT_PROBE_TIME_TASK_PROPERTY));
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class TriggerEvaluationLocksTest extends BaseModuleContextSensitiveTest {
+	
+	/**
+	 * @see TriggerEvaluationLocks#getTriggerLock(String)
+	 * @verifies return the same lock for trigger names that only differ by case
+	 */
+	@Test
+	public void getTriggerLock_shouldReturnTheSameLockForTriggerNamesThatOnlyDifferByCase() throws Exception {
+		assertSame(TriggerEvaluationLocks.getTriggerLock("New HIV Case"),
+		    TriggerEvaluationLocks.getTriggerLock("new hiv case"));
+	}
+	
+	/**
+	 * @see TriggerEvaluationLocks#getTriggerLock(String)
+	 * @verifies return different locks for different triggers
+	 */
+	@Test
+	public void getTriggerLock_shouldReturnDifferentLocksForDifferentTriggers() throws Exception {
+		assertNotSame(TriggerEvaluationLocks.getTriggerLock("New HIV Case"),
+		    TriggerEvaluationLocks.getTriggerLock("HIV Patient Died"));
+	}
+	
+	/**
+	 * @see TriggerEvaluationLocks#getEvaluationPermits()
+	 * @verifies cap the permits at the value of the global property
+	 */
+	@Test
+	public void getEvaluationPermits_shouldCapThePermitsAtTheValueOfTheGlobalProperty() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_MAX_CONCURRENT_TRIGGER_EVALUATIONS, "3"));
+		Semaphore permits = TriggerEvaluationLocks.getEvaluationPermits();
+		assertEquals(3, permits.availablePermits());
+		assertSame(permits, TriggerEvaluationLocks.getEvaluationPermits());
+	}
+}
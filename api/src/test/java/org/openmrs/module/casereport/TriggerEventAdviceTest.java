@@ -0,0 +1,68 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class TriggerEventAdviceTest extends BaseModuleContextSensitiveTest {
+	
+	@Before
+	public void setup() throws Exception {
+		TriggerEventDispatcher.start();
+	}
+	
+	@After
+	public void cleanup() throws Exception {
+		TriggerEventDispatcher.stop();
+	}
+	
+	private void setEnabled(boolean enabled) {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_EVENT_DRIVEN_TRIGGERS, String.valueOf(enabled)));
+	}
+	
+	/**
+	 * @see TriggerEventAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 * @verifies report a saved encounter and its obs after the transaction commits
+	 */
+	@Test
+	public void afterReturning_shouldReportASavedEncounterAndItsObsAfterTheTransactionCommits() throws Exception {
+		setEnabled(true);
+		Encounter encounter = Context.getEncounterService().getEncounter(3);
+		new TriggerEventAdvice().afterReturning(encounter, EncounterService.class.getMethod("saveEncounter",
+		    Encounter.class), null, null);
+		//The test transaction never commits, the events are still waiting for it
+		assertEquals(2, TriggerEventAdvice.getPendingEvents().getTypes().size());
+		assertTrue(TriggerEventAdvice.getPendingEvents().getTypes().contains(WatermarkType.ENCOUNTER));
+		assertTrue(TriggerEventAdvice.getPendingEvents().getTypes().contains(WatermarkType.OBS));
+	}
+	
+	/**
+	 * @see TriggerEventAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 * @verifies do nothing if event driven evaluation is disabled
+	 */
+	@Test
+	public void afterReturning_shouldDoNothingIfEventDrivenEvaluationIsDisabled() throws Exception {
+		setEnabled(false);
+		new TriggerEventAdvice().afterReturning(Context.getEncounterService().getEncounter(3), EncounterService.class
+		        .getMethod("saveEncounter", Encounter.class), null, null);
+		assertTrue(TriggerEventAdvice.getPendingEvents().getTypes().isEmpty());
+	}
+}
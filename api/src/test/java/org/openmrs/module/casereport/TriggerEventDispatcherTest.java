@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class TriggerEventDispatcherTest extends BaseModuleContextSensitiveTest {
+	
+	/**
+	 * @see TriggerEventDispatcher#getSubscribedTypes(SqlCohortDefinition)
+	 * @verifies return the types whose last id parameter is declared
+	 */
+	@Test
+	public void getSubscribedTypes_shouldReturnTheTypesWhoseLastIdParameterIsDeclared() throws Exception {
+		SqlCohortDefinition definition = new SqlCohortDefinition("some query");
+		definition.addParameter(new Parameter(WatermarkType.OBS.getLastIdParameter(), null, Long.class));
+		definition.addParameter(new Parameter(WatermarkType.OBS.getMaxIdParameter(), null, Long.class));
+		definition.addParameter(new Parameter(WatermarkType.ORDER.getLastIdParameter(), null, Long.class));
+		Set<WatermarkType> types = TriggerEventDispatcher.getSubscribedTypes(definition);
+		assertEquals(2, types.size());
+		assertTrue(types.contains(WatermarkType.OBS));
+		assertTrue(types.contains(WatermarkType.ORDER));
+	}
+	
+	/**
+	 * @see TriggerEventDispatcher#getSubscribedTypes(SqlCohortDefinition)
+	 * @verifies return an empty set for a definition with no watermark parameters
+	 */
+	@Test
+	public void getSubscribedTypes_shouldReturnAnEmptySetForADefinitionWithNoWatermarkParameters() throws Exception {
+		SqlCohortDefinition definition = new SqlCohortDefinition("some query");
+		definition.addParameter(new Parameter(CaseReportConstants.LAST_EXECUTION_TIME, null, Date.class));
+		assertTrue(TriggerEventDispatcher.getSubscribedTypes(definition).isEmpty());
+	}
+	
+	/**
+	 * @see TriggerEventDispatcher#shouldSkipScheduledRun(TaskDefinition)
+	 * @verifies return false if event driven evaluation is disabled
+	 */
+	@Test
+	public void shouldSkipScheduledRun_shouldReturnFalseIfEventDrivenEvaluationIsDisabled() throws Exception {
+		assertFalse(TriggerEventDispatcher.isEnabled());
+		TaskDefinition taskDefinition = new TaskDefinition();
+		taskDefinition.setProperty(CaseReportConstants.TRIGGER_NAME_TASK_PROPERTY, "New HIV Case");
+		assertFalse(TriggerEventDispatcher.shouldSkipScheduledRun(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerEventDispatcher#stop()
+	 * @verifies stop listening for changes to the settings
+	 */
+	@Test
+	public void stop_shouldStopListeningForChangesToTheSettings() throws Exception {
+		TriggerEventDispatcher.start();
+		TriggerEventDispatcher.stop();
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_EVENT_DRIVEN_TRIGGERS, "true"));
+		assertFalse(TriggerEventDispatcher.isEnabled());
+	}
+}
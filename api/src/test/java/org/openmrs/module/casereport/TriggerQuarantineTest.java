@@ -0,0 +1,154 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class TriggerQuarantineTest extends BaseModuleContextSensitiveTest {
+	
+	@Autowired
+	private SchedulerService schedulerService;
+	
+	private TaskDefinition taskDefinition;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("moduleTestData-initial.xml");
+		taskDefinition = schedulerService.getTaskByName("New HIV Case");
+		taskDefinition.setRepeatInterval(60L);
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_QUARANTINE_AFTER_TIMEOUTS, "2"));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#isQuarantined(TaskDefinition)
+	 * @verifies skip a run while the trigger is quarantined
+	 */
+	@Test
+	public void isQuarantined_shouldSkipARunWhileTheTriggerIsQuarantined() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY,
+		    Long.toString(System.currentTimeMillis() + 60000));
+		assertTrue(TriggerQuarantine.isQuarantined(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#isQuarantined(TaskDefinition)
+	 * @verifies not skip a run after the quarantine has expired
+	 */
+	@Test
+	public void isQuarantined_shouldNotSkipARunAfterTheQuarantineHasExpired() throws Exception {
+		taskDefinition.setProperty(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY,
+		    Long.toString(System.currentTimeMillis() - 1));
+		assertFalse(TriggerQuarantine.isQuarantined(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#recordTimeout(TaskDefinition)
+	 * @verifies not quarantine the trigger before the threshold is reached
+	 */
+	@Test
+	public void recordTimeout_shouldNotQuarantineTheTriggerBeforeTheThresholdIsReached() throws Exception {
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		assertEquals("1", taskDefinition.getProperty(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY));
+		assertFalse(TriggerQuarantine.isQuarantined(taskDefinition));
+		assertFalse(TriggerQuarantine.isDegraded(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#recordTimeout(TaskDefinition)
+	 * @verifies quarantine the trigger when the threshold is reached
+	 */
+	@Test
+	public void recordTimeout_shouldQuarantineTheTriggerWhenTheThresholdIsReached() throws Exception {
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		assertTrue(TriggerQuarantine.isQuarantined(taskDefinition));
+		assertTrue(TriggerQuarantine.isDegraded(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#recordTimeout(TaskDefinition)
+	 * @verifies double the quarantine with each further timeout
+	 */
+	@Test
+	public void recordTimeout_shouldDoubleTheQuarantineWithEachFurtherTimeout() throws Exception {
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		long start = System.currentTimeMillis();
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		long firstQuarantine = getQuarantinedUntil() - start;
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		long secondQuarantine = getQuarantinedUntil() - start;
+		//One interval and a half then three intervals and a half
+		assertTrue(firstQuarantine >= 90000 && firstQuarantine < 150000);
+		assertTrue(secondQuarantine >= 210000 && secondQuarantine < 270000);
+	}
+	
+	/**
+	 * @see TriggerQuarantine#recordTimeout(TaskDefinition)
+	 * @verifies not back off beyond the maximum backoff
+	 */
+	@Test
+	public void recordTimeout_shouldNotBackOffBeyondTheMaximumBackoff() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_QUARANTINE_MAX_BACKOFF, "2"));
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		long start = System.currentTimeMillis();
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		long quarantine = getQuarantinedUntil() - start;
+		//One interval and a half
+		assertTrue(quarantine >= 90000 && quarantine < 150000);
+	}
+	
+	/**
+	 * @see TriggerQuarantine#recordCompleted(TaskDefinition)
+	 * @verifies clear the quarantine
+	 */
+	@Test
+	public void recordCompleted_shouldClearTheQuarantine() throws Exception {
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		
+		TriggerQuarantine.recordCompleted(taskDefinition);
+		assertNull(taskDefinition.getProperty(CaseReportConstants.CONSECUTIVE_TIMEOUTS_TASK_PROPERTY));
+		assertFalse(TriggerQuarantine.isQuarantined(taskDefinition));
+		assertFalse(TriggerQuarantine.isDegraded(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQuarantine#isDegraded(String)
+	 * @verifies return true for a trigger that reached the threshold
+	 */
+	@Test
+	public void isDegraded_shouldReturnTrueForATriggerThatReachedTheThreshold() throws Exception {
+		assertFalse(TriggerQuarantine.isDegraded("new hiv case"));
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		TriggerQuarantine.recordTimeout(taskDefinition);
+		assertTrue(TriggerQuarantine.isDegraded("new hiv case"));
+	}
+	
+	private long getQuarantinedUntil() {
+		return NumberUtils.toLong(taskDefinition.getProperty(CaseReportConstants.QUARANTINED_UNTIL_TASK_PROPERTY));
+	}
+}
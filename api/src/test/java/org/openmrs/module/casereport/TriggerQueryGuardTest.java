@@ -0,0 +1,166 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.casereport;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class TriggerQueryGuardTest extends BaseModuleContextSensitiveTest {
+	
+	private static final String TRIGGER_NAME = "Some Trigger";
+	
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+	
+	@After
+	public void cleanup() {
+		TriggerQueryGuard.end(TRIGGER_NAME);
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#getTimeoutSeconds(TaskDefinition)
+	 * @verifies return the timeout of the task
+	 */
+	@Test
+	public void getTimeoutSeconds_shouldReturnTheTimeoutOfTheTask() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_QUERY_TIMEOUT_SECONDS, "600"));
+		TaskDefinition taskDefinition = new TaskDefinition();
+		taskDefinition.setProperty(CaseReportConstants.QUERY_TIMEOUT_TASK_PROPERTY, "30");
+		assertEquals(30, TriggerQueryGuard.getTimeoutSeconds(taskDefinition));
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#getTimeoutSeconds(TaskDefinition)
+	 * @verifies default to the value of the global property
+	 */
+	@Test
+	public void getTimeoutSeconds_shouldDefaultToTheValueOfTheGlobalProperty() throws Exception {
+		assertEquals(0, TriggerQueryGuard.getTimeoutSeconds(new TaskDefinition()));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_QUERY_TIMEOUT_SECONDS, "600"));
+		assertEquals(600, TriggerQueryGuard.getTimeoutSeconds(new TaskDefinition()));
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#cancel(String)
+	 * @verifies return false if the trigger is not being evaluated
+	 */
+	@Test
+	public void cancel_shouldReturnFalseIfTheTriggerIsNotBeingEvaluated() throws Exception {
+		assertFalse(TriggerQueryGuard.cancel(TRIGGER_NAME));
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#cancel(String)
+	 * @verifies cancel a running evaluation
+	 */
+	@Test
+	public void cancel_shouldCancelARunningEvaluation() throws Exception {
+		TriggerQueryGuard.begin(TRIGGER_NAME);
+		assertTrue(TriggerQueryGuard.isRunning(TRIGGER_NAME.toLowerCase()));
+		assertTrue(TriggerQueryGuard.cancel(TRIGGER_NAME.toUpperCase()));
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage(equalTo("The evaluation of the trigger " + TRIGGER_NAME + " was cancelled"));
+		TriggerQueryGuard.checkNotCancelled(TRIGGER_NAME);
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#checkNotCancelled(String)
+	 * @verifies fail if the evaluation was cancelled
+	 */
+	@Test
+	public void checkNotCancelled_shouldFailIfTheEvaluationWasCancelled() throws Exception {
+		TriggerQueryGuard.begin(TRIGGER_NAME);
+		TriggerQueryGuard.checkNotCancelled(TRIGGER_NAME);
+		TriggerQueryGuard.cancel(TRIGGER_NAME);
+		expectedException.expect(APIException.class);
+		TriggerQueryGuard.checkNotCancelled(TRIGGER_NAME);
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#cancel(String)
+	 * @verifies cancel all the running evaluations of the trigger
+	 */
+	@Test
+	public void cancel_shouldCancelAllTheRunningEvaluationsOfTheTrigger() throws Exception {
+		final boolean[] cancelled = new boolean[1];
+		final CountDownLatch begun = new CountDownLatch(1);
+		final CountDownLatch checked = new CountDownLatch(1);
+		Thread thread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				TriggerQueryGuard.begin(TRIGGER_NAME);
+				try {
+					begun.countDown();
+					checked.await();
+					TriggerQueryGuard.checkNotCancelled(TRIGGER_NAME);
+				}
+				catch (APIException e) {
+					cancelled[0] = true;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					TriggerQueryGuard.end(TRIGGER_NAME);
+				}
+			}
+		});
+		thread.start();
+		begun.await();
+		TriggerQueryGuard.begin(TRIGGER_NAME);
+		
+		assertTrue(TriggerQueryGuard.cancel(TRIGGER_NAME));
+		checked.countDown();
+		thread.join();
+		assertTrue(cancelled[0]);
+		expectedException.expect(APIException.class);
+		TriggerQueryGuard.checkNotCancelled(TRIGGER_NAME);
+	}
+	
+	/**
+	 * @see TriggerQueryGuard#end(String)
+	 * @verifies not end the evaluations of the trigger in other threads
+	 */
+	@Test
+	public void end_shouldNotEndTheEvaluationsOfTheTriggerInOtherThreads() throws Exception {
+		TriggerQueryGuard.begin(TRIGGER_NAME);
+		Thread thread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				TriggerQueryGuard.begin(TRIGGER_NAME);
+				TriggerQueryGuard.end(TRIGGER_NAME);
+			}
+		});
+		thread.start();
+		thread.join();
+		assertTrue(TriggerQueryGuard.isRunning(TRIGGER_NAME));
+		
+		TriggerQueryGuard.end(TRIGGER_NAME);
+		assertFalse(TriggerQueryGuard.isRunning(TRIGGER_NAME));
+	}
+}
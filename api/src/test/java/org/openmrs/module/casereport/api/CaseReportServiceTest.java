@@ -17,19 +17,32 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.openmrs.module.casereport.CaseReport.Status;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.hamcrest.CoreMatchers;
+import org.hibernate.Hibernate;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.openmrs.Cohort;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
 import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
+import org.openmrs.Visit;
 import org.openmrs.api.APIException;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
@@ -37,7 +50,14 @@ import org.openmrs.module.casereport.CaseReport;
 import org.openmrs.module.casereport.CaseReportConstants;
 import org.openmrs.module.casereport.CaseReportForm;
 import org.openmrs.module.casereport.CaseReportTrigger;
+import org.openmrs.module.casereport.CaseReportUtil;
+import org.openmrs.module.casereport.ClinicalFact;
 import org.openmrs.module.casereport.DemoListener;
+import org.openmrs.module.casereport.PatientClinicalSummary;
+import org.openmrs.module.casereport.PatientIdBitmap;
+import org.openmrs.module.casereport.ReportFormStorageCodec;
+import org.openmrs.module.casereport.TriggerWatermark;
+import org.openmrs.module.casereport.WatermarkType;
 import org.openmrs.scheduler.SchedulerService;
 import org.openmrs.scheduler.TaskDefinition;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
@@ -228,6 +248,66 @@ public class CaseReportServiceTest extends BaseModuleContextSensitiveTest {
 		assertEquals(++originalCount, service.getCaseReports().size());
 	}
 	
+	/**
+	 * @see CaseReportService#saveCaseReport(CaseReport)
+	 * @verifies save the report form of a new case report
+	 */
+	@Test
+	public void saveCaseReport_shouldSaveTheReportFormOfANewCaseReport() throws Exception {
+		CaseReport cr = new CaseReport(patientService.getPatient(7), "HIV Switched To Second Line");
+		final String reportForm = "{\"fullName\":\"Collet Test Chebaskwony\"}";
+		cr.setReportForm(reportForm);
+		service.saveCaseReport(cr);
+		assertEquals(cr.computeReportFormHash(), cr.getReportFormHash());
+		Context.flushSession();
+		Context.clearSession();
+		
+		cr = service.getCaseReport(cr.getId());
+		assertEquals(reportForm, cr.getReportForm());
+		assertEquals(cr.computeReportFormHash(), cr.getReportFormHash());
+	}
+	
+	/**
+	 * @see CaseReportService#saveCaseReport(CaseReport)
+	 * @verifies save a changed report form
+	 */
+	@Test
+	public void saveCaseReport_shouldSaveAChangedReportForm() throws Exception {
+		CaseReport cr = service.getCaseReport(2);
+		assertNull(cr.getReportFormHash());
+		final String reportForm = "{\"fullName\":\"Horatio Test Hornblower\"}";
+		assertFalse(reportForm.equals(cr.getReportForm()));
+		cr.setReportForm(reportForm);
+		service.saveCaseReport(cr);
+		Context.flushSession();
+		Context.clearSession();
+		
+		cr = service.getCaseReport(2);
+		assertEquals(reportForm, cr.getReportForm());
+		assertEquals(cr.computeReportFormHash(), cr.getReportFormHash());
+	}
+	
+	/**
+	 * @see CaseReportService#saveCaseReport(CaseReport)
+	 * @verifies not rewrite an unchanged report form
+	 */
+	@Test
+	public void saveCaseReport_shouldNotRewriteAnUnchangedReportForm() throws Exception {
+		CaseReport cr = service.getCaseReport(2);
+		service.saveCaseReport(cr);
+		Context.flushSession();
+		final String reportForm = cr.getReportForm();
+		//Change the stored form behind the session's back to detect if it gets rewritten
+		Context.getAdministrationService().executeSQL(
+		    "update casereport_case_report set report_form = '{}' where case_report_id = 2", false);
+		
+		cr.setReportForm(new String(reportForm));
+		service.saveCaseReport(cr);
+		Context.flushSession();
+		Context.clearSession();
+		assertEquals("{}", service.getCaseReport(2).getReportForm());
+	}
+	
 	/**
 	 * @see CaseReportService#submitCaseReport(CaseReport)
 	 * @verifies fail if the case report is null
@@ -564,4 +644,652 @@ public class CaseReportServiceTest extends BaseModuleContextSensitiveTest {
 	public void getTriggers_shouldReturnAllTheTriggers() throws Exception {
 		assertEquals(4, service.getTriggers().size());
 	}
+	
+	/**
+	 * @see CaseReportService#getPatients(java.util.Collection)
+	 * @verifies return the patients with the specified ids
+	 */
+	@Test
+	public void getPatients_shouldReturnThePatientsWithTheSpecifiedIds() throws Exception {
+		List<Patient> patients = service.getPatients(Arrays.asList(2, 7, 9999));
+		assertEquals(2, patients.size());
+		List<Integer> patientIds = Arrays.asList(patients.get(0).getPatientId(), patients.get(1).getPatientId());
+		assertTrue(patientIds.contains(2));
+		assertTrue(patientIds.contains(7));
+		assertNotNull(patients.get(0).getPersonName());
+	}
+	
+	/**
+	 * @see CaseReportService#getPatients(java.util.Collection)
+	 * @verifies return an empty list if no ids are specified
+	 */
+	@Test
+	public void getPatients_shouldReturnAnEmptyListIfNoIdsAreSpecified() throws Exception {
+		assertTrue(service.getPatients(new ArrayList<Integer>()).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getPatients(java.util.Collection)
+	 * @verifies fetch the names and identifiers of the patients
+	 */
+	@Test
+	public void getPatients_shouldFetchTheNamesAndIdentifiersOfThePatients() throws Exception {
+		Context.flushSession();
+		Context.clearSession();
+		List<Patient> patients = service.getPatients(Arrays.asList(2, 7));
+		assertEquals(2, patients.size());
+		for (Patient patient : patients) {
+			assertTrue(Hibernate.isInitialized(patient.getNames()));
+			assertTrue(Hibernate.isInitialized(patient.getIdentifiers()));
+		}
+	}
+	
+	/**
+	 * @see CaseReportService#getObservations(java.util.Collection, java.util.Collection, int)
+	 * @verifies return the latest observations of the concepts for the patients
+	 */
+	@Test
+	public void getObservations_shouldReturnTheLatestObservationsOfTheConceptsForThePatients() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		Patient patient = patientService.getPatient(2);
+		Concept viralLoad = Context.getConceptService().getConceptByMapping(CaseReportConstants.CIEL_CODE_VIRAL_LOAD,
+		    CaseReportConstants.SOURCE_CIEL_HL7_CODE);
+		List<Obs> patientObs = new ArrayList<>();
+		for (Obs o : service.getObservations(Arrays.asList(2, 7), Collections.singletonList(viralLoad), 3)) {
+			assertEquals(viralLoad, o.getConcept());
+			assertFalse(o.isVoided());
+			if (o.getPerson().equals(patient)) {
+				patientObs.add(o);
+			}
+		}
+		List<Obs> expected = CaseReportUtil.getMostRecentViralLoads(patient);
+		assertEquals(3, expected.size());
+		assertEquals(expected, patientObs);
+	}
+	
+	/**
+	 * @see CaseReportService#getObservations(java.util.Collection, java.util.Collection, int)
+	 * @verifies return an empty list if no ids are specified
+	 */
+	@Test
+	public void getObservations_shouldReturnAnEmptyListIfNoIdsAreSpecified() throws Exception {
+		assertTrue(service.getObservations(new ArrayList<Integer>(),
+		    Collections.singletonList(Context.getConceptService().getConcept(5089)), 3).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getActiveDrugOrders(java.util.Collection, java.util.Collection, Date)
+	 * @verifies return the active drug orders of the concepts for the patients
+	 */
+	@Test
+	public void getActiveDrugOrders_shouldReturnTheActiveDrugOrdersOfTheConceptsForThePatients() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		List<DrugOrder> orders = service.getActiveDrugOrders(Arrays.asList(2, 7), Arrays.asList(1006, 1007, 1009, 1010,
+		    1011), null);
+		List<Integer> orderIds = new ArrayList<>();
+		for (DrugOrder order : orders) {
+			orderIds.add(order.getOrderId());
+		}
+		assertEquals(Arrays.asList(10000, 10006, 10001), orderIds);
+	}
+	
+	/**
+	 * @see CaseReportService#getActiveDrugOrders(java.util.Collection, java.util.Collection, Date)
+	 * @verifies return an empty list if no concept ids are specified
+	 */
+	@Test
+	public void getActiveDrugOrders_shouldReturnAnEmptyListIfNoConceptIdsAreSpecified() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		assertTrue(service.getActiveDrugOrders(Arrays.asList(2, 7), Collections.<Integer> emptyList(), null).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getLastVisits(java.util.Collection)
+	 * @verifies return the last visit of each patient
+	 */
+	@Test
+	public void getLastVisits_shouldReturnTheLastVisitOfEachPatient() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		List<Visit> visits = service.getLastVisits(Arrays.asList(2, 9999));
+		assertEquals(1, visits.size());
+		assertEquals("3e5d5d48-6b78-11e0-93c3-18a905e044dc", visits.get(0).getUuid());
+	}
+	
+	/**
+	 * @see CaseReportService#getLatestClinicalFacts(java.util.Collection, java.util.Collection, int)
+	 * @verifies return the latest facts of the concepts for the patients
+	 */
+	@Test
+	public void getLatestClinicalFacts_shouldReturnTheLatestFactsOfTheConceptsForThePatients() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		List<Concept> concepts = Arrays.asList(Context.getConceptService().getConcept(5497), Context.getConceptService().getConcept(1001));
+		List<ClinicalFact> facts = service.getLatestClinicalFacts(Arrays.asList(2, 7), concepts, 2);
+		List<Integer> obsIds = new ArrayList<>();
+		for (ClinicalFact fact : facts) {
+			obsIds.add(fact.getObsId());
+		}
+		assertEquals(Arrays.asList(8017, 8015, 8010, 8008, 8013), obsIds);
+		assertEquals(Integer.valueOf(2), facts.get(0).getPatientId());
+		assertEquals(Integer.valueOf(1002), facts.get(0).getValueCodedId());
+		assertEquals(1010.0, facts.get(2).getValueNumeric(), 0);
+		assertEquals(Integer.valueOf(7), facts.get(4).getPatientId());
+	}
+	
+	/**
+	 * @see CaseReportService#getLatestClinicalFacts(java.util.Collection, java.util.Collection, int)
+	 * @verifies return an empty list if no ids are specified
+	 */
+	@Test
+	public void getLatestClinicalFacts_shouldReturnAnEmptyListIfNoIdsAreSpecified() throws Exception {
+		List<Concept> concepts = Collections.singletonList(Context.getConceptService().getConcept(5497));
+		assertTrue(service.getLatestClinicalFacts(Collections.<Integer> emptyList(), concepts, 3).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getClinicalFactByUuid(String)
+	 * @verifies return the clinical fact with the specified uuid
+	 */
+	@Test
+	public void getClinicalFactByUuid_shouldReturnTheClinicalFactWithTheSpecifiedUuid() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		final String uuid = "7dfb7f47-c80a-4056-9285-bd767be13c63";
+		ClinicalFact fact = service.getClinicalFactByUuid(uuid);
+		assertEquals(uuid, fact.getUuid());
+		assertEquals(Integer.valueOf(8010), fact.getObsId());
+		assertEquals(Integer.valueOf(5497), fact.getConceptId());
+		assertNull(fact.getValueCodedId());
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsByPatientIds(java.util.Collection, Status...)
+	 * @verifies return the case reports for the patients with the specified ids
+	 */
+	@Test
+	public void getCaseReportsByPatientIds_shouldReturnTheCaseReportsForThePatientsWithTheSpecifiedIds()
+	    throws Exception {
+		List<CaseReport> caseReports = service.getCaseReportsByPatientIds(Arrays.asList(2, 6, 7, 8));
+		assertEquals(5, caseReports.size());
+		for (CaseReport cr : caseReports) {
+			assertFalse(cr.isVoided());
+		}
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsByPatientIds(java.util.Collection, Status...)
+	 * @verifies return only the case reports with the specified statuses
+	 */
+	@Test
+	public void getCaseReportsByPatientIds_shouldReturnOnlyTheCaseReportsWithTheSpecifiedStatuses() throws Exception {
+		List<CaseReport> caseReports = service.getCaseReportsByPatientIds(Arrays.asList(2, 6, 7, 8), Status.NEW,
+		    Status.DRAFT);
+		assertEquals(2, caseReports.size());
+		List<Integer> ids = Arrays.asList(caseReports.get(0).getId(), caseReports.get(1).getId());
+		assertTrue(ids.contains(1));
+		assertTrue(ids.contains(4));
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsByTrigger(String, Status...)
+	 * @verifies return the ids of the patients with reports that have the trigger
+	 */
+	@Test
+	public void getPatientIdsByTrigger_shouldReturnTheIdsOfThePatientsWithReportsThatHaveTheTrigger() throws Exception {
+		PatientIdBitmap patientIds = service.getPatientIdsByTrigger("hiv switched to second line");
+		assertEquals(2, patientIds.getCardinality());
+		assertTrue(patientIds.contains(2));
+		assertTrue(patientIds.contains(7));
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsByTrigger(String, Status...)
+	 * @verifies return only the ids of the patients with reports with the specified statuses
+	 */
+	@Test
+	public void getPatientIdsByTrigger_shouldReturnOnlyTheIdsOfThePatientsWithReportsWithTheSpecifiedStatuses()
+	    throws Exception {
+		PatientIdBitmap patientIds = service.getPatientIdsByTrigger("HIV Switched To Second Line", Status.NEW,
+		    Status.DRAFT);
+		assertEquals(1, patientIds.getCardinality());
+		assertTrue(patientIds.contains(2));
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsTriggeredSince(String, Date)
+	 * @verifies return the ids of the patients with reports that have the trigger added since the date
+	 */
+	@Test
+	public void getPatientIdsTriggeredSince_shouldReturnTheIdsOfThePatientsWithReportsThatHaveTheTriggerAddedSinceTheDate()
+	    throws Exception {
+		final String name = "HIV Switched To Second Line";
+		assertEquals(2, service.getPatientIdsTriggeredSince(name, DateUtils.addYears(new Date(), -50)).getCardinality());
+		assertTrue(service.getPatientIdsTriggeredSince(name, new Date()).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIdsTriggeredSince(String, Date)
+	 * @verifies include the reports of any status
+	 */
+	@Test
+	public void getPatientIdsTriggeredSince_shouldIncludeTheReportsOfAnyStatus() throws Exception {
+		PatientIdBitmap patientIds = service.getPatientIdsTriggeredSince("hiv patient died",
+		    DateUtils.addYears(new Date(), -50));
+		assertEquals(2, patientIds.getCardinality());
+		assertTrue(patientIds.contains(999));
+		assertTrue(patientIds.contains(8));
+	}
+	
+	/**
+	 * @see CaseReportService#getTriggerWatermark(String, String)
+	 * @verifies return the watermark for the specified trigger and name
+	 */
+	@Test
+	public void getTriggerWatermark_shouldReturnTheWatermarkForTheSpecifiedTriggerAndName() throws Exception {
+		TriggerWatermark watermark = service.getTriggerWatermark("New HIV Case", WatermarkType.OBS.name());
+		assertEquals(1, watermark.getId().intValue());
+		assertEquals(5L, watermark.getValue().longValue());
+	}
+	
+	/**
+	 * @see CaseReportService#getTriggerWatermark(String, String)
+	 * @verifies return null if no watermark matches
+	 */
+	@Test
+	public void getTriggerWatermark_shouldReturnNullIfNoWatermarkMatches() throws Exception {
+		assertNull(service.getTriggerWatermark("New HIV Case", WatermarkType.ENCOUNTER.name()));
+		assertNull(service.getTriggerWatermark("HIV Patient Died", WatermarkType.OBS.name()));
+	}
+	
+	/**
+	 * @see CaseReportService#saveTriggerWatermark(TriggerWatermark)
+	 * @verifies save the specified watermark
+	 */
+	@Test
+	public void saveTriggerWatermark_shouldSaveTheSpecifiedWatermark() throws Exception {
+		TriggerWatermark watermark = new TriggerWatermark("HIV Patient Died", WatermarkType.ENCOUNTER.name());
+		watermark.setValue(10L);
+		service.saveTriggerWatermark(watermark);
+		assertNotNull(watermark.getId());
+		assertNotNull(watermark.getDateChanged());
+		assertEquals(10L, service.getTriggerWatermark("HIV Patient Died", WatermarkType.ENCOUNTER.name()).getValue()
+		        .longValue());
+	}
+	
+	/**
+	 * @see CaseReportService#getMaxId(WatermarkType)
+	 * @verifies return the largest id in the table
+	 */
+	@Test
+	public void getMaxId_shouldReturnTheLargestIdInTheTable() throws Exception {
+		List<List<Object>> rows = Context.getAdministrationService().executeSQL("select max(obs_id) from obs", true);
+		assertEquals(((Number) rows.get(0).get(0)).longValue(), service.getMaxId(WatermarkType.OBS).longValue());
+	}
+	
+	/**
+	 * @see CaseReportService#getMaxIdCreatedBefore(WatermarkType, Date)
+	 * @verifies return the largest id of the rows created before the specified date
+	 */
+	@Test
+	public void getMaxIdCreatedBefore_shouldReturnTheLargestIdOfTheRowsCreatedBeforeTheSpecifiedDate()
+	    throws Exception {
+		assertEquals(service.getMaxId(WatermarkType.OBS), service.getMaxIdCreatedBefore(WatermarkType.OBS, new Date()));
+		assertEquals(0L, service.getMaxIdCreatedBefore(WatermarkType.OBS, new Date(0)).longValue());
+	}
+	
+	/**
+	 * @see CaseReportService#getMaxIdCreatedBefore(WatermarkType, Date)
+	 * @verifies exclude the rows created at or after the specified date
+	 */
+	@Test
+	public void getMaxIdCreatedBefore_shouldExcludeTheRowsCreatedAtOrAfterTheSpecifiedDate() throws Exception {
+		Long maxId = service.getMaxId(WatermarkType.OBS);
+		Date date = new Date();
+		Obs obs = Obs.newInstance(Context.getObsService().getObs(maxId.intValue()));
+		obs.setDateCreated(date);
+		Context.getObsService().saveObs(obs, null);
+		assertTrue(obs.getObsId() > maxId);
+		
+		assertEquals(maxId, service.getMaxIdCreatedBefore(WatermarkType.OBS, date));
+		assertEquals(obs.getObsId().longValue(),
+		    service.getMaxIdCreatedBefore(WatermarkType.OBS, DateUtils.addSeconds(date, 1)).longValue());
+	}
+	
+	/**
+	 * @see CaseReportService#getEarliestDateCreatedAfter(WatermarkType, Long)
+	 * @verifies return the earliest date created of the rows with a greater id
+	 */
+	@Test
+	public void getEarliestDateCreatedAfter_shouldReturnTheEarliestDateCreatedOfTheRowsWithAGreaterId()
+	    throws Exception {
+		Long maxId = service.getMaxId(WatermarkType.OBS);
+		Obs obs = Context.getObsService().getObs(maxId.intValue());
+		assertEquals(obs.getDateCreated().getTime(),
+		    service.getEarliestDateCreatedAfter(WatermarkType.OBS, maxId - 1).getTime());
+	}
+	
+	/**
+	 * @see CaseReportService#getEarliestDateCreatedAfter(WatermarkType, Long)
+	 * @verifies return null if no row has a greater id
+	 */
+	@Test
+	public void getEarliestDateCreatedAfter_shouldReturnNullIfNoRowHasAGreaterId() throws Exception {
+		assertNull(service.getEarliestDateCreatedAfter(WatermarkType.OBS, service.getMaxId(WatermarkType.OBS)));
+	}
+	
+	/**
+	 * @see CaseReportService#evaluateTriggerQuery(String, String, Map, int)
+	 * @verifies return the patients matched by the query
+	 */
+	@Test
+	public void evaluateTriggerQuery_shouldReturnThePatientsMatchedByTheQuery() throws Exception {
+		Map<String, Object> params = new HashMap<>();
+		params.put("patientId", 7);
+		Cohort cohort = service.evaluateTriggerQuery("some trigger",
+		    "select patient_id from patient where patient_id = :patientId", params, 30);
+		assertEquals(1, cohort.size());
+		assertTrue(cohort.contains(7));
+	}
+	
+	/**
+	 * @see CaseReportService#cancelTriggerEvaluation(String)
+	 * @verifies return false if the trigger is not being evaluated
+	 */
+	@Test
+	public void cancelTriggerEvaluation_shouldReturnFalseIfTheTriggerIsNotBeingEvaluated() throws Exception {
+		assertFalse(service.cancelTriggerEvaluation("some trigger"));
+	}
+	
+	/**
+	 * @see CaseReportService#acquireTriggerLease(String, String, int)
+	 * @verifies acquire a lease that does not exist
+	 */
+	@Test
+	public void acquireTriggerLease_shouldAcquireALeaseThatDoesNotExist() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#acquireTriggerLease(String, String, int)
+	 * @verifies renew a lease held by the same owner
+	 */
+	@Test
+	public void acquireTriggerLease_shouldRenewALeaseHeldByTheSameOwner() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#acquireTriggerLease(String, String, int)
+	 * @verifies not acquire a lease held by another owner
+	 */
+	@Test
+	public void acquireTriggerLease_shouldNotAcquireALeaseHeldByAnotherOwner() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+		assertFalse(service.acquireTriggerLease("some trigger", "node2", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#acquireTriggerLease(String, String, int)
+	 * @verifies acquire an expired lease held by another owner
+	 */
+	@Test
+	public void acquireTriggerLease_shouldAcquireAnExpiredLeaseHeldByAnotherOwner() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", -60));
+		assertTrue(service.acquireTriggerLease("some trigger", "node2", 60));
+		assertFalse(service.acquireTriggerLease("some trigger", "node1", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#releaseTriggerLease(String, String)
+	 * @verifies release a lease held by the owner
+	 */
+	@Test
+	public void releaseTriggerLease_shouldReleaseALeaseHeldByTheOwner() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+		service.releaseTriggerLease("some trigger", "node1");
+		assertTrue(service.acquireTriggerLease("some trigger", "node2", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#releaseTriggerLease(String, String)
+	 * @verifies not release a lease held by another owner
+	 */
+	@Test
+	public void releaseTriggerLease_shouldNotReleaseALeaseHeldByAnotherOwner() throws Exception {
+		assertTrue(service.acquireTriggerLease("some trigger", "node1", 60));
+		service.releaseTriggerLease("some trigger", "node2");
+		assertFalse(service.acquireTriggerLease("some trigger", "node2", 60));
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsToPrefetch(int)
+	 * @verifies return the queued reports with no prefetched form
+	 */
+	@Test
+	public void getCaseReportsToPrefetch_shouldReturnTheQueuedReportsWithNoPrefetchedForm() throws Exception {
+		List<CaseReport> caseReports = service.getCaseReportsToPrefetch(10);
+		assertEquals(2, caseReports.size());
+		assertEquals(1, caseReports.get(0).getId().intValue());
+		assertEquals(4, caseReports.get(1).getId().intValue());
+		
+		service.savePrefetchedReportForm(service.getCaseReport(1), "{}");
+		caseReports = service.getCaseReportsToPrefetch(10);
+		assertEquals(1, caseReports.size());
+		assertEquals(4, caseReports.get(0).getId().intValue());
+		assertEquals(1, service.getCaseReportsToPrefetch(1).size());
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsToPrefetch(int)
+	 * @verifies return the reports with a trigger added after the form was prefetched
+	 */
+	@Test
+	public void getCaseReportsToPrefetch_shouldReturnTheReportsWithATriggerAddedAfterTheFormWasPrefetched()
+	    throws Exception {
+		CaseReport caseReport = service.getCaseReport(1);
+		service.savePrefetchedReportForm(caseReport, "{}");
+		service.savePrefetchedReportForm(service.getCaseReport(4), "{}");
+		assertTrue(service.getCaseReportsToPrefetch(10).isEmpty());
+		
+		CaseReportTrigger trigger = new CaseReportTrigger("Some new trigger");
+		trigger.setCreator(Context.getAuthenticatedUser());
+		trigger.setDateCreated(DateUtils.addMinutes(caseReport.getDatePrefetched(), 1));
+		caseReport.addTrigger(trigger);
+		service.saveCaseReport(caseReport);
+		List<CaseReport> caseReports = service.getCaseReportsToPrefetch(10);
+		assertEquals(1, caseReports.size());
+		assertEquals(caseReport, caseReports.get(0));
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportsToPrefetch(int)
+	 * @verifies exclude the reports with a saved report form
+	 */
+	@Test
+	public void getCaseReportsToPrefetch_shouldExcludeTheReportsWithASavedReportForm() throws Exception {
+		CaseReport caseReport = service.getCaseReport(2);
+		assertEquals(Status.DRAFT, caseReport.getStatus());
+		assertTrue(StringUtils.isNotBlank(caseReport.getReportForm()));
+		assertFalse(service.getCaseReportsToPrefetch(10).contains(caseReport));
+	}
+	
+	/**
+	 * @see CaseReportService#getQueuedPatientIdsWithNewData(WatermarkType, Long, Long,
+	 *      java.util.Collection)
+	 * @verifies return the queued patients with new obs for the concepts
+	 */
+	@Test
+	public void getQueuedPatientIdsWithNewData_shouldReturnTheQueuedPatientsWithNewObsForTheConcepts()
+	    throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		//patient 7 has a viral load too but no queued report
+		assertEquals(Collections.singletonList(2),
+		    service.getQueuedPatientIdsWithNewData(WatermarkType.OBS, 7999L, 8100L, Collections.singletonList(1000)));
+		assertTrue(service.getQueuedPatientIdsWithNewData(WatermarkType.OBS, 8005L, 8100L,
+		    Collections.singletonList(1000)).isEmpty());
+		assertTrue(service.getQueuedPatientIdsWithNewData(WatermarkType.OBS, 7000L, 7999L,
+		    Collections.singletonList(1000)).isEmpty());
+	}
+	
+	/**
+	 * @see CaseReportService#getQueuedPatientIdsWithNewData(WatermarkType, Long, Long,
+	 *      java.util.Collection)
+	 * @verifies fail for an unsupported watermark type
+	 */
+	@Test
+	public void getQueuedPatientIdsWithNewData_shouldFailForAnUnsupportedWatermarkType() throws Exception {
+		expectedException.expect(APIException.class);
+		expectedException.expectMessage(equalTo("Finding queued patients with new data is not supported for ENCOUNTER"));
+		service.getQueuedPatientIdsWithNewData(WatermarkType.ENCOUNTER, 0L, 100L, Collections.singletonList(1000));
+	}
+	
+	/**
+	 * @see CaseReportService#hasPatientDataChangedSince(Integer, Date)
+	 * @verifies return true if an obs of the patient was voided after the date
+	 */
+	@Test
+	public void hasPatientDataChangedSince_shouldReturnTrueIfAnObsOfThePatientWasVoidedAfterTheDate() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		Date date = DateUtils.addSeconds(new Date(), -1);
+		assertFalse(service.hasPatientDataChangedSince(2, date));
+		
+		Context.getObsService().voidObs(Context.getObsService().getObs(8003), "testing");
+		assertTrue(service.hasPatientDataChangedSince(2, date));
+	}
+	
+	/**
+	 * @see CaseReportService#hasPatientDataChangedSince(Integer, Date)
+	 * @verifies return false if no data of the patient changed after the date
+	 */
+	@Test
+	public void hasPatientDataChangedSince_shouldReturnFalseIfNoDataOfThePatientChangedAfterTheDate() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		assertFalse(service.hasPatientDataChangedSince(2, DateUtils.addSeconds(new Date(), -1)));
+		assertTrue(service.hasPatientDataChangedSince(2, new Date(0)));
+	}
+	
+	/**
+	 * @see CaseReportService#savePrefetchedReportForm(CaseReport, String)
+	 * @verifies save the prefetched form and the date
+	 */
+	@Test
+	public void savePrefetchedReportForm_shouldSaveThePrefetchedFormAndTheDate() throws Exception {
+		CaseReport caseReport = service.getCaseReport(1);
+		assertNull(caseReport.getPrefetchedForm());
+		assertNull(caseReport.getDatePrefetched());
+		
+		service.savePrefetchedReportForm(caseReport, "{\"fullName\":\"Horatio Hornblower\"}");
+		Context.flushSession();
+		Context.clearSession();
+		caseReport = service.getCaseReport(1);
+		assertEquals("{\"fullName\":\"Horatio Hornblower\"}", caseReport.getPrefetchedForm());
+		assertNotNull(caseReport.getDatePrefetched());
+		assertNull(caseReport.getDateChanged());
+		assertNull(caseReport.getReportForm());
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientClinicalSummary(Integer)
+	 * @verifies return the clinical summary of the patient
+	 */
+	@Test
+	public void getPatientClinicalSummary_shouldReturnTheClinicalSummaryOfThePatient() throws Exception {
+		PatientClinicalSummary summary = new PatientClinicalSummary(2);
+		summary.setViralLoad(53.0);
+		service.savePatientClinicalSummary(summary);
+		assertEquals(summary, service.getPatientClinicalSummary(2));
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientClinicalSummary(Integer)
+	 * @verifies return null for a patient with no clinical summary
+	 */
+	@Test
+	public void getPatientClinicalSummary_shouldReturnNullForAPatientWithNoClinicalSummary() throws Exception {
+		assertNull(service.getPatientClinicalSummary(2));
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientClinicalSummaries(java.util.Collection)
+	 * @verifies return the clinical summaries of the patients
+	 */
+	@Test
+	public void getPatientClinicalSummaries_shouldReturnTheClinicalSummariesOfThePatients() throws Exception {
+		service.savePatientClinicalSummary(new PatientClinicalSummary(2));
+		service.savePatientClinicalSummary(new PatientClinicalSummary(6));
+		service.savePatientClinicalSummary(new PatientClinicalSummary(7));
+		List<PatientClinicalSummary> summaries = service.getPatientClinicalSummaries(Arrays.asList(2, 7, 9999));
+		assertEquals(2, summaries.size());
+		assertTrue(TestUtil.containsId(summaries, service.getPatientClinicalSummary(2).getId()));
+		assertTrue(TestUtil.containsId(summaries, service.getPatientClinicalSummary(7).getId()));
+	}
+	
+	/**
+	 * @see CaseReportService#savePatientClinicalSummary(PatientClinicalSummary)
+	 * @verifies save the clinical summary
+	 */
+	@Test
+	public void savePatientClinicalSummary_shouldSaveTheClinicalSummary() throws Exception {
+		PatientClinicalSummary summary = new PatientClinicalSummary(2);
+		summary.setCd4Count(1010.0);
+		summary.setArvOrderIdList(Arrays.asList(10000, 10001));
+		service.savePatientClinicalSummary(summary);
+		assertNotNull(summary.getId());
+		assertNotNull(summary.getDateUpdated());
+		
+		Context.flushSession();
+		Context.clearSession();
+		summary = service.getPatientClinicalSummary(2);
+		assertEquals(1010.0, summary.getCd4Count(), 0);
+		assertEquals("10000,10001", summary.getArvOrderIds());
+	}
+	
+	/**
+	 * @see CaseReportService#getPatientIds(Integer, int)
+	 * @verifies return the ids of the patients after the specified id
+	 */
+	@Test
+	public void getPatientIds_shouldReturnTheIdsOfThePatientsAfterTheSpecifiedId() throws Exception {
+		List<Integer> patientIds = service.getPatientIds(0, Integer.MAX_VALUE);
+		assertTrue(patientIds.size() > 2);
+		assertEquals(patientIds.subList(1, 3), service.getPatientIds(patientIds.get(0), 2));
+		for (Integer patientId : patientIds) {
+			assertFalse(Context.getPatientService().getPatient(patientId).isVoided());
+		}
+	}
+	
+	/**
+	 * @see CaseReportService#getCaseReportIdsWithStoredForms(Integer, int)
+	 * @verifies return the ids of the case reports with stored forms
+	 */
+	@Test
+	public void getCaseReportIdsWithStoredForms_shouldReturnTheIdsOfTheCaseReportsWithStoredForms() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		assertEquals(Arrays.asList(2, 200, 201), service.getCaseReportIdsWithStoredForms(0, Integer.MAX_VALUE));
+		assertEquals(Arrays.asList(200), service.getCaseReportIdsWithStoredForms(2, 1));
+	}
+	
+	/**
+	 * @see CaseReportService#reencodeStoredForms(java.util.Collection)
+	 * @verifies rewrite the forms with the current encoding
+	 */
+	@Test
+	public void reencodeStoredForms_shouldRewriteTheFormsWithTheCurrentEncoding() throws Exception {
+		executeDataSet(XML_OTHER_DATASET);
+		final String form = service.getCaseReport(200).getReportForm();
+		ReportFormStorageCodec.start();
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(CaseReportConstants.GP_COMPRESS_REPORT_FORMS, "true"));
+		try {
+			assertEquals(0, service.reencodeStoredForms(Collections.<Integer> emptyList()));
+			//The form of report 2 is too short to be compressed
+			assertEquals(2, service.reencodeStoredForms(Arrays.asList(2, 200, 201)));
+			assertEquals(0, service.reencodeStoredForms(Arrays.asList(2, 200, 201)));
+			Context.clearSession();
+			assertEquals(form, service.getCaseReport(200).getReportForm());
+		}
+		finally {
+			Context.getAdministrationService().saveGlobalProperty(
+			    new GlobalProperty(CaseReportConstants.GP_COMPRESS_REPORT_FORMS, "false"));
+		}
+	}
 }
@@ -73,7 +73,6 @@ import org.marc.everest.rmim.uv.cdar2.vocabulary.x_BasicConfidentialityKind;
 import org.openmrs.Concept;
 import org.openmrs.ConceptMap;
 import org.openmrs.Drug;
-import org.openmrs.Obs;
 import org.openmrs.PersonName;
 import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
@@ -217,7 +216,7 @@ public final class ClinicalDocumentGenerator {
 		patient.setAdministrativeGenderCode(gender);
 		if (form.getBirthdate() != null) {
 			Calendar calendar = Calendar.getInstance();
-			calendar.setTime(CaseReportConstants.DATE_FORMATTER.parse(form.getBirthdate()));
+			calendar.setTime(CaseReportConstants.DATE_FORMAT.parse(form.getBirthdate()));
 			patient.setBirthTime(calendar);
 		}
 		PatientRole patientRole = new PatientRole();
@@ -323,7 +322,7 @@ public final class ClinicalDocumentGenerator {
 		if (form.getLastVisitDate() != null) {
 			CD<String> question = createCielCD(CaseReportConstants.CIEL_CODE_DATE_OF_LAST_VISIT);
 			UuidAndValue uValue = form.getLastVisitDate();
-			Date visitDate = CaseReportConstants.DATE_FORMATTER.parse(uValue.getValue().toString());
+			Date visitDate = CaseReportConstants.DATE_FORMAT.parse(uValue.getValue().toString());
 			TS visitDateTS = DocumentUtil.createTS(visitDate);
 			entries.add(createObservationEntry(question, visitDateTS, uValue.getValue().toString()));
 		}
@@ -381,8 +380,8 @@ public final class ClinicalDocumentGenerator {
 	private Entry createEntryFromCielQuestionCodeAndObsWithCodedValue(String cielQuestionCode, UuidAndValue codedObsValue)
 	    throws ParseException {
 		
-		Obs obs = Context.getObsService().getObsByUuid(codedObsValue.getUuid());
-		if (obs == null) {
+		ClinicalFact fact = Context.getService(CaseReportService.class).getClinicalFactByUuid(codedObsValue.getUuid());
+		if (fact == null) {
 			throw new APIException("Failed to find Obs with uuid:" + codedObsValue.getUuid());
 		}
 		
@@ -391,11 +390,11 @@ public final class ClinicalDocumentGenerator {
 			dValue = (DatedUuidAndValue) codedObsValue;
 		} else {
 			dValue = new DatedUuidAndValue(codedObsValue);
-			dValue.setDate(CaseReportConstants.DATE_FORMATTER.format(obs.getObsDatetime()));
+			dValue.setDate(CaseReportConstants.DATE_FORMAT.format(fact.getObsDatetime()));
 		}
 		String name = dValue.getValue().toString();
 		
-		return createEntryFromCielQuestionCodeAndCodedValue(cielQuestionCode, obs.getValueCoded(), dValue.getDate(), name);
+		return createEntryFromCielQuestionCodeAndCodedValue(cielQuestionCode, fact.getValueCoded(), dValue.getDate(), name);
 	}
 	
 	/**
@@ -431,7 +430,7 @@ public final class ClinicalDocumentGenerator {
 		
 		Date obsDate = null;
 		if (StringUtils.isNotBlank(obsDatetimeStr)) {
-			obsDate = CaseReportConstants.DATE_FORMATTER.parse(obsDatetimeStr);
+			obsDate = CaseReportConstants.DATE_FORMAT.parse(obsDatetimeStr);
 		}
 		Observation observation = createObservation(obsQuestion, obsValue, obsDate, ActStatus.Completed);
 		
@@ -40,9 +40,15 @@ public class DocumentUtil {
 	//The count of decimal numbers that can be represented with 128 bits, i.e. 2 power 128
 	private static final BigInteger DECIMAL_REP_COUNT = BigInteger.ONE.shiftLeft(128);
 	
-	//Formatter used to print dates in text sections that are human readable
+	/**
+	 * @deprecated SimpleDateFormat isn't thread safe, use {@link #DISPLAY_DATE_FORMAT} instead
+	 */
+	@Deprecated
 	public static final DateFormat DATE_FORMATTER = new SimpleDateFormat("dd-MMM-yyyy h a zzz");
 	
+	//Format used to print dates in text sections that are human readable
+	public static final ThreadSafeDateFormat DISPLAY_DATE_FORMAT = new ThreadSafeDateFormat("dd-MMM-yyyy h a zzz");
+	
 	private static final HashMap<String, String> codeLocalizedStringMap = new HashMap();
 	
 	static {
@@ -92,15 +98,15 @@ public class DocumentUtil {
 	
 	/**
 	 * Reformats the specified serialized date string to a human readable format, assumes the string
-	 * had previously been formatted with CaseReportConstants.DATE_FORMATTER
+	 * had previously been formatted with CaseReportConstants.DATE_FORMAT
 	 * 
 	 * @param dateString the date string to format
 	 * @return a human readable date
 	 * @throws ParseException
 	 */
 	public static String getDisplayDate(String dateString) throws ParseException {
-		Date date = CaseReportConstants.DATE_FORMATTER.parse(dateString);
-		return DATE_FORMATTER.format(date);
+		Date date = CaseReportConstants.DATE_FORMAT.parse(dateString);
+		return DISPLAY_DATE_FORMAT.format(date);
 	}
 	
 	/**
@@ -11,9 +11,9 @@ package org.openmrs.module.casereport;
 import javax.xml.bind.JAXBElement;
 import javax.xml.transform.Result;
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -34,7 +34,6 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.dcm4chee.xds2.common.XDSConstants;
 import org.dcm4chee.xds2.infoset.ihe.ObjectFactory;
 import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
@@ -113,9 +112,10 @@ public class HealthInfoExchangeListener implements ApplicationListener<CaseRepor
 
 	private final ObjectFactory objectFactory = new ObjectFactory();
 
-	private final SimpleDateFormat sqlDateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private static final ThreadSafeDateFormat sqlDateFormatter = new ThreadSafeDateFormat("yyyy-MM-dd HH:mm:ss");
 
-	private final SimpleDateFormat localeDateformatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+	private static final ThreadSafeDateFormat localeDateformatter = new ThreadSafeDateFormat(
+	        "yyyy-MM-dd'T'HH:mm:ss.SSSZ", TimeZone.getTimeZone("GMT"), Locale.US);
 
 	@Autowired
 	FhirEncounterService fhirEncounterService;
@@ -152,7 +152,6 @@ public class HealthInfoExchangeListener implements ApplicationListener<CaseRepor
 	 */
 	@Override
 	public void onApplicationEvent(CaseReportSubmittedEvent event) {
-		localeDateformatter.setTimeZone(TimeZone.getTimeZone("GMT"));
 		//Get the format
 		String format = DocumentUtil.getCaseReportFormat();
 		CaseReport caseReport = (CaseReport) event.getSource();
@@ -169,7 +168,7 @@ public class HealthInfoExchangeListener implements ApplicationListener<CaseRepor
 					response = "";
 				}
 			} else {
-				CaseReportForm form = new ObjectMapper().readValue(caseReport.getReportForm(), CaseReportForm.class);
+				CaseReportForm form = CaseReportFormCodec.read(caseReport.getReportForm());
 				form.setReportUuid(caseReport.getUuid());
 				form.setReportDate(caseReport.getDateCreated());
 				ProvideAndRegisterDocumentSetRequestType docRequest = new ProvideAndRegisterDocGenerator(form).generate();
@@ -187,9 +186,11 @@ public class HealthInfoExchangeListener implements ApplicationListener<CaseRepor
 			//for demo, use the event date as resolution date instead of current datetime
 			if (Context.getAdministrationService().getGlobalProperty(CaseReportWebConstants.ORG_NAME).toLowerCase()
 					.contains("demo")) {
-				CaseReportForm form = new ObjectMapper().readValue(caseReport.getReportForm(), CaseReportForm.class);
-				DatedUuidAndValue triggerValue = form.getTriggers().get(0);
-				Date resolutionDate = updateTriggerDate(triggerValue.getValue(), caseReport.getPatient().getId(), form);
+				//Only the fields needed to find the event date are read from the form
+				DatedUuidAndValue triggerValue = CaseReportFormCodec.readFields(caseReport.getReportForm(), "triggers")
+				        .getTriggers().get(0);
+				Date resolutionDate = updateTriggerDate(triggerValue.getValue(), caseReport.getPatient().getId(),
+				    caseReport.getReportForm());
 				caseReport.setResolutionDate(resolutionDate);
 			}
 
@@ -647,24 +648,27 @@ public class HealthInfoExchangeListener implements ApplicationListener<CaseRepor
 		return identifier;
 	}
 
-	private Date updateTriggerDate(Object value, Integer patientId, CaseReportForm form) throws Exception {
+	private Date updateTriggerDate(Object value, Integer patientId, String reportForm) throws Exception {
 		String triggerName = (String) value;
 
 		String date = null;
 		if (triggerName.equals("HIV First CD4 Count")) {
+			CaseReportForm form = CaseReportFormCodec.readFields(reportForm, "mostRecentCd4Counts");
 			date = sqlDateFormatter.format(localeDateformatter.parse(form.getMostRecentCd4Count().getDate()));
 		} else if (triggerName.equals("New HIV Case")) {
+			CaseReportForm form = CaseReportFormCodec.readFields(reportForm, "mostRecentHivTests");
 			date = sqlDateFormatter.format(localeDateformatter.parse(form.getMostRecentHivTest().getDate()));
 		} else if (triggerName.equals("New HIV Treatment")) {
-			Person person = new Person(patientId);
-			Concept concept = new Concept(1255);
-			List<Obs> obs = Context.getObsService().getObservationsByPersonAndConcept(person, concept);
-			if (obs.size() > 0) {
-				date = sqlDateFormatter.format(obs.get(0).getObsDatetime());
+			List<ClinicalFact> facts = Context.getService(CaseReportService.class).getLatestClinicalFacts(
+			    Collections.singleton(patientId), Collections.singleton(new Concept(1255)), 1);
+			if (facts.size() > 0) {
+				date = sqlDateFormatter.format(facts.get(0).getObsDatetime());
 			}
 		} else if (triggerName.equals("HIV Treatment Failure")) {
+			CaseReportForm form = CaseReportFormCodec.readFields(reportForm, "mostRecentViralLoads");
 			date = sqlDateFormatter.format(localeDateformatter.parse(form.getMostRecentViralLoad().getDate()));
 		} else if (triggerName.equals("HIV Patient Died")) {
+			CaseReportForm form = CaseReportFormCodec.readFields(reportForm, "deathdate");
 			date = sqlDateFormatter.format(localeDateformatter.parse(form.getDeathdate()));
 		} else {
 			date = sqlDateFormatter.format(new Date());
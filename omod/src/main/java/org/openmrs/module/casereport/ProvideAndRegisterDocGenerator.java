@@ -244,7 +244,7 @@ public final class ProvideAndRegisterDocGenerator {
 		}
 		patientInfoList.add(String.format(DocumentConstants.PID_5_PATTERN, fName, gName, mName));
 		if (form.getBirthdate() != null) {
-			Date bDate = CaseReportConstants.DATE_FORMATTER.parse(form.getBirthdate());
+			Date bDate = CaseReportConstants.DATE_FORMAT.parse(form.getBirthdate());
 			//The XDS repository expects birth date set to day precision
 			patientInfoList.add(String.format(DocumentConstants.PID_7_PATTERN, DocumentUtil.createTS(bDate, TS.DAY)));
 		}
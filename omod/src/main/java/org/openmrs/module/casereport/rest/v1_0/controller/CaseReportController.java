@@ -25,8 +25,10 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.xml.serializer.OutputPropertiesFactory;
 import org.dcm4chee.xds2.infoset.ihe.ProvideAndRegisterDocumentSetRequestType;
 import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.casereport.CaseReport;
 import org.openmrs.module.casereport.CaseReportConstants;
+import org.openmrs.module.casereport.ConceptMappingCache;
 import org.openmrs.module.casereport.DocumentUtil;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.casereport.rest.CaseReportRestConstants;
@@ -64,6 +66,25 @@ public class CaseReportController extends MainResourceController {
 		return CaseReportRestConstants.REST_NAMESPACE;
 	}
 	
+	@RequestMapping(value = "/trigger/{name}/cancel", method = RequestMethod.POST)
+	@ResponseBody
+	public Object cancelTriggerEvaluation(@PathVariable("name") String name) {
+		SimpleObject so = new SimpleObject();
+		so.add("cancelled", service.cancelTriggerEvaluation(name));
+		return so;
+	}
+	
+	@RequestMapping(value = "/conceptmappingcache", method = RequestMethod.GET)
+	@ResponseBody
+	public Object getConceptMappingCacheStats() {
+		Context.requirePrivilege(CaseReportConstants.PRIV_MANAGE_CASE_REPORTS);
+		SimpleObject so = new SimpleObject();
+		so.add("hits", ConceptMappingCache.getHits());
+		so.add("misses", ConceptMappingCache.getMisses());
+		so.add("size", ConceptMappingCache.size());
+		return so;
+	}
+	
 	@RequestMapping(value = "/" + CaseReportConstants.MODULE_ID + "/{uuid}/document", method = RequestMethod.GET)
 	@ResponseBody
 	public Object getSubmittedCDAContents(@PathVariable("uuid") String uuid) {
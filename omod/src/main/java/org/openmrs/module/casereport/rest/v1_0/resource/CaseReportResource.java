@@ -11,17 +11,18 @@ package org.openmrs.module.casereport.rest.v1_0.resource;
 
 import static org.openmrs.module.casereport.CaseReport.Status;
 
-import java.io.IOException;
 
 import org.apache.commons.lang3.StringUtils;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.Patient;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.casereport.CaseReport;
 import org.openmrs.module.casereport.CaseReportConstants;
 import org.openmrs.module.casereport.CaseReportForm;
+import org.openmrs.module.casereport.CaseReportFormCodec;
 import org.openmrs.module.casereport.CaseReportTrigger;
 import org.openmrs.module.casereport.CaseReportUtil;
+import org.openmrs.module.casereport.ReportFormPrefetcher;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.casereport.rest.CaseReportRestConstants;
 import org.openmrs.module.casereport.rest.CaseReportRestException;
@@ -118,12 +119,15 @@ public class CaseReportResource extends DataDelegatingCrudResource<CaseReport> {
 	public CaseReportForm getReportForm(CaseReport delegate) {
 		CaseReportForm form;
 		if (StringUtils.isBlank(delegate.getReportForm())) {
-			form = new CaseReportForm(delegate);
+			form = ReportFormPrefetcher.getPrefetchedForm(delegate);
+			if (form == null) {
+				form = new CaseReportForm(delegate);
+			}
 		} else {
 			try {
-				form = new ObjectMapper().readValue(delegate.getReportForm(), CaseReportForm.class);
+				form = CaseReportFormCodec.read(delegate.getReportForm());
 			}
-			catch (IOException e) {
+			catch (APIException e) {
 				throw new GenericRestException("Failed to parse report form data", e);
 			}
 		}
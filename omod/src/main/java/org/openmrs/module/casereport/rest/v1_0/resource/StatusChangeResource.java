@@ -9,12 +9,10 @@
  */
 package org.openmrs.module.casereport.rest.v1_0.resource;
 
-import java.io.IOException;
 
-import org.codehaus.jackson.map.ObjectMapper;
-import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.casereport.CaseReport;
+import org.openmrs.module.casereport.CaseReportFormCodec;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.casereport.rest.StatusChange;
 import org.openmrs.module.webservices.rest.web.RequestContext;
@@ -56,12 +54,7 @@ public class StatusChangeResource extends DelegatingSubResource<StatusChange, Ca
 	public StatusChange save(StatusChange delegate) {
 		if (StatusChange.Action.SUBMIT == delegate.getAction()) {
 			CaseReport caseReport = getParent(delegate);
-			try {
-				caseReport.setReportForm(new ObjectMapper().writeValueAsString(delegate.getReportForm()));
-			}
-			catch (IOException e) {
-				throw new APIException("Failed to serialize case report form data", e);
-			}
+			caseReport.setReportForm(CaseReportFormCodec.write(delegate.getReportForm()));
 			Context.getService(CaseReportService.class).submitCaseReport(caseReport);
 		} else if (StatusChange.Action.DISMISS == delegate.getAction()) {
 			Context.getService(CaseReportService.class).dismissCaseReport(getParent(delegate));
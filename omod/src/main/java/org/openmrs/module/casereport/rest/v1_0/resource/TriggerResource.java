@@ -11,6 +11,8 @@ package org.openmrs.module.casereport.rest.v1_0.resource;
 
 import org.openmrs.api.context.Context;
 import org.openmrs.module.casereport.Trigger;
+import org.openmrs.module.casereport.TriggerQuarantine;
+import org.openmrs.module.casereport.TriggerQueryGuard;
 import org.openmrs.module.casereport.api.CaseReportService;
 import org.openmrs.module.casereport.rest.CaseReportRestConstants;
 import org.openmrs.module.webservices.rest.web.RequestContext;
@@ -35,6 +37,8 @@ public class TriggerResource extends DelegatingCrudResource<Trigger> {
 		DelegatingResourceDescription description = new DelegatingResourceDescription();
 		description.addRequiredProperty("name");
 		description.addProperty("display");
+		description.addProperty("running");
+		description.addProperty("degraded");
 		return description;
 	}
 	
@@ -51,6 +55,16 @@ public class TriggerResource extends DelegatingCrudResource<Trigger> {
 		return delegate.getName();
 	}
 	
+	@PropertyGetter("running")
+	public Boolean isRunning(Trigger delegate) {
+		return TriggerQueryGuard.isRunning(delegate.getName());
+	}
+	
+	@PropertyGetter("degraded")
+	public Boolean isDegraded(Trigger delegate) {
+		return TriggerQuarantine.isDegraded(delegate.getName());
+	}
+	
 	/**
 	 * @see DelegatingCrudResource#getByUniqueId(String)
 	 */
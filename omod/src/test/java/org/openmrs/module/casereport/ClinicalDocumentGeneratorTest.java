@@ -58,7 +58,7 @@ public class ClinicalDocumentGeneratorTest extends BaseModuleWebContextSensitive
 		CaseReport caseReport = Context.getService(CaseReportService.class).getCaseReport(1);
 		Patient patient = caseReport.getPatient();
 		patient.setDead(true);
-		patient.setDeathDate(CaseReportConstants.DATE_FORMATTER.parse("2016-03-20T00:00:00.000-0400"));
+		patient.setDeathDate(CaseReportConstants.DATE_FORMAT.parse("2016-03-20T00:00:00.000-0400"));
 		ConceptService cs = Context.getConceptService();
 		Concept causeOfDeath = cs.getConcept(22);
 		causeOfDeath.addConceptMapping(new ConceptMap(new ConceptReferenceTerm(cs
@@ -28,8 +28,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.openmrs.Patient;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.casereport.CaseReport;
+import org.openmrs.module.casereport.CaseReportUtil;
+import org.openmrs.module.casereport.ConceptMappingCache;
 import org.openmrs.module.casereport.DocumentConstants;
 import org.openmrs.module.casereport.DocumentUtil;
 import org.openmrs.module.casereport.api.CaseReportService;
@@ -86,6 +89,24 @@ public class CaseReportControllerTest extends BaseCaseReportRestControllerTest {
 		assertEquals(2, ((List) Util.getByPath(newReportItem, "reportTriggers")).size());
 	}
 	
+	@Test
+	public void shouldGetTheConceptMappingCacheStats() throws Exception {
+		ConceptMappingCache.clear();
+		CaseReportUtil.getConceptByMapping("856", "CIEL");
+		CaseReportUtil.getConceptByMapping("856", "CIEL");
+		SimpleObject result = deserialize(handle(newGetRequest("conceptmappingcache")));
+		assertEquals(1, ((Number) result.get("size")).intValue());
+		assertTrue(((Number) result.get("hits")).longValue() > 0);
+		assertTrue(((Number) result.get("misses")).longValue() > 0);
+	}
+	
+	@Test
+	public void shouldRequireTheManageCaseReportsPrivilegeToGetTheConceptMappingCacheStats() throws Exception {
+		Context.logout();
+		expectedException.expect(APIException.class);
+		handle(newGetRequest("conceptmappingcache"));
+	}
+	
 	@Test
 	public void shouldGetACaseReportByUuid() throws Exception {
 		SimpleObject result = deserialize(handle(newGetRequest(getURI() + "/" + getUuid())));
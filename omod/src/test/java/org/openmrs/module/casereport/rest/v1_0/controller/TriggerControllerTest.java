@@ -11,6 +11,9 @@ package org.openmrs.module.casereport.rest.v1_0.controller;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -72,4 +75,18 @@ public class TriggerControllerTest extends BaseCaseReportRestControllerTest {
 		SimpleObject responseData = deserialize(handle(newGetRequest(getURI())));
 		assertEquals(4, Util.getResultsSize(responseData));
 	}
+	
+	@Test
+	public void shouldIncludeTheRunningAndDegradedStatusOfTheTriggers() throws Exception {
+		SimpleObject responseData = deserialize(handle(newGetRequest(getURI())));
+		List<Map<String, Object>> results = (List<Map<String, Object>>) Util.getByPath(responseData, "results");
+		assertEquals(false, results.get(0).get("running"));
+		assertEquals(false, results.get(0).get("degraded"));
+	}
+	
+	@Test
+	public void shouldReturnFalseWhenCancellingATriggerThatIsNotRunning() throws Exception {
+		SimpleObject responseData = deserialize(handle(newPostRequest(getURI() + "/New HIV Case/cancel", "{}")));
+		assertEquals(false, responseData.get("cancelled"));
+	}
 }